@@ -0,0 +1,1401 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+package gov.nist.itl.wsbd.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+import javax.xml.bind.JAXBException;
+
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.CompletionHandler;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.WriteResult;
+import org.glassfish.grizzly.filterchain.BaseFilter;
+import org.glassfish.grizzly.filterchain.FilterChainBuilder;
+import org.glassfish.grizzly.filterchain.FilterChainContext;
+import org.glassfish.grizzly.filterchain.NextAction;
+import org.glassfish.grizzly.filterchain.TransportFilter;
+import org.glassfish.grizzly.http.HttpClientFilter;
+import org.glassfish.grizzly.http.HttpContent;
+import org.glassfish.grizzly.http.HttpRequestPacket;
+import org.glassfish.grizzly.http.HttpResponsePacket;
+import org.glassfish.grizzly.http.Protocol;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
+import org.glassfish.grizzly.strategies.SameThreadIOStrategy;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.SensorStatus;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
+
+import gov.nist.itl.wsbd.client.StatelessClient.ClientConfiguration;
+import gov.nist.itl.wsbd.client.StatelessClient.DownloadHandler;
+import gov.nist.itl.wsbd.client.StatelessClient.Step;
+import gov.nist.itl.wsbd.codec.CborCodec;
+import gov.nist.itl.wsbd.service.DownloadMode;
+import gov.nist.itl.wsbd.service.SensorEvent;
+import gov.nist.itl.wsbd.service.Utility;
+import gov.nist.itl.wsbd.service.WorkflowOperation;
+import gov.nist.itl.wsbd.streaming.StreamVariant;
+
+/**
+ * Represents: a client which calls the WSBD methods without blocking. Every
+ * method returns at once with a future that completes when the service
+ * responds. The calls are made with non-blocking I/O: a few I/O threads (see
+ * {@link ClientConfiguration#asyncThreads()}) read and write all the
+ * connections, so no thread waits for a call in progress, and one client can
+ * drive many sensors at once. A future fails with an {@link IOException} if
+ * the service returns an HTTP error or the connection fails or times out, or
+ * with a {@link JAXBException} if the response cannot be read. Canceling a
+ * future closes its connection.<br>
+ * The futures are completed on the I/O threads, so the actions chained to
+ * them with the methods of {@link CompletableFuture} which are not
+ * <code>Async</code> run on an I/O thread too, and must not block. Only
+ * <code>http</code> URLs are supported.
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class AsyncClient implements AutoCloseable {
+
+	/**
+	 * The address of the service
+	 */
+	private final InetSocketAddress address;
+	/**
+	 * The value of the <code>Host</code> header
+	 */
+	private final String host;
+	/**
+	 * The path of the service. Does not contain a trailing slash.
+	 */
+	private final String basePath;
+	/**
+	 * The configuration
+	 */
+	private final ClientConfiguration configuration;
+	/**
+	 * The transport which does all the I/O
+	 */
+	private final TCPNIOTransport transport;
+	/**
+	 * Times out connects and reads
+	 */
+	private final ScheduledThreadPoolExecutor timer;
+	/**
+	 * The exchange in progress on each connection
+	 */
+	private final Map<Connection<?>, Exchange<?>> exchanges;
+	/**
+	 * The open connections with no exchange in progress, most recently used
+	 * first. Only used if keep alive is on.
+	 */
+	private final Deque<Idle> idle;
+	/**
+	 * The time after which an idle connection is closed instead of reused,
+	 * since the service may be about to close it
+	 */
+	private static final Duration maxIdleTime = Duration.ofSeconds(10);
+
+	/**
+	 * Creates: a new client for the service at the specified URL. It does not
+	 * matter if the base URL has or does not have a trailing slash.
+	 *
+	 * @param baseUrl
+	 *            the base URL
+	 * @throws IllegalArgumentException
+	 *             if the base URL is malformed or is not an <code>http</code>
+	 *             URL
+	 * @throws IllegalStateException
+	 *             if the I/O threads cannot be started
+	 */
+	public AsyncClient(String baseUrl) {
+		this(baseUrl, new ClientConfiguration());
+	}
+
+	/**
+	 * Creates: a new client for the service at the specified URL using the
+	 * specified connection settings. It does not matter if the base URL has or
+	 * does not have a trailing slash.
+	 *
+	 * @param baseUrl
+	 *            the base URL
+	 * @param configuration
+	 *            the configuration
+	 * @throws IllegalArgumentException
+	 *             if the base URL is malformed or is not an <code>http</code>
+	 *             URL
+	 * @throws IllegalStateException
+	 *             if the I/O threads cannot be started
+	 */
+	public AsyncClient(String baseUrl, ClientConfiguration configuration) {
+		URI uri = URI.create(baseUrl);
+		if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+			throw new IllegalArgumentException("Not an http URL: " + baseUrl);
+		}
+		int port = uri.getPort() == -1 ? 80 : uri.getPort();
+		address = new InetSocketAddress(uri.getHost(), port);
+		host = uri.getHost() + ":" + port;
+		String path = uri.getRawPath() == null ? "" : uri.getRawPath();
+		basePath = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+		this.configuration = configuration;
+		exchanges = new ConcurrentHashMap<>();
+		idle = new ConcurrentLinkedDeque<>();
+		timer = new ScheduledThreadPoolExecutor(1, Utility.threadFactory(false));
+		timer.setRemoveOnCancelPolicy(true);
+
+		FilterChainBuilder chain = FilterChainBuilder.stateless();
+		chain.add(new TransportFilter());
+		chain.add(new HttpClientFilter());
+		chain.add(new ExchangeFilter());
+		// The responses are handled on the I/O threads, which never block
+		transport = TCPNIOTransportBuilder.newInstance().setIOStrategy(SameThreadIOStrategy.getInstance()).build();
+		transport.setProcessor(chain.build());
+		if (configuration.asyncThreads() > 0) {
+			transport.getKernelThreadPoolConfig().setCorePoolSize(configuration.asyncThreads()).setMaxPoolSize(configuration.asyncThreads());
+			transport.setSelectorRunnersCount(configuration.asyncThreads());
+		}
+		try {
+			transport.start();
+		} catch (IOException e) {
+			timer.shutdownNow();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Effect: calls the specified method at the specified path and reads the
+	 * whole response with the specified reader once it has arrived.
+	 *
+	 * @param <R>
+	 *            the type of result
+	 * @param method
+	 *            the HTTP method
+	 * @param path
+	 *            the path and query below the service
+	 * @param payload
+	 *            the XML payload. If null, no payload will be sent.
+	 * @param accept
+	 *            the media types to accept, or null to accept the default
+	 * @param reader
+	 *            the reader
+	 * @return the future result
+	 */
+	private <R> CompletableFuture<R> call(String method, String path, byte[] payload, String accept, Reader<R> reader) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		return call(method, path, payload, accept, new Body<R>() {
+
+			@Override
+			public boolean piece(ByteBuffer piece) {
+				bytes.write(piece.array(), piece.arrayOffset() + piece.position(), piece.remaining());
+				return true;
+			}
+
+			@Override
+			public R end(String contentType) throws IOException, JAXBException {
+				return reader.read(new ByteArrayInputStream(bytes.toByteArray()), contentType);
+			}
+		});
+	}
+
+	/**
+	 * Effect: calls the specified method at the specified path and passes the
+	 * response to the specified body as it arrives.
+	 *
+	 * @param <R>
+	 *            the type of result
+	 * @param method
+	 *            the HTTP method
+	 * @param path
+	 *            the path and query below the service
+	 * @param payload
+	 *            the XML payload. If null, no payload will be sent.
+	 * @param accept
+	 *            the media types to accept, or null to accept the default
+	 * @param body
+	 *            takes the response
+	 * @return the future result
+	 */
+	private <R> CompletableFuture<R> call(String method, String path, byte[] payload, String accept, Body<R> body) {
+		Exchange<R> exchange = new Exchange<>(method, path, payload, accept, body);
+		exchange.future.whenComplete((result, thrown) -> {
+			if (thrown instanceof CancellationException) {
+				exchange.fail(thrown);
+			}
+		});
+		send(exchange, false);
+		return exchange.future;
+	}
+
+	/**
+	 * Effect: calls the specified method at the specified path and reads the
+	 * response as a {@link Result}. If compact encoding is on, asks for CBOR.
+	 *
+	 * @param method
+	 *            the HTTP method
+	 * @param path
+	 *            the path and query below the service
+	 * @param payload
+	 *            the XML payload. If null, no payload will be sent.
+	 * @return the future result
+	 */
+	private CompletableFuture<Result> call(String method, String path, byte[] payload) {
+		String accept = configuration.compactEncoding() ? CborCodec.MEDIA_TYPE : null;
+		return call(method, path, payload, accept, AsyncClient::readResult);
+	}
+
+	/**
+	 * Effect: calls the specified method at the specified path with no payload
+	 * and reads the response as a {@link Result}
+	 *
+	 * @param method
+	 *            the HTTP method
+	 * @param path
+	 *            the path and query below the service
+	 * @return the future result
+	 */
+	private CompletableFuture<Result> call(String method, String path) {
+		return call(method, path, null);
+	}
+
+	/**
+	 * @param in
+	 *            a result
+	 * @param contentType
+	 *            its content type
+	 * @return the result, read as CBOR or XML depending on the content type
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	private static Result readResult(InputStream in, String contentType) throws IOException, JAXBException {
+		if (contentType != null && contentType.startsWith(CborCodec.MEDIA_TYPE)) {
+			return CborCodec.readResult(in);
+		}
+		return Utility.unmarshalResult(in);
+	}
+
+	/**
+	 * @param segments
+	 *            the path segments
+	 * @return the path of the segments below the service
+	 */
+	private static String path(Object... segments) {
+		StringBuilder path = new StringBuilder();
+		for (Object segment : segments) {
+			path.append('/').append(segment);
+		}
+		return path.toString();
+	}
+
+	/**
+	 * Effect: sends the request of an exchange, on an idle connection if there
+	 * is one, or else on a new one
+	 *
+	 * @param exchange
+	 *            the exchange
+	 * @param fresh
+	 *            true to always use a new connection
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void send(Exchange<?> exchange, boolean fresh) {
+		if (!fresh) {
+			Idle reusable;
+			while ((reusable = idle.pollFirst()) != null) {
+				if (reusable.connection.isOpen() && System.nanoTime() - reusable.since < AsyncClient.maxIdleTime.toNanos()) {
+					exchange.start(reusable.connection, true);
+					return;
+				}
+				reusable.connection.closeSilently();
+			}
+		}
+		exchange.timeout(configuration.connectTimeout(), "connect");
+		transport.connect(address, new CompletionHandler<Connection>() {
+
+			@Override
+			public void completed(Connection connection) {
+				exchange.start(connection, false);
+			}
+
+			@Override
+			public void failed(Throwable throwable) {
+				exchange.fail(throwable);
+			}
+
+			@Override
+			public void cancelled() {
+				exchange.fail(new IOException("The connection to " + host + " was canceled"));
+			}
+
+			@Override
+			public void updated(Connection connection) {
+			}
+		});
+	}
+
+	/**
+	 * Effect: returns a connection whose exchange is over to the idle
+	 * connections, or closes it if it cannot be reused
+	 *
+	 * @param connection
+	 *            the connection
+	 * @param reusable
+	 *            true if the response allows the connection to be reused
+	 */
+	private void release(Connection<?> connection, boolean reusable) {
+		if (reusable && configuration.keepAlive() && connection.isOpen() && !timer.isShutdown()) {
+			idle.addFirst(new Idle(connection));
+		} else {
+			connection.closeSilently();
+		}
+	}
+
+	/**
+	 * Effect: registers with the service
+	 *
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> register() {
+		return call("POST", AsyncClient.path("register"));
+	}
+
+	/**
+	 * Effect: unregisters from the service
+	 *
+	 * @param sessionId
+	 *            the session ID
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> unregister(UUID sessionId) {
+		return call("DELETE", AsyncClient.path("register", sessionId));
+	}
+
+	/**
+	 * Effect: tries to get the lock
+	 *
+	 * @param sessionId
+	 *            the session ID
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> lock(UUID sessionId) {
+		return call("POST", AsyncClient.path("lock", sessionId));
+	}
+
+	/**
+	 * Effect: tries to steal the lock
+	 *
+	 * @param sessionId
+	 *            the session ID
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> stealLock(UUID sessionId) {
+		return call("PUT", AsyncClient.path("lock", sessionId));
+	}
+
+	/**
+	 * Effect: tries to release the lock
+	 *
+	 * @param sessionId
+	 *            the session ID
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> unlock(UUID sessionId) {
+		return call("DELETE", AsyncClient.path("lock", sessionId));
+	}
+
+	/**
+	 * Effect: gets the service information
+	 *
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> getServiceInformation() {
+		return call("GET", AsyncClient.path("info"));
+	}
+
+	/**
+	 * Effect: initializes the sensor
+	 *
+	 * @param sessionId
+	 *            the session ID
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> initialize(UUID sessionId) {
+		return call("POST", AsyncClient.path("initialize", sessionId));
+	}
+
+	/**
+	 * Effect: uninitializes the sensor
+	 *
+	 * @param sessionId
+	 *            the session ID
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> uninitialize(UUID sessionId) {
+		return call("DELETE", AsyncClient.path("initialize", sessionId));
+	}
+
+	/**
+	 * Effect: gets the sensor configuration
+	 *
+	 * @param sessionId
+	 *            the session ID
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> getConfiguration(UUID sessionId) {
+		return call("GET", AsyncClient.path("configure", sessionId));
+	}
+
+	/**
+	 * Effect: sets the sensor configuration
+	 *
+	 * @param sessionId
+	 *            the session ID
+	 * @param configuration
+	 *            the configuration
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> setConfiguration(UUID sessionId, Dictionary configuration) {
+		return call("POST", AsyncClient.path("configure", sessionId), Utility.toBytes(Utility.createDictionaryElement(configuration)));
+	}
+
+	/**
+	 * Effect: captures
+	 *
+	 * @param sessionId
+	 *            the session ID
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> capture(UUID sessionId) {
+		return call("POST", AsyncClient.path("capture", sessionId));
+	}
+
+	/**
+	 * Effect: begins an asynchronous capture
+	 *
+	 * @param sessionId
+	 *            the session ID
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> beginCapture(UUID sessionId) {
+		return call("POST", AsyncClient.path("capture", sessionId, "async"));
+	}
+
+	/**
+	 * Effect: ends an asynchronous capture
+	 *
+	 * @param sessionId
+	 *            the session ID
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> endCapture(UUID sessionId) {
+		return call("PUT", AsyncClient.path("capture", sessionId, "async"));
+	}
+
+	/**
+	 * Effect: gets the sensor status
+	 *
+	 * @return the future status
+	 */
+	public CompletableFuture<SensorStatus> getStatus() {
+		return call("GET", AsyncClient.path("status")).thenApply(StatelessClient::sensorStatus);
+	}
+
+	/**
+	 * Effect: waits for the sensor status to change from the specified status.
+	 *
+	 * @param current
+	 *            the last status seen
+	 * @param timeout
+	 *            the maximum amount of time the service should wait
+	 * @return the future status. It is equal to <code>current</code> if the
+	 *         wait timed out.
+	 */
+	public CompletableFuture<SensorStatus> waitForStatus(SensorStatus current, Duration timeout) {
+		return call("GET", AsyncClient.path("status", "wait") + "?current=" + current.value() + "&timeout=" + timeout.toMillis()).thenApply(StatelessClient::sensorStatus);
+	}
+
+	/**
+	 * Effect: listens to the service's event stream, passing each event to the
+	 * listener on an I/O thread as it arrives. The first event is always the
+	 * current sensor status.
+	 *
+	 * @param listener
+	 *            the listener. Returns true to keep listening. Must not block.
+	 * @return a future which completes once the listener returns false or the
+	 *         service closes the stream
+	 */
+	public CompletableFuture<Void> listen(Predicate<SensorEvent> listener) {
+		return call("GET", AsyncClient.path("events"), null, SensorEvent.MEDIA_TYPE, new EventBody(listener));
+	}
+
+	/**
+	 * Effect: downloads a capture
+	 *
+	 * @param captureId
+	 *            the capture ID
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> download(UUID captureId) {
+		return call("GET", AsyncClient.path("download", captureId));
+	}
+
+	/**
+	 * Effect: gets the download information
+	 *
+	 * @param captureId
+	 *            the capture ID
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> getDownloadInformation(UUID captureId) {
+		return call("GET", AsyncClient.path("download", captureId, "info"));
+	}
+
+	/**
+	 * Effect: does a thrifty download
+	 *
+	 * @param captureId
+	 *            the capture ID
+	 * @param maxSize
+	 *            the max size specification
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> thriftyDownload(UUID captureId, String maxSize) {
+		return call("GET", AsyncClient.path("download", captureId, maxSize));
+	}
+
+	/**
+	 * Effect: downloads the raw sensor data of a capture
+	 *
+	 * @param captureId
+	 *            the capture ID
+	 * @return the future data
+	 */
+	public CompletableFuture<byte[]> rawDownload(UUID captureId) {
+		return call("GET", AsyncClient.path("download", captureId, "raw"), null, null, (in, contentType) -> {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			Utility.drain(in, bytes);
+			return bytes.toByteArray();
+		});
+	}
+
+	/**
+	 * Effect: downloads many captures in one request, and once the whole
+	 * response has arrived, passes each capture to the handler on an I/O
+	 * thread, in the order of the capture IDs
+	 *
+	 * @param captureIds
+	 *            the capture IDs
+	 * @param mode
+	 *            what to download for each capture
+	 * @param handler
+	 *            the handler. Must not block.
+	 * @return a future which completes once every capture has been handled
+	 */
+	public CompletableFuture<Void> batchDownload(List<UUID> captureIds, DownloadMode mode, DownloadHandler handler) {
+		if (captureIds.isEmpty()) {
+			return CompletableFuture.completedFuture(null);
+		}
+		StringBuilder query = new StringBuilder("?mode=").append(mode);
+		for (UUID captureId : captureIds) {
+			query.append("&id=").append(captureId);
+		}
+		return call("GET", AsyncClient.path("download") + query, null, null, (in, contentType) -> {
+			try (MultipartReader reader = new MultipartReader(in)) {
+				MultipartReader.Part part;
+				while ((part = reader.next()) != null) {
+					handler.handle(UUID.fromString(part.header(DownloadMode.CAPTURE_ID_HEADER)), Status.fromValue(part.header(DownloadMode.STATUS_HEADER)), part.header("Content-Type"),
+							part.body());
+				}
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Effect: downloads many captures in one request.
+	 *
+	 * @param captureIds
+	 *            the capture IDs
+	 * @param mode
+	 *            {@link DownloadMode#full} for the whole results, or
+	 *            {@link DownloadMode#info} for the results without the sensor
+	 *            data
+	 * @return the future results, by capture ID, in the order of the capture
+	 *         IDs
+	 * @throws IllegalArgumentException
+	 *             if the mode is {@link DownloadMode#raw} or
+	 *             {@link DownloadMode#split}
+	 */
+	public CompletableFuture<Map<UUID, Result>> batchDownload(List<UUID> captureIds, DownloadMode mode) {
+		if (mode == DownloadMode.raw || mode == DownloadMode.split) {
+			throw new IllegalArgumentException("Raw batch downloads need a handler");
+		}
+		Map<UUID, Result> results = new LinkedHashMap<>();
+		return batchDownload(captureIds, mode, (captureId, status, contentType, data) -> {
+			try {
+				results.put(captureId, Utility.unmarshalResult(data));
+			} catch (JAXBException e) {
+				throw new IOException(e);
+			}
+		}).thenApply(done -> results);
+	}
+
+	/**
+	 * Effect: runs a sequence of operations for one session in a single
+	 * request. The workflow stops at the first operation which does not
+	 * succeed, so fewer steps than operations may be returned. It is not
+	 * atomic: the steps which succeeded are not undone.
+	 *
+	 * @param sessionId
+	 *            the session ID, or null if the first operation registers
+	 * @param operations
+	 *            the operations, in order
+	 * @return the future steps which ran, in order. A download gives one step
+	 *         per capture.
+	 */
+	public CompletableFuture<List<Step>> workflow(UUID sessionId, WorkflowOperation... operations) {
+		StringBuilder query = new StringBuilder("?");
+		if (sessionId != null) {
+			query.append("session=").append(sessionId);
+		}
+		for (WorkflowOperation operation : operations) {
+			query.append(query.length() > 1 ? "&" : "").append("op=").append(operation);
+		}
+		return call("POST", AsyncClient.path("workflow") + query, null, null, (in, contentType) -> {
+			List<Step> steps = new ArrayList<>();
+			try (MultipartReader reader = new MultipartReader(in)) {
+				MultipartReader.Part part;
+				while ((part = reader.next()) != null) {
+					steps.add(new Step(WorkflowOperation.valueOf(part.header(WorkflowOperation.OPERATION_HEADER)), Utility.unmarshalResult(part.body())));
+				}
+			}
+			return steps;
+		});
+	}
+
+	/**
+	 * Effect: cancels the current sensor operation
+	 *
+	 * @param sessionId
+	 *            the session ID
+	 * @return the future result
+	 */
+	public CompletableFuture<Result> cancel(UUID sessionId) {
+		return call("POST", AsyncClient.path("cancel", sessionId));
+	}
+
+	/**
+	 * Effect: watches a live stream, passing the data to the viewer on an I/O
+	 * thread as it arrives. The data comes in pieces as it is read from the
+	 * connection, which do not line up with the frames of the stream.
+	 *
+	 * @param streamName
+	 *            the stream name
+	 * @param viewer
+	 *            the viewer. Returns true to keep watching. Must not block,
+	 *            and must not keep the buffer after it returns.
+	 * @return a future which completes once the viewer returns false or the
+	 *         stream ends
+	 */
+	public CompletableFuture<Void> stream(String streamName, Predicate<ByteBuffer> viewer) {
+		return watch(AsyncClient.path("stream", streamName), viewer);
+	}
+
+	/**
+	 * Effect: watches a variant of a live stream, like
+	 * {@link #stream(String, Predicate)}
+	 *
+	 * @param streamName
+	 *            the stream name
+	 * @param variant
+	 *            the frame rate, size and quality to ask for. The service may
+	 *            send a different variant.
+	 * @param viewer
+	 *            the viewer
+	 * @return a future which completes once the viewer returns false or the
+	 *         stream ends
+	 */
+	public CompletableFuture<Void> stream(String streamName, StreamVariant variant, Predicate<ByteBuffer> viewer) {
+		return watch(AsyncClient.path("stream", streamName) + variant.toQuery(), viewer);
+	}
+
+	/**
+	 * Effect: watches a live stream which requires the lock, like
+	 * {@link #stream(String, Predicate)}. The stream ends if the session
+	 * looses the lock.
+	 *
+	 * @param streamName
+	 *            the stream name
+	 * @param sessionId
+	 *            the session ID
+	 * @param viewer
+	 *            the viewer
+	 * @return a future which completes once the viewer returns false or the
+	 *         stream ends
+	 */
+	public CompletableFuture<Void> stream(String streamName, UUID sessionId, Predicate<ByteBuffer> viewer) {
+		return watch(AsyncClient.path("stream", streamName, sessionId), viewer);
+	}
+
+	/**
+	 * Effect: watches a variant of a live stream which requires the lock, like
+	 * {@link #stream(String, Predicate)}
+	 *
+	 * @param streamName
+	 *            the stream name
+	 * @param sessionId
+	 *            the session ID
+	 * @param variant
+	 *            the frame rate, size and quality to ask for. The service may
+	 *            send a different variant.
+	 * @param viewer
+	 *            the viewer
+	 * @return a future which completes once the viewer returns false or the
+	 *         stream ends
+	 */
+	public CompletableFuture<Void> stream(String streamName, UUID sessionId, StreamVariant variant, Predicate<ByteBuffer> viewer) {
+		return watch(AsyncClient.path("stream", streamName, sessionId) + variant.toQuery(), viewer);
+	}
+
+	/**
+	 * Effect: watches the stream at the specified path
+	 *
+	 * @param path
+	 *            the path and query below the service
+	 * @param viewer
+	 *            the viewer
+	 * @return a future which completes once the viewer returns false or the
+	 *         stream ends
+	 */
+	private CompletableFuture<Void> watch(String path, Predicate<ByteBuffer> viewer) {
+		return call("GET", path, null, null, new Body<Void>() {
+
+			@Override
+			public boolean piece(ByteBuffer piece) {
+				return viewer.test(piece);
+			}
+
+			@Override
+			public Void end(String contentType) {
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Effect: closes the client. Calls in progress fail.
+	 */
+	@Override
+	public void close() {
+		try {
+			transport.shutdownNow();
+		} catch (IOException e) {
+		}
+		timer.shutdownNow();
+		for (Exchange<?> exchange : exchanges.values()) {
+			exchange.fail(new IOException("The client was closed"));
+		}
+		idle.clear();
+	}
+
+	/**
+	 * Represents: one call to the service, from sending the request until the
+	 * whole response has been handled
+	 *
+	 * @param <R>
+	 *            the type of result
+	 */
+	private class Exchange<R> {
+
+		/**
+		 * The HTTP method
+		 */
+		private final String method;
+		/**
+		 * The path and query below the service
+		 */
+		private final String path;
+		/**
+		 * The XML payload, or null if there is none
+		 */
+		private final byte[] payload;
+		/**
+		 * The media types to accept, or null to accept the default
+		 */
+		private final String accept;
+		/**
+		 * Takes the response
+		 */
+		private final Body<R> body;
+		/**
+		 * The future result
+		 */
+		private final CompletableFuture<R> future;
+		/**
+		 * True once the future has been completed, or is about to be
+		 */
+		private final AtomicBoolean done;
+		/**
+		 * The connection, or null if there is none yet
+		 */
+		private volatile Connection<?> connection;
+		/**
+		 * True if the connection was reused
+		 */
+		private volatile boolean reused;
+		/**
+		 * The response, or null if it has not arrived. Only used on the I/O
+		 * thread of the connection.
+		 */
+		private HttpResponsePacket response;
+		/**
+		 * The last time data arrived, from {@link System#nanoTime()}
+		 */
+		private volatile long lastRead;
+		/**
+		 * The connect or read timeout, or null if there is none
+		 */
+		private volatile ScheduledFuture<?> timeout;
+
+		/**
+		 * Creates: a new exchange which has not been sent
+		 *
+		 * @param method
+		 *            the HTTP method
+		 * @param path
+		 *            the path and query below the service
+		 * @param payload
+		 *            the XML payload, or null if there is none
+		 * @param accept
+		 *            the media types to accept, or null to accept the default
+		 * @param body
+		 *            takes the response
+		 */
+		private Exchange(String method, String path, byte[] payload, String accept, Body<R> body) {
+			this.method = method;
+			this.path = path;
+			this.payload = payload;
+			this.accept = accept;
+			this.body = body;
+			future = new CompletableFuture<>();
+			done = new AtomicBoolean(false);
+			connection = null;
+			reused = false;
+			response = null;
+			timeout = null;
+		}
+
+		/**
+		 * Effect: sends the request on the specified connection
+		 *
+		 * @param connection
+		 *            the connection
+		 * @param reused
+		 *            true if the connection was used before
+		 */
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		private void start(Connection<?> connection, boolean reused) {
+			this.connection = connection;
+			this.reused = reused;
+			exchanges.put(connection, this);
+			if (done.get()) {
+				// Failed or canceled while connecting
+				exchanges.remove(connection);
+				connection.closeSilently();
+				return;
+			}
+			lastRead = System.nanoTime();
+			timeout(configuration.readTimeout(), "read");
+
+			HttpRequestPacket.Builder request = HttpRequestPacket.builder().method(method).protocol(Protocol.HTTP_1_1).header("Host", host);
+			int query = path.indexOf('?');
+			if (query == -1) {
+				request.uri(basePath + path);
+			} else {
+				request.uri(basePath + path.substring(0, query)).query(path.substring(query + 1));
+			}
+			if (!configuration.keepAlive()) {
+				request.header("Connection", "close");
+			}
+			if (accept != null) {
+				request.header("Accept", accept);
+			}
+			if (payload != null) {
+				request.contentType("text/xml");
+			}
+			request.contentLength(payload == null ? 0 : payload.length);
+			Buffer content = payload == null ? Buffers.EMPTY_BUFFER : Buffers.wrap(transport.getMemoryManager(), payload);
+			((Connection) connection).write(HttpContent.builder(request.build()).content(content).last(true).build(), new CompletionHandler<WriteResult>() {
+
+				@Override
+				public void completed(WriteResult result) {
+				}
+
+				@Override
+				public void failed(Throwable throwable) {
+					fail(throwable);
+				}
+
+				@Override
+				public void cancelled() {
+					fail(new IOException("The request to " + host + " was canceled"));
+				}
+
+				@Override
+				public void updated(WriteResult result) {
+				}
+			});
+		}
+
+		/**
+		 * Effect: fails this exchange if no data arrives within the specified
+		 * time. For a read timeout, the time restarts whenever data arrives.
+		 *
+		 * @param time
+		 *            the time. Zero means no timeout.
+		 * @param what
+		 *            "connect" or "read"
+		 */
+		private void timeout(Duration time, String what) {
+			ScheduledFuture<?> previous = timeout;
+			if (previous != null) {
+				previous.cancel(false);
+			}
+			if (time.isZero() || done.get()) {
+				timeout = null;
+				return;
+			}
+			long remaining = time.toNanos() - (System.nanoTime() - lastRead);
+			if ("connect".equals(what)) {
+				remaining = time.toNanos();
+			} else if (remaining <= 0) {
+				fail(new SocketTimeoutException("Read timed out"));
+				return;
+			}
+			try {
+				timeout = timer.schedule(() -> {
+					if ("connect".equals(what) && connection == null) {
+						fail(new SocketTimeoutException("Connect timed out"));
+					} else if ("read".equals(what)) {
+						timeout(time, what);
+					}
+				}, remaining, TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException e) {
+				fail(new IOException("The client was closed"));
+			}
+		}
+
+		/**
+		 * Effect: handles some of the response. Called on the I/O thread of the
+		 * connection.
+		 *
+		 * @param content
+		 *            the content
+		 */
+		private void content(HttpContent content) {
+			if (done.get()) {
+				return;
+			}
+			lastRead = System.nanoTime();
+			if (response == null) {
+				response = (HttpResponsePacket) content.getHttpHeader();
+			}
+			Buffer buffer = content.getContent();
+			if (buffer.hasRemaining() && successful()) {
+				// The buffer is reused once this returns
+				byte[] bytes = new byte[buffer.remaining()];
+				buffer.get(bytes);
+				try {
+					if (!body.piece(ByteBuffer.wrap(bytes))) {
+						finish(false);
+						return;
+					}
+				} catch (IOException | RuntimeException e) {
+					fail(e);
+					return;
+				}
+			}
+			if (content.isLast()) {
+				finish(!"close".equalsIgnoreCase(response.getHeader("Connection")) && response.getProtocol() == Protocol.HTTP_1_1);
+			}
+		}
+
+		/**
+		 * @return true if the response has arrived and is not an HTTP error
+		 */
+		private boolean successful() {
+			return response != null && response.getStatus() >= 200 && response.getStatus() < 300;
+		}
+
+		/**
+		 * Effect: completes the future once the response has been handled, or
+		 * the body has stopped taking it
+		 *
+		 * @param reusable
+		 *            true if the connection can be reused
+		 */
+		private void finish(boolean reusable) {
+			if (!done.compareAndSet(false, true)) {
+				return;
+			}
+			cancelTimeout();
+			exchanges.remove(connection);
+			// The connection is released first, so that calls chained to the
+			// future can reuse it
+			release(connection, reusable);
+			if (!successful()) {
+				future.completeExceptionally(new IOException(String.format("%s %s%s returned HTTP %d", method, host, basePath + path, response.getStatus())));
+				return;
+			}
+			try {
+				future.complete(body.end(response.getContentType()));
+			} catch (IOException | JAXBException | RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+		}
+
+		/**
+		 * Effect: handles the connection closing before the response was
+		 * handled. A response without a length ends when the connection closes.
+		 * If the service closed a reused connection before it answered, as it
+		 * does with connections which were idle for too long, an idempotent
+		 * request is sent again on a new connection.
+		 */
+		private void closed() {
+			if (done.get()) {
+				return;
+			}
+			if (response != null && !response.isChunked() && response.getContentLength() == -1) {
+				finish(false);
+			} else if (response == null && reused && !"POST".equals(method)) {
+				cancelTimeout();
+				exchanges.remove(connection);
+				connection = null;
+				send(this, true);
+			} else {
+				fail(new IOException("The connection to " + host + " closed before the response ended"));
+			}
+		}
+
+		/**
+		 * Effect: fails the future, unless it is already done, and closes the
+		 * connection
+		 *
+		 * @param throwable
+		 *            the reason
+		 */
+		private void fail(Throwable throwable) {
+			if (!done.compareAndSet(false, true)) {
+				return;
+			}
+			cancelTimeout();
+			Connection<?> current = connection;
+			if (current != null) {
+				exchanges.remove(current);
+				current.closeSilently();
+			}
+			future.completeExceptionally(throwable);
+		}
+
+		/**
+		 * Effect: cancels the timeout, if there is one
+		 */
+		private void cancelTimeout() {
+			ScheduledFuture<?> current = timeout;
+			if (current != null) {
+				current.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Represents: an open connection with no exchange in progress
+	 */
+	private static class Idle {
+
+		/**
+		 * The connection
+		 */
+		private final Connection<?> connection;
+		/**
+		 * The time it became idle, from {@link System#nanoTime()}
+		 */
+		private final long since;
+
+		/**
+		 * Creates: a connection which is idle from now on
+		 *
+		 * @param connection
+		 *            the connection
+		 */
+		private Idle(Connection<?> connection) {
+			this.connection = connection;
+			since = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Represents: the filter which hands each piece of a response to the
+	 * exchange in progress on its connection
+	 */
+	private class ExchangeFilter extends BaseFilter {
+
+		@Override
+		public NextAction handleRead(FilterChainContext ctx) throws IOException {
+			HttpContent content = ctx.getMessage();
+			Exchange<?> exchange = exchanges.get(ctx.getConnection());
+			if (exchange == null) {
+				// Nothing was asked for
+				ctx.getConnection().closeSilently();
+			} else {
+				exchange.content(content);
+			}
+			return ctx.getStopAction();
+		}
+
+		@Override
+		public NextAction handleClose(FilterChainContext ctx) throws IOException {
+			Connection<?> connection = ctx.getConnection();
+			idle.removeIf(i -> i.connection == connection);
+			Exchange<?> exchange = exchanges.get(connection);
+			if (exchange != null) {
+				exchange.closed();
+			}
+			return ctx.getInvokeAction();
+		}
+
+		@Override
+		public void exceptionOccurred(FilterChainContext ctx, Throwable error) {
+			Exchange<?> exchange = exchanges.get(ctx.getConnection());
+			if (exchange != null) {
+				exchange.fail(error);
+			}
+		}
+	}
+
+	/**
+	 * Represents: the body of a response of the event stream, which passes
+	 * each event to a listener as soon as it is complete
+	 */
+	private static class EventBody implements Body<Void> {
+
+		/**
+		 * The listener
+		 */
+		private final Predicate<SensorEvent> listener;
+		/**
+		 * The bytes of the current line
+		 */
+		private final ByteArrayOutputStream line;
+		/**
+		 * The ID of the current event, or -1 if it has none
+		 */
+		private long id;
+		/**
+		 * The type of the current event, or null if it has none
+		 */
+		private SensorEvent.Type type;
+		/**
+		 * The data of the current event, or null if it has none
+		 */
+		private String data;
+
+		/**
+		 * Creates: a new body with no events
+		 *
+		 * @param listener
+		 *            the listener. Returns true to keep listening.
+		 */
+		private EventBody(Predicate<SensorEvent> listener) {
+			this.listener = listener;
+			line = new ByteArrayOutputStream();
+			id = -1;
+			type = null;
+			data = null;
+		}
+
+		@Override
+		public boolean piece(ByteBuffer piece) {
+			while (piece.hasRemaining()) {
+				byte b = piece.get();
+				if (b != '\n') {
+					line.write(b);
+					continue;
+				}
+				String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+				line.reset();
+				if (text.endsWith("\r")) {
+					text = text.substring(0, text.length() - 1);
+				}
+				if (!line(text)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Effect: handles one line of the event stream
+		 *
+		 * @param text
+		 *            the line, without the line ending
+		 * @return false if the listener wants to stop
+		 */
+		private boolean line(String text) {
+			if (text.isEmpty()) {
+				// A blank line ends the event. Heartbeats are just comments,
+				// so they end with nothing to dispatch.
+				boolean listening = type == null || data == null || listener.test(new SensorEvent(id, type, data));
+				id = -1;
+				type = null;
+				data = null;
+				return listening;
+			} else if (text.startsWith("id: ")) {
+				id = Long.parseLong(text.substring(4));
+			} else if (text.startsWith("event: ")) {
+				type = SensorEvent.Type.valueOf(text.substring(7));
+			} else if (text.startsWith("data: ")) {
+				data = text.substring(6);
+			}
+			return true;
+		}
+
+		@Override
+		public Void end(String contentType) {
+			return null;
+		}
+	}
+
+	/**
+	 * Represents: something which takes a response body as it arrives and
+	 * produces a result at the end
+	 *
+	 * @author Jacob Glueck
+	 *
+	 * @param <R>
+	 *            the type of result
+	 */
+	private interface Body<R> {
+
+		/**
+		 * Effect: takes the next piece of the body. Called on an I/O thread.
+		 *
+		 * @param piece
+		 *            the piece, which may be modified
+		 * @return true to keep reading, false to stop and close the
+		 *         connection
+		 * @throws IOException
+		 *             if the piece cannot be handled
+		 */
+		public boolean piece(ByteBuffer piece) throws IOException;
+
+		/**
+		 * Effect: produces the result once the body has ended or
+		 * {@link #piece(ByteBuffer)} returned false
+		 *
+		 * @param contentType
+		 *            the content type of the response, or null if it is not
+		 *            known
+		 * @return the result
+		 * @throws IOException
+		 *             if there is a problem
+		 * @throws JAXBException
+		 *             if there is a problem
+		 */
+		public R end(String contentType) throws IOException, JAXBException;
+	}
+
+	/**
+	 * Represents: a function which reads a whole response body and produces a
+	 * result.
+	 *
+	 * @author Jacob Glueck
+	 *
+	 * @param <R>
+	 *            the type of result
+	 */
+	private interface Reader<R> {
+
+		/**
+		 * Effect: reads the data in the input stream into a result.
+		 *
+		 * @param in
+		 *            the input stream
+		 * @param contentType
+		 *            the content type of the response, or null if it is not
+		 *            known
+		 * @return the result
+		 * @throws IOException
+		 *             if there is a problem
+		 * @throws JAXBException
+		 *             if there is a problem
+		 */
+		public R read(InputStream in, String contentType) throws IOException, JAXBException;
+	}
+}
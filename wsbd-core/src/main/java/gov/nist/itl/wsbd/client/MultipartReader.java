@@ -0,0 +1,285 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.client;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Represents: a reader which splits a multipart response into its parts as
+ * they arrive, without buffering whole parts. The boundary is taken from the
+ * first line of the stream, so the stream must not have a preamble, as the
+ * service's multipart responses do not.
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class MultipartReader implements Closeable {
+
+	/**
+	 * The stream
+	 */
+	private final PushbackInputStream in;
+	/**
+	 * The delimiter which ends each part: a line break followed by two dashes
+	 * and the boundary
+	 */
+	private final byte[] delimiter;
+	/**
+	 * The part being read, or null if there is none
+	 */
+	private Part current;
+	/**
+	 * True if the closing delimiter has been read
+	 */
+	private boolean finished;
+
+	/**
+	 * Creates: a new reader. Reads the first delimiter from the stream.
+	 *
+	 * @param in
+	 *            the stream
+	 * @throws IOException
+	 *             if the stream does not start with a delimiter, or if there
+	 *             is a problem reading it
+	 */
+	public MultipartReader(InputStream in) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in);
+		String first = MultipartReader.readLine(buffered);
+		if (first == null || !first.startsWith("--")) {
+			throw new IOException("Not a multipart stream");
+		}
+		String boundary = first.substring(2);
+		if (boundary.endsWith("--")) {
+			// The closing delimiter: there are no parts
+			boundary = boundary.substring(0, boundary.length() - 2);
+			finished = true;
+		}
+		delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+		this.in = new PushbackInputStream(buffered, delimiter.length);
+	}
+
+	/**
+	 * Effect: skips the rest of the current part and reads the headers of the
+	 * next one.
+	 *
+	 * @return the next part, or null if there are no more parts
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	public Part next() throws IOException {
+		if (current != null) {
+			current.body.close();
+			current = null;
+		}
+		if (finished) {
+			return null;
+		}
+		Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		String line;
+		while ((line = MultipartReader.readLine(in)) != null && !line.isEmpty()) {
+			int colon = line.indexOf(':');
+			if (colon > 0) {
+				headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+			}
+		}
+		if (line == null) {
+			throw new EOFException("The multipart stream ended inside the headers of a part");
+		}
+		current = new Part(headers, new PartInputStream());
+		return current;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Effect: reads one line, without its line ending.
+	 *
+	 * @param in
+	 *            the stream
+	 * @return the line, or null if the stream is at its end
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != -1 && b != '\n') {
+			line.write(b);
+		}
+		if (b == -1 && line.size() == 0) {
+			return null;
+		}
+		byte[] bytes = line.toByteArray();
+		int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+		return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Represents: one part of a multipart stream
+	 *
+	 * @author Jacob Glueck
+	 *
+	 */
+	public static class Part {
+
+		/**
+		 * The headers, with case insensitive names
+		 */
+		private final Map<String, String> headers;
+		/**
+		 * The body
+		 */
+		private final InputStream body;
+
+		/**
+		 * Creates: a new part
+		 *
+		 * @param headers
+		 *            the headers
+		 * @param body
+		 *            the body
+		 */
+		private Part(Map<String, String> headers, InputStream body) {
+			this.headers = headers;
+			this.body = body;
+		}
+
+		/**
+		 * @param name
+		 *            the name of a header. Case does not matter.
+		 * @return the value of the header, or null if the part does not have
+		 *         it
+		 */
+		public String header(String name) {
+			return headers.get(name);
+		}
+
+		/**
+		 * @return the body. It ends at the end of the part, and is only
+		 *         valid until the next part is read. Closing it skips the rest
+		 *         of the part.
+		 */
+		public InputStream body() {
+			return body;
+		}
+	}
+
+	/**
+	 * Represents: the body of the current part, which ends at the next
+	 * delimiter
+	 *
+	 * @author Jacob Glueck
+	 *
+	 */
+	private class PartInputStream extends InputStream {
+
+		/**
+		 * True if the delimiter at the end of the part has been read
+		 */
+		private boolean ended;
+
+		@Override
+		public int read() throws IOException {
+			if (ended) {
+				return -1;
+			}
+			int b = in.read();
+			if (b == -1) {
+				throw new EOFException("The multipart stream ended inside a part");
+			}
+			if (b == delimiter[0]) {
+				byte[] ahead = new byte[delimiter.length - 1];
+				int n = 0;
+				int read;
+				while (n < ahead.length && (read = in.read(ahead, n, ahead.length - n)) != -1) {
+					n += read;
+				}
+				boolean matches = n == ahead.length;
+				for (int i = 0; matches && i < ahead.length; i++) {
+					matches = ahead[i] == delimiter[i + 1];
+				}
+				if (matches) {
+					ended = true;
+					// The delimiter is followed by two dashes if it is the
+					// last one, and the end of the line either way
+					String rest = MultipartReader.readLine(in);
+					finished = rest == null || rest.startsWith("--");
+					return -1;
+				}
+				in.unread(ahead, 0, n);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			int n = 0;
+			int next;
+			while (n < len && (next = read()) != -1) {
+				b[off + n++] = (byte) next;
+			}
+			return n == 0 ? -1 : n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			while (read() != -1) {
+			}
+		}
+	}
+}
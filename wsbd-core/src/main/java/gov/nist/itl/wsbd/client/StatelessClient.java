@@ -42,13 +42,31 @@
 
 package gov.nist.itl.wsbd.client;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Predicate;
 
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
@@ -56,8 +74,14 @@ import javax.xml.bind.JAXBException;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.SensorStatus;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
 
+import gov.nist.itl.wsbd.codec.CborCodec;
+import gov.nist.itl.wsbd.service.DownloadMode;
+import gov.nist.itl.wsbd.service.SensorEvent;
 import gov.nist.itl.wsbd.service.Utility;
+import gov.nist.itl.wsbd.service.WorkflowOperation;
+import gov.nist.itl.wsbd.streaming.StreamVariant;
 
 /**
  * Represents: a test client which can call as the WSBD methods
@@ -71,6 +95,24 @@ public class StatelessClient {
 	 * The base URL of the service. Does not contain a trailing slash
 	 */
 	private final String baseUrl;
+	/**
+	 * The configuration
+	 */
+	private final ClientConfiguration configuration;
+	/**
+	 * The URLs which do not depend on any argument. They are built once
+	 * instead of on every call.
+	 */
+	private final URL registerUrl, infoUrl, statusUrl, eventsUrl;
+	/**
+	 * The size of the buffer used to copy downloads
+	 */
+	private static final int copyBufferSize = 64 * 1024;
+	/**
+	 * The system property which sets the number of idle connections the JDK
+	 * keeps open per host
+	 */
+	public static final String maxConnectionsProperty = "http.maxConnections";
 
 	/**
 	 * Creates: a new test client which tests the service at the specified URL.
@@ -78,13 +120,86 @@ public class StatelessClient {
 	 *
 	 * @param baseUrl
 	 *            the base URL
+	 * @throws IllegalArgumentException
+	 *             if the base URL is malformed
 	 */
 	public StatelessClient(String baseUrl) {
+		this(baseUrl, new ClientConfiguration());
+	}
+
+	/**
+	 * Creates: a new test client which tests the service at the specified URL
+	 * using the specified connection settings. It does not matter if the base
+	 * URL has or does not have a trailing slash.
+	 *
+	 * @param baseUrl
+	 *            the base URL
+	 * @param configuration
+	 *            the configuration
+	 * @throws IllegalArgumentException
+	 *             if the base URL is malformed
+	 */
+	public StatelessClient(String baseUrl, ClientConfiguration configuration) {
 		if (baseUrl.charAt(baseUrl.length() - 1) == '/') {
 			this.baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
 		} else {
 			this.baseUrl = baseUrl;
 		}
+		this.configuration = configuration;
+		try {
+			registerUrl = url("register");
+			infoUrl = url("info");
+			statusUrl = url("status", "");
+			eventsUrl = url("events");
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * Effect: sets the number of idle connections kept open per host for the
+	 * keep alive connections of every client. This is a setting of the whole
+	 * JVM, not of a client: the JDK keeps one pool of idle connections, shared
+	 * by all the clients and by any other code using {@link URL}s, and reads
+	 * its size from the {@value #maxConnectionsProperty} system property when
+	 * the first connection is made. So this must be called before any
+	 * connection is opened, and has no effect afterwards. By default, the JDK
+	 * keeps 5.
+	 *
+	 * @param maxIdleConnections
+	 *            the number of idle connections
+	 */
+	public static void setMaxIdleConnections(int maxIdleConnections) {
+		System.setProperty(StatelessClient.maxConnectionsProperty, Integer.toString(maxIdleConnections));
+	}
+
+	/**
+	 * @param segments
+	 *            the path segments, appended to the base URL
+	 * @return the URL
+	 * @throws MalformedURLException
+	 *             if the URL is malformed
+	 */
+	private URL url(Object... segments) throws MalformedURLException {
+		return queryUrl("", segments);
+	}
+
+	/**
+	 * @param query
+	 *            the query string, including the leading question mark, or
+	 *            the empty string
+	 * @param segments
+	 *            the path segments, appended to the base URL
+	 * @return the URL
+	 * @throws MalformedURLException
+	 *             if the URL is malformed
+	 */
+	private URL queryUrl(String query, Object... segments) throws MalformedURLException {
+		StringBuilder url = new StringBuilder(baseUrl);
+		for (Object segment : segments) {
+			url.append('/').append(segment);
+		}
+		return new URL(url.append(query).toString());
 	}
 
 	/**
@@ -124,15 +239,26 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result call(URL url, String method, JAXBElement<?> payload) throws IOException, JAXBException {
-		return call(url, method, payload, (stream) -> {
+		String accept = configuration.compactEncoding() ? CborCodec.MEDIA_TYPE : null;
+		return call(url, method, payload, accept, new Transformer<Result>() {
 
-			try {
-				return Utility.unmarshalResult(stream);
-			} catch (JAXBException e) {
-				throw new IOException(e);
+			@Override
+			public Result transform(InputStream in) throws IOException {
+				try {
+					return Utility.unmarshalResult(in);
+				} catch (JAXBException e) {
+					throw new IOException(e);
+				}
 			}
 
-		});
+			@Override
+			public Result transform(InputStream in, String contentType) throws IOException {
+				if (contentType != null && contentType.startsWith(CborCodec.MEDIA_TYPE)) {
+					return CborCodec.readResult(in);
+				}
+				return transform(in);
+			}
+		}, true);
 	}
 	
 	/**
@@ -151,7 +277,9 @@ public class StatelessClient {
 	 * @param transformer
 	 *            the transformer to convert an input stream to the result type.
 	 * @param close
-	 *            true if the connection should be closed
+	 *            true if the response should be closed once it is transformed.
+	 *            With keep-alive on, this returns the connection to the pool
+	 *            instead of closing it.
 	 * @return the result
 	 * @throws IOException
 	 *             if there is a problem
@@ -159,19 +287,81 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public <R> R call(URL url, String method, JAXBElement<?> payload, Transformer<R> transformer, boolean close) throws IOException, JAXBException {
+		return call(url, method, payload, null, transformer, close);
+	}
+
+	/**
+	 * Effect: the same as
+	 * {@link #call(URL, String, JAXBElement, Transformer, boolean)}, but
+	 * sends an <code>Accept</code> header and passes the content type of the
+	 * response to the transformer
+	 *
+	 * @param <R>
+	 *            the type of result
+	 * @param url
+	 *            the URL
+	 * @param method
+	 *            the HTTP method
+	 * @param payload
+	 *            the XML payload. If null, no payload will be sent.
+	 * @param accept
+	 *            the media types to accept, or null to accept the default
+	 * @param transformer
+	 *            the transformer
+	 * @param close
+	 *            true if the response should be closed once it is transformed
+	 * @return the result
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	private <R> R call(URL url, String method, JAXBElement<?> payload, String accept, Transformer<R> transformer, boolean close) throws IOException, JAXBException {
 		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
 		connection.setRequestMethod(method);
+		connection.setConnectTimeout((int) configuration.connectTimeout().toMillis());
+		connection.setReadTimeout((int) configuration.readTimeout().toMillis());
+		if (!configuration.keepAlive()) {
+			connection.setRequestProperty("Connection", "close");
+		}
+		if (accept != null) {
+			connection.setRequestProperty("Accept", accept);
+		}
 		
 		if (payload != null) {
 			connection.setDoOutput(true);
 			connection.setRequestProperty("Content-Type", "text/xml");
 			Utility.marshal(payload, connection.getOutputStream());
 		}
-		R result = transformer.transform(connection.getInputStream());
-		if (close) {
-			connection.disconnect();
+		InputStream in;
+		try {
+			in = connection.getInputStream();
+		} catch (IOException e) {
+			// The error body must be read to the end for the connection to be
+			// reused.
+			InputStream error = connection.getErrorStream();
+			if (error != null) {
+				try (InputStream discard = error) {
+					Utility.drain(discard, new ByteArrayOutputStream());
+				} catch (IOException ignored) {
+				}
+			}
+			throw e;
+		}
+		if (!close) {
+			return transformer.transform(in, connection.getContentType());
+		}
+		try {
+			return transformer.transform(in, connection.getContentType());
+		} finally {
+			if (configuration.keepAlive()) {
+				// Closing the stream instead of disconnecting returns the
+				// connection to the keep-alive cache.
+				in.close();
+			} else {
+				connection.disconnect();
+			}
 		}
-		return result;
 	}
 	
 	/**
@@ -211,7 +401,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result register() throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s", baseUrl, "register")), "POST");
+		return call(registerUrl, "POST");
 	}
 
 	/**
@@ -228,7 +418,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result unregister(UUID sessionId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s", baseUrl, "register", sessionId)), "DELETE");
+		return call(url("register", sessionId), "DELETE");
 	}
 	
 	/**
@@ -245,7 +435,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result lock(UUID sessionId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s", baseUrl, "lock", sessionId)), "POST");
+		return call(url("lock", sessionId), "POST");
 	}
 
 	/**
@@ -262,7 +452,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result stealLock(UUID sessionId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s", baseUrl, "lock", sessionId)), "PUT");
+		return call(url("lock", sessionId), "PUT");
 	}
 
 	/**
@@ -279,7 +469,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result unlock(UUID sessionId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s", baseUrl, "lock", sessionId)), "DELETE");
+		return call(url("lock", sessionId), "DELETE");
 	}
 
 	/**
@@ -294,7 +484,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result getServiceInformation() throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s", baseUrl, "info")), "GET");
+		return call(infoUrl, "GET");
 	}
 
 	/**
@@ -311,7 +501,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result initialize(UUID sessionId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s", baseUrl, "initialize", sessionId)), "POST", null);
+		return call(url("initialize", sessionId), "POST", null);
 	}
 	
 	/**
@@ -328,7 +518,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result uninitialize(UUID sessionId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s", baseUrl, "initialize", sessionId)), "DELETE", null);
+		return call(url("initialize", sessionId), "DELETE", null);
 	}
 
 	/**
@@ -345,7 +535,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result getConfiguration(UUID sessionId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s", baseUrl, "configure", sessionId)), "GET");
+		return call(url("configure", sessionId), "GET");
 	}
 	
 	/**
@@ -364,7 +554,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result setConfiguration(UUID sessionId, Dictionary configuration) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s", baseUrl, "configure", sessionId)), "POST", Utility.createDictionaryElement(configuration));
+		return call(url("configure", sessionId), "POST", Utility.createDictionaryElement(configuration));
 	}
 
 	/**
@@ -381,7 +571,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result capture(UUID sessionId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s", baseUrl, "capture", sessionId)), "POST");
+		return call(url("capture", sessionId), "POST");
 	}
 	
 	/**
@@ -398,7 +588,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result beginCapture(UUID sessionId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s/%s", baseUrl, "capture", sessionId, "async")), "POST");
+		return call(url("capture", sessionId, "async"), "POST");
 	}
 
 	/**
@@ -415,7 +605,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result endCapture(UUID sessionId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s/%s", baseUrl, "capture", sessionId, "async")), "PUT");
+		return call(url("capture", sessionId, "async"), "PUT");
 	}
 
 	/**
@@ -432,7 +622,86 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public SensorStatus getStatus(UUID sessionId) throws MalformedURLException, IOException, JAXBException {
-		Result result = call(new URL(String.format("%s/%s/", baseUrl, "status")), "GET");
+		Result result = call(statusUrl, "GET");
+		return StatelessClient.sensorStatus(result);
+	}
+
+	/**
+	 * Effect: waits for the sensor status to change from the specified status.
+	 * The service holds the request until the status changes or the timeout
+	 * elapses, so this replaces polling {@link #getStatus(UUID)}.
+	 *
+	 * @param current
+	 *            the last status seen
+	 * @param timeout
+	 *            the maximum amount of time to wait
+	 * @return the status. It is equal to <code>current</code> if the wait timed
+	 *         out.
+	 * @throws MalformedURLException
+	 *             if the URL is malformed
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	public SensorStatus waitForStatus(SensorStatus current, Duration timeout) throws MalformedURLException, IOException, JAXBException {
+		Result result = call(queryUrl("?current=" + current.value() + "&timeout=" + timeout.toMillis(), "status", "wait"), "GET");
+		return StatelessClient.sensorStatus(result);
+	}
+
+	/**
+	 * Effect: listens to the service's event stream, passing each event to the
+	 * listener on the calling thread. Blocks until the listener returns false
+	 * or the service closes the stream. The first event is always the current
+	 * sensor status.
+	 *
+	 * @param listener
+	 *            the listener. Returns true to keep listening.
+	 * @throws MalformedURLException
+	 *             if the URL is malformed
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	public void listen(Predicate<SensorEvent> listener) throws MalformedURLException, IOException, JAXBException {
+		call(eventsUrl, "GET", null, stream -> {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+				long id = -1;
+				SensorEvent.Type type = null;
+				String data = null;
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.isEmpty()) {
+						// A blank line ends the event. Heartbeats are just
+						// comments, so they end with nothing to dispatch.
+						if (type != null && data != null) {
+							if (!listener.test(new SensorEvent(id, type, data))) {
+								break;
+							}
+						}
+						id = -1;
+						type = null;
+						data = null;
+					} else if (line.startsWith("id: ")) {
+						id = Long.parseLong(line.substring(4));
+					} else if (line.startsWith("event: ")) {
+						type = SensorEvent.Type.valueOf(line.substring(7));
+					} else if (line.startsWith("data: ")) {
+						data = line.substring(6);
+					}
+				}
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * @param result
+	 *            a result returned by the status operation
+	 * @return the sensor status in the result
+	 */
+	static SensorStatus sensorStatus(Result result) {
 		return SensorStatus.fromValue((String) result.getMetadata().getValue().getItem().get(0).getValue());
 	}
 
@@ -450,7 +719,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result download(UUID captureId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s", baseUrl, "download", captureId)), "GET");
+		return call(url("download", captureId), "GET");
 	}
 	
 	/**
@@ -467,7 +736,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result getDownloadInformation(UUID captureId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s/info", baseUrl, "download", captureId)), "GET");
+		return call(url("download", captureId, "info"), "GET");
 	}
 
 	/**
@@ -486,7 +755,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result thriftyDownload(UUID captureId, String maxSize) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s/%s", baseUrl, "download", captureId, maxSize)), "GET");
+		return call(url("download", captureId, maxSize), "GET");
 	}
 	
 	/**
@@ -502,13 +771,288 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public byte[] rawDownload(UUID captureId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s/%s", baseUrl, "download", captureId, "raw")), "GET", null, stream -> {
+		return call(url("download", captureId, "raw"), "GET", null, stream -> {
 			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
 			Utility.drain(stream, bytes);
 			return bytes.toByteArray();
 		});
 	}
 
+	/**
+	 * Effect: opens the raw sensor data of a capture without reading it. The
+	 * caller must close the stream.
+	 *
+	 * @param captureId
+	 *            the capture ID
+	 * @return the stream
+	 * @throws MalformedURLException
+	 *             if the URL is malformed
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	public InputStream openRawDownload(UUID captureId) throws MalformedURLException, IOException, JAXBException {
+		return call(url("download", captureId, "raw"), "GET", null, stream -> stream, false);
+	}
+
+	/**
+	 * Effect: downloads a capture, copying the sensor data to the specified
+	 * output stream as it arrives instead of holding it in memory. The metadata
+	 * and the sensor data are fetched separately, and the sensor data is only
+	 * fetched if getting the metadata succeeds. Does not close the output
+	 * stream.
+	 *
+	 * @param captureId
+	 *            the capture ID
+	 * @param out
+	 *            the output stream
+	 * @return the download information result, which has the metadata but no
+	 *         sensor data
+	 * @throws MalformedURLException
+	 *             if the URL is malformed
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	public Result download(UUID captureId, OutputStream out) throws MalformedURLException, IOException, JAXBException {
+		return download(captureId, in -> {
+			byte[] buf = new byte[StatelessClient.copyBufferSize];
+			int read;
+			while ((read = in.read(buf)) != -1) {
+				out.write(buf, 0, read);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Effect: downloads a capture, copying the sensor data to the specified
+	 * channel as it arrives. Otherwise the same as
+	 * {@link #download(UUID, OutputStream)}. Does not close the channel.
+	 *
+	 * @param captureId
+	 *            the capture ID
+	 * @param channel
+	 *            the channel
+	 * @return the download information result
+	 * @throws MalformedURLException
+	 *             if the URL is malformed
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	public Result download(UUID captureId, WritableByteChannel channel) throws MalformedURLException, IOException, JAXBException {
+		return download(captureId, in -> {
+			ReadableByteChannel source = Channels.newChannel(in);
+			ByteBuffer buf = ByteBuffer.allocate(StatelessClient.copyBufferSize);
+			while (source.read(buf) != -1) {
+				buf.flip();
+				while (buf.hasRemaining()) {
+					channel.write(buf);
+				}
+				buf.clear();
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Effect: downloads a capture, writing the sensor data to the specified
+	 * file as it arrives. The data is written to a temporary file in the same
+	 * directory, which then replaces the file in one step, so the file is
+	 * either left as it was or holds the whole capture. It is not touched if
+	 * getting the metadata fails. Otherwise the same as
+	 * {@link #download(UUID, OutputStream)}.
+	 *
+	 * @param captureId
+	 *            the capture ID
+	 * @param file
+	 *            the file
+	 * @return the download information result
+	 * @throws MalformedURLException
+	 *             if the URL is malformed
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	public Result download(UUID captureId, Path file) throws MalformedURLException, IOException, JAXBException {
+		return download(captureId, in -> {
+			Path directory = file.toAbsolutePath().getParent();
+			Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".part");
+			try {
+				Files.copy(in, temporary, StandardCopyOption.REPLACE_EXISTING);
+				try {
+					Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(temporary);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Effect: gets the download information and, if that succeeds, passes the
+	 * raw sensor data to the specified sink. Both come in one
+	 * {@link DownloadMode#split} batch download.
+	 *
+	 * @param captureId
+	 *            the capture ID
+	 * @param sink
+	 *            the sink
+	 * @return the download information result
+	 * @throws MalformedURLException
+	 *             if the URL is malformed
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	private Result download(UUID captureId, Transformer<Void> sink) throws MalformedURLException, IOException, JAXBException {
+		return call(queryUrl("?mode=" + DownloadMode.split + "&id=" + captureId, "download"), "GET", null, stream -> {
+			try (MultipartReader reader = new MultipartReader(stream)) {
+				MultipartReader.Part part = reader.next();
+				if (part == null) {
+					throw new IOException("The download of " + captureId + " is empty");
+				}
+				Result information = Utility.unmarshalResult(part.body());
+				if (information.getStatus().equals(Status.SUCCESS)) {
+					part = reader.next();
+					if (part == null) {
+						throw new IOException("The download of " + captureId + " has no sensor data");
+					}
+					if (!Status.SUCCESS.value().equals(part.header(DownloadMode.STATUS_HEADER))) {
+						// The capture went away between the two parts
+						return Utility.unmarshalResult(part.body());
+					}
+					sink.transform(part.body());
+				}
+				return information;
+			} catch (JAXBException e) {
+				throw new IOException(e);
+			}
+		});
+	}
+
+	/**
+	 * Effect: downloads many captures in one request, passing each one to the
+	 * handler as it arrives, in the order of the capture IDs.
+	 *
+	 * @param captureIds
+	 *            the capture IDs
+	 * @param mode
+	 *            what to download for each capture
+	 * @param handler
+	 *            the handler
+	 * @throws MalformedURLException
+	 *             if the URL is malformed
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	public void batchDownload(List<UUID> captureIds, DownloadMode mode, DownloadHandler handler) throws MalformedURLException, IOException, JAXBException {
+		if (captureIds.isEmpty()) {
+			return;
+		}
+		StringBuilder query = new StringBuilder("?mode=").append(mode);
+		for (UUID captureId : captureIds) {
+			query.append("&id=").append(captureId);
+		}
+		call(queryUrl(query.toString(), "download"), "GET", null, stream -> {
+			try (MultipartReader reader = new MultipartReader(stream)) {
+				MultipartReader.Part part;
+				while ((part = reader.next()) != null) {
+					handler.handle(UUID.fromString(part.header(DownloadMode.CAPTURE_ID_HEADER)), Status.fromValue(part.header(DownloadMode.STATUS_HEADER)), part.header("Content-Type"),
+							part.body());
+				}
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Effect: downloads many captures in one request.
+	 *
+	 * @param captureIds
+	 *            the capture IDs
+	 * @param mode
+	 *            {@link DownloadMode#full} for the whole results, or
+	 *            {@link DownloadMode#info} for the results without the sensor
+	 *            data
+	 * @return the results, by capture ID, in the order of the capture IDs
+	 * @throws IllegalArgumentException
+	 *             if the mode is {@link DownloadMode#raw} or
+	 *             {@link DownloadMode#split}
+	 * @throws MalformedURLException
+	 *             if the URL is malformed
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	public Map<UUID, Result> batchDownload(List<UUID> captureIds, DownloadMode mode) throws MalformedURLException, IOException, JAXBException {
+		if (mode == DownloadMode.raw || mode == DownloadMode.split) {
+			throw new IllegalArgumentException("Raw batch downloads need a handler");
+		}
+		Map<UUID, Result> results = new LinkedHashMap<>();
+		batchDownload(captureIds, mode, (captureId, status, contentType, data) -> {
+			try {
+				results.put(captureId, Utility.unmarshalResult(data));
+			} catch (JAXBException e) {
+				throw new IOException(e);
+			}
+		});
+		return results;
+	}
+
+	/**
+	 * Effect: runs a sequence of operations for one session in a single
+	 * request. The workflow stops at the first operation which does not
+	 * succeed, so fewer steps than operations may be returned. It is not
+	 * atomic: the steps which succeeded are not undone.
+	 *
+	 * @param sessionId
+	 *            the session ID, or null if the first operation registers
+	 * @param operations
+	 *            the operations, in order
+	 * @return the steps which ran, in order. A download gives one step per
+	 *         capture.
+	 * @throws MalformedURLException
+	 *             if the URL is malformed
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	public List<Step> workflow(UUID sessionId, WorkflowOperation... operations) throws MalformedURLException, IOException, JAXBException {
+		StringBuilder query = new StringBuilder("?");
+		if (sessionId != null) {
+			query.append("session=").append(sessionId);
+		}
+		for (WorkflowOperation operation : operations) {
+			query.append(query.length() > 1 ? "&" : "").append("op=").append(operation);
+		}
+		return call(queryUrl(query.toString(), "workflow"), "POST", null, stream -> {
+			List<Step> steps = new ArrayList<>();
+			try (MultipartReader reader = new MultipartReader(stream)) {
+				MultipartReader.Part part;
+				while ((part = reader.next()) != null) {
+					steps.add(new Step(WorkflowOperation.valueOf(part.header(WorkflowOperation.OPERATION_HEADER)), Utility.unmarshalResult(part.body())));
+				}
+			} catch (JAXBException e) {
+				throw new IOException(e);
+			}
+			return steps;
+		});
+	}
+
 	/**
 	 *
 	 * @param sessionId
@@ -522,7 +1066,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public Result cancel(UUID sessionId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s", baseUrl, "cancel", sessionId)), "POST");
+		return call(url("cancel", sessionId), "POST");
 	}
 
 	/**
@@ -540,7 +1084,7 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public InputStream stream(String streamName, UUID captureId) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s/%s", baseUrl, "stream", streamName, captureId.toString())), "GET", null, stream -> stream, false);
+		return call(url("stream", streamName, captureId), "GET", null, stream -> stream, false);
 	}
 	
 	/**
@@ -556,9 +1100,287 @@ public class StatelessClient {
 	 *             if there is a problem
 	 */
 	public InputStream stream(String streamName) throws MalformedURLException, IOException, JAXBException {
-		return call(new URL(String.format("%s/%s/%s", baseUrl, "stream", streamName)), "GET", null, stream -> stream, false);
+		return call(url("stream", streamName), "GET", null, stream -> stream, false);
+	}
+
+	/**
+	 *
+	 * @param streamName
+	 *            the stream name
+	 * @param variant
+	 *            the frame rate, size and quality to ask for. The service may
+	 *            send a different variant.
+	 * @return the stream
+	 * @throws MalformedURLException
+	 *             if there is a problem
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	public InputStream stream(String streamName, StreamVariant variant) throws MalformedURLException, IOException, JAXBException {
+		return call(queryUrl(variant.toQuery(), "stream", streamName), "GET", null, stream -> stream, false);
+	}
+
+	/**
+	 *
+	 * @param streamName
+	 *            the stream name
+	 * @param sessionId
+	 *            the session ID
+	 * @param variant
+	 *            the frame rate, size and quality to ask for. The service may
+	 *            send a different variant.
+	 * @return the stream
+	 * @throws MalformedURLException
+	 *             if there is a problem
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	public InputStream stream(String streamName, UUID sessionId, StreamVariant variant) throws MalformedURLException, IOException, JAXBException {
+		return call(queryUrl(variant.toQuery(), "stream", streamName, sessionId), "GET", null, stream -> stream, false);
 	}
 	
+	/**
+	 * Represents: the connection settings of a client
+	 *
+	 * @author Jacob Glueck
+	 *
+	 */
+	public static class ClientConfiguration {
+
+		/**
+		 * The default value for keepAlive
+		 */
+		public static final boolean defaultKeepAlive = true;
+		/**
+		 * True if connections should be kept open and reused between calls
+		 */
+		private boolean keepAlive = ClientConfiguration.defaultKeepAlive;
+
+		/**
+		 * The default connect timeout. Zero means no timeout.
+		 */
+		public static final Duration defaultConnectTimeout = Duration.ZERO;
+		/**
+		 * The connect timeout
+		 */
+		private Duration connectTimeout = ClientConfiguration.defaultConnectTimeout;
+
+		/**
+		 * The default read timeout. Zero means no timeout.
+		 */
+		public static final Duration defaultReadTimeout = Duration.ZERO;
+		/**
+		 * The read timeout
+		 */
+		private Duration readTimeout = ClientConfiguration.defaultReadTimeout;
+
+		/**
+		 * The default number of I/O threads an {@link AsyncClient} uses for
+		 * all its calls. Zero means one per processor.
+		 */
+		public static final int defaultAsyncThreads = 0;
+		/**
+		 * The number of I/O threads an {@link AsyncClient} uses for all its
+		 * calls. The calls do not block, so this does not limit how many are
+		 * in progress at once.
+		 */
+		private int asyncThreads = ClientConfiguration.defaultAsyncThreads;
+
+		/**
+		 * The default value for compactEncoding
+		 */
+		public static final boolean defaultCompactEncoding = false;
+		/**
+		 * True if a client should ask for results in CBOR
+		 * (see {@link CborCodec}) instead of XML. The sensor data of a
+		 * download is then sent as raw bytes instead of base64 text. Only
+		 * servers built on this library understand it.
+		 */
+		private boolean compactEncoding = ClientConfiguration.defaultCompactEncoding;
+
+		/**
+		 * Creates: a new configuration with all the default values
+		 */
+		public ClientConfiguration() {
+		}
+
+		/**
+		 * @return the keepAlive
+		 */
+		public boolean keepAlive() {
+
+			return keepAlive;
+		}
+
+		/**
+		 * @param keepAlive
+		 *            the keepAlive to set
+		 */
+		public void setKeepAlive(boolean keepAlive) {
+
+			this.keepAlive = keepAlive;
+		}
+
+		/**
+		 * @return the connectTimeout
+		 */
+		public Duration connectTimeout() {
+
+			return connectTimeout;
+		}
+
+		/**
+		 * @param connectTimeout
+		 *            the connectTimeout to set. Zero means no timeout.
+		 */
+		public void setConnectTimeout(Duration connectTimeout) {
+
+			this.connectTimeout = connectTimeout;
+		}
+
+		/**
+		 * @return the readTimeout
+		 */
+		public Duration readTimeout() {
+
+			return readTimeout;
+		}
+
+		/**
+		 * The read timeout also applies to streams and
+		 * {@link StatelessClient#listen(Predicate)}, which can go quiet for a
+		 * long time.
+		 *
+		 * @param readTimeout
+		 *            the readTimeout to set. Zero means no timeout.
+		 */
+		public void setReadTimeout(Duration readTimeout) {
+
+			this.readTimeout = readTimeout;
+		}
+
+		/**
+		 * @return the asyncThreads
+		 */
+		public int asyncThreads() {
+
+			return asyncThreads;
+		}
+
+		/**
+		 * @param asyncThreads
+		 *            the asyncThreads to set. Zero means one per processor.
+		 */
+		public void setAsyncThreads(int asyncThreads) {
+
+			this.asyncThreads = asyncThreads;
+		}
+
+		/**
+		 * @return the compactEncoding
+		 */
+		public boolean compactEncoding() {
+
+			return compactEncoding;
+		}
+
+		/**
+		 * @param compactEncoding
+		 *            the compactEncoding to set
+		 */
+		public void setCompactEncoding(boolean compactEncoding) {
+
+			this.compactEncoding = compactEncoding;
+		}
+
+		@Override
+		public String toString() {
+
+			return "ClientConfiguration [keepAlive=" + keepAlive + ", connectTimeout=" + connectTimeout + ", readTimeout=" + readTimeout + ", asyncThreads=" + asyncThreads
+					+ ", compactEncoding=" + compactEncoding + "]";
+		}
+	}
+
+	/**
+	 * Represents: the result of one step of a workflow
+	 *
+	 * @author Jacob Glueck
+	 *
+	 */
+	public static class Step {
+
+		/**
+		 * The operation
+		 */
+		private final WorkflowOperation operation;
+		/**
+		 * The result
+		 */
+		private final Result result;
+
+		/**
+		 * Creates: a new step
+		 *
+		 * @param operation
+		 *            the operation
+		 * @param result
+		 *            the result
+		 */
+		public Step(WorkflowOperation operation, Result result) {
+			this.operation = operation;
+			this.result = result;
+		}
+
+		/**
+		 * @return the operation
+		 */
+		public WorkflowOperation operation() {
+			return operation;
+		}
+
+		/**
+		 * @return the result
+		 */
+		public Result result() {
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return "Step [operation=" + operation + ", status=" + result.getStatus() + "]";
+		}
+	}
+
+	/**
+	 * Represents: a function which receives each capture of a batch download
+	 *
+	 * @author Jacob Glueck
+	 *
+	 */
+	public interface DownloadHandler {
+
+		/**
+		 * Effect: handles one capture.
+		 *
+		 * @param captureId
+		 *            the capture ID
+		 * @param status
+		 *            the status of the download. If it is not
+		 *            {@link Status#SUCCESS}, the data is the failed result.
+		 * @param contentType
+		 *            the content type of the data
+		 * @param data
+		 *            the data. It is only valid until this method returns.
+		 * @throws IOException
+		 *             if there is a problem
+		 */
+		public void handle(UUID captureId, Status status, String contentType, InputStream data) throws IOException;
+	}
+
 	/**
 	 * Represents: a function the reads an input stream and produces a result.
 	 *
@@ -579,6 +1401,23 @@ public class StatelessClient {
 		 *             if there is a problem
 		 */
 		public R transform(InputStream in) throws IOException;
+
+		/**
+		 * Effect: transforms the data in the input stream, which has the
+		 * specified content type, into a result. By default, ignores the
+		 * content type.
+		 *
+		 * @param in
+		 *            the input stream
+		 * @param contentType
+		 *            the content type, or null if it is not known
+		 * @return the result
+		 * @throws IOException
+		 *             if there is a problem
+		 */
+		public default R transform(InputStream in, String contentType) throws IOException {
+			return transform(in);
+		}
 	}
 
 }
\ No newline at end of file
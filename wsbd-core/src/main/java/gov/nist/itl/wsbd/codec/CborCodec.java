@@ -0,0 +1,781 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Kevin Mangold (kevin.mangold@nist.gov)
+      Jaocb Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+package gov.nist.itl.wsbd.codec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary.Item;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.StringArray;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.UuidArray;
+
+import gov.nist.itl.wsbd.service.Utility;
+
+/**
+ * Contains: a codec for results in CBOR (RFC 7049), a compact binary format
+ * which is not part of the WSBD specification. It is meant for clients which
+ * do not need to interoperate, and which download large captures: the sensor
+ * data is sent as raw bytes instead of base64 text, and nothing has to be
+ * parsed as XML.
+ * <p>
+ * A result is a map from the names of its fields, as in the schema, to their
+ * values. Nil fields are null, and missing fields are left out. Capture and
+ * session IDs are UUIDs (tag 37), and the bad fields are an array of strings.
+ * A dictionary is a map from keys to values, where:
+ * <ul>
+ * <li>strings, booleans, byte arrays, floats and doubles are themselves</li>
+ * <li>integers (<code>xs:integer</code>) are integers, or bignums (tags 2
+ * and 3) if they are too big</li>
+ * <li>decimals are decimal fractions (tag 4)</li>
+ * <li>date-times are date/time strings (tag 0)</li>
+ * <li>dictionaries are maps, and UUID arrays are arrays</li>
+ * <li>anything else, such as a parameter, is the XML JAXB writes for it,
+ * wrapped in tag {@value #xmlTag}</li>
+ * </ul>
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class CborCodec {
+
+	/**
+	 * The media type of CBOR
+	 */
+	public static final String MEDIA_TYPE = "application/cbor";
+	/**
+	 * The tag for values which are written as XML. It is not a registered
+	 * tag, so only this codec understands it.
+	 */
+	public static final int xmlTag = 40000;
+
+	/**
+	 * The major type of unsigned integers
+	 */
+	private static final int unsigned = 0;
+	/**
+	 * The major type of negative integers
+	 */
+	private static final int negative = 1;
+	/**
+	 * The major type of byte strings
+	 */
+	private static final int bytes = 2;
+	/**
+	 * The major type of text strings
+	 */
+	private static final int text = 3;
+	/**
+	 * The major type of arrays
+	 */
+	private static final int array = 4;
+	/**
+	 * The major type of maps
+	 */
+	private static final int map = 5;
+	/**
+	 * The major type of tags
+	 */
+	private static final int tag = 6;
+	/**
+	 * The major type of simple values and floating point numbers
+	 */
+	private static final int simple = 7;
+	/**
+	 * The additional information which marks an indefinite length
+	 */
+	private static final int indefinite = 31;
+	/**
+	 * The byte which ends an indefinite length item
+	 */
+	private static final int breakByte = 0xff;
+	/**
+	 * The standard date/time string tag
+	 */
+	private static final int dateTimeTag = 0;
+	/**
+	 * The positive bignum tag
+	 */
+	private static final int positiveBignumTag = 2;
+	/**
+	 * The negative bignum tag
+	 */
+	private static final int negativeBignumTag = 3;
+	/**
+	 * The decimal fraction tag
+	 */
+	private static final int decimalTag = 4;
+	/**
+	 * The binary UUID tag
+	 */
+	private static final int uuidTag = 37;
+	/**
+	 * The name of the element a value is wrapped in when it is written as XML
+	 */
+	private static final QName xmlValue = new QName(XmlCodec.namespace, "value");
+	/**
+	 * The longest byte or text string which can be read
+	 */
+	private static final long maxStringBytes = Integer.MAX_VALUE - 8;
+	/**
+	 * The most memory taken for a string before its bytes arrive, so that a
+	 * corrupt length cannot make the reader take more memory than the stream
+	 * holds
+	 */
+	private static final int stringChunkBytes = 1 << 16;
+
+	/**
+	 * Prevent construction
+	 */
+	private CborCodec() {
+	}
+
+	/**
+	 * Effect: writes a result. Does not close the stream.
+	 *
+	 * @param result
+	 *            the result
+	 * @param out
+	 *            the stream
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	public static void writeResult(Result result, OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		int fields = (result.getStatus() != null ? 1 : 0) + (result.getBadFields() != null ? 1 : 0) + (result.getCaptureIds() != null ? 1 : 0) + (result.getMetadata() != null ? 1 : 0)
+				+ (result.getMessage() != null ? 1 : 0) + (result.getSensorData() != null ? 1 : 0) + (result.getSessionId() != null ? 1 : 0);
+		CborCodec.writeHead(data, CborCodec.map, fields);
+		if (result.getStatus() != null) {
+			CborCodec.writeText(data, "status");
+			CborCodec.writeText(data, result.getStatus().value());
+		}
+		if (result.getBadFields() != null) {
+			CborCodec.writeText(data, "badFields");
+			if (result.getBadFields().isNil()) {
+				CborCodec.writeNull(data);
+			} else {
+				List<String> fieldNames = result.getBadFields().getValue().getElement();
+				CborCodec.writeHead(data, CborCodec.array, fieldNames.size());
+				for (String fieldName : fieldNames) {
+					CborCodec.writeText(data, fieldName);
+				}
+			}
+		}
+		if (result.getCaptureIds() != null) {
+			CborCodec.writeText(data, "captureIds");
+			if (result.getCaptureIds().isNil()) {
+				CborCodec.writeNull(data);
+			} else {
+				CborCodec.writeUuids(data, result.getCaptureIds().getValue());
+			}
+		}
+		if (result.getMetadata() != null) {
+			CborCodec.writeText(data, "metadata");
+			CborCodec.writeValue(data, result.getMetadata().getValue());
+		}
+		if (result.getMessage() != null) {
+			CborCodec.writeText(data, "message");
+			if (result.getMessage().isNil()) {
+				CborCodec.writeNull(data);
+			} else {
+				CborCodec.writeText(data, result.getMessage().getValue());
+			}
+		}
+		if (result.getSensorData() != null) {
+			CborCodec.writeText(data, "sensorData");
+			CborCodec.writeValue(data, result.getSensorData().getValue());
+		}
+		if (result.getSessionId() != null) {
+			CborCodec.writeText(data, "sessionId");
+			CborCodec.writeUuid(data, result.getSessionId().getValue());
+		}
+		data.flush();
+	}
+
+	/**
+	 * Effect: reads a result. Does not close the stream.
+	 *
+	 * @param in
+	 *            the stream
+	 * @return the result
+	 * @throws IOException
+	 *             if there is a problem, including if the data is not a result
+	 */
+	public static Result readResult(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		long fields = CborCodec.readHead(data, CborCodec.map);
+		Result result = new Result();
+		for (long i = 0; fields < 0 ? !CborCodec.atBreak(data) : i < fields; i++) {
+			String field = CborCodec.readText(data);
+			Object value;
+			try {
+				switch (field) {
+					case "status":
+						result.setStatus(Status.fromValue(CborCodec.readText(data)));
+						break;
+					case "badFields":
+						StringArray badFields = null;
+						value = CborCodec.readValue(data);
+						if (value != null) {
+							badFields = new StringArray();
+							badFields.getElement().addAll(((UuidArray) value).getElement());
+						}
+						result.setBadFields(Utility.objectFactory.createResultBadFields(badFields));
+						break;
+					case "captureIds":
+						result.setCaptureIds(Utility.objectFactory.createResultCaptureIds((UuidArray) CborCodec.readValue(data)));
+						break;
+					case "metadata":
+						result.setMetadata(Utility.objectFactory.createResultMetadata((Dictionary) CborCodec.readValue(data)));
+						break;
+					case "message":
+						result.setMessage(Utility.objectFactory.createResultMessage((String) CborCodec.readValue(data)));
+						break;
+					case "sensorData":
+						result.setSensorData(Utility.objectFactory.createResultSensorData((byte[]) CborCodec.readValue(data)));
+						break;
+					case "sessionId":
+						result.setSessionId(Utility.objectFactory.createResultSessionId((String) CborCodec.readValue(data)));
+						break;
+					default:
+						CborCodec.readValue(data);
+				}
+			} catch (ClassCastException | IllegalArgumentException e) {
+				throw new IOException("Invalid " + field, e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Effect: writes a value which may appear in a dictionary
+	 *
+	 * @param out
+	 *            the stream
+	 * @param value
+	 *            the value, which may be null
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			CborCodec.writeNull(out);
+		} else if (value instanceof String) {
+			CborCodec.writeText(out, (String) value);
+		} else if (value instanceof Boolean) {
+			out.write(CborCodec.simple << 5 | ((Boolean) value ? 21 : 20));
+		} else if (value instanceof byte[]) {
+			byte[] b = (byte[]) value;
+			CborCodec.writeHead(out, CborCodec.bytes, b.length);
+			out.write(b);
+		} else if (value instanceof Double) {
+			out.write(CborCodec.simple << 5 | 27);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			out.write(CborCodec.simple << 5 | 26);
+			out.writeFloat((Float) value);
+		} else if (value instanceof BigInteger) {
+			CborCodec.writeInteger(out, (BigInteger) value);
+		} else if (value instanceof BigDecimal) {
+			BigDecimal decimal = (BigDecimal) value;
+			CborCodec.writeHead(out, CborCodec.tag, CborCodec.decimalTag);
+			CborCodec.writeHead(out, CborCodec.array, 2);
+			CborCodec.writeInteger(out, BigInteger.valueOf(-decimal.scale()));
+			CborCodec.writeInteger(out, decimal.unscaledValue());
+		} else if (value instanceof XMLGregorianCalendar && DatatypeConstants.DATETIME.equals(((XMLGregorianCalendar) value).getXMLSchemaType())) {
+			CborCodec.writeHead(out, CborCodec.tag, CborCodec.dateTimeTag);
+			CborCodec.writeText(out, ((XMLGregorianCalendar) value).toXMLFormat());
+		} else if (value instanceof Dictionary) {
+			List<Item> items = ((Dictionary) value).getItem();
+			CborCodec.writeHead(out, CborCodec.map, items.size());
+			for (Item item : items) {
+				CborCodec.writeValue(out, item.getKey());
+				CborCodec.writeValue(out, item.getValue());
+			}
+		} else if (value instanceof UuidArray) {
+			CborCodec.writeUuids(out, (UuidArray) value);
+		} else {
+			StringWriter xml = new StringWriter();
+			try {
+				Marshaller marshaller = Utility.context().createMarshaller();
+				marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+				marshaller.marshal(new JAXBElement<>(CborCodec.xmlValue, Object.class, value), xml);
+			} catch (JAXBException e) {
+				throw new IOException(e);
+			}
+			CborCodec.writeHead(out, CborCodec.tag, CborCodec.xmlTag);
+			CborCodec.writeText(out, xml.toString());
+		}
+	}
+
+	/**
+	 * Effect: reads a value written by {@link #writeValue(DataOutputStream,
+	 * Object)}. Arrays are read as UUID arrays, and integers as
+	 * {@link BigInteger}s.
+	 *
+	 * @param in
+	 *            the stream
+	 * @return the value
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private static Object readValue(DataInputStream in) throws IOException {
+		int initial = in.readUnsignedByte();
+		int major = initial >> 5;
+		int info = initial & 0x1f;
+		switch (major) {
+			case unsigned:
+				return CborCodec.unsigned(CborCodec.readArgument(in, info));
+			case negative:
+				return BigInteger.ONE.negate().subtract(CborCodec.unsigned(CborCodec.readArgument(in, info)));
+			case bytes:
+				return CborCodec.readString(in, CborCodec.bytes, info);
+			case text:
+				return new String(CborCodec.readString(in, CborCodec.text, info), StandardCharsets.UTF_8);
+			case array: {
+				long length = CborCodec.readArgument(in, info);
+				UuidArray uuids = new UuidArray();
+				for (long i = 0; length < 0 ? !CborCodec.atBreak(in) : i < length; i++) {
+					Object element = CborCodec.readValue(in);
+					uuids.getElement().add(element == null ? null : element.toString());
+				}
+				return uuids;
+			}
+			case map: {
+				long length = CborCodec.readArgument(in, info);
+				Dictionary dictionary = new Dictionary();
+				for (long i = 0; length < 0 ? !CborCodec.atBreak(in) : i < length; i++) {
+					Item item = new Item();
+					Object key = CborCodec.readValue(in);
+					item.setKey(key == null ? null : key.toString());
+					item.setValue(CborCodec.readValue(in));
+					dictionary.getItem().add(item);
+				}
+				return dictionary;
+			}
+			case tag:
+				return CborCodec.readTagged(in, CborCodec.readArgument(in, info));
+			default:
+				switch (info) {
+					case 20:
+						return false;
+					case 21:
+						return true;
+					case 22:
+					case 23:
+						return null;
+					case 25:
+						return CborCodec.halfToFloat(in.readUnsignedShort());
+					case 26:
+						return in.readFloat();
+					case 27:
+						return in.readDouble();
+					default:
+						throw new IOException("Unsupported simple value " + info);
+				}
+		}
+	}
+
+	/**
+	 * Effect: reads the value of a tag
+	 *
+	 * @param in
+	 *            the stream
+	 * @param number
+	 *            the tag number
+	 * @return the value
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private static Object readTagged(DataInputStream in, long number) throws IOException {
+		Object value = CborCodec.readValue(in);
+		try {
+			if (number == CborCodec.dateTimeTag) {
+				return Utility.datatypeFactory().newXMLGregorianCalendar((String) value);
+			} else if (number == CborCodec.positiveBignumTag) {
+				return new BigInteger(1, (byte[]) value);
+			} else if (number == CborCodec.negativeBignumTag) {
+				return BigInteger.ONE.negate().subtract(new BigInteger(1, (byte[]) value));
+			} else if (number == CborCodec.decimalTag) {
+				List<String> parts = ((UuidArray) value).getElement();
+				return new BigDecimal(new BigInteger(parts.get(1)), -Integer.parseInt(parts.get(0)));
+			} else if (number == CborCodec.uuidTag) {
+				ByteBuffer uuid = ByteBuffer.wrap((byte[]) value);
+				return new UUID(uuid.getLong(), uuid.getLong()).toString();
+			} else if (number == CborCodec.xmlTag) {
+				return Utility.context().createUnmarshaller().unmarshal(new StreamSource(new StringReader((String) value)), Object.class).getValue();
+			}
+		} catch (ClassCastException | IllegalArgumentException | IndexOutOfBoundsException | JAXBException e) {
+			throw new IOException("Invalid value for tag " + number, e);
+		}
+		// An unknown tag, which does not change the value
+		return value;
+	}
+
+	/**
+	 * Effect: writes a UUID array
+	 *
+	 * @param out
+	 *            the stream
+	 * @param uuids
+	 *            the array
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private static void writeUuids(DataOutputStream out, UuidArray uuids) throws IOException {
+		CborCodec.writeHead(out, CborCodec.array, uuids.getElement().size());
+		for (String uuid : uuids.getElement()) {
+			CborCodec.writeUuid(out, uuid);
+		}
+	}
+
+	/**
+	 * Effect: writes a UUID as 16 bytes, or as text if it is not a valid UUID
+	 *
+	 * @param out
+	 *            the stream
+	 * @param uuid
+	 *            the UUID, which may be null
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private static void writeUuid(DataOutputStream out, String uuid) throws IOException {
+		UUID parsed;
+		try {
+			parsed = uuid == null ? null : UUID.fromString(uuid);
+		} catch (IllegalArgumentException e) {
+			parsed = null;
+		}
+		// Only the canonical form survives the round trip
+		if (parsed == null || !parsed.toString().equals(uuid)) {
+			CborCodec.writeValue(out, uuid);
+			return;
+		}
+		CborCodec.writeHead(out, CborCodec.tag, CborCodec.uuidTag);
+		CborCodec.writeHead(out, CborCodec.bytes, 16);
+		out.writeLong(parsed.getMostSignificantBits());
+		out.writeLong(parsed.getLeastSignificantBits());
+	}
+
+	/**
+	 * Effect: writes an integer, as a bignum if it does not fit in 64 bits
+	 *
+	 * @param out
+	 *            the stream
+	 * @param value
+	 *            the integer
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private static void writeInteger(DataOutputStream out, BigInteger value) throws IOException {
+		boolean isNegative = value.signum() < 0;
+		BigInteger magnitude = isNegative ? BigInteger.ONE.negate().subtract(value) : value;
+		if (magnitude.bitLength() < 64) {
+			CborCodec.writeHead(out, isNegative ? CborCodec.negative : CborCodec.unsigned, magnitude.longValue());
+		} else {
+			byte[] b = magnitude.toByteArray();
+			CborCodec.writeHead(out, CborCodec.tag, isNegative ? CborCodec.negativeBignumTag : CborCodec.positiveBignumTag);
+			CborCodec.writeHead(out, CborCodec.bytes, b.length);
+			out.write(b);
+		}
+	}
+
+	/**
+	 * Effect: writes a text string
+	 *
+	 * @param out
+	 *            the stream
+	 * @param s
+	 *            the string
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private static void writeText(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		CborCodec.writeHead(out, CborCodec.text, b.length);
+		out.write(b);
+	}
+
+	/**
+	 * Effect: writes null
+	 *
+	 * @param out
+	 *            the stream
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private static void writeNull(DataOutputStream out) throws IOException {
+		out.write(CborCodec.simple << 5 | 22);
+	}
+
+	/**
+	 * Effect: writes the initial byte of an item and its argument in as few
+	 * bytes as possible
+	 *
+	 * @param out
+	 *            the stream
+	 * @param major
+	 *            the major type
+	 * @param argument
+	 *            the argument, which is treated as unsigned
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private static void writeHead(DataOutputStream out, int major, long argument) throws IOException {
+		int type = major << 5;
+		if (argument >= 0 && argument < 24) {
+			out.write(type | (int) argument);
+		} else if (argument >= 0 && argument <= 0xff) {
+			out.write(type | 24);
+			out.write((int) argument);
+		} else if (argument >= 0 && argument <= 0xffff) {
+			out.write(type | 25);
+			out.writeShort((int) argument);
+		} else if (argument >= 0 && argument <= 0xffffffffL) {
+			out.write(type | 26);
+			out.writeInt((int) argument);
+		} else {
+			out.write(type | 27);
+			out.writeLong(argument);
+		}
+	}
+
+	/**
+	 * Effect: reads the initial byte of an item of the specified major type
+	 * and its argument
+	 *
+	 * @param in
+	 *            the stream
+	 * @param major
+	 *            the expected major type
+	 * @return the argument, or -1 for an indefinite length
+	 * @throws IOException
+	 *             if the item is of another type, or there is a problem
+	 */
+	private static long readHead(DataInputStream in, int major) throws IOException {
+		int initial = in.readUnsignedByte();
+		if (initial >> 5 != major) {
+			throw new IOException("Expected major type " + major + " but found " + (initial >> 5));
+		}
+		return CborCodec.readArgument(in, initial & 0x1f);
+	}
+
+	/**
+	 * Effect: reads a text string
+	 *
+	 * @param in
+	 *            the stream
+	 * @return the string
+	 * @throws IOException
+	 *             if the next item is not a text string, or there is a
+	 *             problem
+	 */
+	private static String readText(DataInputStream in) throws IOException {
+		int initial = in.readUnsignedByte();
+		if (initial >> 5 != CborCodec.text) {
+			throw new IOException("Expected text but found major type " + (initial >> 5));
+		}
+		return new String(CborCodec.readString(in, CborCodec.text, initial & 0x1f), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Effect: reads the bytes of a byte or text string, joining up the chunks
+	 * of an indefinite length string
+	 *
+	 * @param in
+	 *            the stream
+	 * @param major
+	 *            the major type of the string
+	 * @param info
+	 *            the additional information of its initial byte
+	 * @return the bytes
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private static byte[] readString(DataInputStream in, int major, int info) throws IOException {
+		if (info != CborCodec.indefinite) {
+			long length = CborCodec.readArgument(in, info);
+			// A length too big for a signed long is negative
+			if (length < 0 || length > CborCodec.maxStringBytes) {
+				throw new IOException("String too long: " + Long.toUnsignedString(length));
+			}
+			if (length <= CborCodec.stringChunkBytes) {
+				byte[] b = new byte[(int) length];
+				in.readFully(b);
+				return b;
+			}
+			// The length may be wrong, so the memory is only taken as the
+			// bytes arrive
+			ByteArrayOutputStream out = new ByteArrayOutputStream(CborCodec.stringChunkBytes);
+			byte[] chunk = new byte[CborCodec.stringChunkBytes];
+			for (long remaining = length; remaining > 0;) {
+				int read = (int) Math.min(remaining, chunk.length);
+				in.readFully(chunk, 0, read);
+				out.write(chunk, 0, read);
+				remaining -= read;
+			}
+			return out.toByteArray();
+		}
+		ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+		while (!CborCodec.atBreak(in)) {
+			int initial = in.readUnsignedByte();
+			if (initial >> 5 != major || (initial & 0x1f) == CborCodec.indefinite) {
+				throw new IOException("Invalid chunk of an indefinite length string");
+			}
+			byte[] chunk = CborCodec.readString(in, major, initial & 0x1f);
+			if (chunks.size() + (long) chunk.length > CborCodec.maxStringBytes) {
+				throw new IOException("String too long");
+			}
+			chunks.write(chunk);
+		}
+		return chunks.toByteArray();
+	}
+
+	/**
+	 * Effect: reads the argument which follows an initial byte
+	 *
+	 * @param in
+	 *            the stream
+	 * @param info
+	 *            the additional information of the initial byte
+	 * @return the argument, which may be negative if it does not fit in a
+	 *         signed long, or -1 for an indefinite length
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private static long readArgument(DataInputStream in, int info) throws IOException {
+		if (info < 24) {
+			return info;
+		}
+		switch (info) {
+			case 24:
+				return in.readUnsignedByte();
+			case 25:
+				return in.readUnsignedShort();
+			case 26:
+				return in.readInt() & 0xffffffffL;
+			case 27:
+				return in.readLong();
+			case indefinite:
+				return -1;
+			default:
+				throw new IOException("Invalid additional information " + info);
+		}
+	}
+
+	/**
+	 * Effect: if the next byte ends an indefinite length item, reads it.
+	 *
+	 * @param in
+	 *            the stream
+	 * @return true if the item ended
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private static boolean atBreak(DataInputStream in) throws IOException {
+		in.mark(1);
+		int next = in.read();
+		if (next == -1) {
+			throw new EOFException();
+		}
+		if (next == CborCodec.breakByte) {
+			return true;
+		}
+		in.reset();
+		return false;
+	}
+
+	/**
+	 * @param argument
+	 *            an argument read as a signed long
+	 * @return the argument as an unsigned number
+	 */
+	private static BigInteger unsigned(long argument) {
+		BigInteger value = BigInteger.valueOf(argument);
+		return argument >= 0 ? value : value.add(BigInteger.ONE.shiftLeft(64));
+	}
+
+	/**
+	 * @param half
+	 *            a half precision float
+	 * @return the float
+	 */
+	private static float halfToFloat(int half) {
+		int exponent = (half >> 10) & 0x1f;
+		int mantissa = half & 0x3ff;
+		float value;
+		if (exponent == 0) {
+			value = Math.scalb(mantissa, -24);
+		} else if (exponent == 31) {
+			value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+		} else {
+			value = Math.scalb(mantissa + 1024, exponent - 25);
+		}
+		return (half & 0x8000) == 0 ? value : -value;
+	}
+}
@@ -0,0 +1,136 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Kevin Mangold (kevin.mangold@nist.gov)
+      Jaocb Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+package gov.nist.itl.wsbd.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.xml.bind.JAXBElement;
+
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
+
+import gov.nist.itl.wsbd.service.Utility;
+
+/**
+ * Represents: a Jersey provider which reads results, and writes them wrapped
+ * in a {@link JAXBElement}, as CBOR with {@link CborCodec}. A server with it
+ * registered sends CBOR to clients which ask for
+ * {@value CborCodec#MEDIA_TYPE}. Shared results (see
+ * {@link Utility#share(Result)}), such as the sensor status, are encoded once
+ * and then sent from their encoded form.
+ *
+ * @author Jacob Glueck
+ *
+ */
+@Produces(CborCodec.MEDIA_TYPE)
+@Consumes(CborCodec.MEDIA_TYPE)
+public class CborCodecProvider implements MessageBodyReader<Result>, MessageBodyWriter<JAXBElement<?>> {
+
+	/**
+	 * The encoded forms of the shared results, by result. The generated
+	 * classes do not override equals, so this is by identity.
+	 */
+	private static final Map<Result, byte[]> sharedResultBytes = new ConcurrentHashMap<>();
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return type == Result.class;
+	}
+
+	@Override
+	public Result readFrom(Class<Result> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, String> httpHeaders, InputStream entityStream)
+			throws IOException {
+		return CborCodec.readResult(entityStream);
+	}
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return type == JAXBElement.class && genericType instanceof ParameterizedType && ((ParameterizedType) genericType).getActualTypeArguments()[0] == Result.class;
+	}
+
+	@Override
+	public long getSize(JAXBElement<?> t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(JAXBElement<?> t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders,
+			OutputStream entityStream) throws IOException {
+		Result result = (Result) t.getValue();
+		if (Utility.isShared(result)) {
+			entityStream.write(CborCodecProvider.sharedResultBytes.computeIfAbsent(result, CborCodecProvider::encode));
+		} else {
+			CborCodec.writeResult(result, entityStream);
+		}
+	}
+
+	/**
+	 * @param result
+	 *            a result
+	 * @return the result encoded with {@link CborCodec}
+	 */
+	private static byte[] encode(Result result) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			CborCodec.writeResult(result, out);
+		} catch (IOException e) {
+			// A byte array stream never throws
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,1268 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Kevin Mangold (kevin.mangold@nist.gov)
+      Jaocb Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+package gov.nist.itl.wsbd.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary.Item;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Parameter;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Parameter.AllowedValues;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.StringArray;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.UuidArray;
+import org.w3c.dom.Element;
+
+import gov.nist.itl.wsbd.service.Utility;
+
+/**
+ * Contains: a streaming (StAX) codec for results and dictionaries, which can
+ * be used instead of JAXB. It writes compact XML, and it copies sensor data
+ * between streams in small pieces instead of holding all of it in memory. It
+ * reads and writes the same documents as the JAXB classes generated from the
+ * schema. Results, dictionaries, parameters, capture ID arrays and the simple
+ * XML schema types are handled by the codec itself, and the other values
+ * which can appear in a dictionary are handed to JAXB.
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class XmlCodec {
+
+	/**
+	 * The WSBD namespace
+	 */
+	public static final String namespace = "http://docs.oasis-open.org/bioserv/ns/wsbd-1.0";
+	/**
+	 * The XML schema instance namespace, for <code>xsi:type</code> and
+	 * <code>xsi:nil</code>
+	 */
+	private static final String xsi = XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI;
+	/**
+	 * The XML schema namespace, for the simple types
+	 */
+	private static final String xs = XMLConstants.W3C_XML_SCHEMA_NS_URI;
+	/**
+	 * The number of bytes of sensor data encoded at once. It is a multiple of
+	 * 3, so the encoded pieces join up without padding.
+	 */
+	private static final int encodeChunk = 3 * 16 * 1024;
+	/**
+	 * The number of base64 characters decoded at once. It is a multiple of 4,
+	 * so each piece decodes on its own.
+	 */
+	private static final int decodeChunk = 4 * 16 * 1024;
+	/**
+	 * Creates the writers
+	 */
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+	/**
+	 * Creates the readers
+	 */
+	private static final XMLInputFactory inputFactory = XmlCodec.createInputFactory();
+
+	/**
+	 * Prevent construction
+	 */
+	private XmlCodec() {
+	}
+
+	/**
+	 * Effect: writes a result as an XML document. Does not close the stream.
+	 *
+	 * @param result
+	 *            the result
+	 * @param out
+	 *            the stream
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	public static void writeResult(Result result, OutputStream out) throws IOException {
+		XmlCodec.writeResult(result, null, out);
+	}
+
+	/**
+	 * Effect: writes a result as an XML document, with the sensor data read
+	 * from a stream instead of from the result. The sensor data is encoded as
+	 * it is read, so it never has to be in memory all at once. Does not close
+	 * either stream.
+	 *
+	 * @param result
+	 *            the result. Its sensor data is ignored.
+	 * @param sensorData
+	 *            the sensor data, which is read to its end, or null to use the
+	 *            sensor data of the result
+	 * @param out
+	 *            the stream to write to
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	public static void writeResult(Result result, InputStream sensorData, OutputStream out) throws IOException {
+		try {
+			XMLStreamWriter w = XmlCodec.outputFactory.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+			XmlCodec.startDocument(w, "result");
+			XmlCodec.writeResultContent(w, result, sensorData);
+			XmlCodec.endDocument(w);
+		} catch (XMLStreamException | JAXBException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Effect: writes the result which a reader is reading as an XML document.
+	 * The fields before the sensor data are taken from <code>result</code>, so
+	 * that they can be changed, and the sensor data and the fields after it
+	 * are copied from the reader. The sensor data is copied as base64 text,
+	 * without being decoded. Does not close the stream.
+	 *
+	 * @param result
+	 *            the fields before the sensor data
+	 * @param source
+	 *            the reader, which must not have copied its sensor data yet
+	 * @param out
+	 *            the stream to write to
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	public static void copyResult(Result result, ResultReader source, OutputStream out) throws IOException {
+		try {
+			XMLStreamWriter w = XmlCodec.outputFactory.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+			XmlCodec.startDocument(w, "result");
+			XmlCodec.writeResultHead(w, result);
+			source.copySensorData(w);
+			XmlCodec.writeText(w, "sessionId", source.result().getSessionId());
+			XmlCodec.endDocument(w);
+		} catch (XMLStreamException | JAXBException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Effect: writes a dictionary as an XML document. Does not close the
+	 * stream.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param rootName
+	 *            the name of the root element, for example
+	 *            <code>configuration</code>
+	 * @param out
+	 *            the stream
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	public static void writeDictionary(Dictionary dictionary, String rootName, OutputStream out) throws IOException {
+		try {
+			XMLStreamWriter w = XmlCodec.outputFactory.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+			XmlCodec.startDocument(w, rootName);
+			XmlCodec.writeDictionaryContent(w, dictionary);
+			XmlCodec.endDocument(w);
+		} catch (XMLStreamException | JAXBException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Effect: reads a result from an XML document, whatever the name of its
+	 * root element. Does not close the stream.
+	 *
+	 * @param in
+	 *            the stream
+	 * @return the result
+	 * @throws IOException
+	 *             if there is a problem, including if the document is not a
+	 *             result
+	 */
+	public static Result readResult(InputStream in) throws IOException {
+		ResultReader reader = new ResultReader(in);
+		ByteArrayOutputStream sensorData = new ByteArrayOutputStream();
+		if (reader.copySensorData(sensorData)) {
+			reader.result.setSensorData(Utility.objectFactory.createResultSensorData(sensorData.toByteArray()));
+		}
+		reader.finish();
+		return reader.result;
+	}
+
+	/**
+	 * Effect: reads a dictionary from an XML document, whatever the name of
+	 * its root element. Does not close the stream.
+	 *
+	 * @param in
+	 *            the stream
+	 * @return the dictionary
+	 * @throws IOException
+	 *             if there is a problem, including if the document is not a
+	 *             dictionary
+	 */
+	public static Dictionary readDictionary(InputStream in) throws IOException {
+		try {
+			XMLStreamReader r = XmlCodec.inputFactory.createXMLStreamReader(in);
+			try {
+				r.nextTag();
+				return XmlCodec.readDictionaryElement(r);
+			} finally {
+				r.close();
+			}
+		} catch (XMLStreamException | JAXBException | IllegalArgumentException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Represents: a result which is being read from an XML document. The
+	 * fields which come before the sensor data are read right away, so that
+	 * the status and metadata are known before the sensor data is copied with
+	 * {@link #copySensorData(OutputStream)}.
+	 *
+	 * @author Jacob Glueck
+	 *
+	 */
+	public static class ResultReader implements Closeable {
+
+		/**
+		 * The stream
+		 */
+		private final InputStream in;
+		/**
+		 * The reader
+		 */
+		private final XMLStreamReader r;
+		/**
+		 * The result read so far
+		 */
+		private final Result result;
+		/**
+		 * True once the end of the result has been read
+		 */
+		private boolean finished;
+
+		/**
+		 * Creates: a new result reader, and reads the result up to its sensor
+		 * data.
+		 *
+		 * @param in
+		 *            the stream, which is closed when this reader is
+		 * @throws IOException
+		 *             if there is a problem
+		 */
+		public ResultReader(InputStream in) throws IOException {
+			this.in = in;
+			result = new Result();
+			finished = false;
+			try {
+				r = XmlCodec.inputFactory.createXMLStreamReader(in);
+				r.nextTag();
+				r.next();
+				readFields();
+			} catch (XMLStreamException | JAXBException | IllegalArgumentException e) {
+				throw new IOException(e);
+			}
+		}
+
+		/**
+		 * @return the result read so far. Until
+		 *         {@link #copySensorData(OutputStream)} is called, it has no
+		 *         sensor data, nor any of the fields after it.
+		 */
+		public Result result() {
+			return result;
+		}
+
+		/**
+		 * Effect: decodes the sensor data into a stream, and then reads the
+		 * rest of the result. Does not close the stream. May only be called
+		 * once.
+		 *
+		 * @param out
+		 *            the stream
+		 * @return true if the result has sensor data, false if it does not
+		 *         (in which case nothing is written)
+		 * @throws IOException
+		 *             if there is a problem
+		 */
+		public boolean copySensorData(OutputStream out) throws IOException {
+			if (finished) {
+				return false;
+			}
+			try {
+				if (XmlCodec.isNil(r)) {
+					result.setSensorData(Utility.objectFactory.createResultSensorData(null));
+					XmlCodec.skipElement(r);
+					readFields();
+					return false;
+				}
+				XmlCodec.decodeBase64(r, out);
+				r.next();
+				readFields();
+				return true;
+			} catch (XMLStreamException | JAXBException | IllegalArgumentException e) {
+				throw new IOException(e);
+			}
+		}
+
+		/**
+		 * Effect: copies the sensor data element, as it is, to a writer, and
+		 * then reads the rest of the result. Writes nothing if the result has
+		 * no sensor data. May only be called once.
+		 *
+		 * @param w
+		 *            the writer
+		 * @throws XMLStreamException
+		 *             if there is a problem
+		 * @throws JAXBException
+		 *             if there is a problem
+		 */
+		private void copySensorData(XMLStreamWriter w) throws XMLStreamException, JAXBException {
+			if (finished) {
+				return;
+			}
+			w.writeStartElement(XmlCodec.namespace, "sensorData");
+			if (XmlCodec.isNil(r)) {
+				XmlCodec.writeNil(w);
+				XmlCodec.skipElement(r);
+			} else {
+				int event;
+				while ((event = r.next()) != XMLStreamConstants.END_ELEMENT) {
+					if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+						w.writeCharacters(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+					} else if (event == XMLStreamConstants.START_ELEMENT) {
+						throw new XMLStreamException("Unexpected element in base64 data", r.getLocation());
+					}
+				}
+				r.next();
+			}
+			w.writeEndElement();
+			readFields();
+		}
+
+		/**
+		 * Effect: reads the rest of the result, skipping the sensor data if it
+		 * has not been copied.
+		 *
+		 * @throws IOException
+		 *             if there is a problem
+		 */
+		private void finish() throws IOException {
+			if (!finished) {
+				try {
+					XmlCodec.skipElement(r);
+					readFields();
+				} catch (XMLStreamException | JAXBException | IllegalArgumentException e) {
+					throw new IOException(e);
+				}
+			}
+		}
+
+		/**
+		 * Effect: reads the fields of the result until the sensor data or the
+		 * end of the result
+		 *
+		 * @throws XMLStreamException
+		 *             if there is a problem
+		 * @throws JAXBException
+		 *             if there is a problem
+		 */
+		private void readFields() throws XMLStreamException, JAXBException {
+			while (XmlCodec.skipToTag(r) == XMLStreamConstants.START_ELEMENT) {
+				boolean nil = XmlCodec.isNil(r);
+				switch (r.getLocalName()) {
+					case "status":
+						result.setStatus(Status.fromValue(XmlCodec.text(r)));
+						break;
+					case "badFields":
+						result.setBadFields(Utility.objectFactory.createResultBadFields(nil ? XmlCodec.skipNil(r, null) : XmlCodec.readStringArray(r)));
+						break;
+					case "captureIds":
+						result.setCaptureIds(Utility.objectFactory.createResultCaptureIds(nil ? XmlCodec.skipNil(r, null) : XmlCodec.readUuidArray(r)));
+						break;
+					case "metadata":
+						result.setMetadata(Utility.objectFactory.createResultMetadata(nil ? XmlCodec.skipNil(r, null) : XmlCodec.readDictionaryElement(r)));
+						break;
+					case "message":
+						result.setMessage(Utility.objectFactory.createResultMessage(nil ? XmlCodec.skipNil(r, null) : XmlCodec.text(r)));
+						break;
+					case "sensorData":
+						return;
+					case "sessionId":
+						result.setSessionId(Utility.objectFactory.createResultSessionId(nil ? XmlCodec.skipNil(r, null) : XmlCodec.text(r)));
+						break;
+					default:
+						XmlCodec.skipElement(r);
+				}
+			}
+			finished = true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				r.close();
+			} catch (XMLStreamException e) {
+				throw new IOException(e);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Effect: writes the XML declaration and the start of the root element,
+	 * which declares the namespaces used in the document
+	 *
+	 * @param w
+	 *            the writer
+	 * @param rootName
+	 *            the name of the root element
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 */
+	private static void startDocument(XMLStreamWriter w, String rootName) throws XMLStreamException {
+		w.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+		w.setDefaultNamespace(XmlCodec.namespace);
+		w.setPrefix("xsi", XmlCodec.xsi);
+		w.setPrefix("xs", XmlCodec.xs);
+		w.writeStartElement(XmlCodec.namespace, rootName);
+		w.writeDefaultNamespace(XmlCodec.namespace);
+		w.writeNamespace("xsi", XmlCodec.xsi);
+		w.writeNamespace("xs", XmlCodec.xs);
+	}
+
+	/**
+	 * Effect: writes the end of the root element and of the document, and
+	 * flushes the writer
+	 *
+	 * @param w
+	 *            the writer
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 */
+	private static void endDocument(XMLStreamWriter w) throws XMLStreamException {
+		w.writeEndElement();
+		w.writeEndDocument();
+		w.flush();
+		w.close();
+	}
+
+	/**
+	 * Effect: writes the fields of a result, in schema order
+	 *
+	 * @param w
+	 *            the writer
+	 * @param result
+	 *            the result
+	 * @param sensorData
+	 *            the sensor data, or null to use the sensor data of the result
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 * @throws IOException
+	 *             if there is a problem reading the sensor data
+	 */
+	private static void writeResultContent(XMLStreamWriter w, Result result, InputStream sensorData) throws XMLStreamException, JAXBException, IOException {
+		XmlCodec.writeResultHead(w, result);
+		if (sensorData != null) {
+			w.writeStartElement(XmlCodec.namespace, "sensorData");
+			XmlCodec.encodeBase64(sensorData, w);
+			w.writeEndElement();
+		} else if (result.getSensorData() != null) {
+			w.writeStartElement(XmlCodec.namespace, "sensorData");
+			if (result.getSensorData().isNil()) {
+				XmlCodec.writeNil(w);
+			} else {
+				w.writeCharacters(DatatypeConverter.printBase64Binary(result.getSensorData().getValue()));
+			}
+			w.writeEndElement();
+		}
+		XmlCodec.writeText(w, "sessionId", result.getSessionId());
+	}
+
+	/**
+	 * Effect: writes the fields of a result which come before the sensor data,
+	 * in schema order
+	 *
+	 * @param w
+	 *            the writer
+	 * @param result
+	 *            the result
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	private static void writeResultHead(XMLStreamWriter w, Result result) throws XMLStreamException, JAXBException {
+		if (result.getStatus() != null) {
+			XmlCodec.writeText(w, "status", result.getStatus().value());
+		}
+		JAXBElement<StringArray> badFields = result.getBadFields();
+		if (badFields != null) {
+			w.writeStartElement(XmlCodec.namespace, "badFields");
+			if (badFields.isNil()) {
+				XmlCodec.writeNil(w);
+			} else {
+				XmlCodec.writeStrings(w, badFields.getValue().getElement());
+			}
+			w.writeEndElement();
+		}
+		JAXBElement<UuidArray> captureIds = result.getCaptureIds();
+		if (captureIds != null) {
+			w.writeStartElement(XmlCodec.namespace, "captureIds");
+			if (captureIds.isNil()) {
+				XmlCodec.writeNil(w);
+			} else {
+				XmlCodec.writeStrings(w, captureIds.getValue().getElement());
+			}
+			w.writeEndElement();
+		}
+		JAXBElement<Dictionary> metadata = result.getMetadata();
+		if (metadata != null) {
+			w.writeStartElement(XmlCodec.namespace, "metadata");
+			if (metadata.isNil()) {
+				XmlCodec.writeNil(w);
+			} else {
+				XmlCodec.writeDictionaryContent(w, metadata.getValue());
+			}
+			w.writeEndElement();
+		}
+		XmlCodec.writeText(w, "message", result.getMessage());
+	}
+
+	/**
+	 * Effect: writes the items of a dictionary
+	 *
+	 * @param w
+	 *            the writer
+	 * @param dictionary
+	 *            the dictionary
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	private static void writeDictionaryContent(XMLStreamWriter w, Dictionary dictionary) throws XMLStreamException, JAXBException {
+		for (Item item : dictionary.getItem()) {
+			w.writeStartElement(XmlCodec.namespace, "item");
+			w.writeStartElement(XmlCodec.namespace, "key");
+			if (item.getKey() == null) {
+				XmlCodec.writeNil(w);
+			} else {
+				w.writeCharacters(item.getKey());
+			}
+			w.writeEndElement();
+			XmlCodec.writeValue(w, "value", item.getValue());
+			w.writeEndElement();
+		}
+	}
+
+	/**
+	 * Effect: writes the fields of a parameter, in schema order
+	 *
+	 * @param w
+	 *            the writer
+	 * @param parameter
+	 *            the parameter
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	private static void writeParameterContent(XMLStreamWriter w, Parameter parameter) throws XMLStreamException, JAXBException {
+		w.writeStartElement(XmlCodec.namespace, "name");
+		if (parameter.getName() == null) {
+			XmlCodec.writeNil(w);
+		} else {
+			w.writeCharacters(parameter.getName());
+		}
+		w.writeEndElement();
+		w.writeStartElement(XmlCodec.namespace, "type");
+		if (parameter.getType() == null) {
+			XmlCodec.writeNil(w);
+		} else {
+			w.writeCharacters(XmlCodec.qualifiedName(w, parameter.getType()));
+		}
+		w.writeEndElement();
+		if (parameter.isReadOnly() != null) {
+			XmlCodec.writeText(w, "readOnly", DatatypeConverter.printBoolean(parameter.isReadOnly()));
+		}
+		if (parameter.isSupportsMultiple() != null) {
+			XmlCodec.writeText(w, "supportsMultiple", DatatypeConverter.printBoolean(parameter.isSupportsMultiple()));
+		}
+		XmlCodec.writeValue(w, "defaultValue", parameter.getDefaultValue());
+		JAXBElement<AllowedValues> allowedValues = parameter.getAllowedValues();
+		if (allowedValues != null) {
+			w.writeStartElement(XmlCodec.namespace, "allowedValues");
+			if (allowedValues.isNil()) {
+				XmlCodec.writeNil(w);
+			} else {
+				for (Object value : allowedValues.getValue().getAllowedValue()) {
+					XmlCodec.writeValue(w, "allowedValue", value);
+				}
+			}
+			w.writeEndElement();
+		}
+	}
+
+	/**
+	 * Effect: writes an element whose schema type is <code>xs:anyType</code>,
+	 * with an <code>xsi:type</code> saying what the value is, as JAXB does
+	 *
+	 * @param w
+	 *            the writer
+	 * @param name
+	 *            the name of the element
+	 * @param value
+	 *            the value, which may be null
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	private static void writeValue(XMLStreamWriter w, String name, Object value) throws XMLStreamException, JAXBException {
+		String type;
+		String text = null;
+		if (value == null) {
+			w.writeStartElement(XmlCodec.namespace, name);
+			XmlCodec.writeNil(w);
+			w.writeEndElement();
+			return;
+		} else if (value instanceof String) {
+			type = "xs:string";
+			text = (String) value;
+		} else if (value instanceof BigInteger) {
+			type = "xs:integer";
+			text = DatatypeConverter.printInteger((BigInteger) value);
+		} else if (value instanceof Integer) {
+			type = "xs:int";
+			text = DatatypeConverter.printInt((Integer) value);
+		} else if (value instanceof Long) {
+			type = "xs:long";
+			text = DatatypeConverter.printLong((Long) value);
+		} else if (value instanceof Short) {
+			type = "xs:short";
+			text = DatatypeConverter.printShort((Short) value);
+		} else if (value instanceof Byte) {
+			type = "xs:byte";
+			text = DatatypeConverter.printByte((Byte) value);
+		} else if (value instanceof Double) {
+			type = "xs:double";
+			text = DatatypeConverter.printDouble((Double) value);
+		} else if (value instanceof Float) {
+			type = "xs:float";
+			text = DatatypeConverter.printFloat((Float) value);
+		} else if (value instanceof BigDecimal) {
+			type = "xs:decimal";
+			text = DatatypeConverter.printDecimal((BigDecimal) value);
+		} else if (value instanceof Boolean) {
+			type = "xs:boolean";
+			text = DatatypeConverter.printBoolean((Boolean) value);
+		} else if (value instanceof XMLGregorianCalendar) {
+			XMLGregorianCalendar calendar = (XMLGregorianCalendar) value;
+			type = "xs:" + calendar.getXMLSchemaType().getLocalPart();
+			text = calendar.toXMLFormat();
+		} else if (value instanceof byte[]) {
+			type = "xs:base64Binary";
+			text = DatatypeConverter.printBase64Binary((byte[]) value);
+		} else if (value instanceof Dictionary) {
+			type = "Dictionary";
+		} else if (value instanceof Parameter) {
+			type = "Parameter";
+		} else if (value instanceof UuidArray) {
+			type = "UuidArray";
+		} else if (value instanceof Element) {
+			// An untyped value, which JAXB keeps as the element itself
+			w.writeStartElement(XmlCodec.namespace, name);
+			w.writeCharacters(((Element) value).getTextContent());
+			w.writeEndElement();
+			return;
+		} else {
+			Marshaller marshaller = Utility.context().createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+			marshaller.marshal(new JAXBElement<>(new QName(XmlCodec.namespace, name), Object.class, value), w);
+			return;
+		}
+		w.writeStartElement(XmlCodec.namespace, name);
+		w.writeAttribute("xsi", XmlCodec.xsi, "type", type);
+		if (text != null) {
+			w.writeCharacters(text);
+		} else if (value instanceof Dictionary) {
+			XmlCodec.writeDictionaryContent(w, (Dictionary) value);
+		} else if (value instanceof Parameter) {
+			XmlCodec.writeParameterContent(w, (Parameter) value);
+		} else {
+			XmlCodec.writeStrings(w, ((UuidArray) value).getElement());
+		}
+		w.writeEndElement();
+	}
+
+	/**
+	 * Effect: writes a list of strings as <code>element</code> elements, as
+	 * in a string array or a capture ID array
+	 *
+	 * @param w
+	 *            the writer
+	 * @param strings
+	 *            the strings
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 */
+	private static void writeStrings(XMLStreamWriter w, List<String> strings) throws XMLStreamException {
+		for (String s : strings) {
+			w.writeStartElement(XmlCodec.namespace, "element");
+			if (s == null) {
+				XmlCodec.writeNil(w);
+			} else {
+				w.writeCharacters(s);
+			}
+			w.writeEndElement();
+		}
+	}
+
+	/**
+	 * Effect: writes an element with text in it
+	 *
+	 * @param w
+	 *            the writer
+	 * @param name
+	 *            the name of the element
+	 * @param text
+	 *            the text
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 */
+	private static void writeText(XMLStreamWriter w, String name, String text) throws XMLStreamException {
+		w.writeStartElement(XmlCodec.namespace, name);
+		w.writeCharacters(text);
+		w.writeEndElement();
+	}
+
+	/**
+	 * Effect: writes an optional, nillable element with text in it. If the
+	 * element is null, nothing is written.
+	 *
+	 * @param w
+	 *            the writer
+	 * @param name
+	 *            the name of the element
+	 * @param text
+	 *            the element
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 */
+	private static void writeText(XMLStreamWriter w, String name, JAXBElement<String> text) throws XMLStreamException {
+		if (text != null) {
+			w.writeStartElement(XmlCodec.namespace, name);
+			if (text.isNil()) {
+				XmlCodec.writeNil(w);
+			} else {
+				w.writeCharacters(text.getValue());
+			}
+			w.writeEndElement();
+		}
+	}
+
+	/**
+	 * Effect: marks the element just started as nil
+	 *
+	 * @param w
+	 *            the writer
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 */
+	private static void writeNil(XMLStreamWriter w) throws XMLStreamException {
+		w.writeAttribute("xsi", XmlCodec.xsi, "nil", "true");
+	}
+
+	/**
+	 * Effect: returns the text form of a qualified name, declaring a prefix
+	 * for its namespace on the element just started if needed
+	 *
+	 * @param w
+	 *            the writer
+	 * @param name
+	 *            the name
+	 * @return the text form
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 */
+	private static String qualifiedName(XMLStreamWriter w, QName name) throws XMLStreamException {
+		String ns = name.getNamespaceURI();
+		if (ns.equals(XmlCodec.xs)) {
+			return "xs:" + name.getLocalPart();
+		} else if (ns.equals(XmlCodec.namespace) || ns.isEmpty()) {
+			return name.getLocalPart();
+		} else {
+			w.writeNamespace("ns", ns);
+			return "ns:" + name.getLocalPart();
+		}
+	}
+
+	/**
+	 * Effect: encodes the bytes of a stream as base64 text, a piece at a time
+	 *
+	 * @param in
+	 *            the stream
+	 * @param w
+	 *            the writer
+	 * @throws IOException
+	 *             if there is a problem reading the stream
+	 * @throws XMLStreamException
+	 *             if there is a problem writing
+	 */
+	private static void encodeBase64(InputStream in, XMLStreamWriter w) throws IOException, XMLStreamException {
+		Base64.Encoder encoder = Base64.getEncoder();
+		byte[] buf = new byte[XmlCodec.encodeChunk];
+		byte[] encoded = new byte[XmlCodec.encodeChunk / 3 * 4];
+		char[] chars = new char[encoded.length];
+		int filled;
+		do {
+			// Fill the whole buffer so that only the last piece is padded
+			filled = 0;
+			int read;
+			while (filled < buf.length && (read = in.read(buf, filled, buf.length - filled)) != -1) {
+				filled += read;
+			}
+			int length = filled == buf.length ? encoder.encode(buf, encoded) : encoder.encode(Arrays.copyOf(buf, filled), encoded);
+			for (int i = 0; i < length; i++) {
+				chars[i] = (char) encoded[i];
+			}
+			w.writeCharacters(chars, 0, length);
+		} while (filled == buf.length);
+	}
+
+	/**
+	 * Effect: decodes the base64 text of the element the reader is on into a
+	 * stream, a piece at a time, leaving the reader on the end of the element
+	 *
+	 * @param r
+	 *            the reader
+	 * @param out
+	 *            the stream
+	 * @throws XMLStreamException
+	 *             if there is a problem reading
+	 * @throws IOException
+	 *             if there is a problem writing the stream
+	 */
+	private static void decodeBase64(XMLStreamReader r, OutputStream out) throws XMLStreamException, IOException {
+		Base64.Decoder decoder = Base64.getDecoder();
+		byte[] pending = new byte[XmlCodec.decodeChunk];
+		byte[] decoded = new byte[XmlCodec.decodeChunk / 4 * 3];
+		int count = 0;
+		int event;
+		while ((event = r.next()) != XMLStreamConstants.END_ELEMENT) {
+			if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+				char[] text = r.getTextCharacters();
+				int end = r.getTextStart() + r.getTextLength();
+				for (int i = r.getTextStart(); i < end; i++) {
+					char c = text[i];
+					if (!Character.isWhitespace(c)) {
+						pending[count++] = (byte) c;
+						if (count == pending.length) {
+							out.write(decoded, 0, decoder.decode(pending, decoded));
+							count = 0;
+						}
+					}
+				}
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+				throw new XMLStreamException("Unexpected element in base64 data", r.getLocation());
+			}
+		}
+		if (count > 0) {
+			out.write(decoded, 0, decoder.decode(Arrays.copyOf(pending, count), decoded));
+		}
+	}
+
+	/**
+	 * Effect: reads a dictionary element
+	 *
+	 * @param r
+	 *            the reader, on the start of the element. It is left after the
+	 *            end of the element.
+	 * @return the dictionary
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	private static Dictionary readDictionaryElement(XMLStreamReader r) throws XMLStreamException, JAXBException {
+		Dictionary dictionary = new Dictionary();
+		r.next();
+		while (XmlCodec.skipToTag(r) == XMLStreamConstants.START_ELEMENT) {
+			if (!r.getLocalName().equals("item")) {
+				XmlCodec.skipElement(r);
+				continue;
+			}
+			Item item = new Item();
+			r.next();
+			while (XmlCodec.skipToTag(r) == XMLStreamConstants.START_ELEMENT) {
+				switch (r.getLocalName()) {
+					case "key":
+						item.setKey(XmlCodec.isNil(r) ? XmlCodec.skipNil(r, null) : XmlCodec.text(r));
+						break;
+					case "value":
+						item.setValue(XmlCodec.readValue(r));
+						break;
+					default:
+						XmlCodec.skipElement(r);
+				}
+			}
+			r.next();
+			dictionary.getItem().add(item);
+		}
+		r.next();
+		return dictionary;
+	}
+
+	/**
+	 * Effect: reads a parameter element
+	 *
+	 * @param r
+	 *            the reader, on the start of the element. It is left after the
+	 *            end of the element.
+	 * @return the parameter
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	private static Parameter readParameterElement(XMLStreamReader r) throws XMLStreamException, JAXBException {
+		Parameter parameter = new Parameter();
+		r.next();
+		while (XmlCodec.skipToTag(r) == XMLStreamConstants.START_ELEMENT) {
+			boolean nil = XmlCodec.isNil(r);
+			switch (r.getLocalName()) {
+				case "name":
+					parameter.setName(nil ? XmlCodec.skipNil(r, null) : XmlCodec.text(r));
+					break;
+				case "type":
+					if (nil) {
+						XmlCodec.skipNil(r, null);
+					} else {
+						String text = r.getElementText().trim();
+						int colon = text.indexOf(':');
+						String prefix = colon < 0 ? XMLConstants.DEFAULT_NS_PREFIX : text.substring(0, colon);
+						String ns = r.getNamespaceURI(prefix);
+						parameter.setType(new QName(ns == null ? XMLConstants.NULL_NS_URI : ns, text.substring(colon + 1), prefix));
+						r.next();
+					}
+					break;
+				case "readOnly":
+					parameter.setReadOnly(DatatypeConverter.parseBoolean(XmlCodec.text(r)));
+					break;
+				case "supportsMultiple":
+					parameter.setSupportsMultiple(DatatypeConverter.parseBoolean(XmlCodec.text(r)));
+					break;
+				case "defaultValue":
+					parameter.setDefaultValue(XmlCodec.readValue(r));
+					break;
+				case "allowedValues":
+					if (nil) {
+						parameter.setAllowedValues(Utility.objectFactory.createParameterAllowedValues(XmlCodec.skipNil(r, null)));
+					} else {
+						AllowedValues allowedValues = new AllowedValues();
+						r.next();
+						while (XmlCodec.skipToTag(r) == XMLStreamConstants.START_ELEMENT) {
+							allowedValues.getAllowedValue().add(XmlCodec.readValue(r));
+						}
+						r.next();
+						parameter.setAllowedValues(Utility.objectFactory.createParameterAllowedValues(allowedValues));
+					}
+					break;
+				default:
+					XmlCodec.skipElement(r);
+			}
+		}
+		r.next();
+		return parameter;
+	}
+
+	/**
+	 * Effect: reads a string array element
+	 *
+	 * @param r
+	 *            the reader, on the start of the element. It is left after the
+	 *            end of the element.
+	 * @return the array
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 */
+	private static StringArray readStringArray(XMLStreamReader r) throws XMLStreamException {
+		StringArray array = new StringArray();
+		XmlCodec.readStrings(r, array.getElement());
+		return array;
+	}
+
+	/**
+	 * Effect: reads a capture ID array element
+	 *
+	 * @param r
+	 *            the reader, on the start of the element. It is left after the
+	 *            end of the element.
+	 * @return the array
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 */
+	private static UuidArray readUuidArray(XMLStreamReader r) throws XMLStreamException {
+		UuidArray array = new UuidArray();
+		XmlCodec.readStrings(r, array.getElement());
+		return array;
+	}
+
+	/**
+	 * Effect: reads the <code>element</code> elements of an array into a list
+	 *
+	 * @param r
+	 *            the reader, on the start of the array. It is left after the
+	 *            end of the array.
+	 * @param strings
+	 *            the list
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 */
+	private static void readStrings(XMLStreamReader r, List<String> strings) throws XMLStreamException {
+		r.next();
+		while (XmlCodec.skipToTag(r) == XMLStreamConstants.START_ELEMENT) {
+			strings.add(XmlCodec.isNil(r) ? XmlCodec.skipNil(r, null) : XmlCodec.text(r));
+		}
+		r.next();
+	}
+
+	/**
+	 * Effect: reads an element whose schema type is <code>xs:anyType</code>,
+	 * using its <code>xsi:type</code> to decide what it is, as JAXB does
+	 *
+	 * @param r
+	 *            the reader, on the start of the element. It is left after the
+	 *            end of the element.
+	 * @return the value, which may be null
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	private static Object readValue(XMLStreamReader r) throws XMLStreamException, JAXBException {
+		if (XmlCodec.isNil(r)) {
+			return XmlCodec.skipNil(r, null);
+		}
+		String type = r.getAttributeValue(XmlCodec.xsi, "type");
+		if (type != null) {
+			type = type.trim();
+			int colon = type.indexOf(':');
+			String ns = r.getNamespaceURI(colon < 0 ? XMLConstants.DEFAULT_NS_PREFIX : type.substring(0, colon));
+			String local = type.substring(colon + 1);
+			if (XmlCodec.xs.equals(ns)) {
+				switch (local) {
+					case "string":
+					case "anyURI":
+						return XmlCodec.text(r);
+					case "integer":
+						return DatatypeConverter.parseInteger(XmlCodec.text(r));
+					case "int":
+						return DatatypeConverter.parseInt(XmlCodec.text(r));
+					case "long":
+						return DatatypeConverter.parseLong(XmlCodec.text(r));
+					case "short":
+						return DatatypeConverter.parseShort(XmlCodec.text(r));
+					case "byte":
+						return DatatypeConverter.parseByte(XmlCodec.text(r));
+					case "double":
+						return DatatypeConverter.parseDouble(XmlCodec.text(r));
+					case "float":
+						return DatatypeConverter.parseFloat(XmlCodec.text(r));
+					case "decimal":
+						return DatatypeConverter.parseDecimal(XmlCodec.text(r));
+					case "boolean":
+						return DatatypeConverter.parseBoolean(XmlCodec.text(r));
+					case "dateTime":
+					case "date":
+					case "time":
+						return Utility.datatypeFactory().newXMLGregorianCalendar(XmlCodec.text(r).trim());
+					case "base64Binary":
+						return DatatypeConverter.parseBase64Binary(XmlCodec.text(r));
+					default:
+						break;
+				}
+			} else if (XmlCodec.namespace.equals(ns)) {
+				switch (local) {
+					case "Dictionary":
+						return XmlCodec.readDictionaryElement(r);
+					case "Parameter":
+						return XmlCodec.readParameterElement(r);
+					case "UuidArray":
+						return XmlCodec.readUuidArray(r);
+					default:
+						break;
+				}
+			}
+		}
+		// Anything else is left to JAXB, which leaves the reader after the
+		// end of the element
+		return Utility.context().createUnmarshaller().unmarshal(r, Object.class).getValue();
+	}
+
+	/**
+	 * Effect: reads the text of an element
+	 *
+	 * @param r
+	 *            the reader, on the start of the element. It is left after the
+	 *            end of the element.
+	 * @return the text
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 */
+	private static String text(XMLStreamReader r) throws XMLStreamException {
+		String text = r.getElementText();
+		r.next();
+		return text;
+	}
+
+	/**
+	 * @param r
+	 *            the reader, on the start of an element
+	 * @return true if the element is nil
+	 */
+	private static boolean isNil(XMLStreamReader r) {
+		String nil = r.getAttributeValue(XmlCodec.xsi, "nil");
+		return nil != null && DatatypeConverter.parseBoolean(nil.trim());
+	}
+
+	/**
+	 * Effect: skips a nil element
+	 *
+	 * @param <T>
+	 *            the type of the element
+	 * @param r
+	 *            the reader, on the start of the element. It is left after the
+	 *            end of the element.
+	 * @param nil
+	 *            null, which determines the type
+	 * @return null
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 */
+	private static <T> T skipNil(XMLStreamReader r, T nil) throws XMLStreamException {
+		XmlCodec.skipElement(r);
+		return nil;
+	}
+
+	/**
+	 * Effect: skips an element and everything in it
+	 *
+	 * @param r
+	 *            the reader, on the start of the element. It is left after the
+	 *            end of the element.
+	 * @throws XMLStreamException
+	 *             if there is a problem
+	 */
+	private static void skipElement(XMLStreamReader r) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = r.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+		r.next();
+	}
+
+	/**
+	 * Effect: skips text, comments and processing instructions up to the next
+	 * start or end of an element
+	 *
+	 * @param r
+	 *            the reader
+	 * @return the event the reader is on, either
+	 *         {@link XMLStreamConstants#START_ELEMENT} or
+	 *         {@link XMLStreamConstants#END_ELEMENT}
+	 * @throws XMLStreamException
+	 *             if the document ends first
+	 */
+	private static int skipToTag(XMLStreamReader r) throws XMLStreamException {
+		while (!r.isStartElement() && !r.isEndElement()) {
+			if (r.getEventType() == XMLStreamConstants.END_DOCUMENT) {
+				throw new XMLStreamException("Unexpected end of document");
+			}
+			r.next();
+		}
+		return r.getEventType();
+	}
+
+	/**
+	 * @return a reader factory which does not coalesce text, so that long
+	 *         sensor data arrives in pieces, and which does not resolve
+	 *         external entities
+	 */
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+}
@@ -0,0 +1,115 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Kevin Mangold (kevin.mangold@nist.gov)
+      Jaocb Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+package gov.nist.itl.wsbd.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.xml.bind.JAXBElement;
+
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
+
+/**
+ * Represents: a Jersey provider which reads results and dictionaries, and
+ * writes them wrapped in a {@link JAXBElement}, with {@link XmlCodec} instead
+ * of JAXB. These are the forms the service takes and returns. Register it
+ * with a server to use the streaming codec; everything else is still handled
+ * by JAXB.
+ * <p>
+ * The writer is declared for {@link JAXBElement}s rather than for any object
+ * because Jersey prefers the writer declared for the closest type, and JAXB's
+ * own writer is declared for {@link JAXBElement}s.
+ *
+ * @author Jacob Glueck
+ *
+ */
+@Produces({ MediaType.TEXT_XML, MediaType.APPLICATION_XML })
+@Consumes({ MediaType.TEXT_XML, MediaType.APPLICATION_XML })
+public class XmlCodecProvider implements MessageBodyReader<Object>, MessageBodyWriter<JAXBElement<?>> {
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return type == Result.class || type == Dictionary.class;
+	}
+
+	@Override
+	public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, String> httpHeaders, InputStream entityStream)
+			throws IOException {
+		return Result.class.equals(type) ? XmlCodec.readResult(entityStream) : XmlCodec.readDictionary(entityStream);
+	}
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		if (type != JAXBElement.class || !(genericType instanceof ParameterizedType)) {
+			return false;
+		}
+		Type argument = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+		return argument == Result.class || argument == Dictionary.class;
+	}
+
+	@Override
+	public long getSize(JAXBElement<?> t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(JAXBElement<?> t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders,
+			OutputStream entityStream) throws IOException {
+		if (t.getValue() instanceof Result) {
+			XmlCodec.writeResult((Result) t.getValue(), entityStream);
+		} else {
+			XmlCodec.writeDictionary((Dictionary) t.getValue(), t.getName().getLocalPart(), entityStream);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Kevin Mangold (kevin.mangold@nist.gov)
+      Jaocb Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+package gov.nist.itl.wsbd.configuration;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary.Item;
+
+/**
+ * Represents: the configuration of the service at one point in time: the
+ * server, sensor, and stream configurations and the time they were last
+ * updated. A snapshot never changes, so it can be read from any thread without
+ * locking. Every change to the configuration publishes a new snapshot with a
+ * bigger version.
+ *
+ * @author Jacob Glueck
+ *
+ */
+public final class ConfigurationSnapshot {
+
+	/**
+	 * The version of the configuration
+	 */
+	private final long version;
+	/**
+	 * The values, in the order the dictionaries were combined
+	 */
+	private final Map<String, Object> values;
+
+	/**
+	 * Creates: a snapshot with the specified values
+	 *
+	 * @param version
+	 *            the version
+	 * @param values
+	 *            the values, which are copied
+	 */
+	ConfigurationSnapshot(long version, Map<String, ?> values) {
+		this.version = version;
+		this.values = Collections.unmodifiableMap(new LinkedHashMap<>(values));
+	}
+
+	/**
+	 * @return the version of the configuration. Versions start at 1 and grow
+	 *         by 1 with every change.
+	 */
+	public long version() {
+
+		return version;
+	}
+
+	/**
+	 * @return the values, which cannot be modified
+	 */
+	public Map<String, Object> values() {
+
+		return values;
+	}
+
+	/**
+	 * @return a new dictionary with the values, which the caller may modify
+	 */
+	public Dictionary dictionary() {
+
+		Dictionary dictionary = new Dictionary();
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			Item i = new Item();
+			i.setKey(entry.getKey());
+			i.setValue(entry.getValue());
+			dictionary.getItem().add(i);
+		}
+		return dictionary;
+	}
+}
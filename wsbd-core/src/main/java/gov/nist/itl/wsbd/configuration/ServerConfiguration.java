@@ -41,10 +41,19 @@
 
 package gov.nist.itl.wsbd.configuration;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.math.BigInteger;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
@@ -66,6 +75,16 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * The values of this configuration, already converted to their Java types.
+	 * It is replaced as a whole every time the map changes, so a reader always
+	 * sees the values from one version of the configuration and the accessors
+	 * do not have to look up, cast, and convert the value in the map on every
+	 * call. Every method which changes the map is overridden to replace it, and
+	 * the views cannot change the map.
+	 */
+	private transient volatile Snapshot snapshot;
+
 	/**
 	 * Creates: a new service configuration with the specified values. Requires:
 	 * the dictionary must contain values for all the keys in
@@ -89,6 +108,159 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 				throw new InvalidDictionaryException("Must contain value for key: " + key.toString());
 			}
 		}
+		recompile();
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		synchronized (this) {
+			Object old = super.put(key, value);
+			recompile();
+			return old;
+		}
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends Object> m) {
+		synchronized (this) {
+			super.putAll(m);
+			recompile();
+		}
+	}
+
+	@Override
+	public Object remove(Object key) {
+		synchronized (this) {
+			Object old = super.remove(key);
+			recompile();
+			return old;
+		}
+	}
+
+	@Override
+	public Object replace(String key, Object value) {
+		synchronized (this) {
+			Object old = super.replace(key, value);
+			recompile();
+			return old;
+		}
+	}
+
+	@Override
+	public boolean replace(String key, Object oldValue, Object newValue) {
+		synchronized (this) {
+			boolean replaced = super.replace(key, oldValue, newValue);
+			recompile();
+			return replaced;
+		}
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		synchronized (this) {
+			boolean removed = super.remove(key, value);
+			recompile();
+			return removed;
+		}
+	}
+
+	@Override
+	public Object putIfAbsent(String key, Object value) {
+		synchronized (this) {
+			Object old = super.putIfAbsent(key, value);
+			recompile();
+			return old;
+		}
+	}
+
+	@Override
+	public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction) {
+		synchronized (this) {
+			Object merged = super.merge(key, value, remappingFunction);
+			recompile();
+			return merged;
+		}
+	}
+
+	@Override
+	public Object compute(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+		synchronized (this) {
+			Object computed = super.compute(key, remappingFunction);
+			recompile();
+			return computed;
+		}
+	}
+
+	@Override
+	public Object computeIfAbsent(String key, Function<? super String, ? extends Object> mappingFunction) {
+		synchronized (this) {
+			Object computed = super.computeIfAbsent(key, mappingFunction);
+			recompile();
+			return computed;
+		}
+	}
+
+	@Override
+	public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+		synchronized (this) {
+			Object computed = super.computeIfPresent(key, remappingFunction);
+			recompile();
+			return computed;
+		}
+	}
+
+	@Override
+	public void replaceAll(BiFunction<? super String, ? super Object, ? extends Object> function) {
+		synchronized (this) {
+			super.replaceAll(function);
+			recompile();
+		}
+	}
+
+	@Override
+	public void clear() {
+		synchronized (this) {
+			super.clear();
+			recompile();
+		}
+	}
+
+	/**
+	 * @return the keys of a copy of this configuration. Removing keys from it
+	 *         does not change this configuration; every change must go through
+	 *         the methods of the map, so that the accessors follow it.
+	 */
+	@Override
+	public KeySetView<String, Object> keySet() {
+		return new ConcurrentHashMap<>(this).keySet();
+	}
+
+	/**
+	 * @param mappedValue
+	 *            the value for added keys
+	 * @return the keys of a copy of this configuration. Changing it does not
+	 *         change this configuration.
+	 */
+	@Override
+	public KeySetView<String, Object> keySet(Object mappedValue) {
+		return new ConcurrentHashMap<>(this).keySet(mappedValue);
+	}
+
+	/**
+	 * @return a read only view of the values
+	 */
+	@Override
+	public Collection<Object> values() {
+		return Collections.unmodifiableCollection(super.values());
+	}
+
+	/**
+	 * @return a view of the entries which cannot remove them. Setting the
+	 *         value of an entry goes through {@link #put(String, Object)}.
+	 */
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return Collections.unmodifiableSet(super.entrySet());
 	}
 
 	/**
@@ -103,7 +275,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public Duration inactivityTimeout() {
 		
-		return millisDuration(ServerInfoKey.inactivityTimeout);
+		return compiled(snapshot.inactivityTimeout, ServerInfoKey.inactivityTimeout);
 	}
 
 	/**
@@ -118,7 +290,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public BigInteger maximumConcurrentSessions() {
 		
-		return (BigInteger) get(ServerInfoKey.maximumConcurrentSessions.toString());
+		return compiled(snapshot.maximumConcurrentSessions, ServerInfoKey.maximumConcurrentSessions, BigInteger.class);
 	}
 
 	/**
@@ -132,7 +304,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public boolean autoDropLRUSessions() {
 		
-		return (Boolean) get(ServerInfoKey.autoDropLRUSessions.toString());
+		return compiled(snapshot.autoDropLRUSessions, ServerInfoKey.autoDropLRUSessions, Boolean.class);
 	}
 	
 	/**
@@ -146,7 +318,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public Duration initializationTimeout() {
 		
-		return millisDuration(ServerInfoKey.initializationTimeout);
+		return compiled(snapshot.initializationTimeout, ServerInfoKey.initializationTimeout);
 	}
 
 	/**
@@ -160,7 +332,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public Duration uninitializationTimeout() {
 		
-		return millisDuration(ServerInfoKey.uninitializationTimeout);
+		return compiled(snapshot.uninitializationTimeout, ServerInfoKey.uninitializationTimeout);
 	}
 
 	/**
@@ -175,7 +347,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public Duration getConfigurationTimeout() {
 		
-		return millisDuration(ServerInfoKey.getConfigurationTimeout);
+		return compiled(snapshot.getConfigurationTimeout, ServerInfoKey.getConfigurationTimeout);
 	}
 
 	/**
@@ -190,7 +362,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public Duration setConfigurationTimeout() {
 		
-		return millisDuration(ServerInfoKey.setConfigurationTimeout);
+		return compiled(snapshot.setConfigurationTimeout, ServerInfoKey.setConfigurationTimeout);
 	}
 	
 	/**
@@ -204,7 +376,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public Duration endCaptureTimeout() {
 		
-		return millisDuration(ServerInfoKey.endCaptureTimeout);
+		return compiled(snapshot.endCaptureTimeout, ServerInfoKey.endCaptureTimeout);
 	}
 	
 	/**
@@ -218,7 +390,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public Duration beginCaptureTimeout() {
 		
-		return millisDuration(ServerInfoKey.beginCaptureTimeout);
+		return compiled(snapshot.beginCaptureTimeout, ServerInfoKey.beginCaptureTimeout);
 	}
 	
 	/**
@@ -232,7 +404,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public Duration captureTimeout() {
 		
-		return millisDuration(ServerInfoKey.captureTimeout);
+		return compiled(snapshot.captureTimeout, ServerInfoKey.captureTimeout);
 	}
 	
 	/**
@@ -242,7 +414,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 *         to end someone else's capture returns {@link Status#SENSOR_BUSY}.
 	 */
 	public Boolean transferrableAsyncCapture() {
-		return (Boolean) get(ServerInfoKey.transferrableAsyncCapture.toString());
+		return compiled(snapshot.transferrableAsyncCapture, ServerInfoKey.transferrableAsyncCapture, Boolean.class);
 	}
 	
 	/**
@@ -256,7 +428,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public Duration getCaptureStatusTimeout() {
 		
-		return millisDuration(ServerInfoKey.getCaptureStatusTimeout);
+		return compiled(snapshot.getCaptureStatusTimeout, ServerInfoKey.getCaptureStatusTimeout);
 	}
 
 	/**
@@ -266,7 +438,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 *         times out.
 	 */
 	public Duration cancelAsyncCaptureTimeout() {
-		return millisDuration(ServerInfoKey.cancelAsyncCaptureTimeout);
+		return compiled(snapshot.cancelAsyncCaptureTimeout, ServerInfoKey.cancelAsyncCaptureTimeout);
 	}
 
 	/**
@@ -281,7 +453,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public Duration postAcquisitionProcessingTime() {
 		
-		return millisDuration(ServerInfoKey.postAcquisitionProcessingTime);
+		return compiled(snapshot.postAcquisitionProcessingTime, ServerInfoKey.postAcquisitionProcessingTime);
 	}
 	
 	/**
@@ -297,7 +469,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public Duration lockStealingPreventionPeriod() {
 		
-		return millisDuration(ServerInfoKey.lockStealingPreventionPeriod);
+		return compiled(snapshot.lockStealingPreventionPeriod, ServerInfoKey.lockStealingPreventionPeriod);
 	}
 
 	/**
@@ -309,7 +481,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public BigInteger maximumStorageCapacity() {
 		
-		return (BigInteger) get(ServerInfoKey.maximumStorageCapacity.toString());
+		return compiled(snapshot.maximumStorageCapacity, ServerInfoKey.maximumStorageCapacity, BigInteger.class);
 	}
 	
 	/**
@@ -323,7 +495,7 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public boolean lruCaptureDataAutomaticallyDropped() {
 		
-		return (Boolean) get(ServerInfoKey.lruCaptureDataAutomaticallyDropped.toString());
+		return compiled(snapshot.lruCaptureDataAutomaticallyDropped, ServerInfoKey.lruCaptureDataAutomaticallyDropped, Boolean.class);
 	}
 	
 	/**
@@ -337,4 +509,193 @@ public class ServerConfiguration extends DictionaryWrapper<Object> {
 
 		return Duration.of(((BigInteger) get(key.toString())).longValueExact(), ChronoUnit.MILLIS);
 	}
+
+	/**
+	 * @param compiled
+	 *            the duration from the snapshot
+	 * @param key
+	 *            the key of the duration
+	 * @return <code>compiled</code>, or if it is <code>null</code> because the
+	 *         value in the map could not be converted, the result of
+	 *         {@link #millisDuration(ServerInfoKey)}, which throws the
+	 *         exception explaining why.
+	 */
+	private Duration compiled(Duration compiled, ServerInfoKey key) {
+
+		return compiled != null ? compiled : millisDuration(key);
+	}
+
+	/**
+	 * @param compiled
+	 *            the value from the snapshot
+	 * @param key
+	 *            the key of the value
+	 * @param type
+	 *            the type of the value
+	 * @return <code>compiled</code>, or if it is <code>null</code> because the
+	 *         value in the map is not of the type, the value in the map cast to
+	 *         the type, which throws a {@link ClassCastException}.
+	 */
+	private <T> T compiled(T compiled, ServerInfoKey key, Class<T> type) {
+
+		return compiled != null ? compiled : type.cast(get(key.toString()));
+	}
+
+	/**
+	 * Effect: reads the configuration and compiles its snapshot
+	 *
+	 * @param in
+	 *            the stream
+	 * @throws IOException
+	 *             if there is a problem reading the stream
+	 * @throws ClassNotFoundException
+	 *             if a class in the stream cannot be found
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		recompile();
+	}
+
+	/**
+	 * Effect: replaces the snapshot with one compiled from the current values.
+	 * Must be called while holding the monitor of this configuration.
+	 */
+	private void recompile() {
+		snapshot = new Snapshot(this);
+	}
+
+	/**
+	 * Represents: the values of a server configuration at some point in time,
+	 * converted to their Java types. Every value which cannot be converted is
+	 * <code>null</code>.
+	 *
+	 * @author Jacob Glueck
+	 *
+	 */
+	private static final class Snapshot {
+
+		/**
+		 * The inactivity timeout
+		 */
+		private final Duration inactivityTimeout;
+		/**
+		 * The maximum number of concurrent sessions
+		 */
+		private final BigInteger maximumConcurrentSessions;
+		/**
+		 * True if the least recently used session is dropped
+		 */
+		private final Boolean autoDropLRUSessions;
+		/**
+		 * The initialization timeout
+		 */
+		private final Duration initializationTimeout;
+		/**
+		 * The uninitialization timeout
+		 */
+		private final Duration uninitializationTimeout;
+		/**
+		 * The get configuration timeout
+		 */
+		private final Duration getConfigurationTimeout;
+		/**
+		 * The set configuration timeout
+		 */
+		private final Duration setConfigurationTimeout;
+		/**
+		 * The end capture timeout
+		 */
+		private final Duration endCaptureTimeout;
+		/**
+		 * The begin capture timeout
+		 */
+		private final Duration beginCaptureTimeout;
+		/**
+		 * The capture timeout
+		 */
+		private final Duration captureTimeout;
+		/**
+		 * The get capture status timeout
+		 */
+		private final Duration getCaptureStatusTimeout;
+		/**
+		 * True if asynchronous captures can be transferred
+		 */
+		private final Boolean transferrableAsyncCapture;
+		/**
+		 * The cancel asynchronous capture timeout
+		 */
+		private final Duration cancelAsyncCaptureTimeout;
+		/**
+		 * The post acquisition processing time
+		 */
+		private final Duration postAcquisitionProcessingTime;
+		/**
+		 * The lock stealing prevention period
+		 */
+		private final Duration lockStealingPreventionPeriod;
+		/**
+		 * The maximum storage capacity
+		 */
+		private final BigInteger maximumStorageCapacity;
+		/**
+		 * True if the least recently used capture is dropped
+		 */
+		private final Boolean lruCaptureDataAutomaticallyDropped;
+
+		/**
+		 * Creates: a snapshot of the current values of the configuration
+		 *
+		 * @param conf
+		 *            the configuration
+		 */
+		private Snapshot(ServerConfiguration conf) {
+			inactivityTimeout = Snapshot.duration(conf, ServerInfoKey.inactivityTimeout);
+			maximumConcurrentSessions = Snapshot.value(conf, ServerInfoKey.maximumConcurrentSessions, BigInteger.class);
+			autoDropLRUSessions = Snapshot.value(conf, ServerInfoKey.autoDropLRUSessions, Boolean.class);
+			initializationTimeout = Snapshot.duration(conf, ServerInfoKey.initializationTimeout);
+			uninitializationTimeout = Snapshot.duration(conf, ServerInfoKey.uninitializationTimeout);
+			getConfigurationTimeout = Snapshot.duration(conf, ServerInfoKey.getConfigurationTimeout);
+			setConfigurationTimeout = Snapshot.duration(conf, ServerInfoKey.setConfigurationTimeout);
+			endCaptureTimeout = Snapshot.duration(conf, ServerInfoKey.endCaptureTimeout);
+			beginCaptureTimeout = Snapshot.duration(conf, ServerInfoKey.beginCaptureTimeout);
+			captureTimeout = Snapshot.duration(conf, ServerInfoKey.captureTimeout);
+			getCaptureStatusTimeout = Snapshot.duration(conf, ServerInfoKey.getCaptureStatusTimeout);
+			transferrableAsyncCapture = Snapshot.value(conf, ServerInfoKey.transferrableAsyncCapture, Boolean.class);
+			cancelAsyncCaptureTimeout = Snapshot.duration(conf, ServerInfoKey.cancelAsyncCaptureTimeout);
+			postAcquisitionProcessingTime = Snapshot.duration(conf, ServerInfoKey.postAcquisitionProcessingTime);
+			lockStealingPreventionPeriod = Snapshot.duration(conf, ServerInfoKey.lockStealingPreventionPeriod);
+			maximumStorageCapacity = Snapshot.value(conf, ServerInfoKey.maximumStorageCapacity, BigInteger.class);
+			lruCaptureDataAutomaticallyDropped = Snapshot.value(conf, ServerInfoKey.lruCaptureDataAutomaticallyDropped, Boolean.class);
+		}
+
+		/**
+		 * @param conf
+		 *            the configuration
+		 * @param key
+		 *            the key
+		 * @param type
+		 *            the type of the value
+		 * @return the value, or <code>null</code> if it is not of the type
+		 */
+		private static <T> T value(ServerConfiguration conf, ServerInfoKey key, Class<T> type) {
+
+			Object value = conf.get(key.toString());
+			return type.isInstance(value) ? type.cast(value) : null;
+		}
+
+		/**
+		 * @param conf
+		 *            the configuration
+		 * @param key
+		 *            the key
+		 * @return the value as a duration in milliseconds, or <code>null</code>
+		 *         if it is not an integer which fits in a long
+		 */
+		private static Duration duration(ServerConfiguration conf, ServerInfoKey key) {
+
+			BigInteger millis = Snapshot.value(conf, key, BigInteger.class);
+			return millis == null || millis.bitLength() >= Long.SIZE ? null : Duration.ofMillis(millis.longValue());
+		}
+	}
 }
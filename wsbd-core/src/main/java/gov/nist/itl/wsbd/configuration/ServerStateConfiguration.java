@@ -42,9 +42,15 @@
 package gov.nist.itl.wsbd.configuration;
 
 import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import javax.xml.datatype.XMLGregorianCalendar;
 
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary.Item;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.SensorStatus;
 
 import gov.nist.itl.wsbd.dictionary.DictionaryWrapper;
@@ -64,6 +70,24 @@ public class ServerStateConfiguration extends DictionaryWrapper<Object> {
 	 * Default UID.
 	 */
 	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The current sensor status. This mirrors the value stored in the map so
+	 * that the status can be read without parsing it. It is also the lock
+	 * held while the status changes.
+	 */
+	private final AtomicReference<SensorStatus> sensorStatus;
+	/**
+	 * The listeners notified of every sensor status change
+	 */
+	private final List<Consumer<SensorStatus>> sensorStatusListeners;
+	/**
+	 * The last updated time, in milliseconds since the epoch. It is only
+	 * converted to an XML date when the configuration is read as a map or a
+	 * dictionary, so marking the configuration as updated is cheap. The map
+	 * keeps the key so that it can still be listed.
+	 */
+	private volatile long lastUpdated;
 	
 	/**
 	 * Creates: a new server state configuration with values from the default
@@ -76,6 +100,38 @@ public class ServerStateConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public ServerStateConfiguration(ServerStateInformation information) throws InvalidDictionaryException {
 		super(ServiceConfiguration.extractDefaults(information), Object.class);
+		sensorStatus = new AtomicReference<>(SensorStatus.fromValue((String) get(ServerStateKey.sensorStatus.toString())));
+		sensorStatusListeners = new CopyOnWriteArrayList<>();
+		lastUpdated = Utility.toInstant((XMLGregorianCalendar) super.get(ServerStateKey.lastUpdated.toString())).toEpochMilli();
+	}
+
+	/**
+	 * @return the value for the key, where the last updated time is converted
+	 *         to an XML date
+	 */
+	@Override
+	public Object get(Object key) {
+
+		if (ServerStateKey.lastUpdated.toString().equals(key)) {
+			return Utility.fromInstant(lastUpdated());
+		}
+		return super.get(key);
+	}
+
+	/**
+	 * @return a representation of this configuration as a dictionary, where
+	 *         the last updated time is converted to an XML date
+	 */
+	@Override
+	public Dictionary dictionary() {
+
+		Dictionary dictionary = super.dictionary();
+		for (Item i : dictionary.getItem()) {
+			if (ServerStateKey.lastUpdated.toString().equals(i.getKey())) {
+				i.setValue(Utility.fromInstant(lastUpdated()));
+			}
+		}
+		return dictionary;
 	}
 	
 	/**
@@ -89,9 +145,7 @@ public class ServerStateConfiguration extends DictionaryWrapper<Object> {
 	 */
 	public Instant lastUpdated() {
 		
-		XMLGregorianCalendar lastUpdated = (XMLGregorianCalendar) get(ServerStateKey.lastUpdated.toString());
-		Instant result = Instant.ofEpochMilli(lastUpdated.toGregorianCalendar().getTimeInMillis());
-		return result;
+		return Instant.ofEpochMilli(lastUpdated);
 	}
 	
 	/**
@@ -101,7 +155,7 @@ public class ServerStateConfiguration extends DictionaryWrapper<Object> {
 	 *            the last updated time
 	 */
 	public void setLastUpdated(Instant lastUpdated) {
-		put(ServerStateKey.lastUpdated.toString(), Utility.fromInstant(lastUpdated));
+		this.lastUpdated = lastUpdated.toEpochMilli();
 	}
 	
 	/**
@@ -115,16 +169,39 @@ public class ServerStateConfiguration extends DictionaryWrapper<Object> {
 	 * @return the sensor status
 	 */
 	public SensorStatus sensorStatus() {
-		return SensorStatus.fromValue((String) get(ServerStateKey.sensorStatus.toString()));
+		return sensorStatus.get();
 	}
 
 	/**
-	 * Effect: sets the sensor status
+	 * Effect: sets the sensor status. The status in the dictionary and the
+	 * status returned by {@link #sensorStatus()} are changed together, and if
+	 * the status changed, the sensor status listeners are notified in the
+	 * order of the changes.
 	 *
 	 * @param status
 	 *            the new status
 	 */
 	public void setSensorStatus(SensorStatus status) {
-		put(ServerStateKey.sensorStatus.toString(), status.value());
+		synchronized (sensorStatus) {
+			put(ServerStateKey.sensorStatus.toString(), status.value());
+			if (sensorStatus.getAndSet(status) != status) {
+				for (Consumer<SensorStatus> listener : sensorStatusListeners) {
+					listener.accept(status);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Effect: adds a listener which is called with the new status every time
+	 * the sensor status changes. The listener is called on the thread that
+	 * changed the status, possibly while the service holds its lock, so it
+	 * must return quickly and must not block.
+	 *
+	 * @param listener
+	 *            the listener
+	 */
+	public void addSensorStatusListener(Consumer<SensorStatus> listener) {
+		sensorStatusListeners.add(listener);
 	}
 }
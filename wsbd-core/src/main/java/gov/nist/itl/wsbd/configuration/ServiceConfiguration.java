@@ -42,10 +42,13 @@
 package gov.nist.itl.wsbd.configuration;
 
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary.Item;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Parameter;
 
 import gov.nist.itl.wsbd.dictionary.DictionaryWrapper;
@@ -94,6 +97,10 @@ public class ServiceConfiguration {
 	 * The stream configuration
 	 */
 	private final StreamConfiguration streamConfiguration;
+	/**
+	 * The latest snapshot of the configuration
+	 */
+	private final AtomicReference<ConfigurationSnapshot> snapshot;
 	
 	/**
 	 * Creates: a new service configuration with no streams
@@ -131,6 +138,7 @@ public class ServiceConfiguration {
 		serverStateConfiguration = new ServerStateConfiguration(serverStateInformation);
 		streamInformation = new StreamInformation(streamConfiguration);
 		this.streamConfiguration = streamConfiguration;
+		snapshot = new AtomicReference<>(compile(1));
 	}
 
 	/**
@@ -185,7 +193,80 @@ public class ServiceConfiguration {
 	 */
 	public Dictionary configuration() {
 		
-		return ServiceConfiguration.combine(serverConfiguration, sensorConfiguration, serverStateConfiguration, streamConfiguration);
+		return configuration(snapshot());
+	}
+
+	/**
+	 * @param snapshot
+	 *            a snapshot of the configuration
+	 * @return the values in the snapshot, along with the current sensor status
+	 */
+	public Dictionary configuration(ConfigurationSnapshot snapshot) {
+
+		Dictionary result = snapshot.dictionary();
+		Item sensorStatus = new Item();
+		sensorStatus.setKey(ServerStateKey.sensorStatus.toString());
+		sensorStatus.setValue(serverStateConfiguration.sensorStatus().value());
+		result.getItem().add(sensorStatus);
+		return result;
+	}
+
+	/**
+	 * @return the latest snapshot of the configuration. It is read without
+	 *         locking and is never partly updated.
+	 */
+	public ConfigurationSnapshot snapshot() {
+
+		return snapshot.get();
+	}
+
+	/**
+	 * Effect: changes the server and sensor configurations, marks the
+	 * configuration as updated, and publishes a new snapshot. Readers see
+	 * either all of the changes or none of them.
+	 *
+	 * @param serverChanges
+	 *            the new values for keys in the server configuration
+	 * @param sensorChanges
+	 *            the new values for keys in the sensor configuration
+	 * @return the new snapshot
+	 */
+	public synchronized ConfigurationSnapshot update(Map<String, Object> serverChanges, Map<String, Object> sensorChanges) {
+
+		serverConfiguration.putAll(serverChanges);
+		sensorConfiguration.putAll(sensorChanges);
+		serverStateConfiguration.markUpdated();
+		return publish();
+	}
+
+	/**
+	 * Effect: publishes a new snapshot of the current values. Changes made
+	 * directly to the component configurations are only seen by readers of
+	 * {@link #configuration()} after this is called.
+	 *
+	 * @return the new snapshot
+	 */
+	public synchronized ConfigurationSnapshot publish() {
+
+		ConfigurationSnapshot next = compile(snapshot.get().version() + 1);
+		snapshot.set(next);
+		return next;
+	}
+
+	/**
+	 * @param version
+	 *            the version
+	 * @return a snapshot of the current values, without the sensor status
+	 */
+	private ConfigurationSnapshot compile(long version) {
+
+		assert ServiceConfiguration.checkUniqueKeys(serverConfiguration, sensorConfiguration, serverStateConfiguration, streamConfiguration);
+		Map<String, Object> values = new LinkedHashMap<>();
+		values.putAll(serverConfiguration);
+		values.putAll(sensorConfiguration);
+		values.put(ServerStateKey.lastUpdated.toString(), serverStateConfiguration.get(ServerStateKey.lastUpdated.toString()));
+		values.putAll(streamConfiguration);
+		return new ConfigurationSnapshot(version, values);
 	}
 
 	/**
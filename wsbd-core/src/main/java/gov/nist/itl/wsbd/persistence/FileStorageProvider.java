@@ -48,7 +48,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -60,6 +69,13 @@ import java.util.UUID;
  */
 public class FileStorageProvider extends StorageProvider {
 	
+	/**
+	 * The suffix of a file which is still being written. Once the data is
+	 * complete, the file is renamed to the ID, so a file named after an ID
+	 * always holds complete data, even after a crash.
+	 */
+	private static final String partialSuffix = ".part";
+
 	/**
 	 * The parent directory for file storage
 	 */
@@ -77,6 +93,64 @@ public class FileStorageProvider extends StorageProvider {
 	 */
 	public FileStorageProvider(StorageProviderConfiguration config) throws IOException {
 		this(config, Files.createTempDirectory("WSBD-" + UUID.randomUUID()).toFile());
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			FileStorageProvider.deleteFile(dir);
+		}));
+	}
+
+	/**
+	 * Creates: a new file storage provider which keeps its data in the
+	 * specified directory, creating it if needed. The data is kept when the
+	 * program terminates, and the data left by an earlier run can be read
+	 * again, so a restarted service still serves the captures taken before it
+	 * stopped. Data which an earlier run did not finish writing is deleted. If
+	 * the data left does not fit in the capacity, the data stored under IDs
+	 * the caller chose (see {@link #reserve(UUID, long)}), which other data
+	 * may refer to, is kept first, then the most recently used data. What
+	 * does not fit is deleted.
+	 *
+	 * @param config
+	 *            the configuration
+	 * @param dir
+	 *            the directory to store the files in
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	public FileStorageProvider(StorageProviderConfiguration config, Path dir) throws IOException {
+		this(config, Files.createDirectories(dir).toFile());
+		List<Path> restored = new ArrayList<>();
+		Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				if (name.endsWith(FileStorageProvider.partialSuffix)) {
+					Files.deleteIfExists(file);
+					continue;
+				}
+				UUID id;
+				try {
+					id = UUID.fromString(name);
+				} catch (IllegalArgumentException e) {
+					// Not one of ours
+					continue;
+				}
+				BasicFileAttributes fileAttributes = Files.readAttributes(file, BasicFileAttributes.class);
+				if (fileAttributes.isRegularFile() && id.toString().equals(name)) {
+					restored.add(file);
+					attributes.put(file, fileAttributes);
+				}
+			}
+		}
+		// IDs from reserve(long) are random (version 4). The others were
+		// chosen by the caller.
+		Comparator<Path> chosenFirst = Comparator.comparing((Path file) -> UUID.fromString(file.getFileName().toString()).version() == 4);
+		restored.sort(chosenFirst.thenComparing((Path file) -> attributes.get(file).lastModifiedTime(), Comparator.reverseOrder()));
+		for (Path file : restored) {
+			BasicFileAttributes fileAttributes = attributes.get(file);
+			if (!restore(UUID.fromString(file.getFileName().toString()), fileAttributes.size(), fileAttributes.lastModifiedTime().toInstant())) {
+				Files.deleteIfExists(file);
+			}
+		}
 	}
 	
 	/**
@@ -91,9 +165,6 @@ public class FileStorageProvider extends StorageProvider {
 	private FileStorageProvider(StorageProviderConfiguration config, File dir) {
 		super(config);
 		this.dir = dir;
-		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-			FileStorageProvider.deleteFile(dir);
-		}));
 	}
 	
 	/**
@@ -119,10 +190,36 @@ public class FileStorageProvider extends StorageProvider {
 	private File file(UUID id) {
 		return new File(dir, id.toString());
 	}
+
+	/**
+	 * @param id
+	 *            the ID
+	 * @return the file where data for the specified ID is written until it is
+	 *         complete
+	 */
+	private File partialFile(UUID id) {
+		return new File(dir, id.toString() + FileStorageProvider.partialSuffix);
+	}
 	
 	@Override
 	protected OutputStream openStore(UUID id) throws IOException {
-		return new FileOutputStream(file(id));
+		File partial = partialFile(id);
+		return new FileOutputStream(partial) {
+
+			/**
+			 * True once the data has been moved to its final name
+			 */
+			private boolean complete = false;
+
+			@Override
+			public void close() throws IOException {
+				super.close();
+				if (!complete) {
+					complete = true;
+					Files.move(partial.toPath(), file(id).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+			}
+		};
 	}
 	
 	@Override
@@ -133,5 +230,6 @@ public class FileStorageProvider extends StorageProvider {
 	@Override
 	protected void deleteData(UUID id) throws IOException {
 		file(id).delete();
+		partialFile(id).delete();
 	}
-}
\ No newline at end of file
+}
@@ -47,8 +47,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.time.Instant;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import gov.nist.itl.wsbd.configuration.ServerConfiguration;
@@ -130,6 +131,85 @@ public abstract class StorageProvider {
 		}
 	}
 	
+	/**
+	 * Effect: if at least <code>numBytes</code> of data are available and
+	 * nothing is stored under the specified ID, reserves space under it. This
+	 * is like {@link #reserve(long)}, except that the caller chooses the ID.
+	 *
+	 * @param id
+	 *            the ID
+	 * @param numBytes
+	 *            the number of bytes to reserve.
+	 * @return true if and only if the space was reserved
+	 */
+	public boolean reserve(UUID id, long numBytes) {
+
+		synchronized (lock) {
+			if (store.containsKey(id) || !freeSpace(numBytes)) {
+				return false;
+			}
+			store.put(id, new StoreEntry(numBytes));
+			return true;
+		}
+	}
+
+	/**
+	 * Effect: keeps the data stored under the specified ID from being deleted
+	 * to make room for new data, however long ago it was used. Does nothing if
+	 * the ID does not exist.
+	 *
+	 * @param id
+	 *            the ID
+	 */
+	public void pin(UUID id) {
+
+		synchronized (lock) {
+			if (exists(id)) {
+				store.get(id).pinned = true;
+			}
+		}
+	}
+
+	/**
+	 * @return the IDs for which data is stored or for which space has been
+	 *         reserved
+	 */
+	public Set<UUID> ids() {
+
+		synchronized (lock) {
+			return new HashSet<>(store.keySet());
+		}
+	}
+
+	/**
+	 * Effect: adds an entry for data which was already stored, for example by
+	 * an earlier run of the program, so that it can be read and deleted like
+	 * anything stored since. The data counts against the capacity. If there is
+	 * not enough space left for it, or something is already stored under the
+	 * ID, it is refused; nothing already stored is dropped for it.
+	 *
+	 * @param id
+	 *            the ID of the data
+	 * @param size
+	 *            the number of bytes stored
+	 * @param lastUsed
+	 *            the time the data was last used
+	 * @return true if and only if the entry was added
+	 */
+	protected boolean restore(UUID id, long size, Instant lastUsed) {
+
+		synchronized (lock) {
+			if (store.containsKey(id) || size > available()) {
+				return false;
+			}
+			StoreEntry entry = new StoreEntry(size);
+			entry.used = size;
+			entry.lastUsed = lastUsed;
+			store.put(id, entry);
+			return true;
+		}
+	}
+
 	/**
 	 * Effect: attempts to delete the least recently used files until there is
 	 * at least numBytes of space available. If <code>lruFileRemoved</code> is
@@ -146,17 +226,15 @@ public abstract class StorageProvider {
 		// Try to drop sessions until space is available
 		if (config.lruFileRemoved()) {
 			while (numBytes > available()) {
-				Iterator<Map.Entry<UUID, StoreEntry>> iter = store.entrySet().iterator();
-				if (!iter.hasNext()) {
-					return false;
-				}
-				Map.Entry<UUID, StoreEntry> lruSession = iter.next();
-				while (iter.hasNext()) {
-					Map.Entry<UUID, StoreEntry> next = iter.next();
-					if (next.getValue().lastUsed.isBefore(lruSession.getValue().lastUsed)) {
+				Map.Entry<UUID, StoreEntry> lruSession = null;
+				for (Map.Entry<UUID, StoreEntry> next : store.entrySet()) {
+					if (!next.getValue().pinned && (lruSession == null || next.getValue().lastUsed.isBefore(lruSession.getValue().lastUsed))) {
 						lruSession = next;
 					}
 				}
+				if (lruSession == null) {
+					return false;
+				}
 				try {
 					if (delete(lruSession.getKey()) != 0) {
 						return false;
@@ -456,11 +534,16 @@ public abstract class StorageProvider {
 		 * The number of open streams on this entry
 		 */
 		private int openCount;
+		/**
+		 * True if this entry is never deleted to make room
+		 */
+		private boolean pinned;
 		
 		/**
 		 * Creates: a new entry with the specified amount of reserved space. The
 		 * amount of used space is set to 0, and the time last used is set to
-		 * now. The number of open streams is set to 0.
+		 * now. The number of open streams is set to 0, and the entry is not
+		 * pinned.
 		 *
 		 * @param reserved
 		 *            the amount of reserved space in bytes
@@ -470,6 +553,7 @@ public abstract class StorageProvider {
 			used = 0;
 			lastUsed = Instant.now();
 			openCount = 0;
+			pinned = false;
 		}
 	}
 
@@ -42,16 +42,46 @@
 package gov.nist.itl.wsbd.server;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.math.BigInteger;
 import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.ConnectionProbe;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.HttpServerFilter;
+import org.glassfish.grizzly.http.server.HttpServerProbe;
 import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.message.MessageProperties;
 import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.ServerProperties;
 
+import gov.nist.itl.wsbd.codec.CborCodecProvider;
+import gov.nist.itl.wsbd.codec.XmlCodec;
+import gov.nist.itl.wsbd.codec.XmlCodecProvider;
+import gov.nist.itl.wsbd.configuration.ServerConfiguration;
 import gov.nist.itl.wsbd.service.ISensorService;
+import gov.nist.itl.wsbd.service.OutputProfile;
+import gov.nist.itl.wsbd.service.SensorService;
+import gov.nist.itl.wsbd.service.Utility;
 
 /**
  * Represents: a WSBD web service. This class makes it easy to start a WSBD
@@ -102,6 +132,35 @@ public class WSBDServer {
 	 * Used to determine the port
 	 */
 	private final NetworkListener listener;
+	/**
+	 * The configuration
+	 */
+	private final WSBDServerConfiguration configuration;
+	/**
+	 * The service
+	 */
+	private final ISensorService service;
+	/**
+	 * When this server was created, from {@link System#nanoTime()}
+	 */
+	private final long created;
+	/**
+	 * The time from creating this server to sending the first response, or
+	 * null if no response has been sent yet
+	 */
+	private final AtomicReference<Duration> timeToFirstRequest;
+	/**
+	 * The number of connections accepted by all the listeners
+	 */
+	private final AtomicLong connectionsAccepted;
+	/**
+	 * The lock for {@link #requestsInProgress}
+	 */
+	private final Object requestsLock;
+	/**
+	 * The number of requests which have been received but not completed
+	 */
+	private int requestsInProgress;
 
 	/**
 	 * Creates: a new WSBD service with the specified sensor service at the
@@ -127,16 +186,89 @@ public class WSBDServer {
 	 *            the port
 	 */
 	public WSBDServer(ISensorService service, String baseUrl, int port) {
+		this(service, baseUrl, port, new WSBDServerConfiguration());
+	}
+
+	/**
+	 * Creates: a new WSBD service with the specified service at the specified
+	 * base URL and with the specified port, tuned by the specified
+	 * configuration.
+	 *
+	 * @param service
+	 *            the service
+	 * @param baseUrl
+	 *            the base URL
+	 * @param port
+	 *            the port
+	 * @param configuration
+	 *            the configuration
+	 */
+	public WSBDServer(ISensorService service, String baseUrl, int port, WSBDServerConfiguration configuration) {
+		created = System.nanoTime();
+		timeToFirstRequest = new AtomicReference<>(null);
 		this.baseUrl = baseUrl;
 		this.port = port;
+		this.configuration = configuration;
+		this.service = service;
+		connectionsAccepted = new AtomicLong();
+		requestsLock = new Object();
+		requestsInProgress = 0;
 		// Disable the annoying logs to stderr
 		Logger.getLogger("org.glassfish.grizzly.http.server").setLevel(Level.OFF);
 		Logger.getLogger("org.glassfish.jersey.server").setLevel(Level.OFF);
 		ResourceConfig rc = new ResourceConfig();
-		rc = rc.registerInstances(service);
-		server = GrizzlyHttpServerFactory.createHttpServer(URI.create(this.baseUrl + ":" + this.port), rc);
+		rc = rc.registerInstances(service, new FirstResponseFilter());
+		OutputProfile profile = Utility.outputProfile();
+		rc = rc.property(MessageProperties.XML_FORMAT_OUTPUT, profile.formatted());
+		if (!profile.formatted()) {
+			// The shared results are serialized compactly
+			rc = rc.register(new SharedResultWriter());
+		}
+		rc = rc.register(CborCodecProvider.class);
+		if (configuration.streamingXml()) {
+			rc = rc.register(XmlCodecProvider.class);
+		}
+		rc = rc.property(ServerProperties.OUTBOUND_CONTENT_LENGTH_BUFFER, configuration.outboundBufferBytes());
+		// Not started yet, so that the listeners can be tuned first
+		server = GrizzlyHttpServerFactory.createHttpServer(URI.create(this.baseUrl + ":" + this.port), rc, false);
 		listener = new NetworkListener("bob", "0.0.0.0", 0);
 		server.addListener(listener);
+		for (NetworkListener l : server.getListeners()) {
+			tune(l);
+		}
+		server.getServerConfiguration().getMonitoringConfig().getWebServerConfig().addProbes(new RequestCounter());
+	}
+
+	/**
+	 * Effect: applies {@link #configuration} to a listener which has not been
+	 * started yet. Each listener has its own transport, and so its own
+	 * selector and worker threads.
+	 *
+	 * @param l
+	 *            the listener
+	 */
+	private void tune(NetworkListener l) {
+		TCPNIOTransport transport = l.getTransport();
+		transport.setSelectorRunnersCount(configuration.selectorThreads());
+		ThreadPoolConfig workers = ThreadPoolConfig.defaultConfig().copy();
+		workers.setPoolName("wsbd-" + l.getName());
+		workers.setCorePoolSize(configuration.workerThreads());
+		workers.setMaxPoolSize(configuration.workerThreads());
+		workers.setQueueLimit(configuration.workerQueueLimit());
+		if (configuration.virtualWorkerThreads() && Utility.virtualThreadsAvailable()) {
+			workers.setThreadFactory(Utility.threadFactory(true));
+		}
+		transport.setWorkerThreadPoolConfig(workers);
+		if (configuration.readBufferSize() > 0) {
+			transport.setReadBufferSize(configuration.readBufferSize());
+		}
+		if (configuration.writeBufferSize() > 0) {
+			transport.setWriteBufferSize(configuration.writeBufferSize());
+		}
+		l.getKeepAlive().setMaxRequestsCount(configuration.keepAliveMaxRequests());
+		l.getKeepAlive().setIdleTimeoutInSeconds((int) configuration.keepAliveIdleTimeout().getSeconds());
+		l.setMaxPendingBytes(configuration.maxPendingBytes());
+		transport.getConnectionMonitoringConfig().addProbes(new ConnectionCounter());
 	}
 	
 	/**
@@ -159,7 +291,64 @@ public class WSBDServer {
 	public void stop() {
 		server.shutdownNow();
 	}
+
+	/**
+	 * Effect: stops the server gracefully. First, if the service is a
+	 * {@link SensorService}, it is drained (see
+	 * {@link SensorService#drain(Duration)}): new sensor jobs are turned away
+	 * while the running ones finish. Then, the requests in progress, such as
+	 * downloads, are given the rest of the grace period to finish, and the
+	 * server stops. Whatever is still running after the grace period is cut
+	 * off.
+	 *
+	 * @param gracePeriod
+	 *            the longest time to wait
+	 * @return true if everything finished before the end of the grace period
+	 */
+	public boolean stop(Duration gracePeriod) {
+		long deadline = System.nanoTime() + gracePeriod.toNanos();
+		boolean finished = true;
+		if (service instanceof SensorService) {
+			finished = ((SensorService) service).drain(gracePeriod);
+		}
+		// Grizzly's own graceful shutdown can hang when there is more than one
+		// listener, so this waits for the requests itself
+		synchronized (requestsLock) {
+			try {
+				while (requestsInProgress > 0) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						finished = false;
+						break;
+					}
+					TimeUnit.NANOSECONDS.timedWait(requestsLock, remaining);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				finished = false;
+			}
+		}
+		server.shutdownNow();
+		return finished;
+	}
+
+	/**
+	 * @return the time from creating this server to sending its first
+	 *         response, which is how long a restarted server takes to be ready,
+	 *         or null if it has not sent a response yet
+	 */
+	public Duration timeToFirstRequest() {
+		return timeToFirstRequest.get();
+	}
 	
+	/**
+	 * @return the number of connections this server has accepted, which shows
+	 *         whether clients keep their connections alive
+	 */
+	public long connectionsAccepted() {
+		return connectionsAccepted.get();
+	}
+
 	/**
 	 * @return the URI of this server. If the server has not been started yet,
 	 *         the port will be unassigned (0), unless one was specified in the
@@ -184,4 +373,449 @@ public class WSBDServer {
 	public String baseUrl() {
 		return baseUrl;
 	}
+
+	/**
+	 * @return the configuration of this server
+	 */
+	public WSBDServerConfiguration configuration() {
+		return configuration;
+	}
+
+	/**
+	 * Represents: a filter which records when the first response is sent
+	 */
+	private class FirstResponseFilter implements ContainerResponseFilter {
+
+		@Override
+		public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+			if (timeToFirstRequest.get() == null) {
+				timeToFirstRequest.compareAndSet(null, Duration.ofNanos(System.nanoTime() - created));
+			}
+		}
+	}
+
+	/**
+	 * Represents: a probe which counts the accepted connections
+	 */
+	private class ConnectionCounter extends ConnectionProbe.Adapter {
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public void onAcceptEvent(Connection serverConnection, Connection clientConnection) {
+			connectionsAccepted.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Represents: a probe which counts the requests in progress
+	 */
+	private class RequestCounter extends HttpServerProbe.Adapter {
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public void onRequestReceiveEvent(HttpServerFilter filter, Connection connection, Request request) {
+			synchronized (requestsLock) {
+				requestsInProgress++;
+			}
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public void onRequestCompleteEvent(HttpServerFilter filter, Connection connection, Response response) {
+			synchronized (requestsLock) {
+				requestsInProgress--;
+				requestsLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Represents: an interceptor which writes the shared results (see
+	 * {@link Utility#sharedResult}) from their serialized form instead
+	 * of marshaling them for every response. Everything else is written as
+	 * usual.
+	 */
+	private static class SharedResultWriter implements WriterInterceptor {
+
+		@Override
+		public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+			byte[] bytes = Utility.sharedResultBytes(context.getEntity());
+			if (bytes != null && SharedResultWriter.isUtf8Xml(context.getMediaType())) {
+				context.getOutputStream().write(bytes);
+			} else {
+				context.proceed();
+			}
+		}
+
+		/**
+		 * @param type
+		 *            a media type
+		 * @return true if the type is XML in UTF-8, which is the form of the
+		 *         serialized results
+		 */
+		private static boolean isUtf8Xml(MediaType type) {
+			if (type == null || !(MediaType.TEXT_XML_TYPE.isCompatible(type) || MediaType.APPLICATION_XML_TYPE.isCompatible(type))) {
+				return false;
+			}
+			String charset = type.getParameters().get(MediaType.CHARSET_PARAMETER);
+			return charset == null || StandardCharsets.UTF_8.name().equalsIgnoreCase(charset);
+		}
+	}
+
+	/**
+	 * Represents: the tuning of the HTTP server behind a {@link WSBDServer}.
+	 * The defaults come from the number of processors and, when built from a
+	 * {@link ServerConfiguration}, from the maximum number of concurrent
+	 * sessions, so that a kiosk with one client does not start hundreds of
+	 * threads and a server for hundreds of clients does not make them wait in
+	 * line.
+	 *
+	 * @author Jacob Glueck
+	 */
+	public static class WSBDServerConfiguration {
+
+		/**
+		 * The number of processors
+		 */
+		private static final int processors = Runtime.getRuntime().availableProcessors();
+
+		/**
+		 * The number of worker threads given to each session when the worker
+		 * pool is sized from the maximum number of concurrent sessions: enough
+		 * for a capture, a status wait, an event stream and a download at
+		 * once.
+		 */
+		public static final int workerThreadsPerSession = 4;
+		/**
+		 * The most worker threads sized from the maximum number of concurrent
+		 * sessions
+		 */
+		public static final int maxDerivedWorkerThreads = 1024;
+
+		/**
+		 * The default number of selector threads: one per processor
+		 */
+		public static final int defaultSelectorThreads = WSBDServerConfiguration.processors;
+		/**
+		 * The number of selector threads, which accept connections and read
+		 * requests
+		 */
+		private int selectorThreads = WSBDServerConfiguration.defaultSelectorThreads;
+
+		/**
+		 * The default number of worker threads: two per processor, and at
+		 * least 8
+		 */
+		public static final int defaultWorkerThreads = Math.max(8, 2 * WSBDServerConfiguration.processors);
+		/**
+		 * The number of worker threads, which handle requests. A request which
+		 * waits for the sensor, a status change or a slow client holds one the
+		 * whole time.
+		 */
+		private int workerThreads = WSBDServerConfiguration.defaultWorkerThreads;
+
+		/**
+		 * The default worker queue limit (-1 means no limit)
+		 */
+		public static final int defaultWorkerQueueLimit = -1;
+		/**
+		 * The number of requests which may wait for a worker thread before
+		 * new ones are turned away, or -1 for no limit
+		 */
+		private int workerQueueLimit = WSBDServerConfiguration.defaultWorkerQueueLimit;
+
+		/**
+		 * The default for virtualWorkerThreads.
+		 */
+		public static final boolean defaultVirtualWorkerThreads = false;
+		/**
+		 * True to run the worker threads on virtual threads if this JVM has
+		 * them (Java 21 or newer)
+		 */
+		private boolean virtualWorkerThreads = WSBDServerConfiguration.defaultVirtualWorkerThreads;
+
+		/**
+		 * The default socket buffer size (0 means the system default)
+		 */
+		public static final int defaultBufferSize = 0;
+		/**
+		 * The size of the socket read buffer, or 0 for the system default
+		 */
+		private int readBufferSize = WSBDServerConfiguration.defaultBufferSize;
+		/**
+		 * The size of the socket write buffer, or 0 for the system default
+		 */
+		private int writeBufferSize = WSBDServerConfiguration.defaultBufferSize;
+
+		/**
+		 * The default number of requests served on one kept alive connection
+		 */
+		public static final int defaultKeepAliveMaxRequests = 256;
+		/**
+		 * The number of requests served on one kept alive connection before it
+		 * is closed, or -1 for no limit
+		 */
+		private int keepAliveMaxRequests = WSBDServerConfiguration.defaultKeepAliveMaxRequests;
+
+		/**
+		 * The default keep alive idle timeout
+		 */
+		public static final Duration defaultKeepAliveIdleTimeout = Duration.ofSeconds(30);
+		/**
+		 * How long a kept alive connection may sit idle before it is closed
+		 */
+		private Duration keepAliveIdleTimeout = WSBDServerConfiguration.defaultKeepAliveIdleTimeout;
+
+		/**
+		 * The default maximum pending bytes (-1 means no limit)
+		 */
+		public static final int defaultMaxPendingBytes = -1;
+		/**
+		 * The most bytes of responses which may wait to be written to one
+		 * connection, or -1 for no limit. This bounds how far a client which
+		 * pipelines requests but reads slowly can get ahead.
+		 */
+		private int maxPendingBytes = WSBDServerConfiguration.defaultMaxPendingBytes;
+
+		/**
+		 * The default outbound buffer size, which is Jersey's
+		 */
+		public static final int defaultOutboundBufferBytes = 8192;
+		/**
+		 * The number of bytes of each response buffered before it is sent. A
+		 * response which fits is sent with a content length. A larger one, such
+		 * as a download or a stream, is sent in chunks as it is written. If 0,
+		 * every write to a streaming response goes out right away.
+		 */
+		private int outboundBufferBytes = WSBDServerConfiguration.defaultOutboundBufferBytes;
+
+		/**
+		 * The default for streamingXml.
+		 */
+		public static final boolean defaultStreamingXml = false;
+		/**
+		 * True to read and write results and dictionaries with the streaming
+		 * {@link XmlCodec} instead of JAXB. The codec always writes compact
+		 * XML, whatever the {@link Utility#outputProfile()}.
+		 */
+		private boolean streamingXml = WSBDServerConfiguration.defaultStreamingXml;
+
+		/**
+		 * Creates: a new configuration with all the default values
+		 */
+		public WSBDServerConfiguration() {
+		}
+
+		/**
+		 * Creates: a new configuration sized for the maximum number of
+		 * concurrent sessions of an XML server configuration. There are
+		 * {@link #workerThreadsPerSession} worker threads per session, but no
+		 * fewer than two per processor and no more than
+		 * {@link #maxDerivedWorkerThreads}, and no more selector threads than
+		 * sessions.
+		 *
+		 * @param conf
+		 *            the server configuration
+		 */
+		public WSBDServerConfiguration(ServerConfiguration conf) {
+			int sessions = conf.maximumConcurrentSessions().min(BigInteger.valueOf(WSBDServerConfiguration.maxDerivedWorkerThreads)).max(BigInteger.ONE).intValue();
+			workerThreads = Math.max(2 * WSBDServerConfiguration.processors, Math.min(sessions * WSBDServerConfiguration.workerThreadsPerSession, WSBDServerConfiguration.maxDerivedWorkerThreads));
+			selectorThreads = Math.min(WSBDServerConfiguration.processors, sessions);
+		}
+
+		/**
+		 * @return the selectorThreads
+		 */
+		public int selectorThreads() {
+
+			return selectorThreads;
+		}
+
+		/**
+		 * @param selectorThreads
+		 *            the selectorThreads to set
+		 */
+		public void setSelectorThreads(int selectorThreads) {
+
+			this.selectorThreads = selectorThreads;
+		}
+
+		/**
+		 * @return the workerThreads
+		 */
+		public int workerThreads() {
+
+			return workerThreads;
+		}
+
+		/**
+		 * @param workerThreads
+		 *            the workerThreads to set
+		 */
+		public void setWorkerThreads(int workerThreads) {
+
+			this.workerThreads = workerThreads;
+		}
+
+		/**
+		 * @return the workerQueueLimit
+		 */
+		public int workerQueueLimit() {
+
+			return workerQueueLimit;
+		}
+
+		/**
+		 * @param workerQueueLimit
+		 *            the workerQueueLimit to set
+		 */
+		public void setWorkerQueueLimit(int workerQueueLimit) {
+
+			this.workerQueueLimit = workerQueueLimit;
+		}
+
+		/**
+		 * @return the virtualWorkerThreads
+		 */
+		public boolean virtualWorkerThreads() {
+
+			return virtualWorkerThreads;
+		}
+
+		/**
+		 * @param virtualWorkerThreads
+		 *            the virtualWorkerThreads to set
+		 */
+		public void setVirtualWorkerThreads(boolean virtualWorkerThreads) {
+
+			this.virtualWorkerThreads = virtualWorkerThreads;
+		}
+
+		/**
+		 * @return the readBufferSize
+		 */
+		public int readBufferSize() {
+
+			return readBufferSize;
+		}
+
+		/**
+		 * @param readBufferSize
+		 *            the readBufferSize to set
+		 */
+		public void setReadBufferSize(int readBufferSize) {
+
+			this.readBufferSize = readBufferSize;
+		}
+
+		/**
+		 * @return the writeBufferSize
+		 */
+		public int writeBufferSize() {
+
+			return writeBufferSize;
+		}
+
+		/**
+		 * @param writeBufferSize
+		 *            the writeBufferSize to set
+		 */
+		public void setWriteBufferSize(int writeBufferSize) {
+
+			this.writeBufferSize = writeBufferSize;
+		}
+
+		/**
+		 * @return the keepAliveMaxRequests
+		 */
+		public int keepAliveMaxRequests() {
+
+			return keepAliveMaxRequests;
+		}
+
+		/**
+		 * @param keepAliveMaxRequests
+		 *            the keepAliveMaxRequests to set
+		 */
+		public void setKeepAliveMaxRequests(int keepAliveMaxRequests) {
+
+			this.keepAliveMaxRequests = keepAliveMaxRequests;
+		}
+
+		/**
+		 * @return the keepAliveIdleTimeout
+		 */
+		public Duration keepAliveIdleTimeout() {
+
+			return keepAliveIdleTimeout;
+		}
+
+		/**
+		 * @param keepAliveIdleTimeout
+		 *            the keepAliveIdleTimeout to set
+		 */
+		public void setKeepAliveIdleTimeout(Duration keepAliveIdleTimeout) {
+
+			this.keepAliveIdleTimeout = keepAliveIdleTimeout;
+		}
+
+		/**
+		 * @return the maxPendingBytes
+		 */
+		public int maxPendingBytes() {
+
+			return maxPendingBytes;
+		}
+
+		/**
+		 * @param maxPendingBytes
+		 *            the maxPendingBytes to set
+		 */
+		public void setMaxPendingBytes(int maxPendingBytes) {
+
+			this.maxPendingBytes = maxPendingBytes;
+		}
+
+		/**
+		 * @return the outboundBufferBytes
+		 */
+		public int outboundBufferBytes() {
+
+			return outboundBufferBytes;
+		}
+
+		/**
+		 * @param outboundBufferBytes
+		 *            the outboundBufferBytes to set
+		 */
+		public void setOutboundBufferBytes(int outboundBufferBytes) {
+
+			this.outboundBufferBytes = outboundBufferBytes;
+		}
+
+		/**
+		 * @return the streamingXml
+		 */
+		public boolean streamingXml() {
+
+			return streamingXml;
+		}
+
+		/**
+		 * @param streamingXml
+		 *            the streamingXml to set
+		 */
+		public void setStreamingXml(boolean streamingXml) {
+
+			this.streamingXml = streamingXml;
+		}
+
+		@Override
+		public String toString() {
+
+			return "WSBDServerConfiguration [selectorThreads=" + selectorThreads + ", workerThreads=" + workerThreads + ", workerQueueLimit=" + workerQueueLimit + ", virtualWorkerThreads=" + virtualWorkerThreads
+					+ ", readBufferSize=" + readBufferSize + ", writeBufferSize=" + writeBufferSize + ", keepAliveMaxRequests=" + keepAliveMaxRequests + ", keepAliveIdleTimeout=" + keepAliveIdleTimeout
+					+ ", maxPendingBytes=" + maxPendingBytes + ", outboundBufferBytes=" + outboundBufferBytes + ", streamingXml=" + streamingXml + "]";
+		}
+	}
 }
@@ -0,0 +1,90 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.service;
+
+/**
+ * Represents: what a batch download sends for each capture
+ *
+ * @author Jacob Glueck
+ *
+ */
+public enum DownloadMode {
+	/**
+	 * The whole result, as returned by the download operation. The stored
+	 * capture is copied to the response without being decoded.
+	 */
+	full,
+	/**
+	 * The result without the sensor data, as returned by the get download
+	 * information operation
+	 */
+	info,
+	/**
+	 * Just the sensor data, with its own content type, as returned by the raw
+	 * download operation
+	 */
+	raw,
+	/**
+	 * Two parts: first the result without the sensor data, as in
+	 * {@link #info}, then just the sensor data, as in {@link #raw}. A capture
+	 * whose information cannot be read has only the first part. This gets a
+	 * capture's metadata and its sensor data in one request without decoding
+	 * the data.
+	 */
+	split;
+
+	/**
+	 * The media type of a batch download
+	 */
+	public static final String MEDIA_TYPE = "multipart/mixed";
+	/**
+	 * The part header which holds the status of each capture's download. If
+	 * the status is not {@link org.oasis_open.docs.bioserv.ns.wsbd_1.Status#SUCCESS},
+	 * the part is the failed result, whatever the mode.
+	 */
+	public static final String STATUS_HEADER = "WSBD-Status";
+	/**
+	 * The part header which holds the capture ID
+	 */
+	public static final String CAPTURE_ID_HEADER = "Content-ID";
+}
@@ -42,23 +42,33 @@
 
 package gov.nist.itl.wsbd.service;
 
+import java.util.List;
 import java.util.UUID;
 
 import javax.inject.Singleton;
+import javax.ws.rs.BeanParam;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Response;
 import javax.xml.bind.JAXBElement;
 
+import org.glassfish.jersey.server.ChunkedOutput;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
 
+import gov.nist.itl.wsbd.codec.CborCodec;
+import gov.nist.itl.wsbd.streaming.StreamVariant;
+
 /**
  * Represents: a Web Services for Biometric Devices (WS-BD) service
  *
@@ -72,6 +82,14 @@ import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
  */
 @Singleton
 public interface ISensorService {
+
+	/**
+	 * The compact media type which the methods returning a result offer
+	 * besides XML. Its low quality of source keeps XML, which the
+	 * specification requires, the default: only a client which asks for it
+	 * gets it.
+	 */
+	String COMPACT_MEDIA_TYPE = CborCodec.MEDIA_TYPE + ";qs=0.5";
 	
 	/**
 	 * Effect: registers a new client
@@ -79,7 +97,7 @@ public interface ISensorService {
 	 * @return the result
 	 */
 	@POST
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("register")
 	JAXBElement<Result> IRegister();
 	
@@ -91,7 +109,7 @@ public interface ISensorService {
 	 * @return the result
 	 */
 	@DELETE
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("register/{sessionId}")
 	JAXBElement<Result> IUnregister(@PathParam("sessionId") UUID sessionId);
 	
@@ -103,7 +121,7 @@ public interface ISensorService {
 	 * @return the result
 	 */
 	@POST
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("lock/{sessionId}")
 	JAXBElement<Result> ILock(@PathParam("sessionId") UUID sessionId);
 	
@@ -115,7 +133,7 @@ public interface ISensorService {
 	 * @return the result
 	 */
 	@PUT
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("lock/{sessionId}")
 	JAXBElement<Result> IStealLock(@PathParam("sessionId") UUID sessionId);
 	
@@ -127,7 +145,7 @@ public interface ISensorService {
 	 * @return the result
 	 */
 	@DELETE
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("lock/{sessionId}")
 	JAXBElement<Result> IUnlock(@PathParam("sessionId") UUID sessionId);
 	
@@ -137,7 +155,7 @@ public interface ISensorService {
 	 * @return the service information
 	 */
 	@GET
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("info")
 	JAXBElement<Result> IGetServiceInformation();
 	
@@ -149,7 +167,7 @@ public interface ISensorService {
 	 * @return the result
 	 */
 	@POST
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("initialize/{sessionId}")
 	JAXBElement<Result> IInitialize(@PathParam("sessionId") UUID sessionId);
 	
@@ -161,7 +179,7 @@ public interface ISensorService {
 	 * @return the result
 	 */
 	@DELETE
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("initialize/{sessionId}")
 	JAXBElement<Result> IUninitialize(@PathParam("sessionId") UUID sessionId);
 	
@@ -173,7 +191,7 @@ public interface ISensorService {
 	 * @return the configuration
 	 */
 	@GET
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("configure/{sessionId}")
 	JAXBElement<Result> IGetConfiguration(@PathParam("sessionId") UUID sessionId);
 	
@@ -187,7 +205,7 @@ public interface ISensorService {
 	 * @return the result
 	 */
 	@POST
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("configure/{sessionId}")
 	JAXBElement<Result> ISetConfiguration(@PathParam("sessionId") UUID sessionId,
 			Dictionary configuration);
@@ -200,7 +218,7 @@ public interface ISensorService {
 	 * @return the result
 	 */
 	@POST
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("capture/{sessionId}")
 	JAXBElement<Result> ICapture(@PathParam("sessionId") UUID sessionId);
 
@@ -215,7 +233,7 @@ public interface ISensorService {
 	 * @return the result
 	 */
 	@POST
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("capture/{sessionId}/async")
 	JAXBElement<Result> IBeginCapture(@PathParam("sessionId") UUID sessionId);
 
@@ -230,7 +248,7 @@ public interface ISensorService {
 	 * @return the result
 	 */
 	@PUT
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("capture/{sessionId}/async")
 	JAXBElement<Result> IEndCapture(@PathParam("sessionId") UUID sessionId);
 	
@@ -242,9 +260,44 @@ public interface ISensorService {
 	 *         value of the status.
 	 */
 	@GET
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("/status")
 	JAXBElement<Result> IGetSensorStatus();
+
+	/**
+	 * Waits for the sensor status to change. This is a long poll alternative to
+	 * repeatedly calling {@link #IGetSensorStatus()}: the request is held
+	 * until the sensor status differs from <code>current</code> or the
+	 * timeout elapses.
+	 *
+	 * @param current
+	 *            the sensor status the client last saw. If missing or not a
+	 *            valid sensor status, the current status is returned
+	 *            immediately.
+	 * @param timeout
+	 *            the maximum amount of time to wait, in milliseconds. The
+	 *            service may wait for less.
+	 * @param response
+	 *            the response, which is resumed with the same result as
+	 *            {@link #IGetSensorStatus()}. No thread is held while waiting.
+	 */
+	@GET
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
+	@Path("/status/wait")
+	void IWaitForSensorStatus(@QueryParam("current") String current, @DefaultValue("30000") @QueryParam("timeout") long timeout, @Suspended AsyncResponse response);
+
+	/**
+	 * Opens a server-sent event stream which pushes a {@link SensorEvent} for
+	 * every sensor status change and for every capture whose data has been
+	 * stored. The first event is always the current sensor status. Any number
+	 * of clients may listen at once, and no session is required.
+	 *
+	 * @return the event stream
+	 */
+	@GET
+	@Produces(SensorEvent.MEDIA_TYPE)
+	@Path("/events")
+	ChunkedOutput<String> IEvents();
 	
 	/**
 	 * Gets the captured biometric data
@@ -254,7 +307,7 @@ public interface ISensorService {
 	 * @return the data
 	 */
 	@GET
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("download/{captureId}")
 	JAXBElement<Result> IDownload(@PathParam("captureId") UUID captureId);
 	
@@ -266,7 +319,7 @@ public interface ISensorService {
 	 * @return the result
 	 */
 	@GET
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("download/{captureId}/info")
 	JAXBElement<Result> IGetDownloadInformation(@PathParam("captureId") UUID captureId);
 	
@@ -280,7 +333,7 @@ public interface ISensorService {
 	 * @return the result
 	 */
 	@GET
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("download/{captureId}/{maxSize}")
 	JAXBElement<Result> IThriftyDownload(@PathParam("captureId") UUID captureId, @PathParam("maxSize") String maxSize);
 
@@ -294,6 +347,41 @@ public interface ISensorService {
 	@GET
 	@Path("download/{captureId}/raw")
 	Response IRawDownload(@PathParam("captureId") UUID captureId);
+
+	/**
+	 * Gets many captures in one <code>multipart/mixed</code> response, with
+	 * one part per capture in the order they were requested.
+	 *
+	 * @param captureIds
+	 *            the capture IDs
+	 * @param mode
+	 *            what to send for each capture
+	 * @return the response
+	 */
+	@GET
+	@Path("download")
+	Response IBatchDownload(@QueryParam("id") List<UUID> captureIds, @DefaultValue("full") @QueryParam("mode") DownloadMode mode);
+
+	/**
+	 * Runs a sequence of operations for one session and returns all their
+	 * results together in one <code>multipart/mixed</code> response. The
+	 * workflow stops at the first operation which does not succeed, and its
+	 * result is the last one returned.
+	 * <p>
+	 * A workflow is not atomic. Each operation takes the sensor lock on its
+	 * own, so other clients' requests may run between the operations, and the
+	 * operations which succeeded before a failure are not undone.
+	 *
+	 * @param sessionId
+	 *            the session ID. May be left out if the first operation
+	 *            registers.
+	 * @param operations
+	 *            the operations, in order
+	 * @return the response
+	 */
+	@POST
+	@Path("workflow")
+	Response IWorkflow(@QueryParam("session") UUID sessionId, @QueryParam("op") List<WorkflowOperation> operations);
 	
 	/**
 	 * Effect: attempts to cancel the currently running sensor operation
@@ -303,7 +391,7 @@ public interface ISensorService {
 	 * @return the result
 	 */
 	@POST
-	@Produces("text/xml")
+	@Produces({ "text/xml", ISensorService.COMPACT_MEDIA_TYPE })
 	@Path("cancel/{sessionId}")
 	JAXBElement<Result> ICancel(@PathParam("sessionId") UUID sessionId);
 
@@ -319,11 +407,17 @@ public interface ISensorService {
 	 *
 	 * @param streamName
 	 *            the stream name
+	 * @param variant
+	 *            the frame rate, size and quality the client asked for, from
+	 *            the query parameters <code>maxFps</code>,
+	 *            <code>maxWidth</code>, <code>maxHeight</code> and
+	 *            <code>quality</code>. The service may give the client a
+	 *            different variant.
 	 * @return the stream
 	 */
 	@GET
 	@Path(ISensorService.STREAM_PREFIX + "/{streamName}")
-	Response IStream(@PathParam("streamName") String streamName);
+	Response IStream(@PathParam("streamName") String streamName, @BeanParam StreamVariant variant);
 	
 	/**
 	 * Effect: gets the stream at the specified name. A lock is required. If no
@@ -334,9 +428,12 @@ public interface ISensorService {
 	 *            the stream name
 	 * @param sessionId
 	 *            the session ID
+	 * @param variant
+	 *            the frame rate, size and quality the client asked for (see
+	 *            {@link #IStream(String, StreamVariant)})
 	 * @return the stream
 	 */
 	@GET
 	@Path(ISensorService.STREAM_PREFIX + "/{streamName}/{sessionId}")
-	Response IStreamLocked(@PathParam("streamName") String streamName, @PathParam("sessionId") UUID sessionId);
+	Response IStreamLocked(@PathParam("streamName") String streamName, @PathParam("sessionId") UUID sessionId, @BeanParam StreamVariant variant);
 }
\ No newline at end of file
@@ -0,0 +1,142 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.service;
+
+/**
+ * Represents: an event pushed to clients listening on
+ * {@link ISensorService#IEvents()}. Events are sent in the server-sent events
+ * format: each event is an <code>id</code> line, an <code>event</code> line
+ * with the type and a <code>data</code> line, followed by a blank line.
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class SensorEvent {
+
+	/**
+	 * The media type of the event stream
+	 */
+	public static final String MEDIA_TYPE = "text/event-stream";
+
+	/**
+	 * Represents: the kind of an event
+	 *
+	 * @author Jacob Glueck
+	 *
+	 */
+	public static enum Type {
+		/**
+		 * The sensor status changed. The data is the new sensor status value.
+		 */
+		status,
+		/**
+		 * A capture finished and its data was stored. The data is the list of
+		 * capture IDs separated by spaces.
+		 */
+		capture;
+	}
+
+	/**
+	 * The event ID. IDs increase by one with each event the service sends.
+	 */
+	private final long id;
+	/**
+	 * The type
+	 */
+	private final Type type;
+	/**
+	 * The data. Never contains a line break.
+	 */
+	private final String data;
+
+	/**
+	 * Creates: a new event
+	 *
+	 * @param id
+	 *            the ID
+	 * @param type
+	 *            the type
+	 * @param data
+	 *            the data. Must not contain a line break (assert).
+	 */
+	public SensorEvent(long id, Type type, String data) {
+		assert data.indexOf('\n') == -1 && data.indexOf('\r') == -1;
+		this.id = id;
+		this.type = type;
+		this.data = data;
+	}
+
+	/**
+	 * @return the ID
+	 */
+	public long id() {
+		return id;
+	}
+
+	/**
+	 * @return the type
+	 */
+	public Type type() {
+		return type;
+	}
+
+	/**
+	 * @return the data
+	 */
+	public String data() {
+		return data;
+	}
+
+	/**
+	 * @return this event in the server-sent events format, including the
+	 *         trailing blank line
+	 */
+	public String format() {
+		return String.format("id: %d\nevent: %s\ndata: %s\n\n", id, type, data);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d %s %s", id, type, data);
+	}
+}
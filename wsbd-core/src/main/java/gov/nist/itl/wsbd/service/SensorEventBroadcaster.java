@@ -0,0 +1,354 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+
+/**
+ * Represents: the set of clients listening for {@link SensorEvent}s. Events
+ * are ordered by a single dispatch thread, so publishing never blocks the
+ * caller and subscribers see events in the order they were published. The
+ * dispatch thread only queues each event for each subscriber: the events are
+ * written by a small pool of writer threads, so a slow subscriber does not
+ * hold up the others. Each subscriber's queue is bounded, and a subscriber
+ * which falls so far behind that its queue is full is disconnected. A comment
+ * line is sent to every subscriber periodically so that closed connections are
+ * noticed and removed even when no events happen.
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class SensorEventBroadcaster {
+
+	/**
+	 * The subscribers
+	 */
+	private final List<Subscriber> subscribers;
+	/**
+	 * The thread which orders the events and the heartbeats
+	 */
+	private final ScheduledExecutorService dispatcher;
+	/**
+	 * The threads which write the events to the subscribers
+	 */
+	private final ExecutorService writers;
+	/**
+	 * Supplies the data of the status event sent to each new subscriber
+	 */
+	private final Supplier<String> currentStatus;
+	/**
+	 * The number of chunks which may wait to be written to a subscriber before
+	 * it is disconnected
+	 */
+	private final int queueCapacity;
+	/**
+	 * The ID of the next event. Only accessed from the dispatch thread.
+	 */
+	private long nextId;
+
+	/**
+	 * Creates: a new broadcaster with no subscribers
+	 *
+	 * @param currentStatus
+	 *            supplies the current sensor status value, which is sent to
+	 *            each new subscriber as its first event
+	 * @param heartbeat
+	 *            the time between heartbeats
+	 * @param writerThreads
+	 *            the number of threads which write to the subscribers
+	 * @param queueCapacity
+	 *            the number of chunks which may wait to be written to a
+	 *            subscriber before it is disconnected
+	 */
+	public SensorEventBroadcaster(Supplier<String> currentStatus, Duration heartbeat, int writerThreads, int queueCapacity) {
+		subscribers = new CopyOnWriteArrayList<>();
+		dispatcher = Executors.newSingleThreadScheduledExecutor(SensorEventBroadcaster.threadFactory("sensor-events"));
+		writers = Executors.newFixedThreadPool(writerThreads, SensorEventBroadcaster.threadFactory("sensor-event-writer"));
+		this.currentStatus = currentStatus;
+		this.queueCapacity = queueCapacity;
+		nextId = 0;
+		dispatcher.scheduleWithFixedDelay(() -> {
+			for (Subscriber subscriber : subscribers) {
+				subscriber.offer(":\n\n");
+			}
+		}, heartbeat.toMillis(), heartbeat.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param name
+	 *            the name of the threads
+	 * @return a factory for daemon threads with the specified name
+	 */
+	private static ThreadFactory threadFactory(String name) {
+		return r -> {
+			Thread thread = new Thread(r, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Effect: adds a new subscriber. The first event the subscriber receives
+	 * is a {@link SensorEvent.Type#status} event with the current status.
+	 *
+	 * @return the output to return from the resource method
+	 */
+	public ChunkedOutput<String> subscribe() {
+		Subscriber subscriber = new Subscriber(new ChunkedOutput<>(String.class));
+		boolean accepted = dispatch(() -> {
+			// Read the status on the dispatch thread so that it is ordered
+			// correctly with respect to status events which are already queued
+			subscribers.add(subscriber);
+			subscriber.offer(new SensorEvent(nextId++, SensorEvent.Type.status, currentStatus.get()).format());
+		});
+		if (!accepted) {
+			subscriber.disconnect();
+		}
+		return subscriber.output;
+	}
+
+	/**
+	 * Effect: sends an event to all the current subscribers. Returns
+	 * immediately.
+	 *
+	 * @param type
+	 *            the type
+	 * @param data
+	 *            the data
+	 */
+	public void publish(SensorEvent.Type type, String data) {
+		dispatch(() -> {
+			if (subscribers.isEmpty()) {
+				return;
+			}
+			String event = new SensorEvent(nextId++, type, data).format();
+			for (Subscriber subscriber : subscribers) {
+				subscriber.offer(event);
+			}
+		});
+	}
+
+	/**
+	 * Effect: ends every subscription once the events which are already queued
+	 * have been sent, and stops the dispatch and writer threads. Events
+	 * published after this are dropped.
+	 */
+	public void close() {
+		dispatch(() -> {
+			for (Subscriber subscriber : subscribers) {
+				subscriber.finish();
+			}
+			subscribers.clear();
+			writers.shutdown();
+		});
+		dispatcher.shutdown();
+	}
+
+	/**
+	 * Effect: runs a task on the dispatch thread
+	 *
+	 * @param task
+	 *            the task
+	 * @return false if the broadcaster has been closed, in which case the task
+	 *         does not run
+	 */
+	private boolean dispatch(Runnable task) {
+		try {
+			dispatcher.execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the number of subscribers which have not been removed
+	 */
+	public int subscriberCount() {
+		return subscribers.size();
+	}
+
+	/**
+	 * Represents: a subscriber and the chunks waiting to be written to it. At
+	 * most one writer thread writes to a subscriber at a time.
+	 */
+	private class Subscriber implements Runnable {
+
+		/**
+		 * The output to the client
+		 */
+		private final ChunkedOutput<String> output;
+		/**
+		 * The chunks which have not been written yet
+		 */
+		private final BlockingQueue<String> pending;
+		/**
+		 * True if this subscriber is waiting for, or running on, a writer
+		 * thread
+		 */
+		private final AtomicBoolean scheduled;
+		/**
+		 * True once the subscription should end after the pending chunks
+		 */
+		private volatile boolean finishing;
+
+		/**
+		 * Creates: a new subscriber with no pending chunks
+		 *
+		 * @param output
+		 *            the output to the client
+		 */
+		public Subscriber(ChunkedOutput<String> output) {
+			this.output = output;
+			pending = new ArrayBlockingQueue<>(queueCapacity);
+			scheduled = new AtomicBoolean(false);
+			finishing = false;
+		}
+
+		/**
+		 * Effect: queues a chunk to be written. If the queue is full, the
+		 * subscriber has fallen behind and is disconnected.
+		 *
+		 * @param chunk
+		 *            the chunk
+		 */
+		public void offer(String chunk) {
+			if (pending.offer(chunk)) {
+				schedule();
+			} else {
+				disconnect();
+			}
+		}
+
+		/**
+		 * Effect: ends the subscription once the pending chunks have been
+		 * written
+		 */
+		public void finish() {
+			finishing = true;
+			schedule();
+		}
+
+		/**
+		 * Effect: closes the output, drops the pending chunks and removes the
+		 * subscriber
+		 */
+		public void disconnect() {
+			subscribers.remove(this);
+			pending.clear();
+			try {
+				output.close();
+			} catch (IOException e) {
+			}
+		}
+
+		/**
+		 * Effect: runs this subscriber on a writer thread unless it already is
+		 */
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					writers.execute(this);
+				} catch (RejectedExecutionException e) {
+					// The broadcaster has been closed
+					disconnect();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			do {
+				String chunk;
+				while ((chunk = pending.poll()) != null) {
+					if (!write(chunk)) {
+						return;
+					}
+				}
+				if (finishing) {
+					disconnect();
+					return;
+				}
+				scheduled.set(false);
+				// A chunk may have been queued after the last poll, in which
+				// case the thread which queued it saw that this was still
+				// scheduled
+			} while ((finishing || !pending.isEmpty()) && scheduled.compareAndSet(false, true));
+		}
+
+		/**
+		 * Effect: writes a chunk to the client. If the write fails,
+		 * disconnects the subscriber.
+		 *
+		 * @param chunk
+		 *            the chunk
+		 * @return true if and only if the write succeeded
+		 */
+		private boolean write(String chunk) {
+			try {
+				if (!output.isClosed()) {
+					output.write(chunk);
+					return true;
+				}
+			} catch (IOException | RuntimeException e) {
+			}
+			disconnect();
+			return false;
+		}
+	}
+}
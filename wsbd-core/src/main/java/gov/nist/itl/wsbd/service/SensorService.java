@@ -46,32 +46,53 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
@@ -79,6 +100,7 @@ import javax.ws.rs.core.StreamingOutput;
 import javax.xml.bind.JAXBElement;
 
 import org.glassfish.grizzly.http.util.HttpStatus;
+import org.glassfish.jersey.server.ChunkedOutput;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary.Item;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Parameter;
@@ -86,6 +108,8 @@ import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.SensorStatus;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
 
+import gov.nist.itl.wsbd.codec.XmlCodec;
+import gov.nist.itl.wsbd.configuration.ConfigurationSnapshot;
 import gov.nist.itl.wsbd.configuration.ServerStateKey;
 import gov.nist.itl.wsbd.configuration.ServiceConfiguration;
 import gov.nist.itl.wsbd.dictionary.DictionaryWrapper;
@@ -94,17 +118,24 @@ import gov.nist.itl.wsbd.persistence.FileStorageProvider;
 import gov.nist.itl.wsbd.persistence.StorageProvider;
 import gov.nist.itl.wsbd.persistence.StorageProvider.StorageProviderConfiguration;
 import gov.nist.itl.wsbd.service.SessionManager.SessionManagerConfiguration;
+import gov.nist.itl.wsbd.streaming.FrameSource;
+import gov.nist.itl.wsbd.streaming.FrameTranscoder;
+import gov.nist.itl.wsbd.streaming.Frames;
 import gov.nist.itl.wsbd.streaming.IllegalResourceException;
+import gov.nist.itl.wsbd.streaming.StreamBroadcaster;
+import gov.nist.itl.wsbd.streaming.StreamBroadcaster.Subscription;
 import gov.nist.itl.wsbd.streaming.StreamHandle;
+import gov.nist.itl.wsbd.streaming.StreamVariant;
+import gov.nist.itl.wsbd.streaming.VariantFrameSource;
 
 /**
  * Represents: a WS-BD sensor service. All sensors services should inherit from
  * this class. This class handles all the registration and locking requirements,
  * and allows subclasses to focus only on sensor operation. This class
- * guarantees that all the abstract methods except for
- * {@link #getStream(String)} will only be called from one thread. In order for
- * subclasses to use this class as a web service resource, subclasses must have
- * an <code>@Path("servicepath")</code> annotation.
+ * guarantees that all the sensor methods except for {@link #getStream(String)}
+ * and {@link #getFrameSource(String)} will only be called from one thread. In
+ * order for subclasses to use this class as a web service resource, subclasses
+ * must have an <code>@Path("servicepath")</code> annotation.
  *
  * @author Kevin Mangold
  * @author Jacob Glueck
@@ -117,17 +148,20 @@ public abstract class SensorService implements ISensorService {
 	 */
 	private final SessionManager sessionManager;
 	/**
-	 * The lock used for access to the session manager
+	 * The lock used for access to the session manager. Request threads wait
+	 * for the sensor on {@link #sensorChanged} rather than on a monitor, so a
+	 * waiting virtual thread does not pin its carrier thread.
 	 */
-	private final Object lock;
+	private final ReentrantLock lock;
 	/**
-	 * The executor service which executes all sensor jobs on one thread
+	 * Signaled whenever a sensor job starts or ends, the sensor job queue
+	 * changes or a cancel is requested
 	 */
-	private final ExecutorService sensorJobExecutor;
+	private final Condition sensorChanged;
 	/**
-	 * The timeout timer used to cancel long tasks
+	 * The executor service which executes all sensor jobs on one thread
 	 */
-	private final ScheduledExecutorService timeoutTimer;
+	private final ExecutorService sensorJobExecutor;
 	/**
 	 * The service configuration
 	 */
@@ -136,6 +170,10 @@ public abstract class SensorService implements ISensorService {
 	 * The storage provider for storing captured data
 	 */
 	private final StorageProvider storage;
+	/**
+	 * The configuration metadata shared by the stored captures
+	 */
+	private final SharedMetadata sharedMetadata;
 
 	/**
 	 * True if and only if a sensor job is currently running
@@ -150,6 +188,20 @@ public abstract class SensorService implements ISensorService {
 	 * True if a cancel has been requested
 	 */
 	private boolean cancelRequested;
+	/**
+	 * The sensor jobs waiting for the sensor, highest priority first
+	 */
+	private final PriorityQueue<SensorJobTicket> sensorJobQueue;
+	/**
+	 * The sequence number of the next sensor job to be queued, which keeps
+	 * jobs of the same priority in the order they arrived
+	 */
+	private long nextSensorJobSequence;
+	/**
+	 * True once {@link #drain(Duration)} has been called. New sensor jobs are
+	 * turned away, and streams end.
+	 */
+	private volatile boolean draining;
 	/**
 	 * A test which return {@link Status#SUCCESS} if no asynchronous sensor job
 	 * is currently running.
@@ -182,6 +234,71 @@ public abstract class SensorService implements ISensorService {
 	 * An immutable map for stream names to stream handles
 	 */
 	private final Map<String, StreamHandle> streams;
+	/**
+	 * An immutable map from stream names to the broadcasters which share each
+	 * stream between all of its viewers
+	 */
+	private final Map<String, StreamBroadcaster> broadcasters;
+	/**
+	 * The viewers of locked streams. Every time the lock changes, they are all
+	 * disconnected, because whoever they belonged to no longer holds the lock.
+	 */
+	private final Set<Subscription> lockedViewers;
+	/**
+	 * The threads which write the live streams to the viewers, one per viewer.
+	 * There are at most {@link #maxStreamViewers()} of them, and a viewer who
+	 * connects while they are all busy is turned away.
+	 */
+	private final ThreadPoolExecutor streamWriters;
+	/**
+	 * The subscriptions of all the viewers being sent a stream, which end when
+	 * the service stops
+	 */
+	private final Set<Subscription> streamViewers;
+	/**
+	 * An immutable map from stream names to the broadcasters of the variants
+	 * of each stream which viewers have asked for. Each map of variants is
+	 * guarded by itself, so that a variant is never forgotten between being
+	 * looked up and being subscribed to.
+	 */
+	private final Map<String, Map<StreamVariant, StreamBroadcaster>> variantBroadcasters;
+	/**
+	 * An immutable map from each sensor status to the shared response to
+	 * {@link #IGetSensorStatus()} for that status. These responses never
+	 * change, so they are built and serialized once instead of on every poll.
+	 */
+	private final Map<SensorStatus, JAXBElement<Result>> sensorStatusResponses;
+	/**
+	 * The suspended responses of the clients waiting for the sensor status to
+	 * change, mapped to the status each one last saw
+	 */
+	private final Map<AsyncResponse, SensorStatus> sensorStatusWaiters;
+	/**
+	 * The thread which resumes the waiting clients when the sensor status
+	 * changes or when they time out, so that the thread which changed the
+	 * status does not write their responses
+	 */
+	private final ScheduledThreadPoolExecutor sensorStatusNotifier;
+	/**
+	 * The clients listening for sensor events
+	 */
+	private final SensorEventBroadcaster events;
+	/**
+	 * The threads which store burst captures and the captures of each end
+	 * capture. Their queue is bounded, so a sensor which captures faster than
+	 * the captures can be stored is told to drop captures instead of using up
+	 * memory.
+	 */
+	private final ThreadPoolExecutor captureWriters;
+	/**
+	 * The lock for {@link #burst}
+	 */
+	private final Object burstLock;
+	/**
+	 * The captures offered during the current capture, in the order they were
+	 * offered, or null if no capture is running
+	 */
+	private List<Future<UUID>> burst;
 	
 	/**
 	 * Creaets: a new sensor service
@@ -195,23 +312,28 @@ public abstract class SensorService implements ISensorService {
 	 */
 	public SensorService(ServiceConfiguration configuration) throws IOException, IllegalResourceException {
 		sessionManager = new SessionManager(new SessionManagerConfiguration(configuration.serverConfiguration()));
-		lock = new Object();
-		ThreadFactory daemonFactory = r -> {
-			Thread thread = new Thread(r);
-			thread.setDaemon(true);
-			return thread;
-		};
+		lock = new ReentrantLock();
+		sensorChanged = lock.newCondition();
+		ThreadFactory daemonFactory = Utility.threadFactory(virtualThreads());
 		sensorJobExecutor = Executors.newSingleThreadExecutor(daemonFactory);
-		timeoutTimer = Executors.newSingleThreadScheduledExecutor(daemonFactory);
 		this.configuration = configuration;
-		storage = new FileStorageProvider(new StorageProviderConfiguration(configuration.serverConfiguration()));
+		Path storageDirectory = storageDirectory();
+		if (storageDirectory == null) {
+			storage = new FileStorageProvider(new StorageProviderConfiguration(configuration.serverConfiguration()));
+		} else {
+			storage = new FileStorageProvider(new StorageProviderConfiguration(configuration.serverConfiguration()), storageDirectory);
+		}
+		sharedMetadata = new SharedMetadata(storage);
 		
 		sensorJobRunning = false;
 		asyncSensorJobOwner = null;
 		cancelRequested = false;
+		sensorJobQueue = new PriorityQueue<>(SensorJobTicket.order);
+		nextSensorJobSequence = 0;
+		draining = false;
 		runIfNoAsynSensorJob = (id) -> {
 			if (asyncSensorJobOwner == null) {
-				return Utility.result(Status.SUCCESS);
+				return Utility.sharedResult(Status.SUCCESS);
 			} else {
 				return Utility.result(Status.SENSOR_BUSY, "Sensor running asynchronous capture");
 			}
@@ -221,13 +343,13 @@ public abstract class SensorService implements ISensorService {
 				if (configuration.serverConfiguration().transferrableAsyncCapture()) {
 					// If the capture is transferable, then so long as an owner
 					// exists, it is good enough.
-					return Utility.result(Status.SUCCESS);
+					return Utility.sharedResult(Status.SUCCESS);
 				} else {
 					// With the code below, only the client who started the
 					// asynchronous capture can get the data. With the code
 					// above, anyone can finish the capture.
 					if (asyncSensorJobOwner.equals(id)) {
-						return Utility.result(Status.SUCCESS);
+						return Utility.sharedResult(Status.SUCCESS);
 					} else {
 						return Utility.result(Status.SENSOR_BUSY, "The currently running asynchronous sensor job is owned by another client. You must cancel the job.");
 					}
@@ -253,11 +375,43 @@ public abstract class SensorService implements ISensorService {
 
 		Set<StreamHandle> streamHandles = StreamHandle.handleFromStreamConfiguration(configuration.streamConfiguration());
 		Map<String, StreamHandle> streamHandlesMap = new HashMap<>();
+		Map<String, StreamBroadcaster> broadcastersMap = new HashMap<>();
+		Map<String, Map<StreamVariant, StreamBroadcaster>> variantBroadcastersMap = new HashMap<>();
 		for (StreamHandle handle : streamHandles) {
 			streamHandlesMap.put(handle.name(), handle);
+			broadcastersMap.put(handle.name(), new StreamBroadcaster(handle.name(), () -> getFrameSource(handle.name()), streamBufferFrames()));
+			variantBroadcastersMap.put(handle.name(), new HashMap<>());
 		}
 		streams = Collections.unmodifiableMap(streamHandlesMap);
+		broadcasters = Collections.unmodifiableMap(broadcastersMap);
+		variantBroadcasters = Collections.unmodifiableMap(variantBroadcastersMap);
+		lockedViewers = ConcurrentHashMap.newKeySet();
+		streamViewers = ConcurrentHashMap.newKeySet();
+		streamWriters = new ThreadPoolExecutor(0, maxStreamViewers(), 1, TimeUnit.MINUTES, new SynchronousQueue<>(), daemonFactory);
+		sessionManager.addLockListener(() -> {
+			for (Subscription viewer : lockedViewers) {
+				viewer.close();
+				lockedViewers.remove(viewer);
+			}
+		});
+
+		Map<SensorStatus, JAXBElement<Result>> statusResponses = new EnumMap<>(SensorStatus.class);
+		for (SensorStatus status : SensorStatus.values()) {
+			statusResponses.put(status, Utility.share(SensorService.sensorStatusResult(status)));
+		}
+		sensorStatusResponses = Collections.unmodifiableMap(statusResponses);
+		sensorStatusWaiters = new ConcurrentHashMap<>();
+		sensorStatusNotifier = new ScheduledThreadPoolExecutor(1, daemonFactory);
+		sensorStatusNotifier.setRemoveOnCancelPolicy(true);
+
+		captureWriters = new ThreadPoolExecutor(captureWriterThreads(), captureWriterThreads(), 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(burstQueueCapacity()), daemonFactory);
+		captureWriters.allowCoreThreadTimeOut(true);
+		burstLock = new Object();
+		burst = null;
 
+		events = new SensorEventBroadcaster(() -> configuration.serverStateConfiguration().sensorStatus().value(), sensorEventHeartbeat(), sensorEventWriterThreads(), sensorEventQueueCapacity());
+		configuration.serverStateConfiguration().addSensorStatusListener(status -> events.publish(SensorEvent.Type.status, status.value()));
+		configuration.serverStateConfiguration().addSensorStatusListener(this::resumeSensorStatusWaiters);
 	}
 
 	/**
@@ -270,13 +424,96 @@ public abstract class SensorService implements ISensorService {
 		handleDefaultConfiguration(configuration.sensorConfiguration().dictionary());
 		serviceInitialized = true;
 	}
+
+	/**
+	 * Effect: stops this service from taking new work and waits for the work
+	 * already started to finish. New sensor jobs get
+	 * {@link Status#SENSOR_BUSY}, except the ones which finish or cancel a
+	 * running asynchronous capture. Streams end right away, and the clients
+	 * waiting for the sensor status to change get the current status. The
+	 * running sensor job, the jobs waiting in the queue and a running
+	 * asynchronous capture are given until the timeout to finish. After that,
+	 * a running asynchronous capture is canceled and its captures are
+	 * discarded. Then, the captures
+	 * still being stored are given the rest of the time, and the clients
+	 * listening for sensor events are disconnected. The service cannot be used
+	 * afterwards, but the captures it stored can still be downloaded.
+	 *
+	 * @param timeout
+	 *            the longest time to wait
+	 * @return true if all the work finished before the timeout
+	 */
+	public boolean drain(Duration timeout) {
+		assert serviceInitialized;
+		long deadline = System.nanoTime() + timeout.toNanos();
+		boolean finished = true;
+		draining = true;
+		endOpenRequests();
+		try {
+			lock.lock();
+			try {
+				while (sensorJobRunning || !sensorJobQueue.isEmpty() || asyncSensorJobOwner != null) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						break;
+					}
+					sensorChanged.awaitNanos(remaining);
+				}
+				if (sensorJobRunning || !sensorJobQueue.isEmpty()) {
+					finished = false;
+				}
+				if (!sensorJobRunning && asyncSensorJobOwner != null) {
+					finished = false;
+					runJobOnSensorThread(configuration.serverConfiguration().cancelAsyncCaptureTimeout(), this::cancelAsyncCapture);
+					discardBurst();
+					asyncSensorJobOwner = null;
+					configuration.serverStateConfiguration().setSensorStatus(SensorStatus.READY);
+				}
+			} finally {
+				lock.unlock();
+			}
+			captureWriters.shutdown();
+			if (!captureWriters.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+				finished = false;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			finished = false;
+		} finally {
+			events.close();
+		}
+		return finished;
+	}
 	
+	/**
+	 * Effect: ends the requests which would otherwise stay open until
+	 * something happens, so that they do not hold up stopping. The clients
+	 * waiting for the sensor status to change get the current status, and the
+	 * streams end.
+	 */
+	private void endOpenRequests() {
+		// The timers are dropped, so no waiter is resumed twice
+		sensorStatusNotifier.shutdownNow();
+		GenericEntity<JAXBElement<Result>> result = SensorService.statusEntity(IGetSensorStatus());
+		for (AsyncResponse waiter : sensorStatusWaiters.keySet()) {
+			if (sensorStatusWaiters.remove(waiter) != null) {
+				waiter.resume(result);
+			}
+		}
+		for (Subscription viewer : streamViewers) {
+			viewer.close();
+		}
+	}
+
 	@Override
 	public JAXBElement<Result> IRegister() {
 		assert serviceInitialized;
-		synchronized (lock) {
+		lock.lock();
+		try {
 			Result result = sessionManager.registerSession();
 			return Utility.wrap(result);
+		} finally {
+			lock.unlock();
 		}
 	}
 	
@@ -284,9 +521,12 @@ public abstract class SensorService implements ISensorService {
 	public JAXBElement<Result> IUnregister(UUID sessionId) {
 		assert serviceInitialized;
 		
-		synchronized (lock) {
+		lock.lock();
+		try {
 			Result result = sessionManager.unregisterSession(sessionId);
 			return Utility.wrap(result);
+		} finally {
+			lock.unlock();
 		}
 	}
 	
@@ -294,9 +534,12 @@ public abstract class SensorService implements ISensorService {
 	public JAXBElement<Result> ILock(UUID sessionId) {
 		assert serviceInitialized;
 
-		synchronized (lock) {
+		lock.lock();
+		try {
 			Result result = sessionManager.lock(sessionId);
 			return Utility.wrap(result);
+		} finally {
+			lock.unlock();
 		}
 	}
 	
@@ -304,9 +547,12 @@ public abstract class SensorService implements ISensorService {
 	public JAXBElement<Result> IStealLock(UUID sessionId) {
 		assert serviceInitialized;
 		
-		synchronized (lock) {
+		lock.lock();
+		try {
 			Result result = sessionManager.stealLock(sessionId);
 			return Utility.wrap(result);
+		} finally {
+			lock.unlock();
 		}
 	}
 	
@@ -314,14 +560,19 @@ public abstract class SensorService implements ISensorService {
 	public JAXBElement<Result> IUnlock(UUID sessionId) {
 		assert serviceInitialized;
 
-		synchronized (lock) {
+		lock.lock();
+		try {
 			Result result = sessionManager.unlock(sessionId);
 			return Utility.wrap(result);
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	/**
-	 * Effect: runs a sensor job on the sensor job thread.
+	 * Effect: runs a sensor job on the sensor job thread. Only the lock holder
+	 * can run jobs, so only its jobs wait in the sensor job queue. Other
+	 * clients are turned away at once.
 	 *
 	 * @param requestor
 	 *            the UUID of the requestor
@@ -332,7 +583,8 @@ public abstract class SensorService implements ISensorService {
 	 *            capture is not running, sets the status to
 	 *            {@link SensorStatus#READY}, otherwise does not change it back.
 	 * @param timeout
-	 *            the timeout
+	 *            the timeout for the whole job. If the job has to wait in the
+	 *            queue, the time it waits counts against it.
 	 * @param shouldRun
 	 *            a test which is run under the lock to determine if this job
 	 *            should run. If this rest does not return
@@ -348,22 +600,38 @@ public abstract class SensorService implements ISensorService {
 	private Result runSensorJob(UUID requestor, SensorStatus jobType, Duration timeout, Function<UUID, Result> shouldRun, Callable<Result> job, BiConsumer<UUID, Result> afterJob) {
 		assert serviceInitialized;
 
-		synchronized (lock) {
+		lock.lock();
+		try {
+			// Only the jobs which end a running asynchronous capture are let
+			// through while draining
+			if (draining && asyncSensorJobOwner == null) {
+				return Utility.result(Status.SENSOR_BUSY, "The service is shutting down");
+			}
 			// Attempt to acquire the sensor
 			Result result = sessionManager.acquireSensor(requestor);
 			if (result.getStatus() == Status.SUCCESS) {
-				if (sensorJobRunning) {
-					result = Utility.result(Status.SENSOR_BUSY);
-				} else {
+				long deadline = System.nanoTime() + timeout.toNanos();
+				if (sensorJobRunning || !sensorJobQueue.isEmpty()) {
+					result = waitForSensor(jobType, timeout);
+					if (result.getStatus() == Status.SUCCESS) {
+						// While this job waited, the lock could have changed
+						// hands
+						result = sessionManager.acquireSensor(requestor);
+					}
+				}
+				if (result.getStatus() == Status.SUCCESS) {
 					result = shouldRun.apply(requestor);
 					if (result.getStatus() == Status.SUCCESS) {
 						// Mark the sensor as doing something
 						configuration.serverStateConfiguration().setSensorStatus(jobType);
-						result = runJobOnSensorThread(timeout, job);
+						// The job only gets the time left after waiting
+						result = runJobOnSensorThread(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())), job);
 						afterJob.accept(requestor, result);
 					}
 				}
-				if (asyncSensorJobOwner == null) {
+				// If this job was turned away because another one is running,
+				// the sensor is still in use
+				if (asyncSensorJobOwner == null && !sensorJobRunning) {
 					sessionManager.releaseSensor(requestor);
 					// Mark the sensor as ready
 					configuration.serverStateConfiguration().setSensorStatus(SensorStatus.READY);
@@ -371,9 +639,112 @@ public abstract class SensorService implements ISensorService {
 			}
 			
 			return result;
+		} finally {
+			lock.unlock();
 		}
 	}
 	
+	/**
+	 * Effect: waits in the sensor job queue until the sensor is free and no job
+	 * with a higher priority, or with the same priority but queued earlier, is
+	 * waiting. Returns {@link Status#SENSOR_BUSY} right away if the queue is
+	 * full, or once the job has waited for <code>timeout</code>. Either way,
+	 * the message says where the job stood in the queue. Returns
+	 * {@link Status#CANCELED} if the job is canceled while waiting, and
+	 * {@link Status#SUCCESS} if the job may run. <br>
+	 * Requires: the lock must be held (assert). This thread releases the lock
+	 * while waiting.
+	 *
+	 * @param jobType
+	 *            the type of the job, which determines its priority
+	 * @param timeout
+	 *            the longest time to wait
+	 * @return the result
+	 */
+	private Result waitForSensor(SensorStatus jobType, Duration timeout) {
+		assert lock.isHeldByCurrentThread();
+		int capacity = sensorJobQueueCapacity();
+		if (capacity == 0) {
+			return Utility.sharedResult(Status.SENSOR_BUSY);
+		}
+		if (sensorJobQueue.size() >= capacity) {
+			return Utility.result(Status.SENSOR_BUSY, String.format("The sensor job queue is full (%d jobs waiting)", sensorJobQueue.size()));
+		}
+		SensorJobTicket ticket = new SensorJobTicket(SensorService.sensorJobPriority(jobType), nextSensorJobSequence++);
+		sensorJobQueue.add(ticket);
+		long deadline = System.nanoTime() + timeout.toNanos();
+		try {
+			while (!ticket.canceled && (sensorJobRunning || sensorJobQueue.peek() != ticket)) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return Utility.result(Status.SENSOR_BUSY, String.format("Timed out waiting for the sensor at position %d of %d in the sensor job queue", queuePosition(ticket), sensorJobQueue.size()));
+				}
+				try {
+					sensorChanged.awaitNanos(remaining);
+				} catch (InterruptedException e) {
+				}
+			}
+		} finally {
+			sensorJobQueue.remove(ticket);
+			// The next job in line may now be at the front
+			sensorChanged.signalAll();
+		}
+		if (ticket.canceled) {
+			return Utility.sharedResult(Status.CANCELED);
+		} else {
+			return Utility.sharedResult(Status.SUCCESS);
+		}
+	}
+
+	/**
+	 * @param ticket
+	 *            a queued job
+	 * @return the position of the job in the queue, starting at 1 for the next
+	 *         job to run
+	 */
+	private int queuePosition(SensorJobTicket ticket) {
+		int position = 1;
+		for (SensorJobTicket other : sensorJobQueue) {
+			if (SensorJobTicket.order.compare(other, ticket) < 0) {
+				position++;
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Effect: cancels all the jobs waiting in the sensor job queue. <br>
+	 * Requires: the lock must be held (assert).
+	 */
+	private void cancelQueuedSensorJobs() {
+		assert lock.isHeldByCurrentThread();
+		for (SensorJobTicket ticket : sensorJobQueue) {
+			ticket.canceled = true;
+		}
+		sensorJobQueue.clear();
+		sensorChanged.signalAll();
+	}
+
+	/**
+	 * @param jobType
+	 *            the type of a sensor job
+	 * @return the priority of the job in the sensor job queue, higher first.
+	 *         Captures come before initialization, which comes before
+	 *         configuration. Cancel and status requests never wait in the
+	 *         queue at all.
+	 */
+	private static int sensorJobPriority(SensorStatus jobType) {
+		switch (jobType) {
+			case CAPTURING:
+				return 2;
+			case INITIALIZING:
+			case UNINITIALIZING:
+				return 1;
+			default:
+				return 0;
+		}
+	}
+
 	/**
 	 * Effect: runs a job on the sensor thread with a specified timeout. Makes
 	 * all the needed state transitions for {@link #sensorJobRunning} and
@@ -389,7 +760,7 @@ public abstract class SensorService implements ISensorService {
 	 */
 	public Result runJobOnSensorThread(Duration timeout, Callable<Result> job) {
 		assert serviceInitialized;
-		assert Thread.holdsLock(lock);
+		assert lock.isHeldByCurrentThread();
 		Result result = null;
 		final AtomicReference<Result> jobResult = new AtomicReference<>(null);
 		sensorJobRunning = true;
@@ -401,30 +772,35 @@ public abstract class SensorService implements ISensorService {
 				jobResult.set(r);
 				return null;
 			} finally {
-				currentJobRunning.set(true);
-				synchronized (lock) {
-					lock.notifyAll();
+				// Set under the lock so the waiting thread cannot miss it
+				lock.lock();
+				try {
+					currentJobRunning.set(false);
+					sensorChanged.signalAll();
+				} finally {
+					lock.unlock();
 				}
 			}
 		});
 
-		ScheduledFuture<?> timeoutFuture = timeoutTimer.schedule(() -> {
-			future.cancel(true);
-		}, timeout.toMillis(), TimeUnit.MILLISECONDS);
-
-		while (!future.isDone()) {
+		// The job cannot outlive this wait: it ends when the job does, when
+		// the deadline passes or when a cancel is requested, and the last two
+		// cancel the job.
+		long deadline = System.nanoTime() + timeout.toNanos();
+		while (currentJobRunning.get() && !future.isDone()) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0 || cancelRequested) {
+				future.cancel(true);
+				break;
+			}
 			try {
-				lock.wait();
-				if (cancelRequested) {
-					future.cancel(true);
-					cancelRequested = false;
-				}
+				sensorChanged.awaitNanos(remaining);
 			} catch (InterruptedException e) {
 			}
 		}
-
-		// Stop the cancellation thread
-		timeoutFuture.cancel(false);
+		// A cancel which arrives as the job finishes must not cancel the next
+		// job
+		cancelRequested = false;
 
 		try {
 			future.get();
@@ -448,7 +824,7 @@ public abstract class SensorService implements ISensorService {
 		assert result != null;
 		
 		sensorJobRunning = false;
-		lock.notifyAll();
+		sensorChanged.signalAll();
 		return result;
 	}
 	
@@ -513,18 +889,18 @@ public abstract class SensorService implements ISensorService {
 			// changes were made. If it returns anything else, no changes were
 			// made.
 			if (result.getStatus().equals(Status.SUCCESS)) {
+				// Collect the changes first so that they are published as
+				// one new version of the configuration
+				Map<String, Object> serverChanges = new HashMap<>();
+				Map<String, Object> sensorChanges = new HashMap<>();
 				for (Item i : newConfig.getItem()) {
-					DictionaryWrapper<Object> config = null;
 					if (configuration.serverInformation().containsKey(i.getKey())) {
-						config = configuration.serverConfiguration();
+						serverChanges.put(i.getKey(), i.getValue());
 					} else if (configuration.sensorInformation().containsKey(i.getKey())) {
-						config = configuration.sensorConfiguration();
+						sensorChanges.put(i.getKey(), i.getValue());
 					}
-					config.put(i.getKey(), i.getValue());
 				}
-
-				// Update the time
-				configuration.serverStateConfiguration().markUpdated();
+				configuration.update(serverChanges, sensorChanges);
 			}
 			return result;
 		}, noAfterJob));
@@ -533,7 +909,8 @@ public abstract class SensorService implements ISensorService {
 	@Override
 	public JAXBElement<Result> ICapture(UUID sessionId) {
 		assert serviceInitialized;
-		synchronized (lock) {
+		lock.lock();
+		try {
 			Instant start = Instant.now();
 			JAXBElement<Result> result = IBeginCapture(sessionId, configuration.serverConfiguration().captureTimeout());
 			if (result.getValue().getStatus().equals(Status.SUCCESS)) {
@@ -546,10 +923,13 @@ public abstract class SensorService implements ISensorService {
 						if (!cancelAsync.getStatus().equals(Status.SUCCESS)) {
 							result = Utility.wrap(cancelAsync);
 						}
+						discardBurst();
 					}
 				}
 			}
 			return result;
+		} finally {
+			lock.unlock();
 		}
 	}
 	
@@ -575,7 +955,16 @@ public abstract class SensorService implements ISensorService {
 	 */
 	private JAXBElement<Result> IBeginCapture(UUID sessionId, Duration timeout) {
 		assert serviceInitialized;
-		return Utility.wrap(runSensorJob(sessionId, SensorStatus.CAPTURING, timeout, runIfNoAsynSensorJob, this::beginCapture, startAsyncSensorJobIfSuccess));
+		return Utility.wrap(runSensorJob(sessionId, SensorStatus.CAPTURING, timeout, runIfNoAsynSensorJob, () -> {
+			// The burst opens first so the sensor can offer captures as soon
+			// as it starts
+			openBurst();
+			Result result = beginCapture();
+			if (!result.getStatus().equals(Status.SUCCESS)) {
+				discardBurst();
+			}
+			return result;
+		}, startAsyncSensorJobIfSuccess));
 		
 	}
 	
@@ -598,69 +987,446 @@ public abstract class SensorService implements ISensorService {
 		assert serviceInitialized;
 		return Utility.wrap(runSensorJob(sessionId, SensorStatus.CAPTURING, configuration.serverConfiguration().endCaptureTimeout(), runIfAsynSensorJob, () -> {
 			List<CaptureData> data = new LinkedList<>();
-			List<UUID> ids = new LinkedList<>();
 			Result result = endCapture(data);
 			// If the capture succeeded, we need to store the data
-			if (result.getStatus().equals(Status.SUCCESS)) {
-				for (CaptureData capture : data) {
-					UUID storeID = storage.reserve(capture.size);
-					if (storeID == null) {
-						return Utility.result(Status.FAILURE, "Out of space!");
-					}
-					try {
-						Result storeResult = Utility.result(Status.SUCCESS);
-						Utility.setSensorData(storeResult, capture.data);
-
-						// Add the extra metadata
-						Dictionary metadata = configuration.configuration();
-						Item captureDate = new Item();
-						captureDate.setKey(CaptureMetadata.captureDate.toString());
-						captureDate.setValue(Utility.fromInstant(Instant.now()));
-						metadata.getItem().add(captureDate);
-						Item contentType = new Item();
-						contentType.setKey(CaptureMetadata.contentType.toString());
-						contentType.setValue(capture.contentType);
-						metadata.getItem().add(contentType);
-
-						Utility.setResultMetadata(storeResult, metadata);
-						Utility.marshal(Utility.objectFactory.createResult(storeResult), storage.store(storeID));
-						storage.trim(storeID);
-						ids.add(storeID);
-					} catch (Exception e) {
-						e.printStackTrace();
-						String message = e.getMessage();
-						if (message == null) {
-							message = e.getCause() != null ? e.getCause().getMessage() : "Strange error.";
-						}
-						return Utility.result(Status.FAILURE, "Error while saving data: " + message);
-					}
-				}
+			if (!result.getStatus().equals(Status.SUCCESS)) {
+				closeAll(data);
+				return result;
+			}
+			// The burst captures come first, since they were captured first
+			List<Future<UUID>> burst = closeBurst();
+			List<UUID> ids = new ArrayList<>();
+			Result failure = storeAll(burst, data, ids);
+			if (failure != null) {
+				return failure;
+			}
 
-				// If we make it here without returning, then all the captures
-				// have been saved. So, record the capture IDs
-				Utility.setCaptureIDs(result, ids);
+			// If we make it here without returning, then all the captures
+			// have been saved. So, record the capture IDs. The burst captures
+			// were announced as they were stored. The sensor may have
+			// returned a shared result, which cannot be changed.
+			if (Utility.isShared(result)) {
+				result = Utility.copy(result);
+			}
+			Utility.setCaptureIDs(result, ids);
+			List<UUID> newIds = ids.subList(burst.size(), ids.size());
+			if (!newIds.isEmpty()) {
+				events.publish(SensorEvent.Type.capture, newIds.stream().map(UUID::toString).collect(Collectors.joining(" ")));
 			}
 			return result;
 		}, stopAsyncSensorJobIfSuccessOrCancel));
 	}
 	
+	/**
+	 * Effect: stores the captures in parallel on the capture writers, after
+	 * the ones which are already being stored. The last one is stored on the
+	 * calling thread, so a single capture is stored without handing it off.
+	 * Either all the captures are stored, or none are: if any of them fails,
+	 * the others are canceled or deleted.
+	 *
+	 * @param stored
+	 *            the captures which are already being stored, such as a
+	 *            burst. They come first.
+	 * @param captures
+	 *            the captures
+	 * @param ids
+	 *            the list to add the capture IDs to, in order
+	 * @return null if all the captures were stored, otherwise the result
+	 *         reporting the first failure
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted. The captures are
+	 *             deleted.
+	 */
+	private Result storeAll(List<Future<UUID>> stored, List<CaptureData> captures, List<UUID> ids) throws InterruptedException {
+		// The configuration cannot change during a capture, so every capture
+		// is stored with the same snapshot
+		ConfigurationSnapshot snapshot = configuration.snapshot();
+		List<Future<UUID>> stores = new ArrayList<>(stored.size() + captures.size());
+		stores.addAll(stored);
+		int last = captures.size() - 1;
+		for (int i = 0; i < captures.size(); i++) {
+			CaptureData capture = captures.get(i);
+			StoreTask store = new StoreTask(() -> store(capture, snapshot), false);
+			if (i == last) {
+				store.run();
+			} else {
+				try {
+					captureWriters.execute(store);
+				} catch (RejectedExecutionException e) {
+					// The writers are busy with a burst
+					store.run();
+				}
+			}
+			stores.add(store);
+		}
+
+		Result failure = null;
+		try {
+			for (Future<UUID> store : stores) {
+				try {
+					UUID id = store.get();
+					if (id == null) {
+						failure = Utility.result(Status.FAILURE, "Out of space!");
+						break;
+					}
+					ids.add(id);
+				} catch (ExecutionException e) {
+					failure = SensorService.storeFailure(e.getCause());
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			abandon(stores, captures);
+			ids.clear();
+			throw e;
+		}
+		if (failure != null) {
+			abandon(stores, captures);
+			ids.clear();
+		}
+		return failure;
+	}
+
+	/**
+	 * Effect: gives up on storing captures. Cancels the stores which have not
+	 * finished, deletes every capture which was stored, and closes the data of
+	 * the captures.
+	 *
+	 * @param stores
+	 *            the stores
+	 * @param captures
+	 *            the captures
+	 */
+	private void abandon(List<Future<UUID>> stores, List<CaptureData> captures) {
+		for (Future<UUID> store : stores) {
+			store.cancel(true);
+		}
+		// Every store is now either canceled or done, so this does not block.
+		// The canceled ones delete their captures if they finish anyway.
+		List<UUID> ids = new ArrayList<>();
+		for (Future<UUID> store : stores) {
+			if (store.isCancelled()) {
+				continue;
+			}
+			try {
+				UUID id = store.get();
+				if (id != null) {
+					ids.add(id);
+				}
+			} catch (InterruptedException | ExecutionException e) {
+				// Nothing was stored
+			}
+		}
+		deleteCaptures(ids);
+		closeAll(captures);
+	}
+
+	/**
+	 * Effect: closes the data of the captures. A capture which has been stored
+	 * is already closed, and closing it again does nothing.
+	 *
+	 * @param captures
+	 *            the captures
+	 */
+	private static void closeAll(List<CaptureData> captures) {
+		for (CaptureData capture : captures) {
+			if (capture.data != null) {
+				try {
+					capture.data.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Effect: deletes the stored captures.
+	 *
+	 * @param ids
+	 *            the capture IDs
+	 */
+	private void deleteCaptures(List<UUID> ids) {
+		for (UUID id : ids) {
+			try {
+				storage.delete(id);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Effect: stores a capture with the extra capture metadata. The
+	 * configuration is stored once for all the captures taken under it, and
+	 * the capture only refers to it. If it cannot be stored, releases the
+	 * space reserved for it.
+	 *
+	 * @param capture
+	 *            the capture
+	 * @param snapshot
+	 *            the snapshot of the service configuration the capture was
+	 *            taken with, which becomes the metadata along with the extra
+	 *            capture metadata
+	 * @return the capture ID, or null if there is no space for it
+	 * @throws Exception
+	 *             if there is a problem
+	 */
+	private UUID store(CaptureData capture, ConfigurationSnapshot snapshot) throws Exception {
+		UUID storeID = storage.reserve(capture.size);
+		if (storeID == null) {
+			return null;
+		}
+		try {
+			Result storeResult = Utility.result(Status.SUCCESS);
+
+			// Refer to the shared configuration, which leaves out the time it
+			// was last updated, or if there is no room for it, copy it
+			Dictionary metadata;
+			UUID shared = sharedMetadata.intern(snapshot);
+			if (shared == null) {
+				metadata = configuration.configuration(snapshot);
+			} else {
+				metadata = new Dictionary();
+				Item reference = new Item();
+				reference.setKey(SharedMetadata.key);
+				reference.setValue(shared.toString());
+				metadata.getItem().add(reference);
+				Item sensorStatus = new Item();
+				sensorStatus.setKey(ServerStateKey.sensorStatus.toString());
+				sensorStatus.setValue(configuration.serverStateConfiguration().sensorStatus().value());
+				metadata.getItem().add(sensorStatus);
+				Item lastUpdated = new Item();
+				lastUpdated.setKey(ServerStateKey.lastUpdated.toString());
+				lastUpdated.setValue(snapshot.values().get(ServerStateKey.lastUpdated.toString()));
+				metadata.getItem().add(lastUpdated);
+			}
+
+			// Add the extra metadata
+			Item captureDate = new Item();
+			captureDate.setKey(CaptureMetadata.captureDate.toString());
+			captureDate.setValue(Utility.fromInstant(Instant.now()));
+			metadata.getItem().add(captureDate);
+			Item contentType = new Item();
+			contentType.setKey(CaptureMetadata.contentType.toString());
+			contentType.setValue(capture.contentType);
+			metadata.getItem().add(contentType);
+
+			Utility.setResultMetadata(storeResult, metadata);
+			// The sensor data is encoded as it is read, so the whole capture
+			// is never in memory at once
+			try (InputStream data = capture.data; OutputStream out = storage.store(storeID)) {
+				XmlCodec.writeResult(storeResult, data, out);
+			}
+			storage.trim(storeID);
+			if (Thread.currentThread().isInterrupted()) {
+				// The capture was given up on while it was being stored
+				throw new InterruptedIOException();
+			}
+			return storeID;
+		} catch (Exception e) {
+			storage.delete(storeID);
+			throw e;
+		}
+	}
+
+	/**
+	 * @param e
+	 *            the problem which stopped a capture from being stored
+	 * @return the result reporting the problem
+	 */
+	private static Result storeFailure(Throwable e) {
+		e.printStackTrace();
+		String message = e.getMessage();
+		if (message == null) {
+			message = e.getCause() != null ? e.getCause().getMessage() : "Strange error.";
+		}
+		return Utility.result(Status.FAILURE, "Error while saving data: " + message);
+	}
+
+	/**
+	 * Effect: starts accepting burst captures for a new capture. Discards any
+	 * left from the last one.
+	 */
+	private void openBurst() {
+		discardBurst();
+		synchronized (burstLock) {
+			burst = new LinkedList<>();
+		}
+	}
+
+	/**
+	 * Effect: stops accepting burst captures.
+	 *
+	 * @return the captures offered since the burst opened, in order
+	 */
+	private List<Future<UUID>> closeBurst() {
+		synchronized (burstLock) {
+			List<Future<UUID>> captures = burst == null ? Collections.emptyList() : burst;
+			burst = null;
+			return captures;
+		}
+	}
+
+	/**
+	 * Effect: stops accepting burst captures, and drops the ones which have
+	 * not been stored yet. The ones already stored can still be downloaded.
+	 */
+	private void discardBurst() {
+		for (Future<UUID> capture : closeBurst()) {
+			capture.cancel(false);
+		}
+	}
+
+	/**
+	 * Effect: offers one capture of a burst. The capture is stored in the
+	 * background, and its ID is sent to the clients listening for sensor events
+	 * as soon as it is stored. The IDs of all the burst captures are also
+	 * returned by the end capture operation, before the IDs of the captures
+	 * added by {@link #endCapture(List)}.<br>
+	 * Captures are only accepted while a capture is running, that is, after
+	 * {@link #beginCapture()} is called and until {@link #endCapture(List)}
+	 * returns. This method may be called from any thread. It does not block:
+	 * if {@link #burstQueueCapacity()} captures are already waiting to be
+	 * stored, the capture is rejected, and the sensor should drop it.
+	 *
+	 * @param capture
+	 *            the capture
+	 * @return true if the capture was accepted
+	 */
+	protected boolean offerBurstCapture(CaptureData capture) {
+		synchronized (burstLock) {
+			if (burst == null) {
+				return false;
+			}
+			StoreTask store = new StoreTask(() -> {
+				UUID id = store(capture, configuration.snapshot());
+				if (id == null) {
+					throw new IOException("Out of space!");
+				}
+				return id;
+			}, true);
+			try {
+				captureWriters.execute(store);
+				burst.add(store);
+				return true;
+			} catch (RejectedExecutionException e) {
+				return false;
+			}
+		}
+	}
+
 	@Override
 	public JAXBElement<Result> IGetSensorStatus() {
 		assert serviceInitialized;
 
-		Result result = Utility.result(Status.SUCCESS);
-		// This is thread safe because the map is thread safe. We just need the
-		// sensor status at this instant, so no locking is needed. (We do not
-		// need to guarantee that the status cannot change for another
+		// This is thread safe because the status is stored atomically. We just
+		// need the sensor status at this instant, so no locking is needed. (We
+		// do not need to guarantee that the status cannot change for another
 		// operation).
-		SensorStatus status = configuration.serverStateConfiguration().sensorStatus();
+		return sensorStatusResponses.get(configuration.serverStateConfiguration().sensorStatus());
+	}
+
+	@Override
+	public void IWaitForSensorStatus(String current, long timeout, AsyncResponse response) {
+		assert serviceInitialized;
+
+		SensorStatus last = null;
+		try {
+			last = SensorStatus.fromValue(current);
+		} catch (IllegalArgumentException e) {
+			// Not a status, so there is nothing to wait for
+		}
+		long wait = Math.max(0, Math.min(timeout, maxSensorStatusWait().toMillis()));
+		if (last == null || wait == 0 || draining) {
+			response.resume(SensorService.statusEntity(IGetSensorStatus()));
+			return;
+		}
+		sensorStatusWaiters.put(response, last);
+		// The timeout is not set on the response because the container only
+		// checks those about once a second
+		ScheduledFuture<?> timer;
+		try {
+			timer = sensorStatusNotifier.schedule(() -> {
+				if (sensorStatusWaiters.remove(response) != null) {
+					response.resume(SensorService.statusEntity(IGetSensorStatus()));
+				}
+			}, wait, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// The service is stopping
+			if (sensorStatusWaiters.remove(response) != null) {
+				response.resume(SensorService.statusEntity(IGetSensorStatus()));
+			}
+			return;
+		}
+		response.register((CompletionCallback) failure -> timer.cancel(false));
+		// The status may have changed before the response was added, in which
+		// case no listener will resume it
+		resumeSensorStatusWaiters(configuration.serverStateConfiguration().sensorStatus());
+	}
+
+	/**
+	 * Effect: resumes the clients waiting for the sensor status to change
+	 * which last saw a status other than the specified one. They are resumed
+	 * on {@link #sensorStatusNotifier}.
+	 *
+	 * @param status
+	 *            the new sensor status
+	 */
+	private void resumeSensorStatusWaiters(SensorStatus status) {
+		List<AsyncResponse> changed = new ArrayList<>();
+		for (Map.Entry<AsyncResponse, SensorStatus> waiter : sensorStatusWaiters.entrySet()) {
+			if (waiter.getValue() != status && sensorStatusWaiters.remove(waiter.getKey(), waiter.getValue())) {
+				changed.add(waiter.getKey());
+			}
+		}
+		if (!changed.isEmpty()) {
+			GenericEntity<JAXBElement<Result>> result = SensorService.statusEntity(sensorStatusResponses.get(status));
+			try {
+				sensorStatusNotifier.execute(() -> changed.forEach(waiter -> waiter.resume(result)));
+			} catch (RejectedExecutionException e) {
+				// The service has stopped
+				changed.forEach(waiter -> waiter.resume(result));
+			}
+		}
+	}
+
+	/**
+	 * @param result
+	 *            a sensor status result
+	 * @return the result as an entity to resume a waiting client with.
+	 *         Resuming with the bare element would lose its type argument,
+	 *         which the compact encoding needs.
+	 */
+	private static GenericEntity<JAXBElement<Result>> statusEntity(JAXBElement<Result> result) {
+		return new GenericEntity<JAXBElement<Result>>(result) {
+		};
+	}
+
+	@Override
+	public ChunkedOutput<String> IEvents() {
+		assert serviceInitialized;
+		return events.subscribe();
+	}
+
+	/**
+	 * Creates: the result reported by {@link #IGetSensorStatus()}: a success
+	 * with a dictionary with one item with the key sensor status and with a
+	 * value of the status.
+	 *
+	 * @param status
+	 *            the sensor status
+	 * @return the result
+	 */
+	private static Result sensorStatusResult(SensorStatus status) {
+		Result result = Utility.result(Status.SUCCESS);
 		Dictionary dict = new Dictionary();
 		Item item = new Item();
 		item.setKey(ServerStateKey.sensorStatus.toString());
 		item.setValue(status.value());
 		dict.getItem().add(item);
 		Utility.setResultMetadata(result, dict);
-		return Utility.wrap(result);
+		return result;
 	}
 	
 	@Override
@@ -668,14 +1434,18 @@ public abstract class SensorService implements ISensorService {
 		assert serviceInitialized;
 		InputStream in = null;
 		try {
-			in = storage.read(captureId);
+			in = SharedMetadata.isShared(captureId) ? null : storage.read(captureId);
 		} catch (IOException e) {
 		}
 		if (in == null) {
-			return Utility.wrap(Utility.result(Status.INVALID_ID));
+			return Utility.wrap(Utility.sharedResult(Status.INVALID_ID));
 		} else {
 			try {
-				Result result = Utility.unmarshalResult(in);
+				Result result;
+				try (InputStream stored = in) {
+					result = XmlCodec.readResult(stored);
+				}
+				reconstitute(result);
 				return Utility.wrap(result);
 			} catch (Exception e) {
 				e.printStackTrace();
@@ -740,13 +1510,32 @@ public abstract class SensorService implements ISensorService {
 	@Override
 	public Response IRawDownload(UUID captureId) {
 		assert serviceInitialized;
+		// Only the start of the capture is read to find its content type. The
+		// sensor data is decoded straight into the response.
+		String rawType = null;
+		try (XmlCodec.ResultReader reader = readStored(captureId)) {
+			if (reader != null && reader.result().getStatus().equals(Status.SUCCESS)) {
+				rawType = SensorService.contentType(reader.result());
+			}
+		} catch (IOException e) {
+		}
+		if (rawType != null) {
+			StreamingOutput body = (out) -> {
+				try (XmlCodec.ResultReader reader = readStored(captureId)) {
+					if (reader == null) {
+						throw new IOException("The capture " + captureId + " is gone");
+					}
+					reader.copySensorData(out);
+				}
+			};
+			return Response.ok(body, rawType).build();
+		}
 		JAXBElement<Result> result = IDownload(captureId);
 		InputStream stream;
 		String contentType;
 		if (result.getValue().getStatus().equals(Status.SUCCESS)) {
 			stream = new ByteArrayInputStream(result.getValue().getSensorData().getValue());
-			contentType = result.getValue().getMetadata().getValue().getItem().stream().filter((item) -> item.getKey().equals(CaptureMetadata.contentType.toString())).collect(Collectors.toList())
-					.iterator().next().getValue().toString();
+			contentType = SensorService.contentType(result.getValue());
 		} else {
 			stream = new ByteArrayInputStream(String.format("Status: %s\nMessage: %s", result.getValue().getStatus().toString(), result.getValue().getMessage().getValue()).getBytes());
 			contentType = MediaType.TEXT_PLAIN;
@@ -755,40 +1544,304 @@ public abstract class SensorService implements ISensorService {
 		return builder.build();
 	}
 	
+	/**
+	 * Effect: opens a stored capture and reads it up to its sensor data
+	 *
+	 * @param captureId
+	 *            the capture ID
+	 * @return the reader, or null if there is no such capture or it cannot be
+	 *         read
+	 */
+	private XmlCodec.ResultReader readStored(UUID captureId) {
+		if (SharedMetadata.isShared(captureId)) {
+			return null;
+		}
+		InputStream in = null;
+		try {
+			in = storage.read(captureId);
+			return in == null ? null : new XmlCodec.ResultReader(in);
+		} catch (IOException e) {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e1) {
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Effect: puts the full metadata of a stored capture back together
+	 *
+	 * @param result
+	 *            the stored capture, which is modified
+	 * @throws IOException
+	 *             if the shared metadata cannot be read
+	 */
+	private void reconstitute(Result result) throws IOException {
+		if (result.getMetadata() != null && !result.getMetadata().isNil()) {
+			sharedMetadata.reconstitute(result.getMetadata().getValue());
+		}
+	}
+
+	/**
+	 * Effect: puts the full metadata of a stored capture back together, if
+	 * possible
+	 *
+	 * @param result
+	 *            the stored capture, which is modified
+	 * @return true if the metadata was put back together, false if the shared
+	 *         metadata cannot be read
+	 */
+	private boolean reconstituted(Result result) {
+		try {
+			reconstitute(result);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param result
+	 *            a successful download result
+	 * @return the content type of the sensor data
+	 */
+	private static String contentType(Result result) {
+		return result.getMetadata().getValue().getItem().stream().filter((item) -> item.getKey().equals(CaptureMetadata.contentType.toString())).collect(Collectors.toList()).iterator().next().getValue()
+				.toString();
+	}
+
+	@Override
+	public Response IBatchDownload(List<UUID> captureIds, DownloadMode mode) {
+		assert serviceInitialized;
+		String boundary = UUID.randomUUID().toString();
+		StreamingOutput body = (out) -> {
+			for (UUID captureId : captureIds) {
+				writeDownloadPart(out, boundary, captureId, mode, null);
+			}
+			out.write(String.format("--%s--\r\n", boundary).getBytes(StandardCharsets.US_ASCII));
+		};
+		return Response.ok(body, DownloadMode.MEDIA_TYPE + "; boundary=" + boundary).build();
+	}
+
+	/**
+	 * Effect: writes the part of a batch download for one capture. In
+	 * {@link DownloadMode#full} mode, the stored capture is copied to the
+	 * output with its metadata put back together, without decoding its sensor
+	 * data. The other modes decode one capture at a time.
+	 *
+	 * @param out
+	 *            the output
+	 * @param boundary
+	 *            the boundary
+	 * @param captureId
+	 *            the capture ID
+	 * @param mode
+	 *            the mode
+	 * @param operation
+	 *            the workflow operation the part belongs to, or null if it is
+	 *            not part of a workflow
+	 * @return the status of the capture's download
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private Status writeDownloadPart(OutputStream out, String boundary, UUID captureId, DownloadMode mode, WorkflowOperation operation) throws IOException {
+		if (mode == DownloadMode.split) {
+			Status status = writeDownloadPart(out, boundary, captureId, DownloadMode.info, operation);
+			if (status.equals(Status.SUCCESS)) {
+				return writeDownloadPart(out, boundary, captureId, DownloadMode.raw, operation);
+			}
+			return status;
+		}
+		if (mode == DownloadMode.full) {
+			try (XmlCodec.ResultReader reader = readStored(captureId)) {
+				if (reader != null && reconstituted(reader.result())) {
+					out.write(SensorService.partHeaders(boundary, "text/xml", -1, DownloadMode.CAPTURE_ID_HEADER, captureId, DownloadMode.STATUS_HEADER, Status.SUCCESS.value(),
+							WorkflowOperation.OPERATION_HEADER, operation));
+					XmlCodec.copyResult(reader.result(), reader, out);
+					out.write('\r');
+					out.write('\n');
+					return Status.SUCCESS;
+				}
+			}
+		}
+		if (mode == DownloadMode.raw) {
+			// The sensor data is decoded straight into the output, so its
+			// length is not known up front
+			try (XmlCodec.ResultReader reader = readStored(captureId)) {
+				if (reader != null && reader.result().getStatus().equals(Status.SUCCESS)) {
+					out.write(SensorService.partHeaders(boundary, SensorService.contentType(reader.result()), -1, DownloadMode.CAPTURE_ID_HEADER, captureId, DownloadMode.STATUS_HEADER,
+							Status.SUCCESS.value(), WorkflowOperation.OPERATION_HEADER, operation));
+					reader.copySensorData(out);
+					out.write('\r');
+					out.write('\n');
+					return Status.SUCCESS;
+				}
+			}
+		}
+		JAXBElement<Result> result = mode == DownloadMode.info ? IGetDownloadInformation(captureId) : IDownload(captureId);
+		Status status = result.getValue().getStatus();
+		String contentType = "text/xml";
+		byte[] data;
+		if (mode == DownloadMode.raw && status.equals(Status.SUCCESS)) {
+			contentType = SensorService.contentType(result.getValue());
+			data = result.getValue().getSensorData().getValue();
+		} else {
+			data = Utility.toBytes(result);
+		}
+		out.write(SensorService.partHeaders(boundary, contentType, data.length, DownloadMode.CAPTURE_ID_HEADER, captureId, DownloadMode.STATUS_HEADER, status.value(),
+				WorkflowOperation.OPERATION_HEADER, operation));
+		out.write(data);
+		out.write('\r');
+		out.write('\n');
+		return status;
+	}
+
+	/**
+	 * @param boundary
+	 *            the boundary
+	 * @param contentType
+	 *            the content type of the data
+	 * @param length
+	 *            the length of the data, or -1 if it is not known
+	 * @param headers
+	 *            the names and values of the other headers. Headers with null
+	 *            values are left out.
+	 * @return the delimiter and headers which start a part of a multipart
+	 *         response
+	 */
+	private static byte[] partHeaders(String boundary, String contentType, long length, Object... headers) {
+		StringBuilder part = new StringBuilder();
+		part.append("--").append(boundary).append("\r\n");
+		part.append("Content-Type: ").append(contentType).append("\r\n");
+		for (int i = 0; i < headers.length; i += 2) {
+			if (headers[i + 1] != null) {
+				part.append(headers[i]).append(": ").append(headers[i + 1]).append("\r\n");
+			}
+		}
+		if (length >= 0) {
+			part.append("Content-Length: ").append(length).append("\r\n");
+		}
+		return part.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Effect: writes a part which holds a result.
+	 *
+	 * @param out
+	 *            the output
+	 * @param boundary
+	 *            the boundary
+	 * @param result
+	 *            the result
+	 * @param headers
+	 *            the names and values of the other headers
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private static void writeResultPart(OutputStream out, String boundary, JAXBElement<Result> result, Object... headers) throws IOException {
+		byte[] data = Utility.toBytes(result);
+		out.write(SensorService.partHeaders(boundary, "text/xml", data.length, headers));
+		out.write(data);
+		out.write('\r');
+		out.write('\n');
+	}
+
+	@Override
+	public Response IWorkflow(UUID sessionId, List<WorkflowOperation> operations) {
+		assert serviceInitialized;
+		String boundary = UUID.randomUUID().toString();
+		// The operations run now, but downloads are copied from storage as
+		// the response is written
+		List<StreamingOutput> parts = new ArrayList<>();
+		UUID session = sessionId;
+		List<UUID> captureIds = Collections.emptyList();
+		workflow: for (WorkflowOperation operation : operations) {
+			if (operation == WorkflowOperation.download) {
+				if (captureIds.isEmpty()) {
+					JAXBElement<Result> result = Utility.wrap(Utility.result(Status.INVALID_ID, "Nothing has been captured"));
+					parts.add((out) -> SensorService.writeResultPart(out, boundary, result, WorkflowOperation.OPERATION_HEADER, operation, DownloadMode.STATUS_HEADER, Status.INVALID_ID.value()));
+					break;
+				}
+				for (UUID captureId : captureIds) {
+					if (!storage.exists(captureId)) {
+						JAXBElement<Result> result = Utility.wrap(Utility.result(Status.INVALID_ID));
+						parts.add((out) -> SensorService.writeResultPart(out, boundary, result, WorkflowOperation.OPERATION_HEADER, operation, DownloadMode.CAPTURE_ID_HEADER, captureId,
+								DownloadMode.STATUS_HEADER, Status.INVALID_ID.value()));
+						break workflow;
+					}
+					parts.add((out) -> writeDownloadPart(out, boundary, captureId, DownloadMode.full, operation));
+				}
+				continue;
+			}
+			JAXBElement<Result> result;
+			if (operation.needsSession() && session == null) {
+				result = Utility.wrap(Utility.result(Status.INVALID_ID, "No session"));
+			} else {
+				result = operation.run(this, session);
+			}
+			Status status = result.getValue().getStatus();
+			parts.add((out) -> SensorService.writeResultPart(out, boundary, result, WorkflowOperation.OPERATION_HEADER, operation, DownloadMode.STATUS_HEADER, status.value()));
+			if (!status.equals(Status.SUCCESS)) {
+				break;
+			}
+			if (operation == WorkflowOperation.register) {
+				session = Utility.session(result.getValue());
+			} else if (operation == WorkflowOperation.capture || operation == WorkflowOperation.endCapture) {
+				captureIds = Utility.captures(result.getValue());
+			}
+		}
+		StreamingOutput body = (out) -> {
+			for (StreamingOutput part : parts) {
+				part.write(out);
+			}
+			out.write(String.format("--%s--\r\n", boundary).getBytes(StandardCharsets.US_ASCII));
+		};
+		return Response.ok(body, DownloadMode.MEDIA_TYPE + "; boundary=" + boundary).build();
+	}
+
 	@Override
 	public JAXBElement<Result> ICancel(UUID sessionId) {
 		assert serviceInitialized;
-		synchronized (lock) {
+		lock.lock();
+		try {
 			// Mark the sensor as canceling
 			configuration.serverStateConfiguration().setSensorStatus(SensorStatus.CANCELING);
 
+			// Jobs waiting for the sensor are canceled before they start
+			cancelQueuedSensorJobs();
 			if (sensorJobRunning) {
 				cancelRequested = true;
-				lock.notifyAll();
+				sensorChanged.signalAll();
 				while (sensorJobRunning) {
 					try {
-						lock.wait();
+						sensorChanged.await();
 					} catch (InterruptedException e) {
 					}
 				}
 			}
-			Result result = Utility.result(Status.SUCCESS);
+			Result result = Utility.sharedResult(Status.SUCCESS);
 			if (asyncSensorJobOwner != null) {
 				Result cancelAsync = runJobOnSensorThread(configuration.serverConfiguration().cancelAsyncCaptureTimeout(), this::cancelAsyncCapture);
 				if (!cancelAsync.getStatus().equals(Status.SUCCESS)) {
 					result = cancelAsync;
 				}
+				discardBurst();
 			}
 			// No matter what, we must now mark the sensor as ready because
 			// the job has finished. This cancel cannot fail because then
 			// the sensor will be stuck.
 			configuration.serverStateConfiguration().setSensorStatus(SensorStatus.READY);
 			return Utility.wrap(result);
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	@Override
-	public Response IStream(String streamName) {
+	public Response IStream(String streamName, StreamVariant variant) {
 		StreamHandle handle = streams.get(streamName);
 		if (handle == null) {
 			return Response.status(HttpStatus.NOT_FOUND_404.getStatusCode()).entity("No such stream " + streamName).type(MediaType.TEXT_HTML).build();
@@ -796,24 +1849,18 @@ public abstract class SensorService implements ISensorService {
 		if (handle.lockRequired()) {
 			return Response.status(HttpStatus.FORBIDDEN_403.getStatusCode()).entity("The stream " + streamName + " requires a lock").type(MediaType.TEXT_HTML).build();
 		}
-		InputStream in = getStream(handle.name());
-		if (in == null) {
+		Subscription subscription = subscribe(handle, variant);
+		if (subscription == null) {
 			return Response.status(HttpStatus.INTERNAL_SERVER_ERROR_500.getStatusCode()).entity("While the stream " + streamName + " is specified in the service info, it has not been implemented")
 					.type(MediaType.TEXT_HTML).build();
 		}
 
-		StreamingOutput stream = outputStream -> {
-			byte[] buf = new byte[maxUnlockBytes()];
-			int read;
-			while ((read = in.read(buf)) != -1) {
-				outputStream.write(buf, 0, read);
-			}
-		};
-		return Response.ok(stream).type(handle.contentType()).build();
+		return streamResponse(handle, subscription, () -> true, () -> {
+		});
 	}
 
 	@Override
-	public Response IStreamLocked(String streamName, UUID sessionId) {
+	public Response IStreamLocked(String streamName, UUID sessionId, StreamVariant variant) {
 		StreamHandle handle = streams.get(streamName);
 		if (handle == null) {
 			return Response.status(HttpStatus.NOT_FOUND_404.getStatusCode()).entity("No such stream " + streamName).type(MediaType.TEXT_HTML).build();
@@ -821,48 +1868,322 @@ public abstract class SensorService implements ISensorService {
 		if (!handle.lockRequired()) {
 			return Response.status(HttpStatus.NOT_FOUND_404.getStatusCode()).entity("The stream " + streamName + " does not require a lock").type(MediaType.TEXT_HTML).build();
 		}
-		InputStream in = getStream(handle.name());
-		if (in == null) {
+		long epoch;
+		lock.lock();
+		try {
+			if (!sessionManager.hasLock(sessionId)) {
+				// Without the lock, the stream is empty
+				StreamingOutput empty = outputStream -> {
+				};
+				return Response.ok(empty).type(handle.contentType()).build();
+			}
+			epoch = sessionManager.lockEpoch();
+		} finally {
+			lock.unlock();
+		}
+		Subscription subscription = subscribe(handle, variant);
+		if (subscription == null) {
 			return Response.status(HttpStatus.INTERNAL_SERVER_ERROR_500.getStatusCode()).entity("While the stream " + streamName + " is specified in the service info, it has not been implemented")
 					.type(MediaType.TEXT_HTML).build();
 		}
+		lockedViewers.add(subscription);
+		// If the lock changed while subscribing, the lock listener may have
+		// missed this viewer
+		if (sessionManager.lockEpoch() != epoch) {
+			subscription.close();
+		}
+
+		// The lock listener ends the subscription when the lock changes.
+		// Checking the epoch as well just stops a frame which was already
+		// taken.
+		return streamResponse(handle, subscription, () -> sessionManager.lockEpoch() == epoch, () -> lockedViewers.remove(subscription));
+	}
+
+	/**
+	 * Creates: the response which sends a stream to a viewer. The frames are
+	 * written by a stream writer thread, not by a request thread, and each
+	 * frame is written as its own chunk so that it reaches the viewer
+	 * immediately instead of waiting in the response buffer.
+	 *
+	 * @param handle
+	 *            the stream
+	 * @param subscription
+	 *            the viewer's subscription. Closed when the response ends.
+	 * @param allowed
+	 *            checked before each frame. Once false, the response ends.
+	 * @param onEnd
+	 *            run when the response ends
+	 * @return the response
+	 */
+	private Response streamResponse(StreamHandle handle, Subscription subscription, BooleanSupplier allowed, Runnable onEnd) {
+		ChunkedOutput<byte[]> output = new ChunkedOutput<>(byte[].class);
+		streamViewers.add(subscription);
+		// A viewer who arrives as the service stops is closed here, or by
+		// endOpenRequests
+		if (draining) {
+			subscription.close();
+		}
+		try {
+			streamWriters.execute(() -> {
+				try (Subscription s = subscription) {
+					ByteBuffer frame;
+					while ((frame = s.next()) != null && allowed.getAsBoolean() && !draining && !output.isClosed()) {
+						output.write(Frames.bytes(frame));
+					}
+				} catch (IOException e) {
+					// The viewer went away
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					streamViewers.remove(subscription);
+					onEnd.run();
+					try {
+						output.close();
+					} catch (IOException e) {
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Every stream writer is busy
+			subscription.close();
+			streamViewers.remove(subscription);
+			onEnd.run();
+			return Response.status(HttpStatus.SERVICE_UNAVAILABLE_503.getStatusCode()).entity("Too many viewers are watching streams").type(MediaType.TEXT_HTML).build();
+		}
+		return Response.ok(output).type(handle.contentType()).build();
+	}
 
-		StreamingOutput stream = outputStream -> {
-			byte[] buf = new byte[maxUnlockBytes()];
-			int read;
-			while (holdsLock(sessionId) && (read = in.read(buf)) != -1) {
-				outputStream.write(buf, 0, read);
+	/**
+	 * Effect: subscribes to a variant of a stream. All the viewers of the same
+	 * negotiated variant share one transcoded stream, which in turn is fed by
+	 * the one shared original stream. If the original stream has no frame
+	 * boundaries, its pieces cannot be dropped or transcoded without
+	 * corrupting it, so the viewer gets the original stream instead.
+	 *
+	 * @param handle
+	 *            the stream
+	 * @param requested
+	 *            the requested variant
+	 * @return the subscription, or null if the stream is not available
+	 */
+	private Subscription subscribe(StreamHandle handle, StreamVariant requested) {
+		StreamBroadcaster original = broadcasters.get(handle.name());
+		StreamVariant variant = negotiateVariant(handle, requested == null ? StreamVariant.ORIGINAL : requested.normalized());
+		Subscription direct = original.subscribe();
+		if (direct == null || variant.isOriginal() || !direct.framed()) {
+			return direct;
+		}
+		// The direct subscription keeps the original stream open until the
+		// variant is subscribed to it
+		Map<StreamVariant, StreamBroadcaster> variants = variantBroadcasters.get(handle.name());
+		try {
+			synchronized (variants) {
+				if (variants.size() >= maxStreamVariants() && !variants.containsKey(variant)) {
+					// Forget the variants no one is watching
+					variants.values().removeIf(broadcaster -> broadcaster.subscriberCount() == 0);
+				}
+				StreamBroadcaster broadcaster = variants.computeIfAbsent(variant, v -> new StreamBroadcaster(handle.name() + "-" + v, () -> {
+					Subscription source = original.subscribe();
+					if (source == null) {
+						return null;
+					}
+					return new VariantFrameSource(source, v, frame -> transcodeFrame(handle, v, frame));
+				}, streamBufferFrames()));
+				return broadcaster.subscribe();
 			}
-		};
-		return Response.ok(stream).type(handle.contentType()).build();
+		} finally {
+			direct.close();
+		}
 	}
-	
+
 	/**
-	 * Checks to see if the current session currently holds the lock. This
-	 * should not be used for anything other then
-	 * {@link #IStreamLocked(String, UUID)} because all this method guarantees
-	 * is that the lock was held when this method returned, not that the lock is
-	 * still held when the return value is read. (Using this method improperly
-	 * will create a race condition.)
+	 * Decides which variant of a stream a viewer gets. Called for every stream
+	 * request from any thread, so it must be thread safe. Sensors can use this
+	 * to clamp requests to what they support or to round them to a few
+	 * variants so that more viewers share the same transcoded stream. By
+	 * default, returns the requested variant.
 	 *
-	 * @param sessionId
-	 *            the session ID
-	 * @return true if locked
+	 * @param handle
+	 *            the stream
+	 * @param requested
+	 *            the variant the viewer asked for, with all values in range
+	 * @return the variant the viewer gets
+	 */
+	protected StreamVariant negotiateVariant(StreamHandle handle, StreamVariant requested) {
+		return requested;
+	}
+
+	/**
+	 * Effect: transforms a frame of a stream into the specified variant. The
+	 * frame rate has already been handled. Called once per frame per variant
+	 * on the variant's producer thread. By default, uses
+	 * {@link FrameTranscoder#transcode(ByteBuffer, String, StreamVariant)} if
+	 * the variant changes the images.
+	 *
+	 * @param handle
+	 *            the stream
+	 * @param variant
+	 *            the variant
+	 * @param frame
+	 *            the original frame. Its contents must not be modified.
+	 * @return the transformed frame
 	 */
-	private boolean holdsLock(UUID sessionId) {
-		synchronized (lock) {
-			return sessionManager.hasLock(sessionId);
+	protected ByteBuffer transcodeFrame(StreamHandle handle, StreamVariant variant, ByteBuffer frame) {
+		if (!variant.changesImages()) {
+			return frame;
 		}
+		return FrameTranscoder.transcode(frame, handle.contentType(), variant);
+	}
+
+	/**
+	 * @return the maximum number of viewers of all the streams at once. Each
+	 *         viewer takes a stream writer thread, and a viewer who connects
+	 *         while there are this many is turned away with a 503. Must be a
+	 *         constant. By default, the maximum number of concurrent sessions.
+	 */
+	protected int maxStreamViewers() {
+		return configuration.serverConfiguration().maximumConcurrentSessions().min(BigInteger.valueOf(Integer.MAX_VALUE)).max(BigInteger.ONE).intValue();
+	}
+
+	/**
+	 * @return the maximum number of variants of one stream kept around. Once
+	 *         there are this many, the variants with no viewers are forgotten
+	 *         before a new one is made. Must be a constant. By default, 16.
+	 */
+	protected int maxStreamVariants() {
+		return 16;
 	}
 
 	/**
 	 * @return the maximum number of bytes of data a client on a locked live
 	 *         stream will receive once he looses the lock. Must be a constant.
 	 *         By default, 256.
+	 * @deprecated live streams are now written a whole frame at a time, and
+	 *             the lock is checked before each frame, so a client who looses
+	 *             the lock receives at most the rest of the current frame.
+	 *             This value is no longer used.
 	 */
+	@Deprecated
 	protected int maxUnlockBytes() {
 		return 256;
 	}
+
+	/**
+	 * @return the maximum number of frames of a live stream buffered for each
+	 *         viewer. Once a viewer falls this far behind, the oldest frames
+	 *         are dropped. Must be a constant. By default, 64.
+	 */
+	protected int streamBufferFrames() {
+		return 64;
+	}
+
+	/**
+	 * @return the maximum number of bytes read at once from a stream returned
+	 *         by {@link #getStream(String)}, which is the largest frame the
+	 *         default {@link #getFrameSource(String)} produces. For a multipart
+	 *         stream, this is the largest part. Must be a constant. By default,
+	 *         1 MiB.
+	 */
+	protected int streamReadBytes() {
+		return 1024 * 1024;
+	}
+
+	/**
+	 * @return the number of sensor jobs which may wait for the sensor while
+	 *         another job is running. Waiting jobs run in order of priority,
+	 *         and each gives up with {@link Status#SENSOR_BUSY} once it has
+	 *         waited for its operation's timeout. If 0, a sensor job which
+	 *         arrives while another is running gets {@link Status#SENSOR_BUSY}
+	 *         right away. Must be a constant. By default, 0.
+	 */
+	protected int sensorJobQueueCapacity() {
+		return 0;
+	}
+
+	/**
+	 * @return the number of burst captures which may wait to be stored before
+	 *         {@link #offerBurstCapture(CaptureData)} starts rejecting them. By
+	 *         default, 32.
+	 */
+	protected int burstQueueCapacity() {
+		return 32;
+	}
+
+	/**
+	 * @return the number of threads which store burst captures and the
+	 *         captures of each end capture. By default, 4.
+	 */
+	protected int captureWriterThreads() {
+		return 4;
+	}
+
+	/**
+	 * @return true to run the sensor job thread, the stream writers and the
+	 *         capture writers on virtual threads if this JVM has them (Java 21
+	 *         or newer), so that threads blocked on the sensor, a slow viewer
+	 *         or storage park instead of holding on to operating system
+	 *         threads. Sensor jobs still run one at a time on one thread. On
+	 *         older JVMs, ordinary threads are used either way. Must be a
+	 *         constant. By default, false.
+	 */
+	protected boolean virtualThreads() {
+		return false;
+	}
+
+	/**
+	 * @return the longest amount of time a single
+	 *         {@link #IWaitForSensorStatus(String, long, AsyncResponse)} request will wait for
+	 *         the status to change. Must be a constant. By default, 60 seconds.
+	 */
+	protected Duration maxSensorStatusWait() {
+		return Duration.ofSeconds(60);
+	}
+
+	/**
+	 * @return the time between the heartbeats sent to clients listening on
+	 *         {@link #IEvents()}, which is how long it can take to notice that
+	 *         a client went away. Must be a constant. By default, 15 seconds.
+	 */
+	protected Duration sensorEventHeartbeat() {
+		return Duration.ofSeconds(15);
+	}
+
+	/**
+	 * @return the number of threads which write the events to the clients
+	 *         listening on {@link #IEvents()}. Must be a constant. By default,
+	 *         2.
+	 */
+	protected int sensorEventWriterThreads() {
+		return 2;
+	}
+
+	/**
+	 * @return the number of events which may wait to be written to a client
+	 *         listening on {@link #IEvents()} before the client is considered
+	 *         too slow and disconnected. Must be a constant. By default, 64.
+	 */
+	protected int sensorEventQueueCapacity() {
+		return 64;
+	}
+
+	/**
+	 * @return the directory to store captures in, or null to store them in a
+	 *         temporary directory which is deleted when the program
+	 *         terminates. Captures stored in a directory are kept, so a service
+	 *         restarted on the same directory can still serve the captures
+	 *         taken before it stopped, and stopping does not have to delete
+	 *         them. Must be a constant. By default, null.
+	 */
+	protected Path storageDirectory() {
+		return null;
+	}
+
+	/**
+	 * @return the storage provider which holds the captures
+	 */
+	protected StorageProvider storage() {
+		return storage;
+	}
 	
 	/**
 	 * Effect: initializes the sensor. As long as the sensor is initialized when
@@ -937,7 +2258,9 @@ public abstract class SensorService implements ISensorService {
 	 * {@link Status#SUCCESS}. If this method does not return
 	 * {@link Status#SUCCESS}, the list is ignored and this method's result is
 	 * returned. SensorService guarantees that this method will only be called
-	 * if an asynchronous capture is currently running.
+	 * if an asynchronous capture is currently running. Sensors which capture
+	 * continuously can also hand captures over while the capture runs with
+	 * {@link #offerBurstCapture(CaptureData)}.
 	 *
 	 * @param captureData
 	 *            the captured data
@@ -992,14 +2315,131 @@ public abstract class SensorService implements ISensorService {
 	 * method must return a non null input stream. If it returns a null stream
 	 * for a valid stream name, this server will return an HTTP status code 500
 	 * for Internal Server Error. Each call to this method must return a unique
-	 * stream.
+	 * stream. The service reads each stream on one thread and shares it between
+	 * all the viewers, so this method is only called when the first viewer of a
+	 * stream connects, and the returned stream is closed once the last viewer
+	 * leaves.<br>
+	 * This method is only used by the default implementation of
+	 * {@link #getFrameSource(String)}, which cannot see frame boundaries in the
+	 * stream. Sensors which can produce whole frames should override
+	 * {@link #getFrameSource(String)} instead. By default, returns null.
 	 *
 	 * @param streamName
 	 *            the stream name
 	 * @return the stream data for that name
 	 */
-	protected abstract InputStream getStream(String streamName);
+	protected InputStream getStream(String streamName) {
+		return null;
+	}
+
+	/**
+	 * Get the live stream with the specified name as a source of whole frames
+	 * (for a <code>multipart/x-mixed-replace</code> stream, whole parts, see
+	 * {@link Frames#multipartPart(String, String, byte[])}). Each frame is
+	 * written to the viewers in one write and flushed.<br>
+	 * This method has the same requirements as {@link #getStream(String)}: it
+	 * may be called from any thread, it is called when the first viewer of a
+	 * stream connects, and the source is closed once the last viewer leaves. By
+	 * default, wraps {@link #getStream(String)} with
+	 * {@link FrameSource#fromInputStream(InputStream, String, int)}, which
+	 * splits a multipart stream into whole parts.
+	 *
+	 * @param streamName
+	 *            the stream name
+	 * @return the frame source, or null if the stream is not available
+	 */
+	protected FrameSource getFrameSource(String streamName) {
+		InputStream in = getStream(streamName);
+		if (in == null) {
+			return null;
+		}
+		StreamHandle handle = streams.get(streamName);
+		return FrameSource.fromInputStream(in, handle == null ? null : handle.contentType(), streamReadBytes());
+	}
 	
+	/**
+	 * Represents: the storing of one capture. A store which is canceled after
+	 * it has written its capture deletes the capture, so canceling a store
+	 * never leaves a capture behind.
+	 */
+	private class StoreTask extends FutureTask<UUID> {
+
+		/**
+		 * True to send the capture ID to the clients listening for sensor
+		 * events as soon as the capture is stored
+		 */
+		private final boolean announce;
+
+		/**
+		 * Creates: a new store
+		 *
+		 * @param store
+		 *            stores the capture and returns its ID
+		 * @param announce
+		 *            true to send the capture ID to the clients listening for
+		 *            sensor events as soon as the capture is stored
+		 */
+		public StoreTask(Callable<UUID> store, boolean announce) {
+			super(store);
+			this.announce = announce;
+		}
+
+		@Override
+		protected void set(UUID id) {
+			super.set(id);
+			if (id == null) {
+				return;
+			}
+			// If the store was canceled first, the ID was not set
+			if (isCancelled()) {
+				deleteCaptures(Collections.singletonList(id));
+			} else if (announce) {
+				events.publish(SensorEvent.Type.capture, id.toString());
+			}
+		}
+	}
+
+	/**
+	 * Represents: a sensor job waiting in the sensor job queue
+	 *
+	 * @author Jacob Glueck
+	 */
+	private static class SensorJobTicket {
+
+		/**
+		 * Orders tickets highest priority first, then first come first
+		 * served
+		 */
+		private static final Comparator<SensorJobTicket> order = Comparator.<SensorJobTicket> comparingInt(ticket -> -ticket.priority).thenComparingLong(ticket -> ticket.sequence);
+
+		/**
+		 * The priority of the job
+		 */
+		private final int priority;
+		/**
+		 * The order in which the job was queued
+		 */
+		private final long sequence;
+		/**
+		 * True if the job was canceled while waiting
+		 */
+		private boolean canceled;
+
+		/**
+		 * Creates: a new ticket
+		 *
+		 * @param priority
+		 *            the priority of the job
+		 * @param sequence
+		 *            the order in which the job was queued
+		 */
+		private SensorJobTicket(int priority, long sequence) {
+			this.priority = priority;
+			this.sequence = sequence;
+			canceled = false;
+		}
+	}
+
 	/**
 	 * Represents: a capture
 	 *
@@ -45,8 +45,10 @@ package gov.nist.itl.wsbd.service;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -61,6 +63,12 @@ import gov.nist.itl.wsbd.configuration.ServerConfiguration;
  * sensor usage.
  *
  * This class is not thread safe and so external synchronization is required.
+ * The only exception is {@link #lockEpoch()}, which may be read from any
+ * thread.
+ *
+ * Most of the results this class returns are shared (see
+ * {@link Utility#sharedResult(Status)}), so they must not be modified. Use
+ * {@link Utility#copy(Result)} to get one which can be.
  *
  * @author Kevin Mangold
  * @author Jacob Glueck
@@ -79,6 +87,15 @@ public class SessionManager {
 	 * holder.
 	 */
 	private UUID lockHolder;
+	/**
+	 * Incremented every time {@link #lockHolder} changes. Volatile so that it
+	 * can be read without external synchronization.
+	 */
+	private volatile long lockEpoch;
+	/**
+	 * The listeners run every time the lock holder changes
+	 */
+	private final List<Runnable> lockListeners;
 
 	/**
 	 * The current sensor user, or <code>null</code> if there is no sensor user.
@@ -110,6 +127,50 @@ public class SessionManager {
 	public SessionManager(SessionManagerConfiguration config) {
 		sessions = new HashMap<>();
 		this.config = config;
+		lockEpoch = 0;
+		lockListeners = new ArrayList<>();
+	}
+
+	/**
+	 * Effect: changes the lock holder. If the holder changed, increments the
+	 * lock epoch and runs the lock listeners.
+	 *
+	 * @param id
+	 *            the new lock holder, or <code>null</code> for none
+	 */
+	private void setLockHolder(UUID id) {
+		if (lockHolder == null ? id != null : !lockHolder.equals(id)) {
+			lockHolder = id;
+			lockEpoch++;
+			for (Runnable listener : lockListeners) {
+				listener.run();
+			}
+		}
+	}
+
+	/**
+	 * Gets the lock epoch, which changes every time the lock is acquired,
+	 * released, stolen or dropped with an inactive session. If a client held
+	 * the lock when the epoch had some value, it still holds the lock as long
+	 * as the epoch has the same value. Unlike the rest of this class, this
+	 * method is thread safe and does not require external synchronization.
+	 *
+	 * @return the lock epoch
+	 */
+	public long lockEpoch() {
+		return lockEpoch;
+	}
+
+	/**
+	 * Effect: adds a listener which is run every time the lock holder changes,
+	 * after the lock epoch changes. The listener runs on the thread which
+	 * changed the lock, under the same external synchronization.
+	 *
+	 * @param listener
+	 *            the listener
+	 */
+	public void addLockListener(Runnable listener) {
+		lockListeners.add(listener);
 	}
 	
 	/**
@@ -160,7 +221,7 @@ public class SessionManager {
 					sensorUser = null;
 				}
 				if (lockHolder != null && lockHolder.equals(session.getKey())) {
-					lockHolder = null;
+					setLockHolder(null);
 				}
 				assert invariant();
 			}
@@ -239,19 +300,19 @@ public class SessionManager {
 
 		// If not registered, it must work because this is idempotent
 		if (!isRegistered(id)) {
-			return Utility.result(Status.SUCCESS);
+			return Utility.sharedResult(Status.SUCCESS);
 		}
 		
 		if (sensorUser != null && sensorUser.equals(id)) {
 			logSessionActivity(id);
-			return Utility.result(Status.SENSOR_BUSY);
+			return Utility.sharedResult(Status.SENSOR_BUSY);
 		} else {
 			// Safe because unlock is idempotent so if we do not have the lock,
 			// it must succeed.
 			Result unlockStatus = unlock(id);
 			assert unlockStatus.getStatus() == Status.SUCCESS;
 			sessions.remove(id);
-			return Utility.result(Status.SUCCESS);
+			return Utility.sharedResult(Status.SUCCESS);
 		}
 	}
 	
@@ -270,14 +331,14 @@ public class SessionManager {
 		
 		assert invariant();
 		if (!isRegistered(id)) {
-			return Utility.result(Status.INVALID_ID);
+			return Utility.sharedResult(Status.INVALID_ID);
 		} else {
 			logSessionActivity(id);
 			if (lockHolder == null || lockHolder.equals(id)) {
-				lockHolder = id;
-				return Utility.result(Status.SUCCESS);
+				setLockHolder(id);
+				return Utility.sharedResult(Status.SUCCESS);
 			} else {
-				return Utility.result(Status.LOCK_HELD_BY_ANOTHER);
+				return Utility.sharedResult(Status.LOCK_HELD_BY_ANOTHER);
 			}
 		}
 	}
@@ -311,19 +372,19 @@ public class SessionManager {
 	public Result unlock(UUID id) {
 		
 		if (!isRegistered(id)) {
-			return Utility.result(Status.INVALID_ID);
+			return Utility.sharedResult(Status.INVALID_ID);
 		} else {
 			logSessionActivity(id);
 			if (sensorUser != null && sensorUser.equals(id)) {
-				return Utility.result(Status.SENSOR_BUSY);
+				return Utility.sharedResult(Status.SENSOR_BUSY);
 			} else {
 				// If no one has the lock or we have the lock, we can unlock.
 				// Otherwise, someone else holds the lock.
 				if (lockHolder == null || hasLock(id)) {
-					lockHolder = null;
-					return Utility.result(Status.SUCCESS);
+					setLockHolder(null);
+					return Utility.sharedResult(Status.SUCCESS);
 				} else {
-					return Utility.result(Status.LOCK_HELD_BY_ANOTHER);
+					return Utility.sharedResult(Status.LOCK_HELD_BY_ANOTHER);
 				}
 			}
 		}
@@ -347,11 +408,11 @@ public class SessionManager {
 	public Result stealLock(UUID id) {
 
 		if (!isRegistered(id)) {
-			return Utility.result(Status.INVALID_ID);
+			return Utility.sharedResult(Status.INVALID_ID);
 		} else {
 			logSessionActivity(id);
 			if (lockHolder == null || lockHolder.equals(id)) {
-				return Utility.result(Status.SUCCESS);
+				return Utility.sharedResult(Status.SUCCESS);
 			} else {
 				Duration elapsedTime = Duration.between(sessions.get(lockHolder), Instant.now());
 				if (elapsedTime.compareTo(config.lockStealingPreventionPeriod()) > 0) {
@@ -359,8 +420,8 @@ public class SessionManager {
 					// After the lock is stolen, no user is using the sensor
 					// even if it is still completing an operation
 					sensorUser = null;
-					lockHolder = id;
-					return Utility.result(Status.SUCCESS);
+					setLockHolder(id);
+					return Utility.sharedResult(Status.SUCCESS);
 				} else {
 					return Utility.result(Status.FAILURE,
 							"Only " + elapsedTime.toString() + "has elapsed since the current lock holder's last operation. The current lock stealing prevention period is "
@@ -389,7 +450,7 @@ public class SessionManager {
 	public Result acquireSensor(UUID id) {
 		
 		if (!isRegistered(id)) {
-			return Utility.result(Status.INVALID_ID);
+			return Utility.sharedResult(Status.INVALID_ID);
 		} else {
 			return setSensorUserIfAuthorized(id, id);
 		}
@@ -414,19 +475,19 @@ public class SessionManager {
 
 		assert invariant();
 		if (!isRegistered(id)) {
-			return Utility.result(Status.INVALID_ID);
+			return Utility.sharedResult(Status.INVALID_ID);
 		} else {
 			logSessionActivity(id);
 			if (lockHolder == null) {
-				return Utility.result(Status.LOCK_NOT_HELD);
+				return Utility.sharedResult(Status.LOCK_NOT_HELD);
 			} else if (!lockHolder.equals(id)) {
-				return Utility.result(Status.LOCK_HELD_BY_ANOTHER);
+				return Utility.sharedResult(Status.LOCK_HELD_BY_ANOTHER);
 			} else {
 				// Since the client holds the lock and the invariant holds, the
 				// client must be the sensor user or there must be no sensor
 				// user.
 				sensorUser = null;
-				return Utility.result(Status.SUCCESS);
+				return Utility.sharedResult(Status.SUCCESS);
 			}
 		}
 	}
@@ -451,20 +512,20 @@ public class SessionManager {
 		assert invariant();
 		assert newUser != null && isRegistered(newUser);
 		if (!isRegistered(requestor)) {
-			return Utility.result(Status.INVALID_ID);
+			return Utility.sharedResult(Status.INVALID_ID);
 		} else {
 			logSessionActivity(newUser);
 			if (lockHolder == null) {
-				return Utility.result(Status.LOCK_NOT_HELD);
+				return Utility.sharedResult(Status.LOCK_NOT_HELD);
 			} else if (!lockHolder.equals(requestor)) {
-				return Utility.result(Status.LOCK_HELD_BY_ANOTHER);
+				return Utility.sharedResult(Status.LOCK_HELD_BY_ANOTHER);
 			} else {
 				// Since the client holds the lock and the invariant holds, the
 				// client must be the sensor user or there must be no sensor
 				// user.
 				assert sensorUser == null || sensorUser.equals(requestor);
 				sensorUser = newUser;
-				return Utility.result(Status.SUCCESS);
+				return Utility.sharedResult(Status.SUCCESS);
 			}
 		}
 	}
@@ -0,0 +1,258 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Kevin Mangold (kevin.mangold@nist.gov)
+      Jaocb Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+package gov.nist.itl.wsbd.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary.Item;
+
+import gov.nist.itl.wsbd.codec.XmlCodec;
+import gov.nist.itl.wsbd.configuration.ConfigurationSnapshot;
+import gov.nist.itl.wsbd.configuration.ServerStateKey;
+import gov.nist.itl.wsbd.persistence.StorageProvider;
+
+/**
+ * Represents: the configuration metadata which captures share. Every capture
+ * taken under the same configuration refers to one stored copy of it, instead
+ * of carrying its own, and the full metadata is put back together when the
+ * capture is read.
+ *
+ * The copies are kept in the storage provider, under IDs made from a hash of
+ * their contents, so they are still there after the service restarts, and an
+ * unchanged configuration is only stored once. They are pinned, so they are
+ * never deleted to make room for captures which refer to them. The time the
+ * configuration was last updated is left out of them, and kept with each
+ * capture instead, so setting the configuration to values it has had before
+ * does not store another copy.
+ *
+ * @author Jacob Glueck
+ *
+ */
+class SharedMetadata {
+
+	/**
+	 * The key of the item in the stored metadata of a capture which holds the
+	 * ID of the shared metadata. It is never sent to clients.
+	 */
+	static final String key = "sharedMetadataId";
+
+	/**
+	 * The storage provider
+	 */
+	private final StorageProvider storage;
+	/**
+	 * The shared metadata which has been stored or read, by ID
+	 */
+	private final Map<UUID, Dictionary> cache;
+	/**
+	 * The most recently interned snapshot and its ID
+	 */
+	private volatile Interned latest;
+
+	/**
+	 * Creates: shared metadata kept in a storage provider<br>
+	 * Effect: pins the shared metadata an earlier run of the service left in
+	 * the storage provider
+	 *
+	 * @param storage
+	 *            the storage provider
+	 */
+	SharedMetadata(StorageProvider storage) {
+		this.storage = storage;
+		cache = new ConcurrentHashMap<>();
+		latest = null;
+		for (UUID id : storage.ids()) {
+			if (SharedMetadata.isShared(id)) {
+				storage.pin(id);
+			}
+		}
+	}
+
+	/**
+	 * @param id
+	 *            a storage ID
+	 * @return true if the ID belongs to shared metadata rather than to a
+	 *         capture. Captures have random IDs, while shared metadata has IDs
+	 *         made from a hash.
+	 */
+	static boolean isShared(UUID id) {
+
+		return id.version() == 3;
+	}
+
+	/**
+	 * Effect: stores the snapshot, without the time it was last updated, as
+	 * shared metadata, unless it is already stored.
+	 *
+	 * @param snapshot
+	 *            the snapshot
+	 * @return the ID of the shared metadata, or null if there is no space to
+	 *         store it
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	UUID intern(ConfigurationSnapshot snapshot) throws IOException {
+		Interned interned = latest;
+		if (interned != null && interned.snapshot == snapshot && storage.exists(interned.id)) {
+			return interned.id;
+		}
+		synchronized (this) {
+			Dictionary metadata = snapshot.dictionary();
+			metadata.getItem().removeIf(i -> ServerStateKey.lastUpdated.toString().equals(i.getKey()));
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			XmlCodec.writeDictionary(metadata, "metadata", bytes);
+			UUID id = UUID.nameUUIDFromBytes(bytes.toByteArray());
+			if (!storage.exists(id)) {
+				if (!storage.reserve(id, bytes.size())) {
+					return null;
+				}
+				try (OutputStream out = storage.store(id)) {
+					bytes.writeTo(out);
+				} catch (IOException e) {
+					storage.delete(id);
+					throw e;
+				}
+				storage.trim(id);
+			}
+			storage.pin(id);
+			cache.put(id, metadata);
+			latest = new Interned(snapshot, id);
+			return id;
+		}
+	}
+
+	/**
+	 * Effect: puts the full metadata of a capture back together. If the
+	 * metadata refers to shared metadata, the reference is replaced with
+	 * copies of the items of the shared metadata. Otherwise, the metadata is
+	 * left as it is.
+	 *
+	 * @param metadata
+	 *            the metadata of a stored capture, which is modified
+	 * @throws IOException
+	 *             if the shared metadata cannot be read
+	 */
+	void reconstitute(Dictionary metadata) throws IOException {
+		UUID id = null;
+		Iterator<Item> items = metadata.getItem().iterator();
+		while (items.hasNext()) {
+			Item i = items.next();
+			if (SharedMetadata.key.equals(i.getKey())) {
+				id = UUID.fromString(i.getValue().toString());
+				items.remove();
+				break;
+			}
+		}
+		if (id != null) {
+			List<Item> copies = new ArrayList<>();
+			for (Item i : shared(id).getItem()) {
+				Item copy = new Item();
+				copy.setKey(i.getKey());
+				copy.setValue(i.getValue());
+				copies.add(copy);
+			}
+			metadata.getItem().addAll(0, copies);
+		}
+	}
+
+	/**
+	 * @param id
+	 *            the ID of the shared metadata
+	 * @return the shared metadata, which must not be modified
+	 * @throws IOException
+	 *             if it cannot be read
+	 */
+	private Dictionary shared(UUID id) throws IOException {
+		Dictionary shared = cache.get(id);
+		if (shared == null) {
+			try (InputStream in = storage.read(id)) {
+				if (in == null) {
+					throw new IOException("The shared metadata " + id + " is gone");
+				}
+				shared = XmlCodec.readDictionary(in);
+			}
+			cache.put(id, shared);
+		}
+		return shared;
+	}
+
+	/**
+	 * Represents: a snapshot and the ID of its shared metadata
+	 *
+	 * @author Jacob Glueck
+	 *
+	 */
+	private static final class Interned {
+
+		/**
+		 * The snapshot
+		 */
+		private final ConfigurationSnapshot snapshot;
+		/**
+		 * The ID
+		 */
+		private final UUID id;
+
+		/**
+		 * Creates: a new pair
+		 *
+		 * @param snapshot
+		 *            the snapshot
+		 * @param id
+		 *            the ID
+		 */
+		private Interned(ConfigurationSnapshot snapshot, UUID id) {
+			this.snapshot = snapshot;
+			this.id = id;
+		}
+	}
+}
@@ -46,12 +46,20 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
 import java.time.Instant;
+import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
-import java.util.GregorianCalendar;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
 import java.util.stream.Collectors;
 
 import javax.xml.bind.JAXBContext;
@@ -60,6 +68,7 @@ import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeConstants;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.transform.stream.StreamSource;
@@ -87,6 +96,46 @@ public class Utility {
 	 * The classes used for binding XML
 	 */
 	public static final String contextPath = "org.oasis_open.docs.bioserv.ns.wsbd_1";
+	/**
+	 * Creates virtual threads, or null if this JVM does not have them
+	 */
+	private static final ThreadFactory virtualThreadFactory = Utility.findVirtualThreadFactory();
+	/**
+	 * The elements of the results shared with {@link #share(Result)}, by
+	 * result. The generated classes do not override equals, so this is by
+	 * identity.
+	 */
+	private static final Map<Result, JAXBElement<Result>> sharedElements = new ConcurrentHashMap<>();
+	/**
+	 * The serialized forms of the elements in {@link #sharedElements}, by
+	 * element
+	 */
+	private static final Map<JAXBElement<?>, byte[]> sharedElementBytes = new ConcurrentHashMap<>();
+	/**
+	 * The shared results with no message, by status. See
+	 * {@link #sharedResult(Status)}.
+	 */
+	private static final Map<Status, JAXBElement<Result>> sharedResults = Utility.createSharedResults();
+	/**
+	 * The context used to marshal and unmarshal, or null if it has not been
+	 * created yet. It is thread safe, and creating one is slow.
+	 */
+	private static volatile JAXBContext context;
+	/**
+	 * The profile used to write XML for responses, requests and stored
+	 * captures
+	 */
+	private static volatile OutputProfile outputProfile = OutputProfile.compact;
+	/**
+	 * The datatype factory of each thread
+	 */
+	private static final ThreadLocal<DatatypeFactory> datatypeFactories = ThreadLocal.withInitial(() -> {
+		try {
+			return DatatypeFactory.newInstance();
+		} catch (DatatypeConfigurationException e) {
+			throw new IllegalStateException(e);
+		}
+	});
 
 	/**
 	 * Prevent construction
@@ -122,7 +171,153 @@ public class Utility {
 		
 		return Utility.result(status, "");
 	}
+
+	/**
+	 * Effect: returns the shared result with the specified status and no
+	 * message. Unlike {@link #result(Status)}, this does not create anything,
+	 * so it is meant for the results which are returned as is many times a
+	 * second, such as the results of the lock checks. The result is shared, so
+	 * it must never be modified (the setters in this class refuse to), but
+	 * {@link #copy(Result)} makes a copy which can be.
+	 * {@link #wrap(Result)} returns a shared element for it, which the server
+	 * sends without marshaling it again.
+	 *
+	 * @param status
+	 *            the status
+	 * @return the shared result
+	 */
+	public static Result sharedResult(Status status) {
+		return Utility.sharedResults.get(status).getValue();
+	}
+
+	/**
+	 * Effect: shares the result, like the results returned by
+	 * {@link #sharedResult(Status)}: from now on it must never be modified, and
+	 * the returned element, which {@link #wrap(Result)} also returns for it,
+	 * is sent without marshaling it again. Shared results are kept for as long
+	 * as the JVM runs, so this is only meant for a fixed set of results, such
+	 * as one for each sensor status.
+	 *
+	 * @param result
+	 *            the result, which must be complete
+	 * @return the shared element for the result
+	 */
+	public static JAXBElement<Result> share(Result result) {
+		if (Utility.isShared(result)) {
+			return Utility.wrap(result);
+		}
+		JAXBElement<Result> element = Utility.objectFactory.createResult(result);
+		Utility.sharedElementBytes.put(element, Utility.toBytes(element, OutputProfile.compact));
+		Utility.sharedElements.put(result, element);
+		return element;
+	}
+
+	/**
+	 * @param result
+	 *            a result
+	 * @return true if the result is one of the results returned by
+	 *         {@link #sharedResult(Status)} or shared with
+	 *         {@link #share(Result)}
+	 */
+	public static boolean isShared(Result result) {
+		if (result == null) {
+			return false;
+		}
+		return (result.getStatus() != null && Utility.sharedResults.get(result.getStatus()).getValue() == result) || Utility.sharedElements.containsKey(result);
+	}
+
+	/**
+	 * @param element
+	 *            an element
+	 * @return the serialized (XML) form of the element if it is the element
+	 *         returned by {@link #wrap(Result)} for a shared result, or null
+	 *         otherwise. The array is shared and must not be modified.
+	 */
+	public static byte[] sharedResultBytes(Object element) {
+		if (element instanceof JAXBElement && ((JAXBElement<?>) element).getValue() instanceof Result) {
+			Result result = (Result) ((JAXBElement<?>) element).getValue();
+			if (result.getStatus() != null && Utility.sharedResults.get(result.getStatus()) == element) {
+				return SharedResultBytes.bytes.get(result.getStatus());
+			}
+			return Utility.sharedElementBytes.get(element);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the shared results, one for each status
+	 */
+	private static Map<Status, JAXBElement<Result>> createSharedResults() {
+		Map<Status, JAXBElement<Result>> results = new EnumMap<>(Status.class);
+		for (Status status : Status.values()) {
+			results.put(status, Utility.objectFactory.createResult(Utility.result(status)));
+		}
+		return Collections.unmodifiableMap(results);
+	}
+
+	/**
+	 * Contains: the serialized shared results. They are made the first time
+	 * they are needed, since that takes a JAXB context, which clients which
+	 * only use {@link Utility#sharedResult(Status)} do not need.
+	 */
+	private static class SharedResultBytes {
+
+		/**
+		 * The serialized shared results, by status
+		 */
+		private static final Map<Status, byte[]> bytes;
+
+		static {
+			Map<Status, byte[]> serialized = new EnumMap<>(Status.class);
+			for (Map.Entry<Status, JAXBElement<Result>> entry : Utility.sharedResults.entrySet()) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				try {
+					Utility.context().createMarshaller().marshal(entry.getValue(), out);
+				} catch (JAXBException e) {
+					throw new ExceptionInInitializerError(e);
+				}
+				serialized.put(entry.getKey(), out.toByteArray());
+			}
+			bytes = Collections.unmodifiableMap(serialized);
+		}
+	}
 	
+	/**
+	 * Creates: a copy of a result which is not shared, so that it can be
+	 * modified even if the original is shared. The copy refers to the same
+	 * parts as the original; the setters in this class replace parts instead
+	 * of changing them.
+	 *
+	 * @param result
+	 *            the result
+	 * @return the copy
+	 */
+	public static Result copy(Result result) {
+		Result copy = new Result();
+		copy.setStatus(result.getStatus());
+		copy.setBadFields(result.getBadFields());
+		copy.setCaptureIds(result.getCaptureIds());
+		copy.setMetadata(result.getMetadata());
+		copy.setMessage(result.getMessage());
+		copy.setSensorData(result.getSensorData());
+		copy.setSessionId(result.getSessionId());
+		return copy;
+	}
+
+	/**
+	 * Effect: throws an exception if the result is shared
+	 *
+	 * @param result
+	 *            a result about to be modified
+	 * @throws IllegalStateException
+	 *             if the result is shared (see {@link #isShared(Result)})
+	 */
+	private static void checkNotShared(Result result) {
+		if (Utility.isShared(result)) {
+			throw new IllegalStateException("A shared result cannot be modified; copy it first");
+		}
+	}
+
 	/**
 	 * Effect: sets the session ID of the result to the specified UUID.
 	 *
@@ -130,9 +325,12 @@ public class Utility {
 	 *            the result to modify
 	 * @param id
 	 *            the UUID
+	 * @throws IllegalStateException
+	 *             if the result is shared (see {@link #isShared(Result)})
 	 */
 	public static void setResultSessionID(Result result, UUID id) {
 
+		Utility.checkNotShared(result);
 		result.setSessionId(Utility.objectFactory.createResultSessionId(id.toString()));
 	}
 
@@ -145,9 +343,12 @@ public class Utility {
 	 *            the input stream to get the sensor data from
 	 * @throws IOException
 	 *             if there is a problem
+	 * @throws IllegalStateException
+	 *             if the result is shared (see {@link #isShared(Result)})
 	 */
 	public static void setSensorData(Result result, InputStream in) throws IOException {
 
+		Utility.checkNotShared(result);
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		Utility.drain(in, out);
 		result.setSensorData(Utility.objectFactory.createResultSensorData(out.toByteArray()));
@@ -158,8 +359,11 @@ public class Utility {
 	 *
 	 * @param result
 	 *            the result to modify
+	 * @throws IllegalStateException
+	 *             if the result is shared (see {@link #isShared(Result)})
 	 */
 	public static void removeSensorData(Result result) {
+		Utility.checkNotShared(result);
 		result.setSensorData(null);
 	}
 	
@@ -170,12 +374,15 @@ public class Utility {
 	 *            the result
 	 * @param captureIDs
 	 *            the capture IDs
+	 * @throws IllegalStateException
+	 *             if the result is shared (see {@link #isShared(Result)})
 	 */
 	public static void setCaptureIDs(Result result, List<UUID> captureIDs) {
 		UuidArray ids = new UuidArray();
 		for (UUID id : captureIDs) {
 			ids.getElement().add(id.toString());
 		}
+		Utility.checkNotShared(result);
 		result.setCaptureIds(Utility.objectFactory.createResultCaptureIds(ids));
 	}
 
@@ -201,8 +408,8 @@ public class Utility {
 	}
 
 	/**
-	 * Effect: saves the result as XML to the specified output stream. Closes
-	 * the stream when done.
+	 * Effect: saves the result as XML to the specified output stream, laid
+	 * out according to {@link #outputProfile()}. Closes the stream when done.
 	 *
 	 * @param result
 	 *            the result
@@ -214,13 +421,69 @@ public class Utility {
 	 *             if there is a problem
 	 */
 	public static void marshal(JAXBElement<?> result, OutputStream out) throws JAXBException, IOException {
-		JAXBContext jaxbContext = JAXBContext.newInstance(Utility.contextPath);
+		Utility.marshal(result, out, Utility.outputProfile);
+	}
+
+	/**
+	 * Effect: saves the result as XML to the specified output stream, laid
+	 * out according to the specified profile. Closes the stream when done.
+	 *
+	 * @param result
+	 *            the result
+	 * @param out
+	 *            the output stream
+	 * @param profile
+	 *            the profile
+	 * @throws JAXBException
+	 *             if there is a problem
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	public static void marshal(JAXBElement<?> result, OutputStream out, OutputProfile profile) throws JAXBException, IOException {
+		JAXBContext jaxbContext = Utility.context();
 		Marshaller marshaller = jaxbContext.createMarshaller();
-		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, profile.formatted());
 		marshaller.marshal(result, out);
 		out.close();
 	}
+
+	/**
+	 * @return the profile used to write XML for responses, requests and
+	 *         stored captures. By default, {@link OutputProfile#compact}.
+	 */
+	public static OutputProfile outputProfile() {
+		return Utility.outputProfile;
+	}
+
+	/**
+	 * Effect: sets the profile used to write XML for responses, requests and
+	 * stored captures. A server takes the profile in effect when it is
+	 * created.
+	 *
+	 * @param profile
+	 *            the profile
+	 */
+	public static void setOutputProfile(OutputProfile profile) {
+		Utility.outputProfile = profile;
+	}
 	
+	/**
+	 * @return the context used to marshal and unmarshal. It is created the
+	 *         first time it is needed and reused after that.
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	public static JAXBContext context() throws JAXBException {
+		JAXBContext c = Utility.context;
+		if (c == null) {
+			// If two threads get here at once, both make one, which is
+			// harmless
+			c = JAXBContext.newInstance(Utility.contextPath);
+			Utility.context = c;
+		}
+		return c;
+	}
+
 	/**
 	 * Effect: unmarshals the result object stored in the specified input
 	 * stream. Closes the input stream when done.
@@ -255,7 +518,7 @@ public class Utility {
 	 *             if there is a problem
 	 */
 	public static <T> T unmarshal(InputStream in, Class<T> type) throws JAXBException, IOException {
-		JAXBContext jaxbContext = JAXBContext.newInstance(Utility.contextPath);
+		JAXBContext jaxbContext = Utility.context();
 		Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
 		T thing = unmarshaller.unmarshal(new StreamSource(in), type).getValue();
 		in.close();
@@ -281,6 +544,10 @@ public class Utility {
 	 * @return the element
 	 */
 	public static JAXBElement<Result> wrap(Result result) {
+		if (Utility.isShared(result)) {
+			JAXBElement<Result> element = Utility.sharedElements.get(result);
+			return element != null ? element : Utility.sharedResults.get(result.getStatus());
+		}
 		return Utility.objectFactory.createResult(result);
 	}
 	
@@ -291,9 +558,12 @@ public class Utility {
 	 *            the result to modify
 	 * @param metadata
 	 *            the metadata
+	 * @throws IllegalStateException
+	 *             if the result is shared (see {@link #isShared(Result)})
 	 */
 	public static void setResultMetadata(Result result, Dictionary metadata) {
 
+		Utility.checkNotShared(result);
 		result.setMetadata(Utility.objectFactory.createResultMetadata(metadata));
 	}
 	
@@ -309,22 +579,49 @@ public class Utility {
 	}
 
 	/**
-	 * Effect: converts an XML element to a nice (XML) string representation
+	 * Effect: converts an XML element to a nice (XML) string representation.
+	 * It is always {@link OutputProfile#pretty}.
 	 *
 	 * @param thing
 	 *            the result
 	 * @return a nice string
 	 */
 	public static String elementToString(JAXBElement<?> thing) {
+		byte[] bytes = Utility.toBytes(thing, OutputProfile.pretty);
+		return bytes == null ? null : new String(bytes);
+	}
+
+	/**
+	 * Effect: converts an XML element to its serialized (XML) form, laid out
+	 * according to {@link #outputProfile()}
+	 *
+	 * @param thing
+	 *            the element
+	 * @return the bytes of the XML document
+	 */
+	public static byte[] toBytes(JAXBElement<?> thing) {
+		return Utility.toBytes(thing, Utility.outputProfile);
+	}
+
+	/**
+	 * Effect: converts an XML element to its serialized (XML) form
+	 *
+	 * @param thing
+	 *            the element
+	 * @param profile
+	 *            the layout
+	 * @return the bytes of the XML document
+	 */
+	public static byte[] toBytes(JAXBElement<?> thing, OutputProfile profile) {
 		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
 		try {
-			Utility.marshal(thing, bytes);
+			Utility.marshal(thing, bytes, profile);
 		} catch (JAXBException | IOException e) {
 			// This should never happen
 			assert false;
 			return null;
 		}
-		return new String(bytes.toByteArray());
+		return bytes.toByteArray();
 	}
 	
 	/**
@@ -370,17 +667,98 @@ public class Utility {
 	}
 
 	/**
-	 * Converts an instant to an XML date
+	 * Converts an instant to an XML date, in the system time zone with
+	 * millisecond precision
 	 *
 	 * @param instant
 	 *            the instant
 	 * @return the XML date
 	 */
 	public static XMLGregorianCalendar fromInstant(Instant instant) {
+		ZonedDateTime time = ZonedDateTime.ofInstant(instant, ZoneId.systemDefault());
+		return Utility.datatypeFactory().newXMLGregorianCalendar(time.getYear(), time.getMonthValue(), time.getDayOfMonth(), time.getHour(), time.getMinute(), time.getSecond(),
+				time.getNano() / 1000000, time.getOffset().getTotalSeconds() / 60);
+	}
+
+	/**
+	 * Converts an XML date to an instant. A date without a time zone is taken
+	 * to be in the system time zone.
+	 *
+	 * @param date
+	 *            the XML date
+	 * @return the instant
+	 */
+	public static Instant toInstant(XMLGregorianCalendar date) {
+		BigDecimal fraction = date.getFractionalSecond();
+		if (date.getEon() != null || date.getYear() == DatatypeConstants.FIELD_UNDEFINED || date.getHour() == DatatypeConstants.FIELD_UNDEFINED || date.getSecond() == DatatypeConstants.FIELD_UNDEFINED) {
+			// Not a plain date and time, which the slow way handles
+			return date.toGregorianCalendar().toInstant();
+		}
+		LocalDateTime local = LocalDateTime.of(date.getYear(), date.getMonth(), date.getDay(), 0, date.getMinute(), date.getSecond(),
+				fraction == null ? 0 : fraction.movePointRight(9).intValue()).plusHours(date.getHour());
+		if (date.getTimezone() == DatatypeConstants.FIELD_UNDEFINED) {
+			return local.atZone(ZoneId.systemDefault()).toInstant();
+		}
+		return local.toInstant(ZoneOffset.ofTotalSeconds(date.getTimezone() * 60));
+	}
+
+	/**
+	 * @return a datatype factory for the calling thread. Finding the factory
+	 *         is slow, and the specification does not promise that a factory
+	 *         can be shared between threads, so each thread keeps its own.
+	 */
+	public static DatatypeFactory datatypeFactory() {
+		return Utility.datatypeFactories.get();
+	}
+
+	/**
+	 * @return true if and only if this JVM has virtual threads, which means it
+	 *         is Java 21 or newer
+	 */
+	public static boolean virtualThreadsAvailable() {
+		return Utility.virtualThreadFactory != null;
+	}
+
+	/**
+	 * Creates: a thread factory. If <code>virtual</code> is true and this JVM
+	 * has virtual threads, the threads are virtual, so a thread which blocks
+	 * parks instead of holding on to an operating system thread. Before Java
+	 * 24, a virtual thread which blocks inside a <code>synchronized</code>
+	 * block or in {@link Object#wait()} still holds on to its operating system
+	 * thread, so code run on these threads should wait with the locks in
+	 * <code>java.util.concurrent.locks</code> instead. Otherwise, the threads
+	 * are ordinary daemon threads.
+	 *
+	 * @param virtual
+	 *            true to use virtual threads when they are available
+	 * @return the thread factory
+	 */
+	public static ThreadFactory threadFactory(boolean virtual) {
+		if (virtual && Utility.virtualThreadsAvailable()) {
+			return Utility.virtualThreadFactory;
+		}
+		return r -> {
+			Thread thread = new Thread(r);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Effect: looks up <code>Thread.ofVirtual().factory()</code> by reflection,
+	 * since this code is compiled for Java 8.
+	 *
+	 * @return a factory for virtual threads, or null if this JVM does not have
+	 *         them or they are still a preview feature which is turned off
+	 */
+	private static ThreadFactory findVirtualThreadFactory() {
 		try {
-			return DatatypeFactory.newInstance().newXMLGregorianCalendar(GregorianCalendar.from(ZonedDateTime.ofInstant(instant, ZoneId.systemDefault())));
-		} catch (DatatypeConfigurationException e) {
-			throw new RuntimeException(e);
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Object builder = ofVirtual.invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
 		}
 	}
 }
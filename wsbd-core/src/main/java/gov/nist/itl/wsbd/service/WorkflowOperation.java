@@ -0,0 +1,167 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.service;
+
+import java.util.UUID;
+import java.util.function.BiFunction;
+
+import javax.xml.bind.JAXBElement;
+
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
+
+/**
+ * Represents: an operation which can be run as one step of a workflow. Each
+ * operation is named after the client method which runs it on its own.
+ *
+ * @author Jacob Glueck
+ *
+ */
+public enum WorkflowOperation {
+	/**
+	 * Registers. The new session is used by the rest of the workflow.
+	 */
+	register(false, (service, session) -> service.IRegister()),
+	/**
+	 * Unregisters
+	 */
+	unregister(true, ISensorService::IUnregister),
+	/**
+	 * Gets the lock
+	 */
+	lock(true, ISensorService::ILock),
+	/**
+	 * Steals the lock
+	 */
+	stealLock(true, ISensorService::IStealLock),
+	/**
+	 * Releases the lock
+	 */
+	unlock(true, ISensorService::IUnlock),
+	/**
+	 * Gets the service information
+	 */
+	getServiceInformation(false, (service, session) -> service.IGetServiceInformation()),
+	/**
+	 * Initializes the sensor
+	 */
+	initialize(true, ISensorService::IInitialize),
+	/**
+	 * Uninitializes the sensor
+	 */
+	uninitialize(true, ISensorService::IUninitialize),
+	/**
+	 * Gets the sensor configuration
+	 */
+	getConfiguration(true, ISensorService::IGetConfiguration),
+	/**
+	 * Captures. The captures are the ones downloaded by a later
+	 * {@link #download}.
+	 */
+	capture(true, ISensorService::ICapture),
+	/**
+	 * Begins an asynchronous capture
+	 */
+	beginCapture(true, ISensorService::IBeginCapture),
+	/**
+	 * Ends an asynchronous capture. The captures are the ones downloaded by a
+	 * later {@link #download}.
+	 */
+	endCapture(true, ISensorService::IEndCapture),
+	/**
+	 * Downloads every capture made by the last capture step. Gives one result
+	 * per capture.
+	 */
+	download(false, null),
+	/**
+	 * Cancels the current sensor operation
+	 */
+	cancel(true, ISensorService::ICancel);
+
+	/**
+	 * The part header which holds the operation of each result of a workflow
+	 */
+	public static final String OPERATION_HEADER = "WSBD-Operation";
+
+	/**
+	 * True if the operation needs a session
+	 */
+	private final boolean needsSession;
+	/**
+	 * The function which runs the operation for a session, or null if the
+	 * operation is not run for a session
+	 */
+	private final BiFunction<ISensorService, UUID, JAXBElement<Result>> operation;
+
+	/**
+	 * Creates: a new operation
+	 *
+	 * @param needsSession
+	 *            true if the operation needs a session
+	 * @param operation
+	 *            the function which runs the operation
+	 */
+	private WorkflowOperation(boolean needsSession, BiFunction<ISensorService, UUID, JAXBElement<Result>> operation) {
+		this.needsSession = needsSession;
+		this.operation = operation;
+	}
+
+	/**
+	 * @return true if the operation needs a session
+	 */
+	public boolean needsSession() {
+		return needsSession;
+	}
+
+	/**
+	 * Effect: runs the operation. Does not work for {@link #download}.
+	 *
+	 * @param service
+	 *            the service
+	 * @param session
+	 *            the session
+	 * @return the result
+	 */
+	JAXBElement<Result> run(ISensorService service, UUID session) {
+		return operation.apply(service, session);
+	}
+}
@@ -0,0 +1,135 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.streaming;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Represents: a live stream which produces whole frames. For a
+ * <code>multipart/x-mixed-replace</code> stream, a frame is one complete
+ * part: the boundary, the part headers and the image (see
+ * {@link Frames#multipartPart(String, String, byte[])}). Writing whole frames
+ * lets the service send each frame with a single write and flush it, and lets
+ * a viewer who joins late start at a frame boundary.
+ *
+ * @author Jacob Glueck
+ *
+ */
+public interface FrameSource extends Closeable {
+
+	/**
+	 * Effect: blocks until the next frame is available. The service never
+	 * modifies the returned buffer's contents, and the source must not modify
+	 * them once returned.
+	 *
+	 * @return the next frame, from its position to its limit, or null if the
+	 *         stream ended
+	 * @throws IOException
+	 *             if there is a problem reading the frame
+	 */
+	ByteBuffer nextFrame() throws IOException;
+
+	/**
+	 * @return true if each frame stands on its own, so that a viewer who falls
+	 *         behind can skip frames. False if the frames are just pieces of a
+	 *         byte stream, in which case a viewer who falls behind is
+	 *         disconnected instead, since skipping a piece would corrupt the
+	 *         stream. By default, true.
+	 */
+	default boolean framed() {
+		return true;
+	}
+
+	/**
+	 * Creates: a frame source which reads a byte stream. If the content type
+	 * is multipart with a boundary, such as
+	 * <code>multipart/x-mixed-replace;boundary=foo</code>, the stream is split
+	 * into whole parts: each frame starts with a boundary line and runs up to
+	 * the next one. Otherwise the stream has no frame boundaries: each frame is
+	 * whatever one read of the stream returns, up to <code>maxFrameBytes</code>,
+	 * and the source is not {@link #framed()}.
+	 *
+	 * @param in
+	 *            the stream. Closed when the source is closed.
+	 * @param contentType
+	 *            the content type of the stream, or null if it is not known
+	 * @param maxFrameBytes
+	 *            the maximum number of bytes read at once, which is the
+	 *            largest part a multipart stream may have. Must be positive
+	 *            (assert).
+	 * @return the frame source
+	 */
+	public static FrameSource fromInputStream(InputStream in, String contentType, int maxFrameBytes) {
+		assert maxFrameBytes > 0;
+		String boundary = contentType == null ? null : FrameTranscoder.boundary(contentType);
+		if (boundary != null) {
+			return new MultipartFrameSource(in, boundary, maxFrameBytes);
+		}
+		byte[] buf = new byte[maxFrameBytes];
+		return new FrameSource() {
+
+			@Override
+			public ByteBuffer nextFrame() throws IOException {
+				int read = in.read(buf);
+				if (read == -1) {
+					return null;
+				}
+				return ByteBuffer.wrap(Arrays.copyOf(buf, read));
+			}
+
+			@Override
+			public boolean framed() {
+				return false;
+			}
+
+			@Override
+			public void close() throws IOException {
+				in.close();
+			}
+		};
+	}
+}
@@ -0,0 +1,223 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.streaming;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Contains: the default transcoding of live stream frames into a
+ * {@link StreamVariant}. Only <code>multipart/x-mixed-replace</code> streams
+ * whose frames are whole parts (see
+ * {@link Frames#multipartPart(String, String, byte[])}) can be transcoded.
+ * Frames of any other stream, and frames which cannot be decoded, are left
+ * alone.
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class FrameTranscoder {
+
+	/**
+	 * The quality used when a variant changes the size but not the quality
+	 */
+	public static final int DEFAULT_QUALITY = 75;
+
+	/**
+	 * Prevent construction
+	 */
+	private FrameTranscoder() {
+	}
+
+	/**
+	 * @param contentType
+	 *            a stream content type
+	 * @return the multipart boundary in the content type, or null if it is not
+	 *         a multipart content type
+	 */
+	public static String boundary(String contentType) {
+		if (!contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+			return null;
+		}
+		for (String parameter : contentType.split(";")) {
+			String[] pair = parameter.trim().split("=", 2);
+			if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("boundary")) {
+				String boundary = pair[1].trim();
+				if (boundary.length() >= 2 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+					boundary = boundary.substring(1, boundary.length() - 1);
+				}
+				return boundary;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Effect: scales and recompresses the image in a frame as a JPEG. Does not
+	 * change the frame's position.
+	 *
+	 * @param frame
+	 *            the frame
+	 * @param contentType
+	 *            the content type of the stream
+	 * @param variant
+	 *            the variant. Only the size and quality are used.
+	 * @return the transcoded frame, or <code>frame</code> if the frame could
+	 *         not be transcoded
+	 */
+	public static ByteBuffer transcode(ByteBuffer frame, String contentType, StreamVariant variant) {
+		String boundary = FrameTranscoder.boundary(contentType);
+		if (boundary == null) {
+			return frame;
+		}
+		try {
+			byte[] bytes = new byte[frame.remaining()];
+			frame.duplicate().get(bytes);
+			byte[] image = FrameTranscoder.partBody(bytes);
+			if (image == null) {
+				return frame;
+			}
+			byte[] jpeg = FrameTranscoder.transcodeImage(image, variant);
+			return jpeg == null ? frame : Frames.multipartPart(boundary, "image/jpeg", jpeg);
+		} catch (IOException e) {
+			return frame;
+		}
+	}
+
+	/**
+	 * @param part
+	 *            a whole multipart part, starting with the boundary line
+	 * @return the body of the part, or null if the part cannot be parsed
+	 */
+	private static byte[] partBody(byte[] part) {
+		int start = -1;
+		for (int i = 0; i + 3 < part.length; i++) {
+			if (part[i] == '\r' && part[i + 1] == '\n' && part[i + 2] == '\r' && part[i + 3] == '\n') {
+				start = i + 4;
+				break;
+			}
+		}
+		if (start == -1) {
+			return null;
+		}
+		int end = part.length;
+		String headers = new String(part, 0, start, StandardCharsets.US_ASCII);
+		for (String header : headers.split("\r\n")) {
+			String[] pair = header.split(":", 2);
+			if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("Content-Length")) {
+				try {
+					end = Math.min(part.length, start + Integer.parseInt(pair[1].trim()));
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			}
+		}
+		byte[] body = new byte[end - start];
+		System.arraycopy(part, start, body, 0, body.length);
+		return body;
+	}
+
+	/**
+	 * @param image
+	 *            an encoded image in any format ImageIO can read
+	 * @param variant
+	 *            the variant
+	 * @return the image scaled to fit the variant and encoded as a JPEG, or
+	 *         null if the image cannot be read
+	 * @throws IOException
+	 *             if there is a problem encoding the image
+	 */
+	private static byte[] transcodeImage(byte[] image, StreamVariant variant) throws IOException {
+		BufferedImage original = ImageIO.read(new ByteArrayInputStream(image));
+		if (original == null) {
+			return null;
+		}
+		double scale = 1;
+		if (variant.maxWidth() != 0) {
+			scale = Math.min(scale, (double) variant.maxWidth() / original.getWidth());
+		}
+		if (variant.maxHeight() != 0) {
+			scale = Math.min(scale, (double) variant.maxHeight() / original.getHeight());
+		}
+		int width = Math.max(1, (int) Math.round(original.getWidth() * scale));
+		int height = Math.max(1, (int) Math.round(original.getHeight() * scale));
+
+		// JPEG has no alpha channel, so always draw into an RGB image
+		BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = scaled.createGraphics();
+		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		graphics.drawImage(original, 0, 0, width, height, null);
+		graphics.dispose();
+
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+		if (!writers.hasNext()) {
+			return null;
+		}
+		ImageWriter writer = writers.next();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+			writer.setOutput(imageOut);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality((variant.quality() == 0 ? FrameTranscoder.DEFAULT_QUALITY : variant.quality()) / 100f);
+			writer.write(null, new IIOImage(scaled, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return out.toByteArray();
+	}
+}
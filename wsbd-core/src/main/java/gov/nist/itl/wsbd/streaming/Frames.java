@@ -0,0 +1,101 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.streaming;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Contains: helpers for building and writing the frames of a live stream
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class Frames {
+
+	/**
+	 * Prevent construction
+	 */
+	private Frames() {
+	}
+
+	/**
+	 * Creates: one part of a <code>multipart/x-mixed-replace</code> stream,
+	 * with the headers and the data in a single buffer so that it can be
+	 * written in one call.
+	 *
+	 * @param boundary
+	 *            the boundary, as it appears in the stream's content type
+	 *            (without the leading dashes)
+	 * @param contentType
+	 *            the content type of the data, for example
+	 *            <code>image/jpeg</code>
+	 * @param data
+	 *            the data
+	 * @return the part
+	 */
+	public static ByteBuffer multipartPart(String boundary, String contentType, byte[] data) {
+		byte[] headers = String.format("--%s\r\nContent-Type: %s\r\nContent-Length: %d\r\n\r\n", boundary, contentType, data.length).getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer part = ByteBuffer.allocate(headers.length + data.length + 2);
+		part.put(headers).put(data).put((byte) '\r').put((byte) '\n');
+		part.flip();
+		return part;
+	}
+
+	/**
+	 * @param frame
+	 *            a frame
+	 * @return the bytes of the frame from its position to its limit. This is
+	 *         the frame's backing array if the frame covers all of it, so the
+	 *         result must not be modified. Does not change the frame's
+	 *         position.
+	 */
+	public static byte[] bytes(ByteBuffer frame) {
+		if (frame.hasArray() && frame.arrayOffset() == 0 && frame.position() == 0 && frame.remaining() == frame.array().length) {
+			return frame.array();
+		}
+		byte[] copy = new byte[frame.remaining()];
+		frame.duplicate().get(copy);
+		return copy;
+	}
+}
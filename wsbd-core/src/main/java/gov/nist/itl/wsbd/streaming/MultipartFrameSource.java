@@ -0,0 +1,179 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.streaming;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Represents: a frame source which splits a multipart byte stream, such as a
+ * <code>multipart/x-mixed-replace</code> MJPEG stream, into whole parts. Each
+ * frame starts with a boundary line and runs up to, but not including, the
+ * next one, so the frames can be written one after another, or skipped,
+ * without breaking the stream. Any bytes before the first boundary line are
+ * returned as a frame of their own.
+ *
+ * @author Jacob Glueck
+ *
+ */
+class MultipartFrameSource implements FrameSource {
+
+	/**
+	 * The stream
+	 */
+	private final InputStream in;
+	/**
+	 * The boundary line, with its leading dashes
+	 */
+	private final byte[] delimiter;
+	/**
+	 * The bytes read but not returned yet, starting at index 0
+	 */
+	private final byte[] buf;
+	/**
+	 * The number of bytes in {@link #buf}
+	 */
+	private int length;
+	/**
+	 * True once the stream has ended
+	 */
+	private boolean ended;
+
+	/**
+	 * Creates: a new source
+	 *
+	 * @param in
+	 *            the stream. Closed when the source is closed.
+	 * @param boundary
+	 *            the boundary, as it appears in the content type
+	 * @param maxFrameBytes
+	 *            the largest part the stream may have
+	 */
+	MultipartFrameSource(InputStream in, String boundary, int maxFrameBytes) {
+		this.in = in;
+		delimiter = ("--" + boundary).getBytes(StandardCharsets.US_ASCII);
+		buf = new byte[Math.max(maxFrameBytes, delimiter.length + 1)];
+		length = 0;
+		ended = false;
+	}
+
+	@Override
+	public ByteBuffer nextFrame() throws IOException {
+		// The frame starts at index 0, so the next one starts at index 1 or
+		// later
+		int from = 1;
+		while (true) {
+			int next = nextDelimiter(from);
+			if (next != -1) {
+				return take(next);
+			}
+			if (ended) {
+				return length == 0 ? null : take(length);
+			}
+			if (length == buf.length) {
+				throw new IOException("A part is larger than " + buf.length + " bytes");
+			}
+			// A delimiter may start in the bytes already searched and end in
+			// the bytes about to be read
+			from = Math.max(1, length - delimiter.length + 1);
+			int read = in.read(buf, length, buf.length - length);
+			if (read == -1) {
+				ended = true;
+			} else {
+				length += read;
+			}
+		}
+	}
+
+	/**
+	 * @param from
+	 *            the first index to look at
+	 * @return the index of the first boundary line at or after
+	 *         <code>from</code>, or -1 if there is none in the bytes read so far
+	 */
+	private int nextDelimiter(int from) {
+		for (int i = from; i + delimiter.length <= length; i++) {
+			if (buf[i - 1] == '\n' && isDelimiter(i)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param index
+	 *            an index in {@link #buf}, at least {@link #delimiter}'s
+	 *            length before {@link #length}
+	 * @return true if the delimiter starts at the index
+	 */
+	private boolean isDelimiter(int index) {
+		for (int i = 0; i < delimiter.length; i++) {
+			if (buf[index + i] != delimiter[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Effect: removes the first bytes from {@link #buf}
+	 *
+	 * @param count
+	 *            the number of bytes to remove
+	 * @return the removed bytes
+	 */
+	private ByteBuffer take(int count) {
+		ByteBuffer frame = ByteBuffer.wrap(Arrays.copyOf(buf, count));
+		System.arraycopy(buf, count, buf, 0, length - count);
+		length -= count;
+		return frame;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
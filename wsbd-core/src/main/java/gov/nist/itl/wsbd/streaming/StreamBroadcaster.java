@@ -0,0 +1,380 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.streaming;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Represents: a live stream shared by any number of viewers. The underlying
+ * stream is opened when the first viewer subscribes and closed once the last
+ * viewer leaves, and while it is open, one producer thread reads it and hands
+ * every frame to all the subscribers. Each subscriber has a bounded queue of
+ * frames; if a subscriber falls behind, its oldest frames are dropped so that
+ * a slow viewer never stalls the producer or the other viewers. If the frames
+ * cannot be skipped (see {@link FrameSource#framed()}), a subscriber who falls
+ * behind is ended instead, after the frames already queued. A viewer who
+ * joins while the stream is already open starts at the next frame. This class
+ * is thread safe.
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class StreamBroadcaster {
+
+	/**
+	 * The name of the stream, used to name the producer thread
+	 */
+	private final String name;
+	/**
+	 * Opens the underlying stream. May return null if the stream is not
+	 * available.
+	 */
+	private final Supplier<FrameSource> source;
+	/**
+	 * The maximum number of frames queued for each subscriber
+	 */
+	private final int capacity;
+	/**
+	 * The current subscribers. Guarded by <code>this</code>.
+	 */
+	private final Set<Subscription> subscribers;
+	/**
+	 * The producer thread, or null if the stream is not open. Guarded by
+	 * <code>this</code>.
+	 */
+	private Thread producer;
+	/**
+	 * The number of times the underlying stream has been opened. Guarded by
+	 * <code>this</code>.
+	 */
+	private int opened;
+	/**
+	 * True if the frames of the underlying stream, when it was last opened,
+	 * stand on their own. Guarded by <code>this</code>.
+	 */
+	private boolean framed;
+
+	/**
+	 * Creates: a new broadcaster with no subscribers. Does not open the
+	 * stream.
+	 *
+	 * @param name
+	 *            the stream name
+	 * @param source
+	 *            opens the underlying stream. Is called each time the first
+	 *            viewer subscribes. May return null if the stream is not
+	 *            available.
+	 * @param capacity
+	 *            the maximum number of frames queued for each subscriber. Must
+	 *            be positive (assert).
+	 */
+	public StreamBroadcaster(String name, Supplier<FrameSource> source, int capacity) {
+		assert capacity > 0;
+		this.name = name;
+		this.source = source;
+		this.capacity = capacity;
+		subscribers = new LinkedHashSet<>();
+		producer = null;
+		opened = 0;
+		framed = true;
+	}
+
+	/**
+	 * Effect: adds a subscriber, opening the underlying stream if this is the
+	 * first one.
+	 *
+	 * @return the subscription, or null if the underlying stream could not be
+	 *         opened
+	 */
+	public synchronized Subscription subscribe() {
+		if (producer == null && !start()) {
+			return null;
+		}
+		Subscription subscription = new Subscription();
+		subscribers.add(subscription);
+		return subscription;
+	}
+
+	/**
+	 * Effect: opens the underlying stream and starts the producer thread.
+	 * Must be called while holding <code>this</code> and while there is no
+	 * producer.
+	 *
+	 * @return false if the underlying stream could not be opened
+	 */
+	private boolean start() {
+		assert Thread.holdsLock(this) && producer == null;
+		FrameSource in = source.get();
+		if (in == null) {
+			return false;
+		}
+		opened++;
+		framed = in.framed();
+		producer = new Thread(() -> produce(in), "stream-" + name);
+		producer.setDaemon(true);
+		producer.start();
+		return true;
+	}
+
+	/**
+	 * @return the number of current subscribers
+	 */
+	public synchronized int subscriberCount() {
+		return subscribers.size();
+	}
+
+	/**
+	 * @return the number of times the underlying stream has been opened
+	 */
+	public synchronized int timesOpened() {
+		return opened;
+	}
+
+	/**
+	 * Effect: reads the underlying stream and delivers every frame to all the
+	 * subscribers until the stream ends or there are no subscribers left. Then
+	 * closes the stream. Runs on the producer thread.
+	 *
+	 * @param in
+	 *            the underlying stream
+	 */
+	private void produce(FrameSource in) {
+		boolean abandoned = false;
+		boolean framed = in.framed();
+		try {
+			while (true) {
+				Subscription[] current;
+				synchronized (this) {
+					if (subscribers.isEmpty()) {
+						abandoned = true;
+						break;
+					}
+					current = subscribers.toArray(new Subscription[subscribers.size()]);
+				}
+				ByteBuffer frame = in.nextFrame();
+				if (frame == null) {
+					break;
+				}
+				// Frames are never modified, so all the subscribers can share
+				// one copy
+				for (Subscription subscription : current) {
+					if (!subscription.offer(frame, framed)) {
+						synchronized (this) {
+							subscribers.remove(subscription);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+		} finally {
+			// The stream is closed before the producer is cleared, so that
+			// a new subscriber never opens it while it is still open
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+			stopped(abandoned);
+		}
+	}
+
+	/**
+	 * Effect: clears the producer once the underlying stream is closed. If the
+	 * stream ended, ends all the subscriptions; subscribers still receive the
+	 * frames already queued. If the producer stopped because there were no
+	 * subscribers but some subscribed while the stream was closing, reopens
+	 * the stream for them.
+	 *
+	 * @param abandoned
+	 *            true if the producer stopped because there were no
+	 *            subscribers, false if the stream ended
+	 */
+	private void stopped(boolean abandoned) {
+		Subscription[] current;
+		synchronized (this) {
+			producer = null;
+			if (subscribers.isEmpty() || (abandoned && start())) {
+				return;
+			}
+			current = subscribers.toArray(new Subscription[subscribers.size()]);
+			subscribers.clear();
+		}
+		for (Subscription subscription : current) {
+			subscription.end();
+		}
+	}
+
+	/**
+	 * Represents: one viewer of the stream
+	 *
+	 * @author Jacob Glueck
+	 *
+	 */
+	public class Subscription implements AutoCloseable {
+
+		/**
+		 * The frames not yet taken by the viewer. Guarded by
+		 * <code>this</code>.
+		 */
+		private final Deque<ByteBuffer> frames;
+		/**
+		 * True once no more frames will be added. Guarded by
+		 * <code>this</code>.
+		 */
+		private boolean ended;
+		/**
+		 * The number of frames dropped because the viewer was too slow.
+		 * Guarded by <code>this</code>.
+		 */
+		private long dropped;
+		/**
+		 * True if the frames stand on their own
+		 */
+		private final boolean framed;
+
+		/**
+		 * Creates: a new empty subscription to the open stream. Must be called
+		 * while holding the broadcaster.
+		 */
+		private Subscription() {
+			assert Thread.holdsLock(StreamBroadcaster.this);
+			frames = new ArrayDeque<>(capacity);
+			ended = false;
+			dropped = 0;
+			framed = StreamBroadcaster.this.framed;
+		}
+
+		/**
+		 * Effect: queues a frame. If the queue is full, drops the oldest frame
+		 * if frames may be skipped, or ends this subscription otherwise.
+		 *
+		 * @param frame
+		 *            the frame
+		 * @param skippable
+		 *            true if frames may be skipped
+		 * @return false if this subscription has ended
+		 */
+		private synchronized boolean offer(ByteBuffer frame, boolean skippable) {
+			if (ended) {
+				return false;
+			}
+			if (frames.size() == capacity) {
+				if (!skippable) {
+					ended = true;
+					notifyAll();
+					return false;
+				}
+				frames.removeFirst();
+				dropped++;
+			}
+			frames.addLast(frame);
+			notifyAll();
+			return true;
+		}
+
+		/**
+		 * Effect: marks this subscription as ended and wakes up the viewer
+		 */
+		private synchronized void end() {
+			ended = true;
+			notifyAll();
+		}
+
+		/**
+		 * Effect: blocks until the next frame is available. The contents of
+		 * the returned buffer must not be modified, but its position and limit
+		 * belong to the caller.
+		 *
+		 * @return the next frame, or null if the stream ended or this
+		 *         subscription was closed
+		 * @throws InterruptedException
+		 *             if interrupted while waiting
+		 */
+		public synchronized ByteBuffer next() throws InterruptedException {
+			while (frames.isEmpty() && !ended) {
+				wait();
+			}
+			ByteBuffer frame = frames.pollFirst();
+			return frame == null ? null : frame.duplicate();
+		}
+
+		/**
+		 * @return the number of frames dropped because this viewer was too
+		 *         slow
+		 */
+		public synchronized long dropped() {
+			return dropped;
+		}
+
+		/**
+		 * @return true if each frame stands on its own, false if the frames
+		 *         are just pieces of a byte stream (see
+		 *         {@link FrameSource#framed()})
+		 */
+		public boolean framed() {
+			return framed;
+		}
+
+		/**
+		 * Effect: leaves the stream. If this is the last subscriber, the
+		 * underlying stream is closed after the producer's current read
+		 * returns.
+		 */
+		@Override
+		public void close() {
+			synchronized (StreamBroadcaster.this) {
+				subscribers.remove(this);
+			}
+			synchronized (this) {
+				ended = true;
+				frames.clear();
+				notifyAll();
+			}
+		}
+	}
+}
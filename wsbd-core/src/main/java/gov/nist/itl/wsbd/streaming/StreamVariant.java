@@ -0,0 +1,227 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.streaming;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.QueryParam;
+
+/**
+ * Represents: the form of a live stream a viewer asked for: a maximum frame
+ * rate, a maximum size and a JPEG quality. A value of 0 means the viewer did
+ * not ask for a limit. The values are read from the query parameters of the
+ * stream request.
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class StreamVariant {
+
+	/**
+	 * The variant which does not change the stream
+	 */
+	public static final StreamVariant ORIGINAL = new StreamVariant();
+
+	/**
+	 * The maximum number of frames per second
+	 */
+	@QueryParam("maxFps")
+	@DefaultValue("0")
+	private int maxFps;
+	/**
+	 * The maximum width of an image, in pixels
+	 */
+	@QueryParam("maxWidth")
+	@DefaultValue("0")
+	private int maxWidth;
+	/**
+	 * The maximum height of an image, in pixels
+	 */
+	@QueryParam("maxHeight")
+	@DefaultValue("0")
+	private int maxHeight;
+	/**
+	 * The JPEG quality, from 1 to 100
+	 */
+	@QueryParam("quality")
+	@DefaultValue("0")
+	private int quality;
+
+	/**
+	 * Creates: the variant which does not change the stream. Used when the
+	 * variant is read from a request.
+	 */
+	public StreamVariant() {
+		this(0, 0, 0, 0);
+	}
+
+	/**
+	 * Creates: a new variant. Negative values are treated as 0.
+	 *
+	 * @param maxFps
+	 *            the maximum number of frames per second, or 0 for no limit
+	 * @param maxWidth
+	 *            the maximum width in pixels, or 0 for no limit
+	 * @param maxHeight
+	 *            the maximum height in pixels, or 0 for no limit
+	 * @param quality
+	 *            the JPEG quality from 1 to 100, or 0 to leave the images
+	 *            alone. Values over 100 are treated as 100.
+	 */
+	public StreamVariant(int maxFps, int maxWidth, int maxHeight, int quality) {
+		this.maxFps = Math.max(0, maxFps);
+		this.maxWidth = Math.max(0, maxWidth);
+		this.maxHeight = Math.max(0, maxHeight);
+		this.quality = Math.min(100, Math.max(0, quality));
+	}
+
+	/**
+	 * @return the maximum number of frames per second, or 0 for no limit
+	 */
+	public int maxFps() {
+		return maxFps;
+	}
+
+	/**
+	 * @return the maximum width in pixels, or 0 for no limit
+	 */
+	public int maxWidth() {
+		return maxWidth;
+	}
+
+	/**
+	 * @return the maximum height in pixels, or 0 for no limit
+	 */
+	public int maxHeight() {
+		return maxHeight;
+	}
+
+	/**
+	 * @return the JPEG quality from 1 to 100, or 0 to leave the images alone
+	 */
+	public int quality() {
+		return quality;
+	}
+
+	/**
+	 * @return a copy of this variant with all the values in range. Needed
+	 *         because values read from a request are not checked.
+	 */
+	public StreamVariant normalized() {
+		return new StreamVariant(maxFps, maxWidth, maxHeight, quality);
+	}
+
+	/**
+	 * @return true if and only if this variant changes the images, not just
+	 *         the frame rate
+	 */
+	public boolean changesImages() {
+		return maxWidth != 0 || maxHeight != 0 || quality != 0;
+	}
+
+	/**
+	 * @return true if and only if this variant does not change the stream
+	 */
+	public boolean isOriginal() {
+		return maxFps == 0 && !changesImages();
+	}
+
+	/**
+	 * @return this variant as a query string, starting with <code>?</code>,
+	 *         or the empty string for the original stream
+	 */
+	public String toQuery() {
+		if (isOriginal()) {
+			return "";
+		}
+		return String.format("?maxFps=%d&maxWidth=%d&maxHeight=%d&quality=%d", maxFps, maxWidth, maxHeight, quality);
+	}
+
+	/*
+	 * Eclipse generated
+	 */
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + maxFps;
+		result = prime * result + maxHeight;
+		result = prime * result + maxWidth;
+		result = prime * result + quality;
+		return result;
+	}
+
+	/*
+	 * Eclipse generated
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		StreamVariant other = (StreamVariant) obj;
+		if (maxFps != other.maxFps) {
+			return false;
+		}
+		if (maxHeight != other.maxHeight) {
+			return false;
+		}
+		if (maxWidth != other.maxWidth) {
+			return false;
+		}
+		if (quality != other.quality) {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "StreamVariant [maxFps=" + maxFps + ", maxWidth=" + maxWidth + ", maxHeight=" + maxHeight + ", quality=" + quality + "]";
+	}
+}
@@ -0,0 +1,135 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.streaming;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.function.UnaryOperator;
+
+import gov.nist.itl.wsbd.streaming.StreamBroadcaster.Subscription;
+
+/**
+ * Represents: a {@link StreamVariant} of another stream. It takes the frames
+ * of a subscription to the original stream, drops frames to respect the
+ * variant's frame rate, and transforms the rest. Used as the source of a
+ * {@link StreamBroadcaster} so that each variant is produced once and shared
+ * by all the viewers who asked for it. If the frames of the original stream
+ * are just pieces of a byte stream (see {@link FrameSource#framed()}), they
+ * are passed on unchanged, since dropping or changing a piece would corrupt
+ * the stream.
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class VariantFrameSource implements FrameSource {
+
+	/**
+	 * The subscription to the original stream
+	 */
+	private final Subscription original;
+	/**
+	 * The minimum time between frames, in nanoseconds
+	 */
+	private final long frameInterval;
+	/**
+	 * Transforms each frame which is not dropped
+	 */
+	private final UnaryOperator<ByteBuffer> transform;
+	/**
+	 * The time the last frame was returned, from {@link System#nanoTime()}
+	 */
+	private long lastFrame;
+	/**
+	 * True until the first frame is returned
+	 */
+	private boolean first;
+
+	/**
+	 * Creates: a new variant source
+	 *
+	 * @param original
+	 *            the subscription to the original stream. Closed when this
+	 *            source is closed.
+	 * @param variant
+	 *            the variant. Only the frame rate is used by this class.
+	 * @param transform
+	 *            transforms each frame which is not dropped
+	 */
+	public VariantFrameSource(Subscription original, StreamVariant variant, UnaryOperator<ByteBuffer> transform) {
+		this.original = original;
+		frameInterval = variant.maxFps() == 0 ? 0 : 1000000000L / variant.maxFps();
+		this.transform = transform;
+		first = true;
+	}
+
+	@Override
+	public ByteBuffer nextFrame() throws IOException {
+		try {
+			while (true) {
+				ByteBuffer frame = original.next();
+				if (frame == null || !original.framed()) {
+					return frame;
+				}
+				long now = System.nanoTime();
+				if (first || now - lastFrame >= frameInterval) {
+					first = false;
+					lastFrame = now;
+					return transform.apply(frame);
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	@Override
+	public boolean framed() {
+		return original.framed();
+	}
+
+	@Override
+	public void close() {
+		original.close();
+	}
+}
@@ -0,0 +1,208 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.SensorStatus;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
+
+import gov.nist.itl.wsbd.client.AsyncClient;
+import gov.nist.itl.wsbd.client.StatelessClient.ClientConfiguration;
+import gov.nist.itl.wsbd.client.StatelessClient.Step;
+import gov.nist.itl.wsbd.service.DownloadMode;
+import gov.nist.itl.wsbd.service.SensorEvent;
+import gov.nist.itl.wsbd.service.Utility;
+import gov.nist.itl.wsbd.service.WorkflowOperation;
+
+/**
+ * Represents: tests that test the asynchronous client
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class AsyncClientTests extends WSBDTest {
+
+	@Test
+	public void CaptureCanBeChained() throws InterruptedException, ExecutionException {
+		try (AsyncClient client = new AsyncClient(serviceUrl)) {
+			Result r = client.register().thenCompose(registered -> {
+				UUID s = Utility.session(registered);
+				return client.lock(s).thenCompose(locked -> client.capture(s)).thenCompose(captured -> client.download(Utility.captures(captured).get(0)));
+			}).get();
+			Assert.assertEquals(Status.SUCCESS, r.getStatus());
+			Assert.assertNotNull(r.getSensorData());
+		}
+	}
+
+	@Test
+	public void CallsRunConcurrently() throws InterruptedException, ExecutionException {
+		try (AsyncClient client = new AsyncClient(serviceUrl)) {
+			List<CompletableFuture<Result>> results = IntStream.range(0, 20).mapToObj(i -> client.getServiceInformation()).collect(Collectors.toList());
+			CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get();
+			for (CompletableFuture<Result> r : results) {
+				Assert.assertEquals(Status.SUCCESS, r.get().getStatus());
+			}
+			Assert.assertEquals(SensorStatus.READY, client.getStatus().get());
+
+			// Each of these calls is held by the service until it times out,
+			// so they only finish in about one wait if they overlap
+			int calls = 10;
+			Duration wait = Duration.ofMillis(TestService.TIME_INCREMENT);
+			Instant start = Instant.now();
+			List<CompletableFuture<SensorStatus>> waits = IntStream.range(0, calls).mapToObj(i -> client.waitForStatus(SensorStatus.READY, wait)).collect(Collectors.toList());
+			for (CompletableFuture<SensorStatus> w : waits) {
+				Assert.assertEquals(SensorStatus.READY, w.get());
+			}
+			Duration elapsed = Duration.between(start, Instant.now());
+			Assert.assertTrue(elapsed.toString(), elapsed.compareTo(wait.multipliedBy(2).plusMillis(WSBDTest.FUDGE)) < 0);
+		}
+	}
+
+	@Test
+	public void OneThreadRunsManyCalls() throws InterruptedException, ExecutionException {
+		ClientConfiguration configuration = new ClientConfiguration();
+		configuration.setAsyncThreads(1);
+		try (AsyncClient client = new AsyncClient(serviceUrl, configuration)) {
+			// No thread waits for a call in progress, so even with one I/O
+			// thread the waits overlap
+			int calls = 10;
+			Duration wait = Duration.ofMillis(TestService.TIME_INCREMENT);
+			Instant start = Instant.now();
+			List<CompletableFuture<SensorStatus>> waits = IntStream.range(0, calls).mapToObj(i -> client.waitForStatus(SensorStatus.READY, wait)).collect(Collectors.toList());
+			for (CompletableFuture<SensorStatus> w : waits) {
+				Assert.assertEquals(SensorStatus.READY, w.get());
+			}
+			Duration elapsed = Duration.between(start, Instant.now());
+			Assert.assertTrue(elapsed.toString(), elapsed.compareTo(wait.multipliedBy(2).plusMillis(WSBDTest.FUDGE)) < 0);
+		}
+	}
+
+	@Test
+	public void EveryOperationIsAvailable() throws InterruptedException, ExecutionException {
+		String captureData = "I am a super cool capture";
+		testService.captureDataSupplier = () -> captureData;
+		try (AsyncClient client = new AsyncClient(serviceUrl)) {
+			List<Step> steps = client.workflow(null, WorkflowOperation.register, WorkflowOperation.lock, WorkflowOperation.capture, WorkflowOperation.unlock).get();
+			Assert.assertEquals(4, steps.size());
+			for (Step step : steps) {
+				Assert.assertEquals(step.toString(), Status.SUCCESS, step.result().getStatus());
+			}
+			List<UUID> captureIds = Utility.captures(steps.get(2).result());
+			Map<UUID, Result> downloads = client.batchDownload(captureIds, DownloadMode.full).get();
+			Assert.assertEquals(captureIds, new ArrayList<>(downloads.keySet()));
+			for (Result r : downloads.values()) {
+				Assert.assertEquals(captureData, new String(r.getSensorData().getValue()));
+			}
+
+			List<SensorEvent> events = new ArrayList<>();
+			client.listen(event -> {
+				events.add(event);
+				return false;
+			}).get();
+			Assert.assertEquals(SensorEvent.Type.status, events.get(0).type());
+			Assert.assertEquals(SensorStatus.READY.value(), events.get(0).data());
+
+			ByteArrayOutputStream watched = new ByteArrayOutputStream();
+			client.stream("cows", piece -> {
+				watched.write(piece.array(), piece.arrayOffset() + piece.position(), piece.remaining());
+				return watched.size() < 8;
+			}).get();
+			Assert.assertTrue(new String(watched.toByteArray()).startsWith("cowscows"));
+		}
+	}
+
+	@Test
+	public void ConfigurationIsHonored() throws InterruptedException, ExecutionException {
+		String captureData = "I am a super cool capture";
+		testService.captureDataSupplier = () -> captureData;
+		ClientConfiguration configuration = new ClientConfiguration();
+		configuration.setCompactEncoding(true);
+		configuration.setKeepAlive(false);
+		try (AsyncClient client = new AsyncClient(serviceUrl, configuration)) {
+			Result r = client.register().thenCompose(registered -> {
+				UUID s = Utility.session(registered);
+				return client.lock(s).thenCompose(locked -> client.capture(s)).thenCompose(captured -> client.download(Utility.captures(captured).get(0)));
+			}).get();
+			Assert.assertEquals(Status.SUCCESS, r.getStatus());
+			Assert.assertEquals(captureData, new String(r.getSensorData().getValue()));
+			Assert.assertEquals(SensorStatus.READY, client.getStatus().get());
+		}
+
+		configuration.setReadTimeout(Duration.ofMillis(TestService.TIME_INCREMENT));
+		try (AsyncClient client = new AsyncClient(serviceUrl, configuration)) {
+			// The service holds this longer than the read timeout
+			try {
+				client.waitForStatus(SensorStatus.READY, Duration.ofMillis(TestService.TIME_INCREMENT * 4)).get();
+				Assert.fail();
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+			}
+		}
+	}
+
+	@Test
+	public void HttpErrorsFailTheFuture() throws InterruptedException {
+		try (AsyncClient client = new AsyncClient(serviceUrl + "/nothing")) {
+			client.register().get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+}
@@ -44,6 +44,8 @@ package gov.nist.itl.wsbd.tests;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.xml.bind.JAXBException;
@@ -199,4 +201,87 @@ public class CaptureTests extends WSBDTest {
 		Assert.assertNotNull(r);
 		Assert.assertEquals(Status.SUCCESS, r.getStatus());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void BurstCapturesComeBeforeTheFinalCapture() throws MalformedURLException, IOException, JAXBException {
+		testService.burstCaptures = 10;
+
+		Result r = testClient.register();
+		UUID s = Utility.session(r);
+		Assert.assertEquals(Status.SUCCESS, testClient.lock(s).getStatus());
+		Assert.assertEquals(Status.SUCCESS, testClient.beginCapture(s).getStatus());
+		r = testClient.endCapture(s);
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+
+		// Every accepted capture is returned, in order
+		int accepted = testService.burstCapturesAccepted.get();
+		Assert.assertEquals(10, accepted);
+		List<UUID> ids = Utility.captures(r);
+		Assert.assertEquals(accepted + 1, ids.size());
+		Assert.assertEquals("burst 0", new String(testClient.rawDownload(ids.get(0))));
+		Assert.assertEquals(testService.captureDataSupplier.get(), new String(testClient.rawDownload(ids.get(accepted))));
+	}
+
+	@Test
+	public void EachCaptureHasItsOwnBurst() throws MalformedURLException, IOException, JAXBException {
+		testService.burstCaptures = 3;
+
+		Result r = testClient.register();
+		UUID s = Utility.session(r);
+		Assert.assertEquals(Status.SUCCESS, testClient.lock(s).getStatus());
+		r = testClient.capture(s);
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+		Assert.assertEquals(4, Utility.captures(r).size());
+
+		r = testClient.capture(s);
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+		Assert.assertEquals(4, Utility.captures(r).size());
+	}
+
+	@Test
+	public void AllCapturesOfAnEndCaptureAreStored() throws MalformedURLException, IOException, JAXBException {
+		testService.capturesPerEndCapture = 4;
+
+		Result r = testClient.register();
+		UUID s = Utility.session(r);
+		Assert.assertEquals(Status.SUCCESS, testClient.lock(s).getStatus());
+		r = testClient.capture(s);
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+		List<UUID> ids = Utility.captures(r);
+		Assert.assertEquals(4, ids.size());
+		for (UUID id : ids) {
+			Assert.assertEquals(testService.captureDataSupplier.get(), new String(testClient.rawDownload(id)));
+		}
+	}
+
+	@Test
+	public void EndCaptureStoresAllOrNothing() throws MalformedURLException, IOException, JAXBException, InterruptedException {
+		testService.capturesPerEndCapture = 4;
+		testService.lastCaptureUnreadable = true;
+
+		Result r = testClient.register();
+		UUID s = Utility.session(r);
+		Assert.assertEquals(Status.SUCCESS, testClient.lock(s).getStatus());
+		// The first capture stores the shared configuration, which is kept
+		testService.lastCaptureUnreadable = false;
+		Assert.assertEquals(Status.SUCCESS, testClient.capture(s).getStatus());
+		Set<UUID> stored = testService.storage().ids();
+		long used = testService.storage().used();
+
+		testService.lastCaptureUnreadable = true;
+		r = testClient.capture(s);
+		Assert.assertEquals(Status.FAILURE, r.getStatus());
+		Assert.assertNull(Utility.captures(r));
+		// Stores canceled while they were running delete their captures when
+		// they finish
+		Thread.sleep(WSBDTest.FUDGE);
+		Assert.assertEquals(stored, testService.storage().ids());
+		Assert.assertEquals(used, testService.storage().used());
+
+		// The capture is still running, so ending it again can succeed
+		testService.lastCaptureUnreadable = false;
+		r = testClient.endCapture(s);
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+		Assert.assertEquals(4, Utility.captures(r).size());
+	}
+}
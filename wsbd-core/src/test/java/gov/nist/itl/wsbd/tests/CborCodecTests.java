@@ -0,0 +1,181 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Kevin Mangold (kevin.mangold@nist.gov)
+      Jaocb Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+package gov.nist.itl.wsbd.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Duration;
+import java.util.UUID;
+
+import javax.xml.bind.JAXBException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.SensorStatus;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
+
+import gov.nist.itl.wsbd.client.StatelessClient;
+import gov.nist.itl.wsbd.client.StatelessClient.ClientConfiguration;
+import gov.nist.itl.wsbd.codec.CborCodec;
+import gov.nist.itl.wsbd.service.Utility;
+
+/**
+ * Represents: tests that check the CBOR codec and that clients can ask for
+ * it instead of XML
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class CborCodecTests extends WSBDTest {
+
+	@Test
+	public void ResultsRoundTrip() throws IOException {
+		Result result = XmlCodecTests.fullResult();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CborCodec.writeResult(result, out);
+		Result read = CborCodec.readResult(new ByteArrayInputStream(out.toByteArray()));
+		Assert.assertArrayEquals(Utility.toBytes(Utility.wrap(result)), Utility.toBytes(Utility.wrap(read)));
+	}
+
+	@Test
+	public void NilMessageRoundTrips() throws IOException {
+		Result result = Utility.result(Status.SUCCESS);
+		result.setMessage(Utility.objectFactory.createResultMessage(null));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CborCodec.writeResult(result, out);
+		Result read = CborCodec.readResult(new ByteArrayInputStream(out.toByteArray()));
+		Assert.assertNotNull(read.getMessage());
+		Assert.assertTrue(read.getMessage().isNil());
+		Assert.assertArrayEquals(Utility.toBytes(Utility.wrap(result)), Utility.toBytes(Utility.wrap(read)));
+	}
+
+	@Test
+	public void CorruptLengthsAreRejected() {
+		// A map with one key, whose length is too long to read, or longer
+		// than the rest of the stream
+		byte[][] corrupt = { { (byte) 0xa1, 0x7b, (byte) 0xff, 0, 0, 0, 0, 0, 0, 0 }, { (byte) 0xa1, 0x7a, 0x10, 0, 0, 0, 'a' } };
+		for (byte[] bytes : corrupt) {
+			try {
+				CborCodec.readResult(new ByteArrayInputStream(bytes));
+				Assert.fail();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	@Test
+	public void XmlIsTheDefault() throws IOException, JAXBException {
+		UUID captureId = capture(testClient);
+		Assert.assertTrue(contentType("/download/" + captureId, null).startsWith("text/xml"));
+		Assert.assertTrue(contentType("/download/" + captureId, "*/*").startsWith("text/xml"));
+		Assert.assertTrue(contentType("/download/" + captureId, CborCodec.MEDIA_TYPE).startsWith(CborCodec.MEDIA_TYPE));
+	}
+
+	@Test
+	public void StatusIsSentCompactly() throws IOException {
+		Assert.assertTrue(contentType("/status", null).startsWith("text/xml"));
+		Assert.assertTrue(contentType("/status", CborCodec.MEDIA_TYPE).startsWith(CborCodec.MEDIA_TYPE));
+		// The sensor is not capturing, so the wait ends at once
+		String wait = "/status/wait?current=" + SensorStatus.CAPTURING.value() + "&timeout=1000";
+		Assert.assertTrue(contentType(wait, CborCodec.MEDIA_TYPE).startsWith(CborCodec.MEDIA_TYPE));
+	}
+
+	@Test
+	public void CompactClientGetsTheSameResults() throws IOException, JAXBException {
+		ClientConfiguration configuration = new ClientConfiguration();
+		configuration.setCompactEncoding(true);
+		StatelessClient compactClient = new StatelessClient(serviceUrl, configuration);
+		UUID captureId = capture(compactClient);
+
+		Result compact = compactClient.download(captureId);
+		Result xml = testClient.download(captureId);
+		Assert.assertEquals(Status.SUCCESS, compact.getStatus());
+		Assert.assertArrayEquals(Utility.toBytes(Utility.wrap(xml)), Utility.toBytes(Utility.wrap(compact)));
+		Assert.assertEquals(testClient.getStatus(null), compactClient.getStatus(null));
+		Assert.assertEquals(SensorStatus.READY, compactClient.waitForStatus(SensorStatus.CAPTURING, Duration.ofSeconds(1)));
+	}
+
+	/**
+	 * Effect: registers, locks and captures with a client
+	 *
+	 * @param client
+	 *            the client
+	 * @return the capture ID
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	private static UUID capture(StatelessClient client) throws IOException, JAXBException {
+		UUID sessionId = Utility.session(client.register());
+		Assert.assertEquals(Status.SUCCESS, client.lock(sessionId).getStatus());
+		Result capture = client.capture(sessionId);
+		Assert.assertEquals(Status.SUCCESS, capture.getStatus());
+		return Utility.captures(capture).get(0);
+	}
+
+	/**
+	 * @param path
+	 *            the path and query below the service
+	 * @param accept
+	 *            the <code>Accept</code> header, or null for the default
+	 * @return the content type of the response to a GET of the path
+	 * @throws IOException
+	 *             if there is a problem
+	 */
+	private String contentType(String path, String accept) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(serviceUrl + path).openConnection();
+		if (accept != null) {
+			connection.setRequestProperty("Accept", accept);
+		}
+		try (InputStream in = connection.getInputStream()) {
+			Utility.drain(in, new ByteArrayOutputStream());
+		}
+		return connection.getContentType();
+	}
+}
@@ -43,14 +43,22 @@
 package gov.nist.itl.wsbd.tests;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.net.MalformedURLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
 import javax.xml.bind.JAXBException;
+import javax.xml.datatype.XMLGregorianCalendar;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -58,7 +66,9 @@ import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
 
+import gov.nist.itl.wsbd.configuration.ConfigurationSnapshot;
 import gov.nist.itl.wsbd.configuration.SensorInfoKey;
+import gov.nist.itl.wsbd.configuration.ServerConfiguration;
 import gov.nist.itl.wsbd.configuration.ServerInfoKey;
 import gov.nist.itl.wsbd.configuration.ServerStateKey;
 import gov.nist.itl.wsbd.dictionary.DictionaryWrapper;
@@ -169,6 +179,107 @@ public class ConfigurationTests extends WSBDTest {
 		Assert.assertEquals(Status.SUCCESS, r.getStatus());
 	}
 	
+	@Test
+	public void SetConfigurationUpdatesLastUpdated() throws InvalidDictionaryException, MalformedURLException, IOException, JAXBException {
+
+		Result r = testClient.register();
+		UUID s = Utility.session(r);
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+		r = testClient.lock(s);
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+
+		Instant before = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+		r = testClient.setConfiguration(s, new Dictionary());
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+		r = testClient.getConfiguration(s);
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+		DictionaryWrapper<Object> metadata = new DictionaryWrapper<>(r.getMetadata().getValue(), Object.class);
+		Instant lastUpdated = Utility.toInstant((XMLGregorianCalendar) metadata.get(ServerStateKey.lastUpdated.toString()));
+		Assert.assertFalse(lastUpdated.isBefore(before));
+		Assert.assertFalse(lastUpdated.isAfter(Instant.now()));
+
+		r = testClient.unlock(s);
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+	}
+
+	@Test
+	public void ServerConfigurationFollowsChanges() {
+
+		ServerConfiguration conf = serviceConfiguraiton.serverConfiguration();
+		conf.put(ServerInfoKey.captureTimeout.toString(), BigInteger.valueOf(1234));
+		Assert.assertEquals(Duration.ofMillis(1234), conf.captureTimeout());
+		conf.putAll(Collections.singletonMap(ServerInfoKey.transferrableAsyncCapture.toString(), Boolean.FALSE));
+		Assert.assertFalse(conf.transferrableAsyncCapture());
+		conf.merge(ServerInfoKey.captureTimeout.toString(), BigInteger.ONE, (a, b) -> ((BigInteger) a).add((BigInteger) b));
+		Assert.assertEquals(Duration.ofMillis(1235), conf.captureTimeout());
+		conf.compute(ServerInfoKey.captureTimeout.toString(), (k, v) -> BigInteger.valueOf(4321));
+		Assert.assertEquals(Duration.ofMillis(4321), conf.captureTimeout());
+		Assert.assertTrue(conf.replace(ServerInfoKey.captureTimeout.toString(), BigInteger.valueOf(4321), BigInteger.valueOf(1234)));
+		Assert.assertEquals(Duration.ofMillis(1234), conf.captureTimeout());
+		// The views cannot change the configuration behind its back
+		conf.keySet().remove(ServerInfoKey.captureTimeout.toString());
+		Assert.assertEquals(Duration.ofMillis(1234), conf.captureTimeout());
+		try {
+			Iterator<Map.Entry<String, Object>> entries = conf.entrySet().iterator();
+			entries.next();
+			entries.remove();
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// Expected
+		}
+
+		// Bad values still fail when they are read
+		conf.put(ServerInfoKey.captureTimeout.toString(), "1234");
+		try {
+			conf.captureTimeout();
+			Assert.fail();
+		} catch (ClassCastException e) {
+			// Expected
+		}
+		conf.put(ServerInfoKey.captureTimeout.toString(), BigInteger.ONE.shiftLeft(Long.SIZE));
+		try {
+			conf.captureTimeout();
+			Assert.fail();
+		} catch (ArithmeticException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void UpdatesPublishNewVersions() throws InvalidDictionaryException, MalformedURLException, IOException, JAXBException {
+
+		ConfigurationSnapshot first = serviceConfiguraiton.snapshot();
+		ConfigurationSnapshot second = serviceConfiguraiton.update(Collections.singletonMap(ServerInfoKey.captureTimeout.toString(), BigInteger.valueOf(1234)),
+				Collections.emptyMap());
+		Assert.assertEquals(first.version() + 1, second.version());
+		Assert.assertSame(second, serviceConfiguraiton.snapshot());
+		Assert.assertEquals(BigInteger.valueOf(1234), second.values().get(ServerInfoKey.captureTimeout.toString()));
+		// The old snapshot never changes
+		Assert.assertNotEquals(BigInteger.valueOf(1234), first.values().get(ServerInfoKey.captureTimeout.toString()));
+
+		// Setting the configuration publishes a version too
+		Result r = testClient.register();
+		UUID s = Utility.session(r);
+		Assert.assertEquals(Status.SUCCESS, testClient.lock(s).getStatus());
+		Assert.assertEquals(Status.SUCCESS, testClient.setConfiguration(s, new Dictionary()).getStatus());
+		Assert.assertEquals(second.version() + 1, serviceConfiguraiton.snapshot().version());
+		r = testClient.getConfiguration(s);
+		DictionaryWrapper<Object> metadata = new DictionaryWrapper<>(r.getMetadata().getValue(), Object.class);
+		Assert.assertEquals(BigInteger.valueOf(1234), metadata.get(ServerInfoKey.captureTimeout.toString()));
+		Assert.assertEquals(Status.SUCCESS, testClient.unlock(s).getStatus());
+	}
+
+	@Test
+	public void DatesRoundTrip() {
+
+		Instant instant = Instant.parse("2014-03-09T23:59:59.123Z");
+		XMLGregorianCalendar date = Utility.fromInstant(instant);
+		Assert.assertEquals(instant, Utility.toInstant(date));
+		Assert.assertEquals(instant, date.toGregorianCalendar().toInstant());
+		Assert.assertEquals(instant, Utility.toInstant(Utility.datatypeFactory().newXMLGregorianCalendar("2014-03-10T01:59:59.123+02:00")));
+		Assert.assertEquals(Instant.parse("2014-03-10T00:00:00Z"), Utility.toInstant(Utility.datatypeFactory().newXMLGregorianCalendar("2014-03-09T24:00:00Z")));
+	}
+
 	@Test
 	public void SetConfigurationOfAnInvalidIdFails() throws MalformedURLException, IOException, JAXBException {
 		Result r = testClient.setConfiguration(UUID.randomUUID(), new Dictionary());
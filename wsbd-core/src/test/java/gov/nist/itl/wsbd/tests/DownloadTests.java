@@ -42,9 +42,21 @@
 
 package gov.nist.itl.wsbd.tests;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.xml.bind.JAXBException;
@@ -55,10 +67,17 @@ import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
 
 import gov.nist.itl.wsbd.configuration.SensorInfoKey;
+import gov.nist.itl.wsbd.configuration.ServerInfoKey;
+import gov.nist.itl.wsbd.configuration.ServerStateKey;
 import gov.nist.itl.wsbd.dictionary.DictionaryWrapper;
 import gov.nist.itl.wsbd.dictionary.InvalidDictionaryException;
+import gov.nist.itl.wsbd.persistence.FileStorageProvider;
+import gov.nist.itl.wsbd.persistence.StorageProvider;
+import gov.nist.itl.wsbd.persistence.StorageProvider.StorageProviderConfiguration;
 import gov.nist.itl.wsbd.service.CaptureMetadata;
+import gov.nist.itl.wsbd.service.DownloadMode;
 import gov.nist.itl.wsbd.service.Utility;
+import gov.nist.itl.wsbd.streaming.IllegalResourceException;
 
 /**
  * Represents: tests that test downloading
@@ -300,4 +319,188 @@ public class DownloadTests extends WSBDTest {
 		Assert.assertNotNull(r);
 		Assert.assertEquals(Status.SUCCESS, r.getStatus());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void StreamingDownloadWorks() throws MalformedURLException, IOException, JAXBException {
+
+		String captureData = "I am a super cool capture";
+		testService.captureDataSupplier = () -> captureData;
+
+		Result r = testClient.register();
+		UUID s = Utility.session(r);
+		Assert.assertEquals(Status.SUCCESS, testClient.lock(s).getStatus());
+		r = testClient.capture(s);
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+		UUID captureId = Utility.captures(r).get(0);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		r = testClient.download(captureId, out);
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+		Assert.assertNull(r.getSensorData());
+		Assert.assertNotNull(r.getMetadata());
+		Assert.assertEquals(captureData, new String(out.toByteArray()));
+
+		out = new ByteArrayOutputStream();
+		Assert.assertEquals(Status.SUCCESS, testClient.download(captureId, Channels.newChannel(out)).getStatus());
+		Assert.assertEquals(captureData, new String(out.toByteArray()));
+
+		Path dir = Files.createTempDirectory("WSBD-test");
+		Path file = dir.resolve("capture.bin");
+		try {
+			Assert.assertEquals(Status.SUCCESS, testClient.download(captureId, file).getStatus());
+			Assert.assertEquals(captureData, new String(Files.readAllBytes(file)));
+			// A failed download leaves the file alone
+			Assert.assertNotEquals(Status.SUCCESS, testClient.download(UUID.randomUUID(), file).getStatus());
+			Assert.assertEquals(captureData, new String(Files.readAllBytes(file)));
+			// No temporary files are left behind
+			Assert.assertEquals(1, Files.list(dir).count());
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(dir);
+		}
+	}
+
+	@Test
+	public void StreamingDownloadOfMissingCaptureWritesNothing() throws MalformedURLException, IOException, JAXBException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Result r = testClient.download(UUID.randomUUID(), out);
+		Assert.assertEquals(Status.INVALID_ID, r.getStatus());
+		Assert.assertEquals(0, out.size());
+	}
+
+	@Test
+	public void BatchDownloadWorks() throws MalformedURLException, IOException, JAXBException {
+
+		String captureData = "I am a super cool capture";
+		testService.captureDataSupplier = () -> captureData;
+
+		Result r = testClient.register();
+		UUID s = Utility.session(r);
+		Assert.assertEquals(Status.SUCCESS, testClient.lock(s).getStatus());
+		List<UUID> captureIds = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			r = testClient.capture(s);
+			Assert.assertEquals(Status.SUCCESS, r.getStatus());
+			captureIds.addAll(Utility.captures(r));
+		}
+		UUID missing = UUID.randomUUID();
+		captureIds.add(1, missing);
+
+		Map<UUID, Result> full = testClient.batchDownload(captureIds, DownloadMode.full);
+		Assert.assertEquals(captureIds, new ArrayList<>(full.keySet()));
+		Assert.assertEquals(Status.INVALID_ID, full.get(missing).getStatus());
+		Map<UUID, Result> info = testClient.batchDownload(captureIds, DownloadMode.info);
+		Assert.assertEquals(Status.INVALID_ID, info.get(missing).getStatus());
+		for (UUID captureId : captureIds) {
+			if (!captureId.equals(missing)) {
+				Assert.assertEquals(Status.SUCCESS, full.get(captureId).getStatus());
+				Assert.assertEquals(captureData, new String(full.get(captureId).getSensorData().getValue()));
+				Assert.assertEquals(Status.SUCCESS, info.get(captureId).getStatus());
+				Assert.assertNull(info.get(captureId).getSensorData());
+				Assert.assertEquals(info.get(captureId).getMetadata().getValue().getItem().size(), full.get(captureId).getMetadata().getValue().getItem().size());
+			}
+		}
+
+		List<String> raw = new ArrayList<>();
+		testClient.batchDownload(captureIds, DownloadMode.raw, (captureId, status, contentType, data) -> {
+			Assert.assertEquals(captureId.equals(missing) ? Status.INVALID_ID : Status.SUCCESS, status);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			Utility.drain(data, bytes);
+			raw.add(status.equals(Status.SUCCESS) ? new String(bytes.toByteArray()) : null);
+		});
+		Assert.assertEquals(4, raw.size());
+		Assert.assertNull(raw.get(1));
+		Assert.assertEquals(captureData, raw.get(3));
+	}
+
+	@Test
+	public void CapturesShareTheirConfiguration() throws IOException, IllegalResourceException, InvalidDictionaryException, InterruptedException {
+		Path dir = Files.createTempDirectory("WSBD-test");
+		try {
+			TestService first = new TestService(serviceConfiguraiton) {
+				@Override
+				protected Path storageDirectory() {
+					return dir;
+				}
+			};
+			first.initializeService();
+			UUID sessionId = Utility.session(first.IRegister().getValue());
+			first.ILock(sessionId);
+			List<UUID> captureIds = new ArrayList<>();
+			for (int i = 0; i < 3; i++) {
+				captureIds.addAll(Utility.captures(first.ICapture(sessionId).getValue()));
+			}
+
+			// Updating the configuration without changing its values does not
+			// store it again, but the capture still has the new update time
+			Thread.sleep(10);
+			Object lastUpdated = serviceConfiguraiton.update(Collections.emptyMap(), Collections.emptyMap()).values().get(ServerStateKey.lastUpdated.toString());
+			UUID later = Utility.captures(first.ICapture(sessionId).getValue()).get(0);
+			DictionaryWrapper<Object> laterMetadata = new DictionaryWrapper<>(first.IDownload(later).getValue().getMetadata().getValue(), Object.class);
+			Assert.assertEquals(lastUpdated, laterMetadata.get(ServerStateKey.lastUpdated.toString()));
+			captureIds.add(later);
+
+			// Changing a download does not change the next one
+			first.IDownload(later).getValue().getMetadata().getValue().getItem().get(0).setValue("changed");
+			Assert.assertNotEquals("changed", first.IDownload(later).getValue().getMetadata().getValue().getItem().get(0).getValue());
+			Assert.assertTrue(first.drain(Duration.ofSeconds(5)));
+
+			// The configuration is only stored once
+			Assert.assertEquals(captureIds.size() + 1, Files.list(dir).count());
+			for (UUID captureId : captureIds) {
+				String stored = new String(Files.readAllBytes(dir.resolve(captureId.toString())), StandardCharsets.UTF_8);
+				Assert.assertFalse(stored.contains(ServerInfoKey.captureTimeout.toString()));
+			}
+
+			// But every download has all of it, even after a restart
+			TestService second = new TestService(serviceConfiguraiton) {
+				@Override
+				protected Path storageDirectory() {
+					return dir;
+				}
+			};
+			second.initializeService();
+			for (TestService service : Arrays.asList(first, second)) {
+				for (UUID captureId : captureIds) {
+					Result r = service.IDownload(captureId).getValue();
+					Assert.assertEquals(Status.SUCCESS, r.getStatus());
+					DictionaryWrapper<Object> metadata = new DictionaryWrapper<>(r.getMetadata().getValue(), Object.class);
+					Assert.assertTrue(metadata.containsKey(ServerInfoKey.captureTimeout.toString()));
+					Assert.assertTrue(metadata.containsKey(ServerStateKey.lastUpdated.toString()));
+					Assert.assertTrue(metadata.containsKey(ServerStateKey.sensorStatus.toString()));
+					Assert.assertTrue(metadata.containsKey(CaptureMetadata.captureDate.toString()));
+					Assert.assertEquals(serviceConfiguraiton.configuration().getItem().size() + 2, metadata.size());
+				}
+			}
+		} finally {
+			Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void RestoredDataFitsTheCapacity() throws IOException {
+		Path dir = Files.createTempDirectory("WSBD-test");
+		try {
+			// Three old captures and one piece of data under a chosen ID, each
+			// 10 bytes, but only room for 25
+			UUID chosen = UUID.nameUUIDFromBytes(new byte[] { 1 });
+			Files.write(dir.resolve(chosen.toString()), new byte[10]);
+			Files.setLastModifiedTime(dir.resolve(chosen.toString()), FileTime.fromMillis(0));
+			List<UUID> captureIds = new ArrayList<>();
+			for (int i = 1; i <= 3; i++) {
+				UUID captureId = UUID.randomUUID();
+				Files.write(dir.resolve(captureId.toString()), new byte[10]);
+				Files.setLastModifiedTime(dir.resolve(captureId.toString()), FileTime.fromMillis(i * 1000));
+				captureIds.add(captureId);
+			}
+
+			StorageProvider storage = new FileStorageProvider(new StorageProviderConfiguration(25, true), dir);
+			Assert.assertEquals(new HashSet<>(Arrays.asList(chosen, captureIds.get(2))), storage.ids());
+			Assert.assertEquals(20, storage.used());
+			// What did not fit is gone
+			Assert.assertEquals(2, Files.list(dir).count());
+		} finally {
+			Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.tests;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.SensorStatus;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
+
+import gov.nist.itl.wsbd.service.SensorEvent;
+import gov.nist.itl.wsbd.service.Utility;
+
+/**
+ * Represents: tests that test the sensor event stream
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class EventTests extends WSBDTest {
+
+	/**
+	 * Effect: starts listening to the event stream on a new thread
+	 *
+	 * @param events
+	 *            the queue the events are added to
+	 * @return the listening thread
+	 */
+	private Thread listen(BlockingQueue<SensorEvent> events) {
+		Thread listener = new Thread(() -> {
+			try {
+				testClient.listen(event -> {
+					events.add(event);
+					return !Thread.currentThread().isInterrupted();
+				});
+			} catch (IOException | JAXBException e) {
+			}
+		});
+		listener.setDaemon(true);
+		listener.start();
+		return listener;
+	}
+
+	/**
+	 * @param events
+	 *            the queue
+	 * @return the next event, or fails if none arrives soon
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	private static SensorEvent next(BlockingQueue<SensorEvent> events) throws InterruptedException {
+		SensorEvent event = events.poll(TestService.TIME_INCREMENT * 10, TimeUnit.MILLISECONDS);
+		Assert.assertNotNull(event);
+		return event;
+	}
+
+	@Test
+	public void FirstEventIsCurrentStatus() throws InterruptedException {
+		BlockingQueue<SensorEvent> events = new LinkedBlockingQueue<>();
+		listen(events);
+		SensorEvent event = next(events);
+		Assert.assertEquals(SensorEvent.Type.status, event.type());
+		Assert.assertEquals(SensorStatus.READY.value(), event.data());
+	}
+
+	@Test
+	public void AllListenersSeeInitialization() throws MalformedURLException, IOException, JAXBException, InterruptedException {
+		List<BlockingQueue<SensorEvent>> listeners = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			BlockingQueue<SensorEvent> events = new LinkedBlockingQueue<>();
+			listen(events);
+			// Wait for the subscription to be established
+			Assert.assertEquals(SensorStatus.READY.value(), next(events).data());
+			listeners.add(events);
+		}
+
+		Result r = testClient.register();
+		UUID s = Utility.session(r);
+		Assert.assertEquals(Status.SUCCESS, testClient.lock(s).getStatus());
+		Assert.assertEquals(Status.SUCCESS, testClient.initialize(s).getStatus());
+
+		for (BlockingQueue<SensorEvent> events : listeners) {
+			SensorEvent initializing = next(events);
+			Assert.assertEquals(SensorEvent.Type.status, initializing.type());
+			Assert.assertEquals(SensorStatus.INITIALIZING.value(), initializing.data());
+			SensorEvent ready = next(events);
+			Assert.assertEquals(SensorStatus.READY.value(), ready.data());
+			Assert.assertTrue(ready.id() > initializing.id());
+		}
+	}
+
+	@Test
+	public void CaptureEventHasCaptureIds() throws MalformedURLException, IOException, JAXBException, InterruptedException {
+		BlockingQueue<SensorEvent> events = new LinkedBlockingQueue<>();
+		listen(events);
+		next(events);
+
+		Result r = testClient.register();
+		UUID s = Utility.session(r);
+		Assert.assertEquals(Status.SUCCESS, testClient.lock(s).getStatus());
+		Assert.assertEquals(Status.SUCCESS, testClient.beginCapture(s).getStatus());
+		Result end = testClient.endCapture(s);
+		Assert.assertEquals(Status.SUCCESS, end.getStatus());
+
+		SensorEvent capture;
+		do {
+			capture = next(events);
+		} while (capture.type() != SensorEvent.Type.capture);
+		List<UUID> ids = new ArrayList<>();
+		for (String id : capture.data().split(" ")) {
+			ids.add(UUID.fromString(id));
+		}
+		Assert.assertEquals(Utility.captures(end), ids);
+	}
+
+	@Test
+	public void BurstCapturesArePublishedAsTheyAreStored() throws MalformedURLException, IOException, JAXBException, InterruptedException {
+		testService.burstCaptures = 5;
+		BlockingQueue<SensorEvent> events = new LinkedBlockingQueue<>();
+		listen(events);
+		next(events);
+
+		Result r = testClient.register();
+		UUID s = Utility.session(r);
+		Assert.assertEquals(Status.SUCCESS, testClient.lock(s).getStatus());
+		Assert.assertEquals(Status.SUCCESS, testClient.beginCapture(s).getStatus());
+
+		// The burst is published before the capture ends
+		Set<UUID> published = new HashSet<>();
+		while (published.size() < 5) {
+			SensorEvent event = next(events);
+			if (event.type() == SensorEvent.Type.capture) {
+				published.add(UUID.fromString(event.data()));
+			}
+		}
+
+		Result end = testClient.endCapture(s);
+		Assert.assertEquals(Status.SUCCESS, end.getStatus());
+		List<UUID> ids = Utility.captures(end);
+		Assert.assertEquals(6, ids.size());
+		Assert.assertEquals(published, new HashSet<>(ids.subList(0, 5)));
+	}
+}
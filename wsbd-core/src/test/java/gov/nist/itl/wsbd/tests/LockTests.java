@@ -42,6 +42,7 @@
 
 package gov.nist.itl.wsbd.tests;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.UUID;
@@ -279,4 +280,34 @@ public class LockTests extends WSBDTest {
 		Assert.assertNotNull(r2);
 		Assert.assertEquals(Status.SENSOR_BUSY, r2.getStatus());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void LockChecksReturnSharedResults() throws MalformedURLException, IOException, JAXBException {
+		UUID s = UUID.randomUUID();
+		Result first = testService.ILock(s).getValue();
+		Result second = testService.ILock(s).getValue();
+		Assert.assertEquals(Status.INVALID_ID, first.getStatus());
+		Assert.assertTrue(Utility.isShared(first));
+		Assert.assertSame(first, second);
+		Assert.assertSame(testService.ILock(s), testService.ILock(s));
+
+		// The serialized form is what the server sends
+		byte[] bytes = Utility.sharedResultBytes(Utility.wrap(first));
+		Assert.assertNotNull(bytes);
+		Assert.assertEquals(Status.INVALID_ID, Utility.unmarshalResult(new ByteArrayInputStream(bytes)).getStatus());
+		Assert.assertNull(Utility.sharedResultBytes(Utility.wrap(Utility.result(Status.INVALID_ID))));
+		Assert.assertEquals(Status.INVALID_ID, testClient.lock(s).getStatus());
+
+		// Shared results cannot be changed, but copies can
+		try {
+			Utility.setResultSessionID(first, s);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+		}
+		Result copy = Utility.copy(first);
+		Assert.assertFalse(Utility.isShared(copy));
+		Utility.setResultSessionID(copy, s);
+		Assert.assertEquals(s, Utility.session(copy));
+		Assert.assertNull(first.getSessionId());
+	}
+}
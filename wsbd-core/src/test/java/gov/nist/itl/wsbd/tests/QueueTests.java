@@ -0,0 +1,249 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Kevin Mangold (kevin.mangold@nist.gov)
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+package gov.nist.itl.wsbd.tests;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.MalformedURLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.xml.bind.JAXBException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
+
+import gov.nist.itl.wsbd.configuration.ServerInfoKey;
+import gov.nist.itl.wsbd.service.Utility;
+
+/**
+ * Represents: tests that test the sensor job queue
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class QueueTests extends WSBDTest {
+
+	/**
+	 * The time to leave between sending requests so that they arrive in order
+	 */
+	private static final int GAP = 50;
+
+	/**
+	 * Runs the requests which wait in the queue
+	 */
+	private ExecutorService clients;
+	/**
+	 * The session which holds the lock
+	 */
+	private UUID session;
+
+	/**
+	 * Effect: registers and locks {@link #session}
+	 *
+	 * @throws MalformedURLException
+	 *             if there is a problem
+	 * @throws IOException
+	 *             if there is a problem
+	 * @throws JAXBException
+	 *             if there is a problem
+	 */
+	@Before
+	public void lock() throws MalformedURLException, IOException, JAXBException {
+		clients = Executors.newCachedThreadPool();
+		Result r = testClient.register();
+		session = Utility.session(r);
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+		r = testClient.lock(session);
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+	}
+
+	/**
+	 * Effect: stops {@link #clients}
+	 */
+	@After
+	public void stopClients() {
+		clients.shutdownNow();
+	}
+
+	/**
+	 * Effect: sends a request on another thread, then waits a little so the
+	 * next request arrives after it. The requests go straight to the service,
+	 * since each queued request would otherwise hold one of the server's
+	 * worker threads.
+	 *
+	 * @param request
+	 *            the request
+	 * @return the result of the request
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	private Future<Result> send(Callable<Result> request) throws InterruptedException {
+		Future<Result> result = clients.submit(request);
+		Thread.sleep(QueueTests.GAP);
+		return result;
+	}
+
+	@Test
+	public void QueuedJobRunsOnceTheSensorIsFree() throws MalformedURLException, IOException, JAXBException, InterruptedException, ExecutionException {
+		Future<Result> first = send(() -> testService.IInitialize(session).getValue());
+
+		Result r = testService.IInitialize(session).getValue();
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+		Assert.assertTrue(first.isDone());
+		Assert.assertEquals(Status.SUCCESS, first.get().getStatus());
+	}
+
+	@Test
+	public void FullQueueIsSensorBusy() throws MalformedURLException, IOException, JAXBException, InterruptedException, ExecutionException {
+		testService.initializationTime = TestService.TIME_INCREMENT / 3;
+
+		Future<Result> running = send(() -> testService.ISetConfiguration(session, new Dictionary()).getValue());
+		Future<Result> second = send(() -> testService.IInitialize(session).getValue());
+		Future<Result> third = send(() -> testService.IInitialize(session).getValue());
+
+		Result r = testService.IInitialize(session).getValue();
+		Assert.assertEquals(Status.SENSOR_BUSY, r.getStatus());
+		Assert.assertTrue(r.getMessage().getValue().contains("2 jobs waiting"));
+
+		Assert.assertEquals(Status.SUCCESS, running.get().getStatus());
+		Assert.assertEquals(Status.SUCCESS, second.get().getStatus());
+		Assert.assertEquals(Status.SUCCESS, third.get().getStatus());
+	}
+
+	@Test
+	public void CapturesRunBeforeConfiguration() throws MalformedURLException, IOException, JAXBException, InterruptedException, ExecutionException {
+		testService.beginCaptureTime = TestService.TIME_INCREMENT / 3;
+		testService.endCaptureTime = TestService.TIME_INCREMENT / 3;
+		testService.setConfigurationTime = TestService.TIME_INCREMENT / 3;
+		List<String> finished = new CopyOnWriteArrayList<>();
+		testService.setConfigurationHandler = (configuration) -> finished.add("configuration");
+		Future<Result> running = send(() -> testService.IInitialize(session).getValue());
+		Future<Result> configuration = send(() -> testService.ISetConfiguration(session, new Dictionary()).getValue());
+		Result r = testService.ICapture(session).getValue();
+		finished.add("capture");
+
+		Assert.assertEquals(Status.SUCCESS, running.get().getStatus());
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+		Assert.assertEquals(Status.SUCCESS, configuration.get().getStatus());
+		// The capture arrived last, but ran first
+		Assert.assertEquals(Arrays.asList("capture", "configuration"), finished);
+	}
+
+	@Test
+	public void QueuedJobGivesUpAfterItsTimeout() throws MalformedURLException, IOException, JAXBException, InterruptedException, ExecutionException {
+		// ******* never do this except in a test
+		serviceConfiguraiton.serverConfiguration().put(ServerInfoKey.getConfigurationTimeout.toString(), BigInteger.valueOf(TestService.TIME_INCREMENT / 3));
+
+		Future<Result> running = send(() -> testService.IInitialize(session).getValue());
+
+		Result r = testService.IGetConfiguration(session).getValue();
+		Assert.assertEquals(Status.SENSOR_BUSY, r.getStatus());
+		Assert.assertTrue(r.getMessage().getValue().contains("position 1 of 1"));
+		Assert.assertFalse(running.isDone());
+		Assert.assertEquals(Status.SUCCESS, running.get().getStatus());
+	}
+
+	@Test
+	public void CancelCancelsQueuedJobs() throws MalformedURLException, IOException, JAXBException, InterruptedException, ExecutionException {
+		Future<Result> running = send(() -> testService.IInitialize(session).getValue());
+		Future<Result> queued = send(() -> testService.IInitialize(session).getValue());
+
+		Result r = testService.ICancel(session).getValue();
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+		Assert.assertEquals(Status.CANCELED, running.get().getStatus());
+		Assert.assertEquals(Status.CANCELED, queued.get().getStatus());
+	}
+
+	@Test
+	public void RunningJobIsCanceledAtItsDeadline() throws MalformedURLException, IOException, JAXBException, InterruptedException, ExecutionException {
+		// ******* never do this except in a test
+		serviceConfiguraiton.serverConfiguration().put(ServerInfoKey.initializationTimeout.toString(), BigInteger.valueOf(TestService.TIME_INCREMENT));
+		testService.initializationTime = 3 * TestService.TIME_INCREMENT;
+
+		long start = System.nanoTime();
+		Result r = testService.IInitialize(session).getValue();
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		Assert.assertEquals(Status.CANCELED, r.getStatus());
+		Assert.assertTrue(elapsed < TestService.TIME_INCREMENT + WSBDTest.FUDGE);
+
+		// The sensor thread is free for the next job
+		testService.initializationTime = TestService.TIME_INCREMENT / 3;
+		r = testService.IInitialize(session).getValue();
+		Assert.assertEquals(Status.SUCCESS, r.getStatus());
+	}
+
+	@Test
+	public void CancelAsAJobFinishesDoesNotCancelTheNextJob() throws MalformedURLException, IOException, JAXBException, InterruptedException, ExecutionException, TimeoutException {
+		testService.setConfigurationTime = TestService.TIME_INCREMENT / 10;
+
+		for (int i = 0; i < 20; i++) {
+			Future<Result> running = clients.submit(() -> testService.ISetConfiguration(session, new Dictionary()).getValue());
+			// The cancels land from just before the job ends to just after
+			Thread.sleep(testService.setConfigurationTime - 5 + i / 2);
+			Result r = testService.ICancel(session).getValue();
+			Assert.assertEquals(Status.SUCCESS, r.getStatus());
+
+			// Once the cancel returns, the job is over, whichever way it went
+			Status status = running.get(WSBDTest.FUDGE, TimeUnit.MILLISECONDS).getStatus();
+			Assert.assertTrue(status == Status.SUCCESS || status == Status.CANCELED);
+
+			r = testService.ISetConfiguration(session, new Dictionary()).getValue();
+			Assert.assertEquals(Status.SUCCESS, r.getStatus());
+		}
+	}
+}
@@ -52,6 +52,8 @@ import org.junit.Test;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
 
+import gov.nist.itl.wsbd.client.StatelessClient;
+import gov.nist.itl.wsbd.client.StatelessClient.ClientConfiguration;
 import gov.nist.itl.wsbd.service.Utility;
 
 /**
@@ -163,4 +165,28 @@ public class RegistrationTests extends WSBDTest {
 		Assert.assertEquals(Status.INVALID_ID, result.getStatus());
 		
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void RepeatedRegistrationWithAndWithoutKeepAlive() throws MalformedURLException, IOException, JAXBException {
+		ClientConfiguration configuration = new ClientConfiguration();
+		configuration.setKeepAlive(false);
+		int calls = 20;
+		long[] connections = new long[2];
+		StatelessClient[] clients = new StatelessClient[] { testClient, new StatelessClient(serviceUrl, configuration) };
+		for (int c = 0; c < clients.length; c++) {
+			long before = server.connectionsAccepted();
+			for (int i = 0; i < calls; i++) {
+				UUID session = Utility.session(clients[c].register());
+				Assert.assertNotNull(session);
+				Assert.assertEquals(Status.SUCCESS, clients[c].unregister(session).getStatus());
+			}
+			connections[c] = server.connectionsAccepted() - before;
+		}
+		// One after another, the calls can all share one kept alive
+		// connection, while without keep alive, each call has its own. (The
+		// first one may still reuse the idle connection the first client left
+		// behind.)
+		Assert.assertTrue(Long.toString(connections[0]), connections[0] <= 2);
+		Assert.assertTrue(Long.toString(connections[1]), connections[1] >= 2 * calls - 1);
+	}
+}
@@ -0,0 +1,216 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Kevin Mangold (kevin.mangold@nist.gov)
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+package gov.nist.itl.wsbd.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.JAXBException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.SensorStatus;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
+
+import gov.nist.itl.wsbd.configuration.ServerInfoKey;
+import gov.nist.itl.wsbd.server.WSBDServer.WSBDServerConfiguration;
+import gov.nist.itl.wsbd.service.OutputProfile;
+import gov.nist.itl.wsbd.service.Utility;
+import gov.nist.itl.wsbd.streaming.IllegalResourceException;
+
+/**
+ * Represents: tests that test the tuning of the HTTP server
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class ServerTests extends WSBDTest {
+
+	@Test
+	public void WorkerThreadsFollowTheMaximumConcurrentSessions() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		WSBDServerConfiguration configuration = new WSBDServerConfiguration(serviceConfiguraiton.serverConfiguration());
+		int sessions = serviceConfiguraiton.serverConfiguration().maximumConcurrentSessions().intValueExact();
+		Assert.assertEquals(Math.max(2 * processors, sessions * WSBDServerConfiguration.workerThreadsPerSession), configuration.workerThreads());
+		Assert.assertEquals(Math.min(processors, sessions), configuration.selectorThreads());
+
+		// ******* never do this except in a test
+		serviceConfiguraiton.serverConfiguration().put(ServerInfoKey.maximumConcurrentSessions.toString(), BigInteger.valueOf(Long.MAX_VALUE));
+		configuration = new WSBDServerConfiguration(serviceConfiguraiton.serverConfiguration());
+		Assert.assertEquals(Math.max(2 * processors, WSBDServerConfiguration.maxDerivedWorkerThreads), configuration.workerThreads());
+		Assert.assertEquals(processors, configuration.selectorThreads());
+	}
+
+	@Test
+	public void LongRequestsDoNotWaitForEachOther() throws MalformedURLException, IOException, JAXBException, InterruptedException, ExecutionException {
+		int requests = new WSBDServerConfiguration(serviceConfiguraiton.serverConfiguration()).workerThreads() / 2;
+		Duration wait = Duration.ofMillis(TestService.TIME_INCREMENT);
+		SensorStatus current = testClient.getStatus(null);
+
+		ExecutorService clients = Executors.newFixedThreadPool(requests);
+		try {
+			Instant start = Instant.now();
+			List<Future<SensorStatus>> results = new ArrayList<>();
+			for (int i = 0; i < requests; i++) {
+				results.add(clients.submit(() -> testClient.waitForStatus(current, wait)));
+			}
+			for (Future<SensorStatus> result : results) {
+				Assert.assertEquals(current, result.get());
+			}
+			// If the requests had waited in line, this would take
+			// requests * wait
+			Duration elapsed = Duration.between(start, Instant.now());
+			Assert.assertTrue(elapsed.toString(), elapsed.compareTo(wait.multipliedBy(2).plusMillis(WSBDTest.FUDGE)) < 0);
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	@Test
+	public void GracefulStopLetsACaptureFinish() throws MalformedURLException, IOException, JAXBException, InterruptedException, ExecutionException {
+		UUID sessionId = Utility.session(testClient.register());
+		testClient.lock(sessionId);
+		ExecutorService client = Executors.newSingleThreadExecutor();
+		try {
+			Future<Result> capture = client.submit(() -> testClient.capture(sessionId));
+			Thread.sleep(TestService.TIME_OFFSET_1_3);
+			Assert.assertTrue(server.stop(Duration.ofSeconds(5)));
+			Assert.assertEquals(Status.SUCCESS, capture.get().getStatus());
+			// No new sensor jobs
+			Assert.assertEquals(Status.SENSOR_BUSY, testService.IInitialize(sessionId).getValue().getStatus());
+		} finally {
+			client.shutdownNow();
+		}
+	}
+
+	@Test
+	public void GracefulStopEndsLongPolls() throws MalformedURLException, IOException, JAXBException, InterruptedException, ExecutionException {
+		SensorStatus current = testClient.getStatus(null);
+		ExecutorService client = Executors.newSingleThreadExecutor();
+		try {
+			Future<SensorStatus> status = client.submit(() -> testClient.waitForStatus(current, Duration.ofSeconds(30)));
+			Thread.sleep(WSBDTest.FUDGE);
+			Instant start = Instant.now();
+			Assert.assertTrue(server.stop(Duration.ofSeconds(10)));
+			Assert.assertEquals(current, status.get());
+			// The long poll did not hold up stopping
+			Duration elapsed = Duration.between(start, Instant.now());
+			Assert.assertTrue(elapsed.toString(), elapsed.toMillis() < WSBDTest.FUDGE * 5);
+		} finally {
+			client.shutdownNow();
+		}
+	}
+
+	@Test
+	public void TimeToFirstRequestIsRecorded() throws MalformedURLException, IOException, JAXBException {
+		Assert.assertNull(server.timeToFirstRequest());
+		testClient.register();
+		Duration first = server.timeToFirstRequest();
+		Assert.assertNotNull(first);
+		testClient.register();
+		Assert.assertEquals(first, server.timeToFirstRequest());
+	}
+
+	@Test
+	public void RestartedServiceServesStoredCaptures() throws IOException, IllegalResourceException {
+		Path dir = Files.createTempDirectory("WSBD-test");
+		try {
+			TestService first = new TestService(serviceConfiguraiton) {
+				@Override
+				protected Path storageDirectory() {
+					return dir;
+				}
+			};
+			first.initializeService();
+			UUID sessionId = Utility.session(first.IRegister().getValue());
+			first.ILock(sessionId);
+			Result capture = first.ICapture(sessionId).getValue();
+			Assert.assertEquals(Status.SUCCESS, capture.getStatus());
+			UUID captureId = Utility.captures(capture).get(0);
+			Assert.assertTrue(first.drain(Duration.ofSeconds(5)));
+
+			TestService second = new TestService(serviceConfiguraiton) {
+				@Override
+				protected Path storageDirectory() {
+					return dir;
+				}
+			};
+			second.initializeService();
+			Assert.assertEquals(Status.SUCCESS, second.IDownload(captureId).getValue().getStatus());
+		} finally {
+			Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void XmlIsCompactUnlessPrettyIsAskedFor() throws MalformedURLException, IOException, JAXBException {
+		UUID sessionId = Utility.session(testClient.register());
+		testClient.lock(sessionId);
+		UUID captureId = Utility.captures(testClient.capture(sessionId)).get(0);
+		HttpURLConnection connection = (HttpURLConnection) new URL(serviceUrl + "/download/" + captureId).openConnection();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		Utility.drain(connection.getInputStream(), body);
+		Assert.assertFalse(body.toString(), body.toString().contains("\n"));
+
+		Result result = Utility.unmarshalResult(new ByteArrayInputStream(body.toByteArray()));
+		Assert.assertTrue(Utility.toBytes(Utility.wrap(result)).length < Utility.toBytes(Utility.wrap(result), OutputProfile.pretty).length);
+		Assert.assertTrue(Utility.elementToString(result).contains("\n"));
+	}
+}
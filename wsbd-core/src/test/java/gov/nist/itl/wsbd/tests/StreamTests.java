@@ -42,12 +42,19 @@
 
 package gov.nist.itl.wsbd.tests;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.imageio.ImageIO;
 import javax.xml.bind.JAXBException;
 
 import org.junit.Assert;
@@ -56,6 +63,13 @@ import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
 import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
 
 import gov.nist.itl.wsbd.service.Utility;
+import gov.nist.itl.wsbd.streaming.FrameSource;
+import gov.nist.itl.wsbd.streaming.FrameTranscoder;
+import gov.nist.itl.wsbd.streaming.Frames;
+import gov.nist.itl.wsbd.streaming.StreamBroadcaster;
+import gov.nist.itl.wsbd.streaming.StreamBroadcaster.Subscription;
+import gov.nist.itl.wsbd.streaming.StreamVariant;
+import gov.nist.itl.wsbd.streaming.VariantFrameSource;
 
 /**
  * Represents: tests that test canceling
@@ -132,6 +146,211 @@ public class StreamTests extends WSBDTest {
 		}
 	}
 	
+	@Test
+	public void lockedStreamStopsWhenLockStolen() throws MalformedURLException, IOException, JAXBException, InterruptedException {
+		UUID s = Utility.session(testClient.register());
+		UUID thief = Utility.session(testClient.register());
+		Assert.assertEquals(Status.SUCCESS, testClient.lock(s).getStatus());
+
+		InputStream stream = testClient.stream(StreamTests.lockedStrema, s);
+		byte[] buf = new byte[StreamTests.lockedStrema.length()];
+		stream.read(buf);
+		Assert.assertEquals(StreamTests.lockedStrema, new String(buf));
+
+		Thread.sleep(serviceConfiguraiton.serverConfiguration().lockStealingPreventionPeriod().toMillis() + WSBDTest.FUDGE);
+		Assert.assertEquals(Status.SUCCESS, testClient.stealLock(thief).getStatus());
+
+		// As long as this test terminates, it passes
+		while (stream.read() != -1) {
+
+		}
+	}
+
+	@Test
+	public void viewersShareOneStream() throws MalformedURLException, IOException, JAXBException, InterruptedException {
+		InputStream first = testClient.stream(StreamTests.unlockedStream);
+		byte[] buf = new byte[StreamTests.unlockedStream.length()];
+		first.read(buf);
+		Assert.assertEquals(StreamTests.unlockedStream, new String(buf));
+
+		InputStream second = testClient.stream(StreamTests.unlockedStream);
+		buf = new byte[StreamTests.unlockedStream.length()];
+		second.read(buf);
+		Assert.assertEquals(StreamTests.unlockedStream, new String(buf));
+		first.close();
+		second.close();
+		Assert.assertEquals(1, testService.streamsOpened.get());
+	}
+
+	@Test
+	public void frameRateIsLimited() throws MalformedURLException, IOException, JAXBException, InterruptedException {
+		int fps = 10;
+		int frames = 5;
+		// The clock starts before the request, since frames may already be
+		// waiting by the time the response is opened
+		long start = System.currentTimeMillis();
+		InputStream stream = testClient.stream(TestService.FRAMED_STREAM, new StreamVariant(fps, 0, 0, 0));
+		byte[] buf = new byte[TestService.FRAMED_STREAM.length()];
+		for (int i = 0; i < frames; i++) {
+			int read = 0;
+			while (read < buf.length) {
+				read += stream.read(buf, read, buf.length - read);
+			}
+			Assert.assertEquals(TestService.FRAMED_STREAM, new String(buf));
+		}
+		stream.close();
+		Assert.assertTrue(System.currentTimeMillis() - start >= (frames - 1) * 1000 / fps);
+	}
+
+	@Test
+	public void unframedStreamIsNotThinned() throws MalformedURLException, IOException, JAXBException, InterruptedException {
+		int fps = 10;
+		int frames = 50;
+		long start = System.currentTimeMillis();
+		InputStream stream = testClient.stream(StreamTests.unlockedStream, new StreamVariant(fps, 0, 0, 0));
+		byte[] buf = new byte[frames * StreamTests.unlockedStream.length()];
+		int read = 0;
+		while (read < buf.length) {
+			read += stream.read(buf, read, buf.length - read);
+		}
+		stream.close();
+		// Every piece of the stream arrives, in order, without waiting for
+		// the frame rate
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < frames; i++) {
+			expected.append(StreamTests.unlockedStream);
+		}
+		Assert.assertEquals(expected.toString(), new String(buf));
+		Assert.assertTrue(System.currentTimeMillis() - start < (frames - 1) * 1000 / fps);
+	}
+
+	@Test
+	public void variantOfUnframedSourceKeepsEveryPiece() throws IOException, InterruptedException {
+		AtomicInteger piece = new AtomicInteger();
+		StreamBroadcaster broadcaster = new StreamBroadcaster(StreamTests.unlockedStream, () -> new FrameSource() {
+
+			@Override
+			public ByteBuffer nextFrame() throws IOException {
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+				return ByteBuffer.wrap(new byte[] { (byte) piece.getAndIncrement() });
+			}
+
+			@Override
+			public boolean framed() {
+				return false;
+			}
+
+			@Override
+			public void close() throws IOException {
+			}
+		}, 1024);
+		Subscription original = broadcaster.subscribe();
+		Assert.assertFalse(original.framed());
+		VariantFrameSource variant = new VariantFrameSource(original, new StreamVariant(1, 0, 0, 0), frame -> ByteBuffer.allocate(0));
+		Assert.assertFalse(variant.framed());
+		byte first = variant.nextFrame().get();
+		for (int i = 1; i < 100; i++) {
+			Assert.assertEquals((byte) (first + i), Frames.bytes(variant.nextFrame())[0]);
+		}
+		variant.close();
+	}
+
+	@Test
+	public void transcodedFramesFitTheVariant() throws IOException {
+		BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_INT_ARGB);
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", png);
+		ByteBuffer part = Frames.multipartPart("foo", "image/png", png.toByteArray());
+
+		ByteBuffer transcoded = FrameTranscoder.transcode(part, "multipart/x-mixed-replace;boundary=foo", new StreamVariant(0, 50, 50, 30));
+		byte[] bytes = new byte[transcoded.remaining()];
+		transcoded.get(bytes);
+		String text = new String(bytes, StandardCharsets.ISO_8859_1);
+		Assert.assertTrue(text.startsWith("--foo\r\nContent-Type: image/jpeg\r\n"));
+		int body = text.indexOf("\r\n\r\n") + 4;
+		BufferedImage result = ImageIO.read(new ByteArrayInputStream(bytes, body, bytes.length - body));
+		Assert.assertEquals(50, result.getWidth());
+		Assert.assertEquals(25, result.getHeight());
+
+		// Frames which are not images are left alone
+		ByteBuffer text2 = ByteBuffer.wrap(StreamTests.unlockedStream.getBytes());
+		Assert.assertSame(text2, FrameTranscoder.transcode(text2, "text/html", new StreamVariant(0, 50, 50, 30)));
+	}
+
+	@Test
+	public void streamIsClosedBeforeItIsReopened() throws InterruptedException {
+		AtomicInteger open = new AtomicInteger();
+		AtomicInteger mostOpen = new AtomicInteger();
+		StreamBroadcaster broadcaster = new StreamBroadcaster(StreamTests.unlockedStream, () -> {
+			mostOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+			return new FrameSource() {
+
+				@Override
+				public ByteBuffer nextFrame() throws IOException {
+					try {
+						Thread.sleep(10);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return null;
+					}
+					return ByteBuffer.wrap(StreamTests.unlockedStream.getBytes());
+				}
+
+				@Override
+				public void close() throws IOException {
+					try {
+						// Closing a device takes a while
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					open.decrementAndGet();
+				}
+			};
+		}, 4);
+		Subscription first = broadcaster.subscribe();
+		Assert.assertNotNull(first.next());
+		first.close();
+		// Subscribe while the producer may still be closing the stream
+		Thread.sleep(20);
+		Subscription second = broadcaster.subscribe();
+		Assert.assertNotNull(second.next());
+		second.close();
+		Assert.assertEquals(1, mostOpen.get());
+	}
+
+	@Test
+	public void multipartStreamsAreSplitIntoParts() throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		byte[][] parts = new byte[5][];
+		for (int i = 0; i < parts.length; i++) {
+			// The data mentions the boundary, but not at the start of a line
+			parts[i] = Frames.bytes(Frames.multipartPart("foo", "image/jpeg", ("image " + i + " --foo").getBytes(StandardCharsets.US_ASCII)));
+			stream.write(parts[i]);
+		}
+		byte[] bytes = stream.toByteArray();
+		// Each read returns a few bytes, which never line up with the parts
+		InputStream in = new ByteArrayInputStream(bytes) {
+
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 7));
+			}
+		};
+		FrameSource source = FrameSource.fromInputStream(in, "multipart/x-mixed-replace;boundary=foo", 1024);
+		Assert.assertTrue(source.framed());
+		for (byte[] part : parts) {
+			Assert.assertArrayEquals(part, Frames.bytes(source.nextFrame()));
+		}
+		Assert.assertNull(source.nextFrame());
+		Assert.assertFalse(FrameSource.fromInputStream(new ByteArrayInputStream(bytes), "text/html", 1024).framed());
+	}
+
 	@Test(expected = FileNotFoundException.class)
 	public void bogusStreamFails() throws MalformedURLException, IOException, JAXBException, InterruptedException {
 		InputStream stream = testClient.stream(StreamTests.bogusStream);
@@ -4,8 +4,10 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -17,8 +19,10 @@ import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
 
 import gov.nist.itl.wsbd.configuration.ServiceConfiguration;
 import gov.nist.itl.wsbd.dictionary.DictionaryWrapper;
+import gov.nist.itl.wsbd.persistence.StorageProvider;
 import gov.nist.itl.wsbd.service.SensorService;
 import gov.nist.itl.wsbd.service.Utility;
+import gov.nist.itl.wsbd.streaming.FrameSource;
 import gov.nist.itl.wsbd.streaming.IllegalResourceException;
 
 /**
@@ -56,6 +60,15 @@ public class TestService extends SensorService {
 	 * Two thirds of the time quanta
 	 */
 	public static final int TIME_OFFSET_2_3 = 2 * TestService.TIME_INCREMENT / 3;
+	/**
+	 * The time between the frames of the live streams, in ms
+	 */
+	public static final int FRAME_TIME = 2;
+	/**
+	 * The name of the live stream whose frames stand on their own. The other
+	 * streams have no frame boundaries.
+	 */
+	public static final String FRAMED_STREAM = "birds";
 	
 	/**
 	 * The amount of time an initialization takes
@@ -92,6 +105,27 @@ public class TestService extends SensorService {
 	 * The amount of time it takes to get the capture status
 	 */
 	public volatile int getCaptureStatus = TestService.TIME_OFFSET_1_3;
+	/**
+	 * The number of times {@link #getStream(String)} has been called
+	 */
+	public final AtomicInteger streamsOpened = new AtomicInteger();
+	/**
+	 * The number of captures made by each end capture
+	 */
+	public volatile int capturesPerEndCapture = 1;
+	/**
+	 * True if the data of the last capture made by each end capture cannot be
+	 * read
+	 */
+	public volatile boolean lastCaptureUnreadable = false;
+	/**
+	 * The number of burst captures offered when a capture begins
+	 */
+	public volatile int burstCaptures = 0;
+	/**
+	 * The number of burst captures the service has accepted
+	 */
+	public final AtomicInteger burstCapturesAccepted = new AtomicInteger();
 	
 	/**
 	 * Creates: a new test sensor service with the specified configuration
@@ -124,6 +158,16 @@ public class TestService extends SensorService {
 		}
 	}
 
+	@Override
+	public StorageProvider storage() {
+		return super.storage();
+	}
+
+	@Override
+	protected int sensorJobQueueCapacity() {
+		return 2;
+	}
+
 	@Override
 	protected Result initialize() {
 		return doOp(initializationTime, () -> {
@@ -151,18 +195,41 @@ public class TestService extends SensorService {
 
 	@Override
 	protected Result beginCapture() {
-		return doOp(beginCaptureTime, () -> super.beginCapture());
+		return doOp(beginCaptureTime, () -> {
+			for (int i = 0; i < burstCaptures; i++) {
+				byte[] data = ("burst " + i).getBytes();
+				CaptureData capture = new CaptureData();
+				capture.data = new ByteArrayInputStream(data);
+				capture.size = data.length;
+				capture.contentType = "text/html";
+				if (offerBurstCapture(capture)) {
+					burstCapturesAccepted.incrementAndGet();
+				}
+			}
+			return super.beginCapture();
+		});
 	}
 	
 	@Override
 	protected Result endCapture(List<CaptureData> captureData) {
 		return doOp(endCaptureTime, () -> {
-			byte[] data = captureDataSupplier.get().getBytes();
-			CaptureData result = new CaptureData();
-			result.data = new ByteArrayInputStream(data);
-			result.size = data.length;
-			result.contentType = "text/html";
-			captureData.add(result);
+			for (int i = 0; i < capturesPerEndCapture; i++) {
+				byte[] data = captureDataSupplier.get().getBytes();
+				CaptureData result = new CaptureData();
+				result.data = new ByteArrayInputStream(data);
+				result.size = data.length;
+				result.contentType = "text/html";
+				if (lastCaptureUnreadable && i == capturesPerEndCapture - 1) {
+					result.data = new InputStream() {
+
+						@Override
+						public int read() throws IOException {
+							throw new IOException("Unreadable");
+						}
+					};
+				}
+				captureData.add(result);
+			}
 			return Utility.result(Status.SUCCESS);
 		});
 	}
@@ -247,6 +314,7 @@ public class TestService extends SensorService {
 
 	@Override
 	protected InputStream getStream(String streamName) {
+		streamsOpened.incrementAndGet();
 		byte[] data = streamName.getBytes();
 		return new InputStream() {
 
@@ -258,6 +326,48 @@ public class TestService extends SensorService {
 				index = (index + 1) % data.length;
 				return result;
 			}
+
+			/**
+			 * Behaves like a live sensor: each read returns at most the rest
+			 * of one frame (the stream name), and frames arrive at a finite
+			 * rate.
+			 */
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (index == 0) {
+					try {
+						Thread.sleep(TestService.FRAME_TIME);
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+				}
+				int read = Math.min(len, data.length - index);
+				System.arraycopy(data, index, b, off, read);
+				index = (index + read) % data.length;
+				return read;
+			}
+		};
+	}
+
+	@Override
+	protected FrameSource getFrameSource(String streamName) {
+		FrameSource source = super.getFrameSource(streamName);
+		if (source == null || !TestService.FRAMED_STREAM.equals(streamName)) {
+			return source;
+		}
+		// Each read of a stream returns one whole frame, so the frames of this
+		// stream stand on their own
+		return new FrameSource() {
+
+			@Override
+			public ByteBuffer nextFrame() throws IOException {
+				return source.nextFrame();
+			}
+
+			@Override
+			public void close() throws IOException {
+				source.close();
+			}
 		};
 	}
 	
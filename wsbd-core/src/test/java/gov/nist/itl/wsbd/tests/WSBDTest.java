@@ -59,6 +59,7 @@ import gov.nist.itl.wsbd.configuration.ServerConfiguration;
 import gov.nist.itl.wsbd.configuration.ServiceConfiguration;
 import gov.nist.itl.wsbd.dictionary.InvalidDictionaryException;
 import gov.nist.itl.wsbd.server.WSBDServer;
+import gov.nist.itl.wsbd.server.WSBDServer.WSBDServerConfiguration;
 import gov.nist.itl.wsbd.service.Utility;
 import gov.nist.itl.wsbd.streaming.IllegalResourceException;
 import gov.nist.itl.wsbd.streaming.StreamConfiguration;
@@ -84,11 +85,15 @@ public class WSBDTest {
 	/**
 	 * The server
 	 */
-	private WSBDServer server;
+	protected WSBDServer server;
 	/**
 	 * The test service
 	 */
 	protected TestService testService;
+	/**
+	 * The URL of the test service
+	 */
+	protected String serviceUrl;
 	/**
 	 * The test client
 	 */
@@ -122,9 +127,10 @@ public class WSBDTest {
 		serviceConfiguraiton = new ServiceConfiguration(serverConfiguration, sensorInformation, streamConfiguration);
 		testService = new TestService(serviceConfiguraiton);
 		testService.initializeService();
-		server = new WSBDServer(testService);
+		server = new WSBDServer(testService, WSBDServer.defaultBaseUrl, WSBDServer.defaultPort, new WSBDServerConfiguration(serverConfiguration));
 		server.start();
-		testClient = new StatelessClient(server.uri().toString() + "/" + WSBDTest.servicePath);
+		serviceUrl = server.uri().toString() + "/" + WSBDTest.servicePath;
+		testClient = new StatelessClient(serviceUrl);
 	}
 	
 	/**
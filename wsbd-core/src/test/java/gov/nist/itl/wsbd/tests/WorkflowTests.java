@@ -0,0 +1,111 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Jacob Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+
+package gov.nist.itl.wsbd.tests;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.List;
+import java.util.UUID;
+
+import javax.xml.bind.JAXBException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
+
+import gov.nist.itl.wsbd.client.StatelessClient.Step;
+import gov.nist.itl.wsbd.service.Utility;
+import gov.nist.itl.wsbd.service.WorkflowOperation;
+
+/**
+ * Represents: tests that test running workflows
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class WorkflowTests extends WSBDTest {
+
+	@Test
+	public void WholeCaptureInOneRequest() throws MalformedURLException, IOException, JAXBException {
+		String captureData = "I am a super cool capture";
+		testService.captureDataSupplier = () -> captureData;
+
+		List<Step> steps = testClient.workflow(null, WorkflowOperation.register, WorkflowOperation.lock, WorkflowOperation.capture, WorkflowOperation.download, WorkflowOperation.unlock,
+				WorkflowOperation.unregister);
+		Assert.assertEquals(6, steps.size());
+		for (Step step : steps) {
+			Assert.assertEquals(step.toString(), Status.SUCCESS, step.result().getStatus());
+		}
+		Assert.assertEquals(WorkflowOperation.download, steps.get(3).operation());
+		Assert.assertEquals(captureData, new String(steps.get(3).result().getSensorData().getValue()));
+
+		UUID session = Utility.session(steps.get(0).result());
+		Assert.assertEquals(Status.INVALID_ID, testClient.lock(session).getStatus());
+	}
+
+	@Test
+	public void WorkflowUsesTheGivenSession() throws MalformedURLException, IOException, JAXBException {
+		UUID session = Utility.session(testClient.register());
+		List<Step> steps = testClient.workflow(session, WorkflowOperation.lock, WorkflowOperation.capture);
+		Assert.assertEquals(2, steps.size());
+		Assert.assertEquals(Status.SUCCESS, steps.get(1).result().getStatus());
+		Assert.assertEquals(Status.SUCCESS, testClient.unlock(session).getStatus());
+	}
+
+	@Test
+	public void WorkflowStopsAtFirstFailure() throws MalformedURLException, IOException, JAXBException {
+		UUID session = Utility.session(testClient.register());
+		List<Step> steps = testClient.workflow(session, WorkflowOperation.capture, WorkflowOperation.lock);
+		Assert.assertEquals(1, steps.size());
+		Assert.assertEquals(Status.LOCK_NOT_HELD, steps.get(0).result().getStatus());
+		Assert.assertEquals(Status.SUCCESS, testClient.lock(session).getStatus());
+
+		steps = testClient.workflow(null, WorkflowOperation.lock);
+		Assert.assertEquals(1, steps.size());
+		Assert.assertEquals(Status.INVALID_ID, steps.get(0).result().getStatus());
+
+		steps = testClient.workflow(session, WorkflowOperation.download);
+		Assert.assertEquals(1, steps.size());
+		Assert.assertEquals(Status.INVALID_ID, steps.get(0).result().getStatus());
+	}
+}
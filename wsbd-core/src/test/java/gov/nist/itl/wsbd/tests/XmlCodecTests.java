@@ -0,0 +1,231 @@
+/*----------------------------------------------------------------------------------------------------+
+|                             National Institute of Standards and Technology                          |
+|                                        Biometric Clients Lab                                        |
++-----------------------------------------------------------------------------------------------------+
+ File author(s):
+      Kevin Mangold (kevin.mangold@nist.gov)
+      Jaocb Glueck (jacob.glueck@nist.gov)
+
++-----------------------------------------------------------------------------------------------------+
+| NOTICE & DISCLAIMER                                                                                 |
+|                                                                                                     |
+| The research software provided on this web site ("software") is provided by NIST as a public        |
+| service. You may use, copy and distribute copies of the software in any medium, provided that you   |
+| keep intact this entire notice. You may improve, modify and create derivative works of the software |
+| or any portion of the software, and you may copy and distribute such modifications or works.        |
+| Modified works should carry a notice stating that you changed the software and should note the date |
+| and nature of any such change.  Please explicitly acknowledge the National Institute of Standards   |
+| and Technology as the source of the software.                                                       |
+|                                                                                                     |
+| The software is expressly provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED,  |
+| IN FACT OR ARISING BY OPERATION OF LAW, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF      |
+| MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT AND DATA ACCURACY.  NIST        |
+| NEITHER REPRESENTS NOR WARRANTS THAT THE OPERATION OF THE SOFTWARE WILL BE UNINTERRUPTED OR         |
+| ERROR-FREE, OR THAT ANY DEFECTS WILL BE CORRECTED.  NIST DOES NOT WARRANT OR MAKE ANY               |
+| REPRESENTATIONS REGARDING THE USE OF THE SOFTWARE OR THE RESULTS THEREOF, INCLUDING BUT NOT LIMITED |
+| TO THE CORRECTNESS, ACCURACY, RELIABILITY, OR USEFULNESS OF THE SOFTWARE.                           |
+|                                                                                                     |
+| You are solely responsible for determining the appropriateness of using and distributing the        |
+| software and you assume all risks associated with its use, including but not limited to the risks   |
+| and costs of program errors, compliance with applicable laws, damage to or loss of data, programs   |
+| or equipment, and the unavailability or interruption of operation.  This software is not intended   |
+| to be used in any situation where a failure could cause risk of injury or damage to property.  The  |
+| software was developed by NIST employees.  NIST employee contributions are not subject to copyright |
+| protection within the United States.                                                                |
+|                                                                                                     |
+| Specific hardware and software products identified in this open source project were used in order   |
+| to perform technology transfer and collaboration. In no case does such identification imply         |
+| recommendation or endorsement by the National Institute of Standards and Technology, nor            |
+| does it imply that the products and equipment identified are necessarily the best available for the |
+| purpose.                                                                                            |
++----------------------------------------------------------------------------------------------------*/
+
+package gov.nist.itl.wsbd.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBException;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.SchemaFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Dictionary.Item;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Parameter;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Parameter.AllowedValues;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Result;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.Status;
+import org.oasis_open.docs.bioserv.ns.wsbd_1.StringArray;
+import org.xml.sax.SAXException;
+
+import gov.nist.itl.wsbd.client.StatelessClient;
+import gov.nist.itl.wsbd.codec.XmlCodec;
+import gov.nist.itl.wsbd.server.WSBDServer;
+import gov.nist.itl.wsbd.server.WSBDServer.WSBDServerConfiguration;
+import gov.nist.itl.wsbd.service.Utility;
+
+/**
+ * Represents: tests that check that the streaming XML codec reads and writes
+ * the same documents as JAXB
+ *
+ * @author Jacob Glueck
+ *
+ */
+public class XmlCodecTests extends WSBDTest {
+
+	@Test
+	public void CodecOutputIsReadByJaxb() throws IOException, JAXBException {
+		Result result = XmlCodecTests.fullResult();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XmlCodec.writeResult(result, out);
+		Result read = Utility.unmarshalResult(new ByteArrayInputStream(out.toByteArray()));
+		Assert.assertArrayEquals(Utility.toBytes(Utility.wrap(result)), Utility.toBytes(Utility.wrap(read)));
+	}
+
+	@Test
+	public void JaxbOutputIsReadByCodec() throws IOException {
+		Result result = XmlCodecTests.fullResult();
+		Result read = XmlCodec.readResult(new ByteArrayInputStream(Utility.toBytes(Utility.wrap(result))));
+		Assert.assertArrayEquals(Utility.toBytes(Utility.wrap(result)), Utility.toBytes(Utility.wrap(read)));
+	}
+
+	@Test
+	public void CodecOutputIsValidAndCompact() throws IOException, SAXException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XmlCodec.writeResult(XmlCodecTests.fullResult(), out);
+		SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(Paths.get("src/main/xsd/schema.xsd").toFile()).newValidator()
+				.validate(new StreamSource(new ByteArrayInputStream(out.toByteArray())));
+		String xml = new String(out.toByteArray(), StandardCharsets.UTF_8);
+		Assert.assertFalse(xml, xml.contains("\n"));
+		Assert.assertTrue(out.size() < Utility.toBytes(Utility.wrap(XmlCodecTests.fullResult())).length);
+	}
+
+	@Test
+	public void DictionariesRoundTrip() throws IOException, JAXBException {
+		Dictionary dictionary = XmlCodecTests.fullResult().getMetadata().getValue();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XmlCodec.writeDictionary(dictionary, "configuration", out);
+		Dictionary jaxb = Utility.unmarshal(new ByteArrayInputStream(out.toByteArray()), Dictionary.class);
+		Dictionary codec = XmlCodec.readDictionary(new ByteArrayInputStream(out.toByteArray()));
+		byte[] expected = Utility.toBytes(Utility.objectFactory.createConfiguration(dictionary));
+		Assert.assertArrayEquals(expected, Utility.toBytes(Utility.objectFactory.createConfiguration(jaxb)));
+		Assert.assertArrayEquals(expected, Utility.toBytes(Utility.objectFactory.createConfiguration(codec)));
+	}
+
+	@Test
+	public void SensorDataIsStreamed() throws IOException {
+		// Not a multiple of 3 or of the encoder's chunk size
+		byte[] data = new byte[1000 * 1000 + 1];
+		new Random(7).nextBytes(data);
+		Result result = XmlCodecTests.fullResult();
+		Utility.removeSensorData(result);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XmlCodec.writeResult(result, new ByteArrayInputStream(data), out);
+
+		try (XmlCodec.ResultReader reader = new XmlCodec.ResultReader(new ByteArrayInputStream(out.toByteArray()))) {
+			// The fields before the sensor data are read first
+			Assert.assertEquals(Status.SUCCESS, reader.result().getStatus());
+			Assert.assertNotNull(reader.result().getMetadata());
+			Assert.assertNull(reader.result().getSessionId());
+			ByteArrayOutputStream sensorData = new ByteArrayOutputStream();
+			Assert.assertTrue(reader.copySensorData(sensorData));
+			Assert.assertTrue(Arrays.equals(data, sensorData.toByteArray()));
+			Assert.assertEquals(result.getSessionId().getValue(), reader.result().getSessionId().getValue());
+		}
+	}
+
+	@Test
+	public void ServerCanUseTheCodec() throws IOException, JAXBException {
+		server.stop();
+		WSBDServerConfiguration configuration = new WSBDServerConfiguration(serviceConfiguraiton.serverConfiguration());
+		configuration.setStreamingXml(true);
+		server = new WSBDServer(testService, WSBDServer.defaultBaseUrl, WSBDServer.defaultPort, configuration);
+		server.start();
+		testClient = new StatelessClient(server.uri().toString() + "/" + WSBDTest.servicePath);
+		String captureData = "I am a super cool capture";
+		testService.captureDataSupplier = () -> captureData;
+
+		UUID sessionId = Utility.session(testClient.register());
+		Assert.assertEquals(Status.SUCCESS, testClient.lock(sessionId).getStatus());
+		Result capture = testClient.capture(sessionId);
+		Assert.assertEquals(Status.SUCCESS, capture.getStatus());
+		UUID captureId = Utility.captures(capture).get(0);
+		Assert.assertEquals(captureData, new String(testClient.download(captureId).getSensorData().getValue()));
+		Assert.assertEquals(captureData, new String(testClient.rawDownload(captureId)));
+		Assert.assertEquals(Status.SUCCESS, testClient.setConfiguration(sessionId, new Dictionary()).getStatus());
+		Assert.assertEquals(Status.SUCCESS, testClient.getConfiguration(sessionId).getStatus());
+	}
+
+	/**
+	 * @return a result with every field set, and metadata with every kind of
+	 *         value the codec writes itself
+	 */
+	static Result fullResult() {
+		Result result = Utility.result(Status.SUCCESS, "Everything & <more>");
+		StringArray badFields = new StringArray();
+		badFields.getElement().add("resolution");
+		result.setBadFields(Utility.objectFactory.createResultBadFields(badFields));
+		Utility.setCaptureIDs(result, Arrays.asList(UUID.randomUUID(), UUID.randomUUID()));
+		result.setSessionId(Utility.objectFactory.createResultSessionId(UUID.randomUUID().toString()));
+		result.setSensorData(Utility.objectFactory.createResultSensorData("sensor data".getBytes(StandardCharsets.UTF_8)));
+
+		Dictionary nested = new Dictionary();
+		XmlCodecTests.add(nested, "inner", 3);
+
+		Parameter parameter = new Parameter();
+		parameter.setName("resolution");
+		parameter.setType(new QName(XMLConstants.W3C_XML_SCHEMA_NS_URI, "integer", "xs"));
+		parameter.setReadOnly(false);
+		parameter.setSupportsMultiple(true);
+		parameter.setDefaultValue(BigInteger.valueOf(500));
+		AllowedValues allowedValues = new AllowedValues();
+		allowedValues.getAllowedValue().add(BigInteger.valueOf(500));
+		allowedValues.getAllowedValue().add(BigInteger.valueOf(1000));
+		parameter.setAllowedValues(Utility.objectFactory.createParameterAllowedValues(allowedValues));
+
+		Dictionary metadata = new Dictionary();
+		XmlCodecTests.add(metadata, "string", "a string");
+		XmlCodecTests.add(metadata, "integer", BigInteger.TEN);
+		XmlCodecTests.add(metadata, "int", 7);
+		XmlCodecTests.add(metadata, "long", 7L);
+		XmlCodecTests.add(metadata, "double", 1.5);
+		XmlCodecTests.add(metadata, "boolean", true);
+		XmlCodecTests.add(metadata, "date", Utility.fromInstant(Instant.now()));
+		XmlCodecTests.add(metadata, "bytes", new byte[] { 1, 2, 3 });
+		XmlCodecTests.add(metadata, "nil", null);
+		XmlCodecTests.add(metadata, "dictionary", nested);
+		XmlCodecTests.add(metadata, "parameter", parameter);
+		XmlCodecTests.add(metadata, "uuids", result.getCaptureIds().getValue());
+		Utility.setResultMetadata(result, metadata);
+		return result;
+	}
+
+	/**
+	 * Effect: adds an item to a dictionary
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 */
+	private static void add(Dictionary dictionary, String key, Object value) {
+		Item item = new Item();
+		item.setKey(key);
+		item.setValue(value);
+		dictionary.getItem().add(item);
+	}
+}
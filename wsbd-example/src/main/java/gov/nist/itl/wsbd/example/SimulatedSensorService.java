@@ -5,8 +5,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -21,6 +20,8 @@ import gov.nist.itl.wsbd.configuration.ServiceConfiguration;
 import gov.nist.itl.wsbd.dictionary.DictionaryWrapper;
 import gov.nist.itl.wsbd.service.SensorService;
 import gov.nist.itl.wsbd.service.Utility;
+import gov.nist.itl.wsbd.streaming.FrameSource;
+import gov.nist.itl.wsbd.streaming.Frames;
 import gov.nist.itl.wsbd.streaming.IllegalResourceException;
 
 /**
@@ -33,6 +34,7 @@ import gov.nist.itl.wsbd.streaming.IllegalResourceException;
 public class SimulatedSensorService extends SensorService {
 	
 	public static final int SIZE = 100;
+	public static final int FRAME_TIME = 1000 / 30;
 	public static final double K = 2 * Math.PI / (SimulatedSensorService.SIZE / 1);
 	public static final double RIPPLE_K = 2 * Math.PI / (SimulatedSensorService.SIZE / 5);
 	public static final double OMEGA = 2 * Math.PI / 5000;
@@ -123,7 +125,7 @@ public class SimulatedSensorService extends SensorService {
 	}
 
 	@Override
-	protected InputStream getStream(String streamName) {
+	protected FrameSource getFrameSource(String streamName) {
 		ImageGenerator generator;
 		if (streamName.equals("public")) {
 			generator = waveGenerator;
@@ -131,25 +133,25 @@ public class SimulatedSensorService extends SensorService {
 			generator = rippleGenerator;
 		}
 
-		try {
-			PipedOutputStream out = new PipedOutputStream();
-			PipedInputStream stream = new PipedInputStream(out);
-			Thread streamThread = new Thread(() -> {
+		// Each frame is one whole multipart part, generated when the service
+		// asks for it, so no extra thread or pipe is needed.
+		return new FrameSource() {
+
+			@Override
+			public ByteBuffer nextFrame() throws IOException {
 				try {
-					while (true) {
-						byte[] image = generator.generatePng(SimulatedSensorService.SIZE, SimulatedSensorService.SIZE);
-						out.write(("--foo\r\nContent-Type: image/pngContent-Length:\r\n" + image.length + "\r\n\r\n").getBytes());
-						out.write(image);
-					}
-				} catch (IOException e) {
-					
+					Thread.sleep(SimulatedSensorService.FRAME_TIME);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
 				}
-			});
-			streamThread.setDaemon(true);
-			streamThread.start();
-			return stream;
-		} catch (IOException e) {
-			return null;
-		}
+				byte[] image = generator.generatePng(SimulatedSensorService.SIZE, SimulatedSensorService.SIZE);
+				return Frames.multipartPart("foo", "image/png", image);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
 	}
 }
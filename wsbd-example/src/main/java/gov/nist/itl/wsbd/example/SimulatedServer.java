@@ -1,21 +1,26 @@
 package gov.nist.itl.wsbd.example;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
 import java.util.Scanner;
 import java.util.UUID;
 
 import javax.xml.bind.JAXBException;
 
 import org.oasis_open.docs.biometrics.ns.ws_bd_1.Dictionary;
-import org.oasis_open.docs.biometrics.ns.ws_bd_1.Result;
+import org.oasis_open.docs.biometrics.ns.ws_bd_1.Status;
 
 import gov.nist.itl.wsbd.client.StatelessClient;
+import gov.nist.itl.wsbd.client.StatelessClient.Step;
 import gov.nist.itl.wsbd.configuration.SensorInformation;
 import gov.nist.itl.wsbd.configuration.ServerConfiguration;
 import gov.nist.itl.wsbd.configuration.ServiceConfiguration;
 import gov.nist.itl.wsbd.dictionary.InvalidDictionaryException;
 import gov.nist.itl.wsbd.server.WSBDServer;
+import gov.nist.itl.wsbd.server.WSBDServer.WSBDServerConfiguration;
 import gov.nist.itl.wsbd.service.Utility;
+import gov.nist.itl.wsbd.service.WorkflowOperation;
 import gov.nist.itl.wsbd.streaming.IllegalResourceException;
 import gov.nist.itl.wsbd.streaming.StreamConfiguration;
 
@@ -54,20 +59,34 @@ public class SimulatedServer {
 		SimulatedSensorService service = new SimulatedSensorService(serviceConfiguraiton);
 		service.initializeService();
 		
-		// Create a new server on port 7676
-		WSBDServer server = new WSBDServer(service, "http://localhost", 7676);
+		// Create a new server on port 7676, with enough threads for the
+		// maximum number of concurrent sessions
+		WSBDServer server = new WSBDServer(service, "http://localhost", 7676, new WSBDServerConfiguration(serverConfiguration));
 		server.start();
 		System.out.println(server.uri());
 		
 		// Create a client and capture some data
 		StatelessClient client = new StatelessClient("http://localhost:7676/simulatedservice");
-		Result r = client.register();
-		UUID s = Utility.session(r);
-		System.out.println("Registered client: " + s);
-		client.lock(s);
-		System.out.println("Locked client");
-		UUID c = Utility.captures(client.capture(s)).get(0);
+		List<Step> steps = client.workflow(null, WorkflowOperation.register, WorkflowOperation.lock, WorkflowOperation.capture);
+		// The workflow stops at the first step which fails, so there may be
+		// fewer steps than operations
+		for (Step step : steps) {
+			if (step.result().getStatus() != Status.SUCCESS) {
+				System.out.println("Workflow failed at " + step.operation() + ": " + step.result().getStatus());
+				server.stop(Duration.ofSeconds(10));
+				return;
+			}
+		}
+		if (steps.size() < 3) {
+			System.out.println("Workflow returned only " + steps.size() + " steps");
+			server.stop(Duration.ofSeconds(10));
+			return;
+		}
+		UUID s = Utility.session(steps.get(0).result());
+		System.out.println("Registered and locked client: " + s);
+		UUID c = Utility.captures(steps.get(2).result()).get(0);
 		System.out.println("Captured: " + c);
+		System.out.println("Time to first request: " + server.timeToFirstRequest());
 		System.out.println("To see the capture, go to: http://localhost:7676/simulatedservice/download/" + c + "/raw");
 		System.out.println("To view a live locked stream, use: http://localhost:7676/simulatedservice/stream/locked/" + s);
 		System.out.println("To view a live unlocked stream, use: http://localhost:7676/simulatedservice/stream/public");
@@ -76,5 +95,7 @@ public class SimulatedServer {
 		try (Scanner scanner = new Scanner(System.in)) {
 			scanner.nextLine();
 		}
+		// Let the requests in progress finish
+		server.stop(Duration.ofSeconds(10));
 	}
 }